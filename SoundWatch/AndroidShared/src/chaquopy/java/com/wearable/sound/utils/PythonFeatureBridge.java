@@ -0,0 +1,111 @@
+package com.wearable.sound.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.chaquo.python.PyException;
+import com.chaquo.python.PyObject;
+import com.chaquo.python.Python;
+import com.chaquo.python.android.AndroidPlatform;
+
+import java.util.Arrays;
+
+/**
+ * Calls the Python VGGish feature code (python/main.py) through Chaquopy.
+ *
+ * {@link #extract} passes the samples as a Java short[] and gets a float[] back, instead of the
+ * original {@link #extractWithStrings} path which formats the samples with Arrays.toString and
+ * parses the "jarray('F')([...])" result with String.split and Float.parseFloat.
+ *
+ * Shared by the watch and the phone apps, each compiles it with its own Chaquopy runtime since
+ * the Chaquopy plugin cannot be applied to the AndroidShared library.
+ */
+public class PythonFeatureBridge {
+    private static final String TAG = "PythonFeatureBridge";
+
+    private final Context mContext;
+    private PyObject pythonModule;
+
+    public PythonFeatureBridge(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Lazily load python module to faster boot up processing
+     */
+    private synchronized PyObject getPythonModule() {
+        if (pythonModule == null) {
+            if (!Python.isStarted()) {
+                Python.start(new AndroidPlatform(mContext));
+            }
+            pythonModule = Python.getInstance().getModule("main");
+        }
+        return pythonModule;
+    }
+
+    /**
+     * Compute features with main.audio_samples_array, passing arrays across the bridge.
+     * @param samples window of audio samples
+     * @param features destination of the features
+     * @return number of features written to features
+     */
+    public int extract(short[] samples, float[] features) throws PyException {
+        float[] result = getPythonModule().callAttr("audio_samples_array", (Object) samples)
+                .toJava(float[].class);
+        int count = Math.min(result.length, features.length);
+        System.arraycopy(result, 0, features, 0, count);
+        return count;
+    }
+
+    /**
+     * Compute features with main.audio_samples, converting arrays to and from strings.
+     * @param samples window of audio samples
+     * @param features destination of the features
+     * @return number of features written to features
+     */
+    public int extractWithStrings(short[] samples, float[] features) throws PyException {
+        PyObject mfccFeatures = getPythonModule().callAttr("audio_samples", Arrays.toString(samples));
+
+        //Parse features into a float array
+        String inputString = mfccFeatures.toString();
+        inputString = inputString.replace("jarray('F')([", "").replace("])", "");
+        if (inputString.isEmpty()) {
+            return 0;
+        }
+        String[] inputStringArr = inputString.split(", ");
+        int count = Math.min(inputStringArr.length, features.length);
+        for (int i = 0; i < count; i++) {
+            features[i] = Float.parseFloat(inputStringArr[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Microbenchmark of the array path against the string path on a real window of audio.
+     * @param samples window of audio samples
+     * @param features scratch destination of the features
+     * @param iterations number of calls timed for each path
+     * @return average microseconds per call of both paths, as "array,<us>,string,<us>"
+     */
+    public String benchmark(short[] samples, float[] features, int iterations) throws PyException {
+        // Warm up both paths so interpreter start and module import are not measured
+        extract(samples, features);
+        extractWithStrings(samples, features);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            extract(samples, features);
+        }
+        long arrayTime = (System.nanoTime() - startTime) / iterations / 1000;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            extractWithStrings(samples, features);
+        }
+        long stringTime = (System.nanoTime() - startTime) / iterations / 1000;
+
+        String result = "array," + arrayTime + ",string," + stringTime;
+        Log.i(TAG, "Python bridge benchmark (us per window): " + result);
+        return result;
+    }
+}
@@ -0,0 +1,329 @@
+package com.wearable.sound.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import androidx.core.content.pm.PackageInfoCompat;
+
+import com.wearable.sound.core.ModelTensors;
+import com.wearable.sound.core.SoundModel;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Owns the TFLite {@link Interpreter} of the sound classifier and the CPU options it runs with.
+ *
+ * The first time a model is used on a device, every candidate {@link Config} (XNNPACK on/off,
+ * thread count, FP16 relaxation, buffer handle output) is timed on the actual model and the
+ * fastest one is saved in shared preferences, so later starts reuse it without benchmarking
+ * again. A candidate whose scores differ from those of the FP32 reference config by more than
+ * MAX_SCORE_DELTA is rejected, so FP16 is only used where it does not change the predictions.
+ * The saved config is keyed by the model file, its size and the app version, so a new model or
+ * app benchmarks again. The selection happens on the first call to {@link #getInterpreter()}, so
+ * it runs on the inference thread and not while the service or recorder is being created.
+ */
+public class InferenceEngine implements SoundModel {
+    private static final String TAG = "InferenceEngine";
+    private static final String PREFERENCES_NAME = "inference_engine";
+    private static final int[] THREAD_COUNTS = {1, 2, 4};
+    private static final int WARMUP_RUNS = 2;
+    private static final int BENCHMARK_RUNS = 5;
+    // Largest difference of a score with the FP32 reference, thresholds are 0.4 and above
+    private static final float MAX_SCORE_DELTA = 0.01f;
+    private static final long REFERENCE_SEED = 42;
+
+    /**
+     * Interpreter options that can be benchmarked and persisted.
+     */
+    public static class Config {
+        final boolean useXnnpack;
+        final int numThreads;
+        final boolean allowFp16;
+        // Only has an effect with a delegate that owns the output buffers
+        final boolean allowBufferHandleOutput;
+
+        Config(boolean useXnnpack, int numThreads, boolean allowFp16, boolean allowBufferHandleOutput) {
+            this.useXnnpack = useXnnpack;
+            this.numThreads = numThreads;
+            this.allowFp16 = allowFp16;
+            this.allowBufferHandleOutput = allowBufferHandleOutput;
+        }
+
+        Interpreter.Options toOptions() {
+            Interpreter.Options options = new Interpreter.Options();
+            options.setUseXNNPACK(useXnnpack);
+            options.setNumThreads(numThreads);
+            options.setAllowFp16PrecisionForFp32(allowFp16);
+            options.setAllowBufferHandleOutput(allowBufferHandleOutput);
+            return options;
+        }
+
+        /**
+         * @return the config saved by {@link #toString()}, or null if it cannot be parsed
+         */
+        static Config parse(String value) {
+            String[] fields = value.split(",");
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                return new Config(Boolean.parseBoolean(fields[0]), Integer.parseInt(fields[1]),
+                        Boolean.parseBoolean(fields[2]), Boolean.parseBoolean(fields[3]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return useXnnpack + "," + numThreads + "," + allowFp16 + "," + allowBufferHandleOutput;
+        }
+    }
+
+    private final Context mContext;
+    private final String modelFilename;
+    private final MappedByteBuffer model;
+    private Interpreter interpreter;
+    private Config config;
+
+    /**
+     * @param context       used to open the model and to persist the selected config
+     * @param modelFilename name of the model in the assets
+     */
+    public InferenceEngine(Context context, String modelFilename) throws IOException {
+        mContext = context;
+        this.modelFilename = modelFilename;
+        this.model = loadModelFile(context.getAssets(), modelFilename);
+    }
+
+    /**
+     * Memory-map the model file in Assets.
+     */
+    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+            throws IOException {
+        AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
+        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+        FileChannel fileChannel = inputStream.getChannel();
+        long startOffset = fileDescriptor.getStartOffset();
+        long declaredLength = fileDescriptor.getDeclaredLength();
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    }
+
+    /**
+     * @return the interpreter, created with the persisted config, or with the fastest candidate
+     * after benchmarking them if this model has not been benchmarked on this device yet
+     */
+    public synchronized Interpreter getInterpreter() {
+        if (interpreter == null) {
+            SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            String key = preferenceKey();
+            String saved = preferences.getString(key, null);
+            config = saved == null ? null : Config.parse(saved);
+            if (config == null) {
+                config = selectConfig();
+                preferences.edit().putString(key, config.toString()).apply();
+            }
+            Log.i(TAG, "Inference config for " + modelFilename + ": " + config);
+            interpreter = new Interpreter(model, config.toOptions());
+        }
+        return interpreter;
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer output) {
+        getInterpreter().run(input, output);
+    }
+
+    /**
+     * @return the config the interpreter runs with, null until {@link #getInterpreter()} is called
+     */
+    public synchronized Config getConfig() {
+        return config;
+    }
+
+    public synchronized void close() {
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
+        }
+    }
+
+    /**
+     * @return "<model file>,<model size>,<app version code>"
+     */
+    private String preferenceKey() {
+        long versionCode;
+        try {
+            versionCode = PackageInfoCompat.getLongVersionCode(
+                    mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            versionCode = -1;
+        }
+        return modelFilename + "," + model.capacity() + "," + versionCode;
+    }
+
+    /**
+     * @return the candidates, every FP32 one before the FP16 ones so the reference is FP32
+     */
+    private List<Config> candidates() {
+        List<Config> candidates = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (boolean allowFp16 : new boolean[]{false, true}) {
+            for (int numThreads : THREAD_COUNTS) {
+                if (numThreads > 1 && numThreads > cores) {
+                    continue;
+                }
+                for (boolean useXnnpack : new boolean[]{false, true}) {
+                    candidates.add(new Config(useXnnpack, numThreads, allowFp16, false));
+                    if (useXnnpack) {
+                        candidates.add(new Config(useXnnpack, numThreads, allowFp16, true));
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Time every candidate on the model and return the fastest of those whose scores match the
+     * reference config.
+     */
+    private Config selectConfig() {
+        // The first FP32 candidate that runs, one thread without XNNPACK unless it fails, gives
+        // the reference scores. Without one, FP16 cannot be checked and every FP16 candidate is
+        // rejected
+        List<Config> candidates = candidates();
+        float[] referenceScores = null;
+        Config fastest = candidates.get(0);
+        long fastestTime = Long.MAX_VALUE;
+        for (Config candidate : candidates) {
+            if (candidate.allowFp16 && referenceScores == null) {
+                Log.i(TAG, "Config " + candidate + " rejected, no FP32 reference");
+                continue;
+            }
+            Interpreter candidateInterpreter = null;
+            try {
+                candidateInterpreter = new Interpreter(model, candidate.toOptions());
+                ByteBuffer input = ByteBuffer.allocateDirect(candidateInterpreter.getInputTensor(0).numBytes())
+                        .order(ByteOrder.nativeOrder());
+                ByteBuffer output = ByteBuffer.allocateDirect(candidateInterpreter.getOutputTensor(0).numBytes())
+                        .order(ByteOrder.nativeOrder());
+                // The same features for every candidate, in the range of log mel values
+                Random random = new Random(REFERENCE_SEED);
+                while (input.remaining() >= Float.BYTES) {
+                    input.putFloat(random.nextFloat() * 8 - 6);
+                }
+                input.rewind();
+                candidateInterpreter.run(input, output);
+                float[] scores = new float[output.capacity() / Float.BYTES];
+                output.rewind();
+                output.asFloatBuffer().get(scores);
+                if (referenceScores == null) {
+                    // Not FP16, those are skipped until there is a reference
+                    referenceScores = scores;
+                } else {
+                    float delta = maxDelta(referenceScores, scores);
+                    if (delta > MAX_SCORE_DELTA) {
+                        Log.i(TAG, "Config " + candidate + " rejected, scores differ by " + delta);
+                        continue;
+                    }
+                }
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    input.rewind();
+                    output.rewind();
+                    candidateInterpreter.run(input, output);
+                }
+                long startTime = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                    input.rewind();
+                    output.rewind();
+                    candidateInterpreter.run(input, output);
+                }
+                long time = (System.nanoTime() - startTime) / BENCHMARK_RUNS / 1000;
+                Log.i(TAG, "Config " + candidate + ": " + time + "us per inference");
+                if (time < fastestTime) {
+                    fastestTime = time;
+                    fastest = candidate;
+                }
+            } catch (RuntimeException e) {
+                // Some options are not supported by every model or device
+                Log.i(TAG, "Config " + candidate + " failed: " + e);
+            } finally {
+                if (candidateInterpreter != null) {
+                    candidateInterpreter.close();
+                }
+            }
+        }
+        return fastest;
+    }
+
+    private static float maxDelta(float[] reference, float[] scores) {
+        if (reference.length != scores.length) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float delta = 0;
+        for (int i = 0; i < reference.length; i++) {
+            delta = Math.max(delta, Math.abs(reference[i] - scores[i]));
+        }
+        return delta;
+    }
+
+    /**
+     * Microbenchmark of the per-inference overhead of the nested array path against the direct
+     * buffer path of {@link ModelTensors}, including the copy of the features into the model input.
+     * @param modelTensors buffers of the classifier
+     * @param features real patch of features
+     * @param iterations number of inferences timed for each path
+     * @return average microseconds per inference of both paths, as "arrays,<us>,buffers,<us>"
+     */
+    public String benchmarkTensorIo(ModelTensors modelTensors, float[] features, int iterations) {
+        int numFrames = modelTensors.getNumFrames();
+        int numBands = modelTensors.getNumBands();
+        float[][][] input3D = new float[1][numFrames][numBands];
+        float[][] output2D = new float[1][modelTensors.getNumLabels()];
+        Interpreter interpreter = getInterpreter();
+
+        // Warm up both paths so the first allocation of the tensors is not measured
+        interpreter.run(input3D, output2D);
+        modelTensors.setInput(features);
+        modelTensors.run(this);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int count = 0;
+            for (int j = 0; j < numFrames; j++) {
+                for (int k = 0; k < numBands; k++) {
+                    input3D[0][j][k] = features[count];
+                    count++;
+                }
+            }
+            interpreter.run(input3D, output2D);
+        }
+        long arraysTime = (System.nanoTime() - startTime) / iterations / 1000;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            modelTensors.setInput(features);
+            modelTensors.run(this);
+        }
+        long buffersTime = (System.nanoTime() - startTime) / iterations / 1000;
+
+        String result = "arrays," + arraysTime + ",buffers," + buffersTime;
+        Log.i(TAG, "Tensor I/O benchmark (us per inference): " + result);
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+package com.wearable.sound.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.wearable.CapabilityClient;
+import com.google.android.gms.wearable.CapabilityInfo;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * In-memory view of the connected nodes and of the nodes providing each capability, so sending a
+ * message does not start with a round-trip to the Data Layer.
+ *
+ * The view is loaded once per process with {@link #load()}, then kept up to date by a
+ * CapabilityClient listener on every capability, registered with the wear:// prefix, and by the
+ * peer events the DataLayerListenerService forwards. Lookups only read memory and can be made
+ * from any thread.
+ */
+public class NodeRegistry implements CapabilityClient.OnCapabilityChangedListener {
+    private static final String TAG = "NodeRegistry";
+    public static final String CAPABILITY_1 = "capability_1";
+    private static final long LOAD_TIMEOUT_MILLIS = 5000;
+
+    private static NodeRegistry instance;
+
+    private final Context context;
+    private final Map<String, Set<Node>> capabilityNodes = new ConcurrentHashMap<>();
+    // Replaced as a whole, so a lookup never sees a half updated map
+    private volatile Map<String, Node> connectedNodes = Collections.emptyMap();
+    private Task<Void> loadTask;
+
+    private NodeRegistry(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the registry of the process, listening to capability changes from the first call
+     */
+    public static synchronized NodeRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new NodeRegistry(context.getApplicationContext());
+            Wearable.getCapabilityClient(instance.context)
+                    .addListener(instance, Uri.parse("wear://"), CapabilityClient.FILTER_PREFIX);
+        }
+        return instance;
+    }
+
+    /**
+     * Load the nodes and capabilities, only the first call, or the first after a failed load,
+     * queries the Data Layer.
+     * @return task that completes when the lookups are ready
+     */
+    public synchronized Task<Void> load() {
+        if (loadTask == null || (loadTask.isComplete() && !loadTask.isSuccessful())) {
+            final Task<Map<String, CapabilityInfo>> capabilitiesTask = Wearable.getCapabilityClient(context)
+                    .getAllCapabilities(CapabilityClient.FILTER_REACHABLE);
+            final Task<List<Node>> nodesTask = Wearable.getNodeClient(context).getConnectedNodes();
+            loadTask = Tasks.whenAll(capabilitiesTask, nodesTask).continueWith(task -> {
+                if (!task.isSuccessful()) {
+                    Log.e(TAG, "Failed to load nodes: " + task.getException());
+                    throw task.getException();
+                }
+                for (CapabilityInfo capabilityInfo : capabilitiesTask.getResult().values()) {
+                    setCapability(capabilityInfo);
+                }
+                setConnectedNodes(nodesTask.getResult());
+                return null;
+            });
+        }
+        return loadTask;
+    }
+
+    /**
+     * Block until the first load completes, for worker threads that cannot wait for the task.
+     * @return false if the load failed or timed out
+     */
+    @WorkerThread
+    public boolean awaitLoaded() {
+        try {
+            Tasks.await(load(), LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException exception) {
+            Log.e(TAG, "Task failed: " + exception);
+        } catch (InterruptedException exception) {
+            Log.e(TAG, "Interrupt occurred: " + exception);
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * @return ids of the connected nodes, an unmodifiable snapshot that later changes do not affect
+     */
+    public Set<String> getConnectedNodeIds() {
+        return connectedNodes.keySet();
+    }
+
+    /**
+     * @return reachable nodes providing at least one of the capabilities
+     */
+    public Set<Node> getNodes(String... capabilityNames) {
+        Set<Node> nodes = new HashSet<>();
+        for (String capabilityName : capabilityNames) {
+            Set<Node> capable = capabilityNodes.get(capabilityName);
+            if (capable != null) {
+                nodes.addAll(capable);
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    public void onCapabilityChanged(@NonNull CapabilityInfo capabilityInfo) {
+        Log.d(TAG, "Capability " + capabilityInfo.getName() + ": " + capabilityInfo.getNodes().size() + " nodes");
+        setCapability(capabilityInfo);
+        // The capabilities of a node change when it connects or disconnects
+        Wearable.getNodeClient(context).getConnectedNodes().addOnSuccessListener(this::setConnectedNodes);
+    }
+
+    public synchronized void onPeerConnected(Node node) {
+        Map<String, Node> nodes = new HashMap<>(connectedNodes);
+        nodes.put(node.getId(), node);
+        connectedNodes = Collections.unmodifiableMap(nodes);
+    }
+
+    public synchronized void onPeerDisconnected(Node node) {
+        Map<String, Node> nodes = new HashMap<>(connectedNodes);
+        nodes.remove(node.getId());
+        connectedNodes = Collections.unmodifiableMap(nodes);
+        for (Map.Entry<String, Set<Node>> entry : capabilityNodes.entrySet()) {
+            if (entry.getValue().contains(node)) {
+                Set<Node> capable = new HashSet<>(entry.getValue());
+                capable.remove(node);
+                capabilityNodes.put(entry.getKey(), Collections.unmodifiableSet(capable));
+            }
+        }
+    }
+
+    private void setCapability(CapabilityInfo capabilityInfo) {
+        capabilityNodes.put(capabilityInfo.getName(),
+                Collections.unmodifiableSet(new HashSet<>(capabilityInfo.getNodes())));
+    }
+
+    private synchronized void setConnectedNodes(List<Node> nodeList) {
+        Map<String, Node> nodes = new HashMap<>();
+        for (Node node : nodeList) {
+            nodes.put(node.getId(), node);
+        }
+        connectedNodes = Collections.unmodifiableMap(nodes);
+    }
+}
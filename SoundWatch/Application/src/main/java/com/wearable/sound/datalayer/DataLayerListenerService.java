@@ -10,17 +10,14 @@ import android.content.SharedPreferences;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.health.SystemHealthManager;
 import android.util.Log;
 
 import com.chaquo.python.PyException;
-import com.chaquo.python.PyObject;
-import com.chaquo.python.Python;
-import com.chaquo.python.android.AndroidPlatform;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.wearable.ChannelClient;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.MessageEvent;
@@ -33,17 +30,14 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.tensorflow.lite.Interpreter;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -51,20 +45,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.time.LocalTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 
-import androidx.annotation.WorkerThread;
 import androidx.core.app.NotificationCompat;
 import androidx.preference.PreferenceManager;
 
@@ -72,9 +63,30 @@ import androidx.preference.PreferenceManager;
 import com.github.nkzawa.socketio.client.IO;
 import com.github.nkzawa.socketio.client.Socket;
 import com.wearable.sound.R;
-import com.wearable.sound.models.SoundPrediction;
+import com.wearable.sound.core.AudioFrame;
+import com.wearable.sound.core.AudioFrameReader;
+import com.wearable.sound.core.AudioRingBuffer;
+import com.wearable.sound.core.CodecNegotiation;
+import com.wearable.sound.core.FrameSequence;
+import com.wearable.sound.core.LatencyStats;
+import com.wearable.sound.core.LabelTable;
+import com.wearable.sound.core.Labels;
+import com.wearable.sound.core.NoiseGate;
+import com.wearable.sound.core.PipelineStage;
+import com.wearable.sound.core.PosteriorSmoother;
+import com.wearable.sound.core.PredictionResult;
+import com.wearable.sound.core.SendQueue;
+import com.wearable.sound.core.SessionTable;
+import com.wearable.sound.core.SoundClassifier;
+import com.wearable.sound.core.SpectralFlux;
+import com.wearable.sound.core.StreamingLogMel;
+import com.wearable.sound.core.TopK;
+import com.wearable.sound.core.VggishParams;
 import com.wearable.sound.ui.activity.MainActivity;
 import com.wearable.sound.utils.Constants;
+import com.wearable.sound.utils.InferenceEngine;
+import com.wearable.sound.utils.NodeRegistry;
+import com.wearable.sound.utils.PythonFeatureBridge;
 
 import static com.wearable.sound.ui.activity.MainActivity.AUDIO_LABEL;
 import static com.wearable.sound.ui.activity.MainActivity.FOREGROUND_LABEL;
@@ -90,21 +102,38 @@ public class DataLayerListenerService extends WearableListenerService {
 
     private static final String DATA_ITEM_RECEIVED_PATH = "/data-item-received";
     private static final String AUDIO_PREDICTION_PATH = "/audio-prediction";
+    // must match with Wearable.ChannelAudioTransport
+    private static final String AUDIO_CHANNEL_PATH = "/audio_channel";
     private static final String SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH = "/SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH";
     private static final String CHANNEL_ID = "SOUNDWATCH";
 
     private static final float PREDICTION_THRES = 0.4F;
     // attempt to reduce "speech" noise predictions
     private static final float SPEECH_PREDICTION_THRES = 0.75F;
+    // Windows are classified when they rise above the noise floor of the watch, see
+    // WatchSession.noiseGate, and windows GATE_MIN_BELOW_THRESHOLD_DB below this never are. The
+    // gate keeps the background of loud rooms out by itself, a minimum at the threshold would
+    // also drop the soft sounds of quiet rooms. From the db_threshold preference, on the scale of
+    // AudioUtils.db like the watch threshold: the default 40 puts the minimum at 30, about the
+    // -60 dBFS of the watch
     private static double DBLEVEL_THRES = 40;
+    private static final double GATE_MIN_BELOW_THRESHOLD_DB = 10;
     private static final String SEND_CURRENT_BLOCKED_SOUND_PATH = "/SEND_CURRENT_BLOCKED_SOUND_PATH";
     private static final String WATCH_CONNECT_STATUS = "/WATCH_CONNECT_STATUS";
+    private static final String AUDIO_CODEC_OFFER_FROM_WATCH_PATH = "/AUDIO_CODEC_OFFER_FROM_WATCH_PATH";
+    private static final String AUDIO_CODEC_FROM_PHONE_PATH = "/AUDIO_CODEC_FROM_PHONE_PATH";
+    // must match with Wearable.Constants
+    private static final String LABEL_TABLE_REQUEST_FROM_WATCH_PATH = "/LABEL_TABLE_REQUEST_FROM_WATCH_PATH";
+    private static final String LABEL_TABLE_FROM_PHONE_PATH = "/LABEL_TABLE_FROM_PHONE_PATH";
 
     public static final String COUNT_PATH = "/count";
     public static final String SOUND_SNOOZE_FROM_WATCH_PATH = "/SOUND_SNOOZE_FROM_WATCH_PATH";
     public static final String SOUND_UNSNOOZE_FROM_WATCH_PATH = "/SOUND_UNSNOOZE_FROM_WATCH_PATH";
 
-    private Interpreter tfLite;
+    // Connected watches, kept in memory so sending a prediction does not query the Data Layer
+    private NodeRegistry nodeRegistry;
+    // Picks and persists the fastest interpreter options on first use
+    private InferenceEngine inferenceEngine;
     //    private static final String MODEL_FILENAME = "file:///android_asset/example_model.tflite";
     private static final String MODEL_FILENAME = "file:///android_asset/sw_model_v2.tflite";
     private static final String LABEL_FILENAME = "file:///android_asset/labels.txt";
@@ -113,29 +142,106 @@ public class DataLayerListenerService extends WearableListenerService {
     private static final int RECORDING_RATE = 16000; // (Hz == number of sample per second
     // note: vggish model require a buffer of minimum 5360 bytes to return a non-null result;
     //  that's equivalent to ~330ms of data with recording rate of 16kHz;
-    //  for model v2, the buffer size is intended to be ~320ms
-    // FIXME: try 16k buffer (~1sec) and average 3 predictions
-    private static final int bufferElements2Rec = 5360;
-    private final List<String> labels = new ArrayList<>();
-    private int numLabels;
+    //  for model v2, the buffer size is intended to be ~320ms, the predictions of the
+    //  windows of about 1 second are pooled, see SMOOTHING_WINDOWS
+    private static final int bufferElements2Rec = SoundClassifier.WINDOW_SAMPLES;
+    // consecutive windows start this many samples apart, they overlap when the hop is shorter
+    // than the window (see VggishParams.EXAMPLE_HOP_SECONDS)
+    private static final int windowHop = (int) Math.round(RECORDING_RATE * VggishParams.EXAMPLE_HOP_SECONDS);
+    // Model, labels and thresholds, shared with the watch
+    private SoundClassifier soundClassifier;
+    // Labels of the model, sent to the watches so predictions only carry label ids, see
+    // PredictionResult. At most MAX_PREDICTIONS_TO_WEAR ranked predictions are sent
+    private LabelTable labelTable;
+    private static final int MAX_PREDICTIONS_TO_WEAR = 5;
+    // Highest scoring labels of the last prediction, reused for every prediction
+    private final TopK topPredictions = new TopK(MAX_PREDICTIONS_TO_WEAR);
+    // Each session smooths the scores of its last SMOOTHING_WINDOWS windows, about 1 second of
+    // audio with the window hop, and a label is notified when its max rises above its threshold,
+    // then again every NOTIFY_REPEAT_MILLIS until it falls below SMOOTHING_OFFSET_RATIO of it.
+    // The max rather than the mean, which would miss sounds shorter than half of the windows.
+    // A silence longer than SMOOTHING_MAX_GAP_MILLIS starts over, see PosteriorSmoother
+    private static final PosteriorSmoother.Mode SMOOTHING_MODE = PosteriorSmoother.Mode.MAX_POOLING;
+    private static final int SMOOTHING_WINDOWS = 5;
+    private static final float SMOOTHING_OFFSET_RATIO = 0.75F;
+    private static final long SMOOTHING_MAX_GAP_MILLIS = 1000;
+    // must match with Wearable.MainActivity, which drops repeats of a label within 5 seconds
+    private static final long NOTIFY_REPEAT_MILLIS = 5000;
     //    private double dbTotal = 0;
     private int counter = 0;
 
     private SharedPreferences.OnSharedPreferenceChangeListener autoUpdate;
 
-    protected Python py;
-    PyObject pythonModule;
+    private PythonFeatureBridge pythonFeatureBridge;
+    private boolean pythonBridgeBenchmarked = false;
 
-    private static final int NUM_FRAMES = 32;  // Frames in input mel-spectrogram patch.
-    private static final int NUM_BANDS = 64;// Frequency bands in input mel-spectrogram patch.
-    private float [] input1D = new float [NUM_FRAMES * NUM_BANDS];
     //    private float [][][][] input4D = new float [1][96][64][1];
-    private float [][][] input3D = new float [1][NUM_FRAMES][NUM_BANDS];
-    private float[][] output;
-    private long recordTime;
+    private boolean tensorIoBenchmarked = false;
 
 
-    private List<Short> soundBuffer = new ArrayList<>();
+    private final short[] sData = new short[bufferElements2Rec];
+    // Audio buffers and sequence numbers of every watch streaming to the phone, keyed by node id.
+    // A watch idle for SESSION_IDLE_MILLIS loses its session, and when MAX_WATCH_SESSIONS are open
+    // the session of a new watch replaces the one idle for the longest time
+    private static final int MAX_WATCH_SESSIONS = 4;
+    private static final long SESSION_IDLE_MILLIS = 10000;
+    private final SessionTable<WatchSession> sessions = new SessionTable<>(MAX_WATCH_SESSIONS,
+            SESSION_IDLE_MILLIS, new SessionTable.Lifecycle<WatchSession>() {
+        @Override
+        public WatchSession open(String id) {
+            Log.i(TAG, "Watch session opened: " + id);
+            PosteriorSmoother smoother = new PosteriorSmoother(soundClassifier.getNumLabels(),
+                    SMOOTHING_WINDOWS, SMOOTHING_MODE, SMOOTHING_MAX_GAP_MILLIS);
+            smoother.setHysteresis(soundClassifier, SMOOTHING_OFFSET_RATIO);
+            return new WatchSession(id, smoother);
+        }
+
+        @Override
+        public void close(String id, WatchSession session) {
+            Log.i(TAG, "Watch session closed: " + id + ", " + session.getReport());
+            closeSession(session);
+        }
+    });
+    // Decoder of the audio messages, shared by the sessions since frames are decoded one at a time
+    private final AudioFrame audioFrame = new AudioFrame();
+    // Raw audio of the last frame, decoded from PCM16 or IMA-ADPCM
+    private short[] decodedSamples = new short[bufferElements2Rec];
+    // Codecs of raw audio and features the phone can decode, see CodecNegotiation
+    private static final List<String> SUPPORTED_CODECS = Arrays.asList(CodecNegotiation.IMA_ADPCM,
+            CodecNegotiation.PCM16, CodecNegotiation.FLOAT16, CodecNegotiation.INT8, CodecNegotiation.FLOAT32);
+    // Throughput and latency of the frames received through each transport, logged every
+    // TRANSPORT_REPORT_INTERVAL frames
+    private static final int TRANSPORT_REPORT_INTERVAL = 100;
+    private final LatencyStats messageStats = new LatencyStats("message", 1024);
+    private final LatencyStats channelStats = new LatencyStats("channel", 1024);
+    // Staged pipeline: the listener threads only queue the frames, the feature stage decodes them
+    // and computes the features of every window, the inference stage classifies the windows, and
+    // the predictions are sent asynchronously through predictionQueue. Each stage has its own
+    // worker and bounded queue, their reports are logged every TRANSPORT_REPORT_INTERVAL frames
+    private static final int FRAME_QUEUE_SIZE = 16;
+    // Windows of a session waiting for the inference stage, the oldest is dropped beyond it
+    private static final int SESSION_WINDOW_QUEUE_SIZE = 2;
+    private final PipelineStage<ReceivedFrame> featureStage =
+            new PipelineStage<>("FeatureStage", FRAME_QUEUE_SIZE, this::handleFrame);
+    // Queues the sessions with windows waiting rather than the windows, each session at most once,
+    // and a session with more windows goes back to the end of the queue after each prediction, so
+    // the watches take turns however fast one of them produces windows. The queue must not drop:
+    // a dropped session would stay scheduled and never be queued again. It holds each open session
+    // at most once, plus the closed sessions the worker has not skipped yet
+    private final PipelineStage<WatchSession> inferenceStage =
+            new PipelineStage<>("InferenceStage", this::predictSession);
+    // Windows the inference stage is done with, reused by the feature stage
+    private final ArrayBlockingQueue<FeatureWindow> freeWindows =
+            new ArrayBlockingQueue<>(MAX_WATCH_SESSIONS * SESSION_WINDOW_QUEUE_SIZE + 2);
+    // Predictions waiting to be sent to the watch: at most PREDICTION_MAX_IN_FLIGHT sends run,
+    // PREDICTION_QUEUE_SIZE more wait, and those older than PREDICTION_LATENCY_BUDGET_MILLIS are
+    // dropped, a late notification is worse than a missed one
+    private static final int PREDICTION_QUEUE_SIZE = 4;
+    private static final long PREDICTION_LATENCY_BUDGET_MILLIS = 1000;
+    private static final int PREDICTION_MAX_IN_FLIGHT = 2;
+    private final SendQueue<OutgoingMessage> predictionQueue = new SendQueue<>("prediction queue",
+            PREDICTION_QUEUE_SIZE, PREDICTION_LATENCY_BUDGET_MILLIS, PREDICTION_MAX_IN_FLIGHT,
+            this::sendToNode);
     private int soundSecondCounter = 0;
 
     /**
@@ -150,35 +256,20 @@ public class DataLayerListenerService extends WearableListenerService {
         } catch (URISyntaxException e) {}
     }
 
-    /** Memory-map the model file in Assets. */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
-            throws IOException {
-        AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
-    }
-
     @Override
     public void onCreate() {
         super.onCreate();
+        pythonFeatureBridge = new PythonFeatureBridge(this);
+        nodeRegistry = NodeRegistry.getInstance(this);
+        nodeRegistry.load();
         Log.i(TAG, "Architecture: " + MainActivity.ARCHITECTURE);
         Log.i(TAG, "Audio Transmission style: " + MainActivity.AUDIO_TRANMISSION_STYLE);
 
         // Load labels
         String actualLabelFilename = LABEL_FILENAME.split("file:///android_asset/", -1)[1];
-        BufferedReader br;
+        List<String> labels;
         try {
-            br = new BufferedReader(new InputStreamReader(getAssets().open(actualLabelFilename)));
-            String line;
-            while ((line = br.readLine()) != null) {
-                labels.add(line);
-            }
-            br.close();
-            this.numLabels = labels.size();
-            this.output = new float[1][numLabels];
+            labels = Labels.load(getAssets().open(actualLabelFilename));
         } catch (IOException e) {
             throw new RuntimeException("Problem reading label file of " + actualLabelFilename, e);
         }
@@ -186,10 +277,13 @@ public class DataLayerListenerService extends WearableListenerService {
         // Load model
         String actualModelFilename = MODEL_FILENAME.split("file:///android_asset/", -1)[1];
         try {
-            tfLite = new Interpreter(loadModelFile(getAssets(), actualModelFilename));
+            inferenceEngine = new InferenceEngine(this, actualModelFilename);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        soundClassifier = new SoundClassifier(inferenceEngine, labels, PREDICTION_THRES);
+        soundClassifier.setThreshold("Speech", SPEECH_PREDICTION_THRES);
+        labelTable = new LabelTable(labels);
         SharedPreferences sharedPref = PreferenceManager
                 .getDefaultSharedPreferences(this);
         DBLEVEL_THRES = sharedPref.getInt("db_threshold", 40);
@@ -197,6 +291,9 @@ public class DataLayerListenerService extends WearableListenerService {
         // Add slider for adjusting db threshold
         autoUpdate = mOnSharedPreferenceChangeListener;
         sharedPref.registerOnSharedPreferenceChangeListener(autoUpdate);
+
+        featureStage.start();
+        inferenceStage.start();
     }
 
     private final SharedPreferences.OnSharedPreferenceChangeListener
@@ -206,8 +303,28 @@ public class DataLayerListenerService extends WearableListenerService {
         }
     };
 
+    @Override
+    public void onPeerConnected(Node node) {
+        super.onPeerConnected(node);
+        nodeRegistry.onPeerConnected(node);
+        sendLabelTable(node.getId());
+    }
+
+    @Override
+    public void onPeerDisconnected(Node node) {
+        super.onPeerDisconnected(node);
+        nodeRegistry.onPeerDisconnected(node);
+        sessions.remove(node.getId());
+    }
+
     @Override
     public void onDestroy() {
+        featureStage.stop();
+        inferenceStage.stop();
+        sessions.clear();
+        if (inferenceEngine != null) {
+            inferenceEngine.close();
+        }
         super.onDestroy();
     }
 
@@ -292,6 +409,23 @@ public class DataLayerListenerService extends WearableListenerService {
             return;
         }
 
+        // the watch starts a recording and offers codecs for its raw audio
+        if (messageEvent.getPath().equals(AUDIO_CODEC_OFFER_FROM_WATCH_PATH)) {
+            String answer = CodecNegotiation.answer(new String(messageEvent.getData()), SUPPORTED_CODECS);
+            Log.i(TAG, "Phone answered audio codec offer: " + answer);
+            Wearable.getMessageClient(this)
+                    .sendMessage(messageEvent.getSourceNodeId(), AUDIO_CODEC_FROM_PHONE_PATH, answer.getBytes());
+            // a new recording, the watch may not have the labels of the predictions
+            sendLabelTable(messageEvent.getSourceNodeId());
+            return;
+        }
+
+        // the watch got a prediction for a label table it does not have
+        if (messageEvent.getPath().equals(LABEL_TABLE_REQUEST_FROM_WATCH_PATH)) {
+            sendLabelTable(messageEvent.getSourceNodeId());
+            return;
+        }
+
         // check if the watch is on and connected
         if (messageEvent.getPath().equals(WATCH_CONNECT_STATUS)) {
             String connectedStatus = new String(messageEvent.getData());
@@ -305,175 +439,181 @@ public class DataLayerListenerService extends WearableListenerService {
         }
 
         /** Parsing data array from watch **/
-        processAudioRecognition(messageEvent.getData());
+        processAudioRecognition(messageEvent.getSourceNodeId(), messageEvent.getData());
+    }
+
+    /**
+     * Send the label table of the predictions to a watch.
+     */
+    private void sendLabelTable(String nodeId) {
+        if (labelTable == null) {
+            return;
+        }
+        Log.i(TAG, "Sending label table " + Integer.toHexString(labelTable.getId()) + " to " + nodeId);
+        Wearable.getMessageClient(this).sendMessage(nodeId, LABEL_TABLE_FROM_PHONE_PATH, labelTable.encode());
+    }
+
+    @Override
+    public void onChannelOpened(ChannelClient.Channel channel) {
+        if (!channel.getPath().equals(AUDIO_CHANNEL_PATH)) {
+            return;
+        }
+        Log.i(TAG, "Audio channel opened by " + channel.getNodeId());
+        new Thread(() -> readAudioChannel(channel), "AudioChannelReader").start();
     }
 
-    public void processAudioRecognition(byte[] data) {
+    /**
+     * Read the frames streamed by the watch over an audio channel until it is closed. Runs on a
+     * dedicated thread because reading the channel blocks.
+     */
+    private void readAudioChannel(ChannelClient.Channel channel) {
+        ChannelClient channelClient = Wearable.getChannelClient(this);
+        try (InputStream inputStream = Tasks.await(channelClient.getInputStream(channel))) {
+            AudioFrameReader frameReader = new AudioFrameReader(inputStream);
+            ByteBuffer frame;
+            while ((frame = frameReader.next()) != null) {
+                // The reader reuses its buffer for the next frame
+                featureStage.offer(new ReceivedFrame(channel.getNodeId(),
+                        Arrays.copyOf(frame.array(), frame.limit()), channelStats));
+            }
+        } catch (IOException | ExecutionException e) {
+            Log.e(TAG, "Audio channel failed: " + e);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupt occurred: " + e);
+        } finally {
+            channelClient.close(channel);
+            Log.i(TAG, "Audio channel closed, " + channelStats.getReport());
+        }
+    }
+
+    /**
+     * Receive stage, queue a message from a watch for the feature stage.
+     * @param nodeId node of the watch that sent the message
+     */
+    public void processAudioRecognition(String nodeId, byte[] data) {
+        featureStage.offer(new ReceivedFrame(nodeId, data, messageStats));
+    }
+
+    /**
+     * Feature stage handler, a failing frame must not stop the stage.
+     */
+    private void handleFrame(ReceivedFrame received) {
+        try {
+            processAudioFrame(received);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to process audio frame: " + e);
+        }
+    }
+
+    /**
+     * Feature stage, decode a frame from the watch and queue the windows of audio features it
+     * completes for the inference stage, or forward them to the server. Frames from messages and
+     * from channels are handled one at a time on the worker of the stage, each in the session of
+     * the watch that sent it.
+     */
+    private void processAudioFrame(ReceivedFrame received) {
 //        Log.i(TAG, "processAudioRcognition()");
-        float[] features;
-        short[] shorts;
-        double db;
-        byte[] dbData;
-        byte[] featuresData;
-        byte[] currentTimeData;
-//        long recordTime;
-        String prediction;
+        if (!audioFrame.read(received.data)) {
+            Log.i(TAG, "Dropping audio message that is not a version " + AudioFrame.VERSION + " frame");
+            return;
+        }
+        // Latency across the watch and phone clocks, only meaningful when they are in sync
+        long now = System.currentTimeMillis();
+        LatencyStats stats = received.stats;
+        stats.record(now, received.data.length, now - audioFrame.getCaptureTime());
+        if (stats.getMessages() % TRANSPORT_REPORT_INTERVAL == 0) {
+            Log.i(TAG, "Audio transport: " + stats.getReport());
+            Log.i(TAG, "Pipeline: " + featureStage.getReport());
+            Log.i(TAG, "Pipeline: " + inferenceStage.getReport());
+            Log.i(TAG, "Pipeline: " + predictionQueue.getReport());
+            Log.i(TAG, "Watch sessions: " + sessions.getReport());
+        }
+        WatchSession session = sessions.get(received.nodeId, now);
+        int missing = session.frameSequence.accept(audioFrame.getSequence());
+        if (missing == FrameSequence.LATE) {
+            Log.i(TAG, "Dropping late audio frame " + audioFrame.getSequence() + " from " + session.nodeId);
+            return;
+        }
+        if (missing == FrameSequence.RESTARTED) {
+            Log.i(TAG, "New recording from " + session.nodeId + " at audio frame " + audioFrame.getSequence());
+        } else if (missing > 0) {
+            Log.i(TAG, missing + " audio frames lost before " + audioFrame.getSequence() + " from "
+                    + session.nodeId + ", total lost: " + session.frameSequence.getLost());
+        }
+        if (missing == FrameSequence.RESTARTED || missing > 0) {
+            // Windows must not span the gap
+            session.soundBuffer.clear();
+            session.streamingLogMel.reset();
+            session.spectralFlux.reset();
+        }
+        if (audioFrame.getType() == AudioFrame.TYPE_HEARTBEAT) {
+            // The watch sends no audio between sound events, keep gating them with the noise
+            // floor it measures
+            if (!Float.isNaN(audioFrame.getLoudness())) {
+                session.noiseGate.setNoiseFloor(audioFrame.getLoudness());
+            }
+            return;
+        }
+        if ((audioFrame.getFlags() & AudioFrame.FLAG_DISCONTINUITY) != 0) {
+            // A new sound event, windows must not join it to the previous one
+            session.soundBuffer.clear();
+            session.streamingLogMel.reset();
+            session.spectralFlux.reset();
+        }
+        session.recordTime = audioFrame.getCaptureTime();
+        long recordTime = session.recordTime;
+        double db = audioFrame.getLoudness();
         switch (MainActivity.ARCHITECTURE) {
             case MainActivity.WATCH_ONLY_ARCHITECTURE:
             case MainActivity.WATCH_SERVER_ARCHITECTURE:
                 Log.i(TAG, "Invalid architecture for phone");
                 break;
             case MainActivity.PHONE_WATCH_ARCHITECTURE:
-                switch (MainActivity.AUDIO_TRANMISSION_STYLE) {
-                    case MainActivity.AUDIO_FEATURES_TRANSMISSION:
+            case MainActivity.PHONE_WATCH_SERVER_ARCHITECTURE:
+                boolean sendToServer = MainActivity.ARCHITECTURE.equals(MainActivity.PHONE_WATCH_SERVER_ARCHITECTURE);
+                switch (audioFrame.getType()) {
+                    case AudioFrame.TYPE_FEATURES:
+                    case AudioFrame.TYPE_FEATURES_FLOAT16:
+                    case AudioFrame.TYPE_FEATURES_INT8:
                         /** Predict sound with audio features **/
                         if (TEST_E2E_LATENCY) {
-                            currentTimeData = new byte[Long.BYTES];
-                            dbData = new byte[8];
-                            featuresData = new byte[data.length - 8 - 8];
-                            System.arraycopy(data, 0, currentTimeData, 0, Long.BYTES);
-                            System.arraycopy(data, Long.BYTES, dbData, 0, 8);
-                            System.arraycopy(data, Long.BYTES + 8, featuresData, 0, featuresData.length);
-                            db = toDouble(dbData);
-                            recordTime = bytesToLong(currentTimeData);
                             Log.i(TAG, "Record time received from watch: " + recordTime);
-                            features = convertByteArrayToFloatArray(featuresData);
-                            predictSoundsFromAudioFeatures(features, db, recordTime);
                         } else {
-                            dbData = new byte[8];
-                            featuresData = new byte[data.length - 8];
-                            System.arraycopy(data, 0, dbData, 0, 8);
-                            System.arraycopy(data, 8, featuresData, 0, featuresData.length);
-                            db = toDouble(dbData);
                             Log.i(TAG, "Phone received loudness db: " + db);
-                            features = convertByteArrayToFloatArray(featuresData);
-                            predictSoundsFromAudioFeatures(features, db, null);
                         }
-                        break;
-                    case MainActivity.RAW_AUDIO_TRANSMISSION:
-                        if (TEST_E2E_LATENCY) {
-                            currentTimeData = new byte[Long.BYTES];
-                            byte[] audioData = new byte[data.length - Long.BYTES];
-                            System.arraycopy(data, 0, currentTimeData, 0, Long.BYTES);
-                            System.arraycopy(data, Long.BYTES, audioData, 0, audioData.length);
-                            recordTime = bytesToLong(currentTimeData);
-//                            Log.i(TAG, "Record time received from watch: " + recordTime);
-                            shorts = convertByteArrayToShortArray(data);
-//                            if (soundBuffer.size() == 16000) {
-//                                predictSoundsFromRawAudio();
-//                            }
-                            if (soundBuffer.size() <= bufferElements2Rec) {
-                                for (short num : shorts) {
-                                    // load up enough bufferElements2Rec samples, then predict
-                                    if (soundBuffer.size() == bufferElements2Rec) {
-//                                        if (soundSecondCounter == 1) {
-//                                            // Skip ~330ms seconds to accommodate latency
-//                                            predictSoundsFromRawAudio();
-//                                            soundSecondCounter = 0;
-//                                        } else {
-//                                            soundSecondCounter++;
-//                                            soundBuffer = new ArrayList<>();
-//                                        }
-                                        // (new model) not skipping
-                                        predictSoundsFromRawAudio();
-                                    }
-                                    soundBuffer.add(num);
-                                }
-                            }
-                        } else {
-                            //Log.i(TAG, "Buffer size: " + soundBuffer.size());
-                            shorts = convertByteArrayToShortArray(data);
-                            if (soundBuffer.size() == bufferElements2Rec) {
-                                predictSoundsFromRawAudio();
-                            }
-                            if (soundBuffer.size() < bufferElements2Rec) {
-                                for (short num : shorts) {
-                                    if (soundBuffer.size() == bufferElements2Rec) {
-//                                        if (soundSecondCounter == 1) {
-//                                            // Skip 1 seconds to accommodate latency
-//                                            predictSoundsFromRawAudio();
-//                                            soundSecondCounter = 0;
-//                                        } else {
-//                                            soundSecondCounter++;
-//                                            soundBuffer = new ArrayList<>();
-//                                        }
-                                        // (new model) not skipping
-                                        predictSoundsFromRawAudio();
-                                    }
-                                    soundBuffer.add(num);
-                                }
-                            }
+                        FeatureWindow featureWindow = obtainWindow();
+                        if (audioFrame.getFeatureCount() != featureWindow.features.length) {
+                            Log.i(TAG, "Invalid features size: " + audioFrame.getFeatureCount());
+                            freeWindows.offer(featureWindow);
+                            break;
                         }
-                        break;
-                    default:
-                        Log.i(TAG, "Bad architecture");
-                        break;
-                }
-                break;
-            case MainActivity.PHONE_WATCH_SERVER_ARCHITECTURE:
-                switch (MainActivity.AUDIO_TRANMISSION_STYLE) {
-                    case MainActivity.AUDIO_FEATURES_TRANSMISSION:
-                        /** Predict sound with audio features **/
-                        if (TEST_E2E_LATENCY) {
-                            currentTimeData = new byte[Long.BYTES];
-                            dbData = new byte[8];
-                            featuresData = new byte[data.length - 8 - 8];
-                            System.arraycopy(data, 0, currentTimeData, 0, Long.BYTES);
-                            System.arraycopy(data, Long.BYTES, dbData, 0, 8);
-                            System.arraycopy(data, Long.BYTES + 8, featuresData, 0, featuresData.length);
-                            db = toDouble(dbData);
-                            recordTime = bytesToLong(currentTimeData);
-                            Log.i(TAG, "Record time received from watch: " + recordTime);
-                            features = convertByteArrayToFloatArray(featuresData);
-                            sendSoundFeaturesToServer(features, db, recordTime);
+                        audioFrame.readFeatures(featureWindow.features);
+                        if (sendToServer) {
+                            sendSoundFeaturesToServer(featureWindow.features, db, TEST_E2E_LATENCY ? recordTime : null);
+                            freeWindows.offer(featureWindow);
                         } else {
-                            dbData = new byte[8];
-                            featuresData = new byte[data.length - 8];
-                            System.arraycopy(data, 0, dbData, 0, 8);
-                            System.arraycopy(data, 8, featuresData, 0, featuresData.length);
-                            db = toDouble(dbData);
-                            Log.i(TAG, "Phone received loudness db: " + db);
-                            features = convertByteArrayToFloatArray(featuresData);
-                            sendSoundFeaturesToServer(features, db, null);
+                            featureWindow.set(false, db, recordTime);
+                            offerWindow(session, featureWindow);
                         }
                         break;
-                    case MainActivity.RAW_AUDIO_TRANSMISSION:
-                        if (TEST_E2E_LATENCY) {
-                            currentTimeData = new byte[Long.BYTES];
-                            byte[] audioData = new byte[data.length - Long.BYTES];
-                            System.arraycopy(data, 0, currentTimeData, 0, Long.BYTES);
-                            System.arraycopy(data, Long.BYTES, audioData, 0, audioData.length);
-                            recordTime = bytesToLong(currentTimeData);
-                            Log.i(TAG, "Record time received from watch: " + recordTime);
-                            shorts = convertByteArrayToShortArray(data);
-                            if (soundBuffer.size() == bufferElements2Rec) {
-                                sendRawAudioToServer();
-                            }
-                            if (soundBuffer.size() < bufferElements2Rec) {
-                                for (short num : shorts) {
-                                    if (soundBuffer.size() == bufferElements2Rec) {
-                                        sendRawAudioToServer();
-                                    }
-                                    soundBuffer.add(num);
-                                }
-                            }
-                        } else {
-                            shorts = convertByteArrayToShortArray(data);
-                            if (soundBuffer.size() == bufferElements2Rec) {
-                                sendRawAudioToServer();
-                            }
-                            if (soundBuffer.size() < bufferElements2Rec) {
-                                for (short num : shorts) {
-                                    if (soundBuffer.size() == bufferElements2Rec) {
-                                        sendRawAudioToServer();
-                                    }
-                                    soundBuffer.add(num);
-                                }
-                            }
+                    case AudioFrame.TYPE_PCM16:
+                    case AudioFrame.TYPE_IMA_ADPCM:
+                        if (audioFrame.getSampleRate() != RECORDING_RATE) {
+                            Log.i(TAG, "Invalid sample rate: " + audioFrame.getSampleRate());
+                            break;
+                        }
+                        int sampleCount = audioFrame.getSampleCount();
+                        if (sampleCount < 0) {
+                            Log.i(TAG, "Invalid audio frame payload");
+                            break;
+                        }
+                        if (decodedSamples.length < sampleCount) {
+                            decodedSamples = new short[sampleCount];
                         }
+                        frameRawAudio(session, decodedSamples, audioFrame.readSamples(decodedSamples), sendToServer);
                         break;
                     default:
-                        Log.i(TAG, "Bad Architecture");
+                        Log.i(TAG, "Unknown audio frame type " + audioFrame.getType());
                         break;
                 }
                 break;
@@ -483,57 +623,86 @@ public class DataLayerListenerService extends WearableListenerService {
         }
     }
 
+    /**
+     * Load up bufferElements2Rec samples of raw audio, then handle a window every windowHop
+     * samples. The audio is written up to the end of each window, so the frames streamed so far
+     * end with the window being predicted.
+     * @param session session of the watch that sent the frame
+     * @param samples audio decoded from a frame of the watch
+     * @param count number of samples
+     * @param sendToServer send the windows to the server instead of predicting on the phone
+     */
+    private void frameRawAudio(WatchSession session, short[] samples, int count, boolean sendToServer) {
+        boolean streamFeatures = !sendToServer
+                && MainActivity.FEATURE_EXTRACTION_STYLE.equals(MainActivity.JAVA_FEATURE_EXTRACTION);
+        AudioRingBuffer soundBuffer = session.soundBuffer;
+        int offset = 0;
+        while (offset < count) {
+            int length = Math.min(count - offset, soundBuffer.samplesUntilWindow());
+            soundBuffer.write(samples, offset, length);
+            if (streamFeatures) {
+                session.streamingLogMel.write(samples, offset, length);
+            }
+            if (!sendToServer) {
+                session.spectralFlux.write(samples, offset, length);
+            }
+            offset += length;
+            while (soundBuffer.hasWindow()) {
+                if (sendToServer) {
+                    sendRawAudioToServer(soundBuffer.nextWindow(), session.recordTime);
+                    continue;
+                }
+                // Metered as the samples were written, a window of background noise is skipped
+                // before it is copied
+                double decibel = soundBuffer.windowDb();
+                session.noiseGate.setMinDb(DBLEVEL_THRES - GATE_MIN_BELOW_THRESHOLD_DB);
+                Log.d(TAG, "2. DB of data: " + decibel + "| DB_thresh: " + session.noiseGate.getThreshold());
+                if (session.noiseGate.accept(decibel, session.spectralFlux.takePeakFlux())) {
+                    extractWindowFeatures(session, soundBuffer.nextWindow(), decibel);
+                    continue;
+                }
+                soundBuffer.skipWindow();
+                if (TEST_E2E_LATENCY) {
+                    Log.i(TAG, "Audio < dbthreshold " + decibel);
+                    sendAudioLabelToWear(session.nodeId, PredictionResult.NO_LABEL, 1.0f, 0.0, session.recordTime);
+                }
+                Log.i(TAG, "Unrecognized Sound");
+            }
+        }
+    }
+
     /**
      * Audio Processing
      */
-    private float[] extractAudioFeatures(short[] sData) {
-        float[] result = new float [input1D.length];
+    private float[] extractAudioFeatures(WatchSession session, short[] sData, float[] result) {
         if (sData.length != bufferElements2Rec) {
             // Sanity check, because sound has to be exactly bufferElements2Rec elements
             return null;
         }
         try {
-            if (db(sData) >= DBLEVEL_THRES) {
-                Log.d(TAG, "Within threshold.");
-                //Log.i(TAG, "Time elapsed before Running chaquopy" + (System.currentTimeMillis() - recordTime));
-
-                long startTimePython = System.currentTimeMillis();
-                if (py == null || pythonModule == null) {
-                    if (!Python.isStarted()) {
-                        Python.start(new AndroidPlatform(this));
+            long startTime = System.currentTimeMillis();
+            int count;
+            switch (MainActivity.FEATURE_EXTRACTION_STYLE) {
+                case MainActivity.JAVA_FEATURE_EXTRACTION:
+                    // frames were already computed as the audio arrived
+                    count = session.streamingLogMel.snapshot(result, 0);
+                    break;
+                case MainActivity.PYTHON_FEATURE_EXTRACTION:
+                    if (TEST_MODEL_LATENCY && !pythonBridgeBenchmarked) {
+                        pythonBridgeBenchmarked = true;
+                        pythonFeatureBridge.benchmark(sData, result, 20);
                     }
-
-                    py = Python.getInstance();
-                    pythonModule = py.getModule("main");
-                    Log.i(TAG, "Time elapsed after init Python modules: " + (System.currentTimeMillis() - startTimePython));
-                }
-
-                // Get MFCC features
-//                System.out.println("Sending to python:\n" + Arrays.toString(sData));
-                System.out.println("=======sending to python array length of " + sData.length);
-                PyObject mfccFeatures = pythonModule.callAttr("audio_samples", Arrays.toString(sData));
-
-                Log.i(TAG, "Time elapsed after running Python " + (System.currentTimeMillis() - startTimePython));
-//                System.out.println("=======mfccFeatures is " + mfccFeatures.toString());
-
-                // Parse features into a float array
-                String inputString = mfccFeatures.toString();
-                inputString = inputString.replace("jarray('F')([", "").replace("])", "");
-                String[] inputStringArr = inputString.split(", ");
-                if (inputStringArr.length == 0) {
+                    count = pythonFeatureBridge.extract(sData, result);
+                    break;
+                case MainActivity.PYTHON_STRING_FEATURE_EXTRACTION:
+                    count = pythonFeatureBridge.extractWithStrings(sData, result);
+                    break;
+                default:
+                    Log.i(TAG, "Invalid feature extraction style");
                     return null;
-                }
-                System.out.println("=======inputStringArr length is " + inputStringArr.length);
-
-                for (int i = 0; i < result.length; i++) {
-                    if (inputStringArr[i].isEmpty()) {
-                        return null;
-                    }
-                    result[i] = Float.parseFloat(inputStringArr[i]);
-                }
-                return result;
             }
-            return null;
+            Log.i(TAG, "Time elapsed after extracting features " + (System.currentTimeMillis() - startTime));
+            return count == result.length ? result : null;
         } catch (PyException e) {
             Log.i(TAG, "Something went wrong parsing to MFCC feature");
             return null;
@@ -557,12 +726,15 @@ public class DataLayerListenerService extends WearableListenerService {
         }
     }
 
-    private void sendRawAudioToServer() {
+    private void sendRawAudioToServer(ShortBuffer window, long recordTime) {
         try {
+            JSONArray samples = new JSONArray();
+            for (int i = window.position(); i < window.limit(); i++) {
+                samples.put(window.get(i));
+            }
             JSONObject jsonObject = new JSONObject();
-            jsonObject.put("data", new JSONArray(soundBuffer));
+            jsonObject.put("data", samples);
             jsonObject.put("time", "" + System.currentTimeMillis());
-            soundBuffer = new ArrayList<>();
             if (TEST_E2E_LATENCY) {
                 jsonObject.put("record_time", recordTime);
             }
@@ -574,51 +746,6 @@ public class DataLayerListenerService extends WearableListenerService {
         }
     }
 
-    private short[] convertByteArrayToShortArray(byte[] bytes) {
-//        Log.i(TAG, "convertByteArrayToShortArray()");
-        short[] result = new short[bytes.length / 2];
-        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(result);
-        return result;
-    }
-
-    private float[] convertByteArrayToFloatArray(byte[] buffer) {
-        try {
-            ByteArrayInputStream bas = new ByteArrayInputStream(buffer);
-            DataInputStream ds = new DataInputStream(bas);
-            float[] fArr = new float[buffer.length / 4];  // 4 bytes per float
-            for (int i = 0; i < fArr.length; i++) {
-                fArr[i] = ds.readFloat();
-            }
-            return fArr;
-        } catch (IOException e) {
-            Log.i(TAG,"ERROR parsing bytes array to float array");
-        }
-        return null;
-    }
-
-    public static byte[] toByteArray(double value) {
-        byte[] bytes = new byte[8];
-        ByteBuffer.wrap(bytes).putDouble(value);
-        return bytes;
-    }
-
-    public static double toDouble(byte[] bytes) {
-        return ByteBuffer.wrap(bytes).getDouble();
-    }
-
-    private double db(short[] data) {
-        double rms = 0.0;
-        int dataLength = 0;
-        for (short datum : data) {
-            if (datum != 0) {
-                dataLength++;
-            }
-            rms += datum * datum;
-        }
-        rms = rms / dataLength;
-        return 10 * Math.log10(rms);
-    }
-
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel serviceChannel = new NotificationChannel(
@@ -665,23 +792,25 @@ public class DataLayerListenerService extends WearableListenerService {
      *  ---- From features
      * **/
 
-    private String predictSoundsFromAudioFeatures(float[] input1D, double db, Long recordTime) {
-        Log.i(TAG, "Predicting sounds from audio features");
-        // Resize to dimensions of model input
-//        float [][][][] input4D = new float [1][96][64][1];
-        int count = 0;
-        for (int j = 0; j < NUM_FRAMES; j++) {
-            for (int k = 0; k < NUM_BANDS; k++) {
-                input3D[0][j][k] = input1D[count];
-                count++;
-            }
+    /**
+     * With TEST_MODEL_LATENCY, compare once the nested array and direct buffer model I/O
+     */
+    private void benchmarkTensorIo(float[] features) {
+        if (TEST_MODEL_LATENCY && !tensorIoBenchmarked) {
+            tensorIoBenchmarked = true;
+            inferenceEngine.benchmarkTensorIo(soundClassifier.getModelTensors(), features, 20);
         }
+    }
+
+    private String predictSoundsFromAudioFeatures(WatchSession session, float[] input1D, double db, long recordTime) {
+        Log.i(TAG, "Predicting sounds from audio features");
+        benchmarkTensorIo(input1D);
         long startTime = 0;
         if(TEST_MODEL_LATENCY)
             startTime = System.currentTimeMillis();
 
         // Run inference
-        tfLite.run(input3D, output);
+        soundClassifier.classify(input1D);
 
         if(TEST_MODEL_LATENCY) {
             long elapsedTime = System.currentTimeMillis() - startTime;
@@ -700,359 +829,331 @@ public class DataLayerListenerService extends WearableListenerService {
             }
         }
 
-        // Find max and argmax
-        float max = output[0][0];
-        int argmax = 0;
-        if (PREDICT_MULTIPLE_SOUNDS) {
-            List<SoundPrediction> predictions = new ArrayList<>();
-            for (int i = 0; i < numLabels; i++) {
-                predictions.add(new SoundPrediction(labels.get(i), output[0][i]));
-            }
-            // Sort the predictions by value in decreasing order
-            Collections.sort(predictions, Collections.reverseOrder());
-            // Convert this map into a shape of sound=value_sound=value
-            String result = "";
-            for (SoundPrediction soundPrediction: predictions) {
-                result += soundPrediction.getLabel() + "_" + soundPrediction.getAccuracy() + ",";
-            }
-            // Strip the last ","
-            result = result.substring(0, result.length() - 1);
-            new SendAllAudioPredictionsToWearTask(result, db, recordTime).execute();
-            return result;
-        }
-        for (int i = 0; i < numLabels; i++) {
-            if (max < output[0][i]) {
-                max = output[0][i];
-                argmax = i;
-            }
-        }
-
-        if (max > PREDICTION_THRES) {
-            //Get label and confidence
-            final String prediction = labels.get(argmax);
-            final String confidence = String.format("%,.2f", max);
+        return notifySmoothedPredictions(session, db, recordTime);
+    }
 
-            if (TEST_E2E_LATENCY) {
-                new SendAudioLabelToWearTask(prediction, confidence, db, recordTime).execute();
+    /**
+     * Inference stage, smooth the predictions of the last window with those of the previous
+     * windows of the session, and send the active labels to its watch when one just became active
+     * or NOTIFY_REPEAT_MILLIS after they were last sent.
+     */
+    private String notifySmoothedPredictions(WatchSession session, double db, long recordTime) {
+        PosteriorSmoother smoother = session.smoother;
+        smoother.update(recordTime, soundClassifier);
+        if (smoother.shouldNotify(NOTIFY_REPEAT_MILLIS)) {
+            // Active labels by decreasing smoothed score
+            smoother.topK(topPredictions);
+            int label = topPredictions.getLabel(0);
+            float score = topPredictions.getScore(0);
+            if (PREDICT_MULTIPLE_SOUNDS) {
+                sendAllAudioPredictionsToWear(session.nodeId, db, recordTime);
             } else {
-                new SendAudioLabelToWearTask(prediction, confidence, db, null).execute();
-            }
-            return prediction + ": " + (Double.parseDouble(confidence) * 100) + "%                           " + LocalTime.now();
-        } else {
-            if (TEST_E2E_LATENCY) {
-                new SendAudioLabelToWearTask(UNIDENTIFIED_SOUND, "1.0", 0.0, recordTime).execute();
-                return UNIDENTIFIED_SOUND + ": " + 1.0 + "%                           " + LocalTime.now();
+                sendAudioLabelToWear(session.nodeId, label, score, db, recordTime);
             }
+            return soundClassifier.getLabel(label) + ": " + (score * 100) + "%                           " + LocalTime.now();
+        }
+        if (TEST_E2E_LATENCY && smoother.getActiveCount() == 0) {
+            Log.i(TAG, "Audio < prethreshold");
+            sendAudioLabelToWear(session.nodeId, PredictionResult.NO_LABEL, 1.0f, 0.0, recordTime);
+            return UNIDENTIFIED_SOUND + ": " + 1.0 + "%                           " + LocalTime.now();
         }
         return "Unrecognized sound" + "                           " + LocalTime.now();
     }
 
 
-    private String predictSoundsFromRawAudio() {
+    /**
+     * Feature stage, compute the features of a window of raw audio loud enough to be predicted,
+     * and queue them for the inference stage.
+     * @param decibel loudness of the window, metered as it was received, see frameRawAudio
+     */
+    private void extractWindowFeatures(WatchSession session, ShortBuffer window, double decibel) {
 //        counter++;
         Log.d(TAG, "Counter: " + counter);
-        if (soundBuffer.size() != bufferElements2Rec) {
-            soundBuffer = new ArrayList<>();
-            return "Invalid audio size";
+        if (window.remaining() != bufferElements2Rec) {
+            Log.i(TAG, "Invalid audio size");
+            return;
         }
 
-        // copy buffer to a new short array
-        short[] sData = new short[bufferElements2Rec];
-        for (int i = 0; i < soundBuffer.size(); i++) {
-            sData[i] = soundBuffer.get(i);
-        }
-        soundBuffer = new ArrayList<>();
-        System.out.println("sData length is " + sData.length);
+        // copy the window to the reusable short array
+        window.get(sData);
 
         try {
-            double decibel = db(sData);
-            Log.d(TAG, "2. DB of data: " + decibel + "| DB_thresh: " + DBLEVEL_THRES);
-            if (decibel >= DBLEVEL_THRES) {
-                // extract audio features from raw bytes
-                input1D = extractAudioFeatures(sData);
-                if (input1D == null) {
-                    return "Empty MFCC features, or something went wrong";
-                }
-                System.out.println("input1D is " + Arrays.toString(input1D));
-
-                // Resize to dimensions of model input
-                int count = 0;
-                for (int j = 0; j < NUM_FRAMES; j++) {
-                    for (int k = 0; k < NUM_BANDS; k++) {
-                        input3D[0][j][k] = input1D[count];
-                        count++;
-                    }
-                }
-
-                long startTime = 0;
-                if (TEST_MODEL_LATENCY)
-                    startTime = System.currentTimeMillis();
-                Log.i(TAG, "Elapsed time from watch to model on phone: " + (System.currentTimeMillis() - recordTime));
-
-                // Run inference
-                tfLite.run(input3D, output);
-
-                System.out.println("=====output is " + Arrays.toString(output));
-
-//                // TODO: experiment with averaging the predictions
-//                float[][][] reshapedInput = new float[3][NUM_FRAMES][NUM_BANDS];
-//                int count = 0;
-//                for (int i = 0; i < 3; i++) {
-//                    for (int j = 0; j < NUM_FRAMES; j++) {
-//                        for (int k = 0; k < NUM_BANDS; k++) {
-//                            reshapedInput[i][j][k] = input1D[count];
-//                            count++;
-//                        }
-//                    }
-//                }
-//                Map<String, List<Float>> predictionsBag = new HashMap<>();
-//                for (int i = 0; i < 3; i++) {
-//                    tfLite.run(reshapedInput[i], output);
-//
-//                    for (int j = 0; j < numLabels; j++) {
-//                        String label = labels.get(j);
-//                        if (!predictionsBag.containsKey(label)) {
-//                            predictionsBag.put(label, new ArrayList<>());
-//                        }
-//
-//                        Objects.requireNonNull(predictionsBag.get(label)).add(output[0][j]);
-//                    }
-//                }
-
-                if (PREDICT_MULTIPLE_SOUNDS) {
-                    List<SoundPrediction> predictions = new ArrayList<>();
-                    for (int i = 0; i < numLabels; i++) {
-                        predictions.add(new SoundPrediction(labels.get(i), output[0][i]));
-                    }
-//                    for (String label : predictionsBag.keySet()) {
-//                        float sumAcc = 0;
-//                        for (float acc : Objects.requireNonNull(predictionsBag.get(label))) {
-//                            sumAcc += acc;
-//                        }
-//
-//                        predictions.add(new SoundPrediction(label, sumAcc / 3));
-//                    }
-
-                    // Sort the predictions by value in decreasing order
-                    predictions.sort(Collections.reverseOrder());
-
-                    printAboveThresholdPredictions(predictions);
-
-                    // optimize: filter out predictions with accuracy > threshold to reduce the bandwidth
-                    List<SoundPrediction> filteredPredictions = predictions
-                            .stream()
-                            .filter(c -> c.getLabel().equals("Speech") ? c.getAccuracy() > SPEECH_PREDICTION_THRES : c.getAccuracy() > PREDICTION_THRES)
-                            .collect(Collectors.toList());
-
-                    // Convert this map into a shape of sound=value_sound=value
-                    if (filteredPredictions.size() > 0) {
-                        StringBuilder result = new StringBuilder();
-                        for (SoundPrediction soundPrediction : filteredPredictions) {
-                            result.append(soundPrediction.getLabel()).append("_").append(soundPrediction.getAccuracy()).append(",");
-                        }
-                        // Strip the last ","
-                        result = new StringBuilder(result.substring(0, result.length() - 1));
-
-                        // TODO: Something with DB
-                        new SendAllAudioPredictionsToWearTask(result.toString(), db(sData), recordTime).execute();
-                        return result.toString();
-                    }
-                }
-
-
-                if (TEST_MODEL_LATENCY) {
-                    long elapsedTime = System.currentTimeMillis() - startTime;
-                    Log.i(TAG, "Elasped time" + elapsedTime);
-                    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("hh:mm:ss");
-                    Date date = new Date(System.currentTimeMillis());
-                    String timeStamp = simpleDateFormat.format(date);
-                    try {
-                        Log.i(TAG, "Writing time to a file");
-                        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(openFileOutput("watch_model.txt", Context.MODE_APPEND));
-                        outputStreamWriter.write(timeStamp + "," +  Long.toString(elapsedTime) + "\n");
-                        outputStreamWriter.close();
-                    }
-                    catch (IOException e) {
-                        Log.e("Exception", "File write failed: " + e.toString());
-                    }
-                }
-
-                // Find max and argmax
-                float max = output[0][0];
-                int argmax = 0;
-                for (int i = 0; i < numLabels; i++) {
-                    if (max < output[0][i]) {
-                        max = output[0][i];
-                        argmax = i;
-                    }
-                }
-
-                if (max > PREDICTION_THRES) {
-                    //Get label and confidence
-                    final String prediction = labels.get(argmax);
-                    final String confidence = String.format("%,.2f", max);
-                    // TODO: Something with DB
-                    new SendAudioLabelToWearTask(prediction, confidence, Math.abs(db(sData)), recordTime).execute();
-                    return prediction + ": " + (Double.parseDouble(confidence) * 100) + "%                           " + LocalTime.now();
-                } else {
-                    if (TEST_E2E_LATENCY) {
-                        Log.i(TAG, "Audio < prethreshold");
-                        new SendAudioLabelToWearTask(UNIDENTIFIED_SOUND, "1.0", 0.0, recordTime).execute();
-                        return UNIDENTIFIED_SOUND + ": " + 1.0 + "%                           " + LocalTime.now();
-                    }
-                }
+            // extract audio features from raw bytes
+            FeatureWindow featureWindow = obtainWindow();
+            if (extractAudioFeatures(session, sData, featureWindow.features) == null) {
+                Log.i(TAG, "Empty MFCC features, or something went wrong");
+                freeWindows.offer(featureWindow);
+                return;
             }
+            featureWindow.set(true, decibel, session.recordTime);
+            offerWindow(session, featureWindow);
         } catch (PyException e) {
             Log.i(TAG, "Something went wrong parsing to MFCC feature");
-            return "Something went wrong parsing to MFCC feature";
         }
+    }
 
-        if (TEST_E2E_LATENCY) {
-            Log.i(TAG, "Audio < dbthreshold " + db(sData));
-            new SendAudioLabelToWearTask(UNIDENTIFIED_SOUND, "1.0", 0.0, recordTime).execute();
-        }
-        Log.i(TAG, "Unrecognized Sound");
-        return "Unrecognized sound" + "                           " + LocalTime.now();
+    /**
+     * @return a window for the features of the next prediction, reused when possible
+     */
+    private FeatureWindow obtainWindow() {
+        FeatureWindow featureWindow = freeWindows.poll();
+        return featureWindow != null ? featureWindow : new FeatureWindow();
     }
 
-    public class SendAudioLabelToWearTask extends AsyncTask<Void, Void, Void> {
-        private String prediction;
-        private String confidence;
-        private String db;
-        private Long recordTime;
-
-        public SendAudioLabelToWearTask(String prediction, String confidence, double db, Long recordTime) {
-            this.prediction = prediction;
-            this.confidence = confidence;
-            this.db = Double.toString(db);
-            if (recordTime == null) {
-                this.recordTime = null;
-            } else {
-                this.recordTime = recordTime;
-            }
-        }
-        @Override
-        protected Void doInBackground(Void... args) {
-            Collection<String> nodes = getNodes();
-            String result;
-            if (TEST_E2E_LATENCY) {
-                result = prediction + "," + confidence + "," + LocalTime.now() + "," + db + "," + recordTime;
-            } else {
-                result = prediction + "," + confidence + "," + LocalTime.now() + "," + db;
+    /**
+     * Feature stage, queue a window of a session for the inference stage, and queue the session
+     * unless it is already waiting.
+     */
+    private void offerWindow(WatchSession session, FeatureWindow featureWindow) {
+        boolean schedule;
+        synchronized (session) {
+            if (session.closed) {
+                freeWindows.offer(featureWindow);
+                return;
             }
-            Log.i(TAG, "Number of connected devices: " + nodes.size());
-            for (String node : nodes) {
-                Log.i(TAG, "Sending sound prediction: " + result);
-                sendMessageWithData(node, AUDIO_PREDICTION_PATH, result.getBytes());
+            if (session.windows.size() == SESSION_WINDOW_QUEUE_SIZE) {
+                freeWindows.offer(session.windows.poll());
+                session.droppedWindows++;
             }
-            return null;
+            session.windows.offer(featureWindow);
+            schedule = !session.scheduled;
+            session.scheduled = true;
+        }
+        if (schedule) {
+            inferenceStage.offer(session);
         }
     }
 
-    public class SendAllAudioPredictionsToWearTask extends AsyncTask<Void, Void, Void> {
-        private String result;
-        private String db;
-        private Long recordTime;
-
-        public SendAllAudioPredictionsToWearTask(String result, double db, Long recordTime) {
-            this.db = Double.toString(db);
-            this.result = result;
-            if (recordTime == null) {
-                this.recordTime = null;
-            } else {
-                this.recordTime = recordTime;
+    /**
+     * Inference stage, predict the sounds of the oldest window of a session and send the
+     * predictions to its watch, then queue the session again if it has more windows.
+     */
+    private void predictSession(WatchSession session) {
+        FeatureWindow featureWindow;
+        synchronized (session) {
+            featureWindow = session.windows.poll();
+            if (featureWindow == null) {
+                session.scheduled = false;
+                return;
             }
         }
-
-        @Override
-        protected Void doInBackground(Void... args) {
-            Collection<String> nodes = getNodes();
-            String result;
-            if (TEST_E2E_LATENCY) {
-                result = this.result + ";" + LocalTime.now() + ";" + db + ";" + recordTime;
+        try {
+            if (featureWindow.fromRawAudio) {
+                predictSoundsFromRawAudio(session, featureWindow.features, featureWindow.db,
+                        featureWindow.recordTime);
             } else {
-                result = this.result + ";" + LocalTime.now() + ";" + db;
+                predictSoundsFromAudioFeatures(session, featureWindow.features, featureWindow.db,
+                        featureWindow.recordTime);
             }
-            Log.i(TAG, "Number of connected devices:" + nodes.size());
-            for (String node : nodes) {
-                Log.i(TAG, "Sending sound prediction: " + result);
-                sendMessageWithData(node, SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH, result.getBytes());
+            session.predictions++;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to predict audio window: " + e);
+        } finally {
+            freeWindows.offer(featureWindow);
+        }
+        boolean schedule;
+        synchronized (session) {
+            schedule = !session.windows.isEmpty();
+            session.scheduled = schedule;
+        }
+        if (schedule) {
+            inferenceStage.offer(session);
+        }
+    }
+
+    /**
+     * Release the windows of a session closed by the session table, the inference stage skips it
+     * if it is still queued.
+     */
+    private void closeSession(WatchSession session) {
+        synchronized (session) {
+            session.closed = true;
+            FeatureWindow featureWindow;
+            while ((featureWindow = session.windows.poll()) != null) {
+                freeWindows.offer(featureWindow);
             }
-            return null;
         }
     }
 
-    @WorkerThread
-    private Collection<String> getNodes() {
-        HashSet<String> results = new HashSet<>();
+    private String predictSoundsFromRawAudio(WatchSession session, float[] features, double decibel, long recordTime) {
+        benchmarkTensorIo(features);
 
-        Task<List<Node>> nodeListTask =
-                Wearable.getNodeClient(getApplicationContext()).getConnectedNodes();
+        long startTime = 0;
+        if (TEST_MODEL_LATENCY)
+            startTime = System.currentTimeMillis();
+        Log.i(TAG, "Elapsed time from watch to model on phone: " + (System.currentTimeMillis() - recordTime));
 
-        try {
-            // Block on a task and get the result synchronously (because this is on a background
-            // thread).
-            List<Node> nodes = Tasks.await(nodeListTask);
+        // Run inference
+        soundClassifier.classify(features);
 
-            for (Node node : nodes) {
-                results.add(node.getId());
+        if (TEST_MODEL_LATENCY) {
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            Log.i(TAG, "Elasped time" + elapsedTime);
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat("hh:mm:ss");
+            Date date = new Date(System.currentTimeMillis());
+            String timeStamp = simpleDateFormat.format(date);
+            try {
+                Log.i(TAG, "Writing time to a file");
+                OutputStreamWriter outputStreamWriter = new OutputStreamWriter(openFileOutput("watch_model.txt", Context.MODE_APPEND));
+                outputStreamWriter.write(timeStamp + "," +  Long.toString(elapsedTime) + "\n");
+                outputStreamWriter.close();
             }
+            catch (IOException e) {
+                Log.e("Exception", "File write failed: " + e.toString());
+            }
+        }
 
-        } catch (ExecutionException exception) {
-            Log.e(TAG, "Task failed: " + exception);
-
-        } catch (InterruptedException exception) {
-            Log.e(TAG, "Interrupt occurred: " + exception);
+        if (PREDICT_MULTIPLE_SOUNDS) {
+            printAboveThresholdPredictions();
         }
+        // TODO: Something with DB
+        return notifySmoothedPredictions(session, decibel, recordTime);
+    }
 
-        return results;
+    /**
+     * Dispatch stage, queue a prediction for the watch that sent the audio.
+     * @param labelId label of the prediction, or PredictionResult.NO_LABEL for an unidentified sound
+     */
+    private void sendAudioLabelToWear(String nodeId, int labelId, float score, double db, long recordTime) {
+        sendToWear(nodeId, AUDIO_PREDICTION_PATH,
+                PredictionResult.encode(labelTable.getId(), recordTime, (float) db, labelId, score));
+    }
+
+    /**
+     * Dispatch stage, queue topPredictions for the watch that sent the audio.
+     */
+    private void sendAllAudioPredictionsToWear(String nodeId, double db, long recordTime) {
+        sendToWear(nodeId, SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH,
+                PredictionResult.encode(labelTable.getId(), recordTime, (float) db, topPredictions));
     }
 
-    @WorkerThread
-    private void sendMessageWithData(String node, String title, byte[] data) {
-        Task<Integer> sendMessageTask =
-                Wearable.getMessageClient(this)
-                        .sendMessage(node, title, data);
+    private void sendToWear(String nodeId, String path, byte[] result) {
+        Log.i(TAG, "Sending sound prediction to " + nodeId + ": " + result.length + " bytes");
+        predictionQueue.offer(new OutgoingMessage(nodeId, path, result), System.currentTimeMillis());
+    }
 
-        try {
-            // Block on a task and get the result synchronously (because this is on a background
-            // thread).
-            Integer result = Tasks.await(sendMessageTask);
-            Log.e(TAG, "Message sent: " + result);
+    /**
+     * Sender of predictionQueue, start sending a message to its watch without blocking. Only
+     * the watch that sent the audio gets the prediction, other watches hear other sounds. A
+     * watch that disconnected in the meantime fails the send, which completes the message too.
+     */
+    private void sendToNode(OutgoingMessage message) {
+        Wearable.getMessageClient(this)
+                .sendMessage(message.nodeId, message.path, message.data)
+                .addOnCompleteListener(task -> {
+                    if (!task.isSuccessful()) {
+                        Log.e(TAG, "Task failed: " + task.getException());
+                    }
+                    onSentToWear();
+                });
+    }
+
+    /**
+     * Called when a message of predictionQueue was sent, successfully or not.
+     */
+    private void onSentToWear() {
+        predictionQueue.complete(System.currentTimeMillis());
+    }
 
-        } catch (ExecutionException exception) {
-            Log.e(TAG, "Task failed: " + exception);
+    /**
+     * Frame received from the watch, waiting for the feature stage.
+     */
+    private static class ReceivedFrame {
+        // Node of the watch that sent the frame
+        final String nodeId;
+        final byte[] data;
+        // Throughput and latency of the transport the frame came from
+        final LatencyStats stats;
+
+        ReceivedFrame(String nodeId, byte[] data, LatencyStats stats) {
+            this.nodeId = nodeId;
+            this.data = data;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Features of a window, waiting for the inference stage.
+     */
+    private static class FeatureWindow {
+        final float[] features = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+        // Computed on the phone from raw audio, or sent by the watch
+        boolean fromRawAudio;
+        double db;
+        long recordTime;
 
-        } catch (InterruptedException exception) {
-            Log.e(TAG, "Interrupt occurred: " + exception);
+        void set(boolean fromRawAudio, double db, long recordTime) {
+            this.fromRawAudio = fromRawAudio;
+            this.db = db;
+            this.recordTime = recordTime;
         }
     }
 
-    public byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.putLong(x);
-        return buffer.array();
+    /**
+     * Audio state of a watch streaming to the phone, see sessions. The buffers are only used by
+     * the feature stage, the windows are shared with the inference stage under the session lock.
+     */
+    private static class WatchSession {
+        final String nodeId;
+        final AudioRingBuffer soundBuffer = new AudioRingBuffer(bufferElements2Rec, windowHop, bufferElements2Rec * 4);
+        // Computes log mel frames as raw audio arrives from the watch
+        final StreamingLogMel streamingLogMel = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+        // Sequence numbers of the frames seen so far
+        final FrameSequence frameSequence = new FrameSequence();
+        // Onsets and noise floor of the audio of the watch, to skip the windows of background noise
+        final SpectralFlux spectralFlux = new SpectralFlux(RECORDING_RATE);
+        final NoiseGate noiseGate = new NoiseGate(DBLEVEL_THRES - GATE_MIN_BELOW_THRESHOLD_DB);
+        // Capture time of the last frame
+        long recordTime;
+        // Scores of the last windows, only used by the inference stage
+        final PosteriorSmoother smoother;
+        // Windows waiting for the inference stage, and whether the session is queued in it
+        final ArrayDeque<FeatureWindow> windows = new ArrayDeque<>(SESSION_WINDOW_QUEUE_SIZE);
+        boolean scheduled;
+        boolean closed;
+        long droppedWindows;
+        volatile long predictions;
+
+        WatchSession(String nodeId, PosteriorSmoother smoother) {
+            this.nodeId = nodeId;
+            this.smoother = smoother;
+        }
+
+        synchronized String getReport() {
+            return "frames " + frameSequence.getReceived() + ", lost " + frameSequence.getLost()
+                    + ", late " + frameSequence.getLate() + ", restarts " + frameSequence.getRestarts()
+                    + ", predictions " + predictions
+                    + ", dropped windows " + droppedWindows + ", noise gate " + noiseGate.getReport();
+        }
     }
 
-    public long bytesToLong(byte[] bytes) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.put(bytes);
-        buffer.flip();//need flip
-        return buffer.getLong();
+    /**
+     * Prediction waiting in predictionQueue.
+     */
+    private static class OutgoingMessage {
+        // Node of the watch the prediction is for
+        final String nodeId;
+        final String path;
+        final byte[] data;
+
+        OutgoingMessage(String nodeId, String path, byte[] data) {
+            this.nodeId = nodeId;
+            this.path = path;
+            this.data = data;
+        }
     }
 
     /**
-     * For testing, given a list of predictions, printing out all labels whose accuracy > threshold
+     * For testing, printing out all labels of the last prediction whose accuracy > 0.2
      *  in a single line
-     * @param predictions: list of predictions returned by the tflite model
      */
-    private void printAboveThresholdPredictions(List<SoundPrediction> predictions) {
+    private void printAboveThresholdPredictions() {
         StringBuilder singleLine = new StringBuilder();
         int count = 0;
-        for (SoundPrediction prediction : predictions) {
-            if (prediction.getAccuracy() >= 0.2) {
+        for (int i = 0; i < soundClassifier.getNumLabels(); i++) {
+            if (soundClassifier.getScore(i) >= 0.2) {
                 count++;
-                singleLine.append(prediction.getLabel()).append("_").append(prediction.getAccuracy()).append(";");
+                singleLine.append(soundClassifier.getLabel(i)).append("_").append(soundClassifier.getScore(i)).append(";");
             }
         }
         if (count > 0) {
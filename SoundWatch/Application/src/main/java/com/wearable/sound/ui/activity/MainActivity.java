@@ -76,7 +76,6 @@ import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.CapabilityClient;
 import com.google.android.gms.wearable.CapabilityInfo;
 import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
@@ -86,6 +85,7 @@ import com.wearable.sound.datalayer.DataLayerListenerService;
 import com.wearable.sound.R;
 import com.wearable.sound.models.SoundNotification;
 import com.wearable.sound.utils.Constants;
+import com.wearable.sound.utils.NodeRegistry;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -108,7 +108,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -153,6 +152,16 @@ public class MainActivity extends AppCompatActivity
     public static final String AUDIO_FEATURES_TRANSMISSION = "AUDIO_FEATURES_TRANSMISSION";
     public static final String AUDIO_TRANMISSION_STYLE = RAW_AUDIO_TRANSMISSION;
 
+    /**
+     * Audio features extraction configuration
+     * Python runs the original numpy VGGish code through Chaquopy, Java runs LogMelSpectrogram
+     * Python string is the old Chaquopy path that converts arrays to and from strings
+     */
+    public static final String JAVA_FEATURE_EXTRACTION = "JAVA_FEATURE_EXTRACTION";
+    public static final String PYTHON_FEATURE_EXTRACTION = "PYTHON_FEATURE_EXTRACTION";
+    public static final String PYTHON_STRING_FEATURE_EXTRACTION = "PYTHON_STRING_FEATURE_EXTRACTION";
+    public static final String FEATURE_EXTRACTION_STYLE = JAVA_FEATURE_EXTRACTION;
+
     /**
      * Phone Watch Architecture configuration ONLY!!!
      * [ EXPERIMENTAL ]
@@ -1014,30 +1023,14 @@ public class MainActivity extends AppCompatActivity
 //                });
 //    }
 
+    /**
+     * @return connected nodes, from memory once the registry is loaded
+     */
     @WorkerThread
     private Collection<String> getNodes() {
-        HashSet<String> results = new HashSet<>();
-
-        Task<List<Node>> nodeListTask =
-                Wearable.getNodeClient(getApplicationContext()).getConnectedNodes();
-
-        try {
-            // Block on a task and get the result synchronously (because this is on a background
-            // thread).
-            List<Node> nodes = Tasks.await(nodeListTask);
-
-            for (Node node : nodes) {
-                results.add(node.getId());
-            }
-
-        } catch (ExecutionException exception) {
-            Log.e(TAG, "Task failed: " + exception);
-
-        } catch (InterruptedException exception) {
-            Log.e(TAG, "Interrupt occurred: " + exception);
-        }
-
-        return results;
+        NodeRegistry nodeRegistry = NodeRegistry.getInstance(this);
+        nodeRegistry.awaitLoaded();
+        return nodeRegistry.getConnectedNodeIds();
     }
 
     /**
@@ -17,4 +17,16 @@ def audio_samples(x):
     # Calculate MFCC features
     x = waveform_to_examples(x, RATE)
 
-    return jarray(jfloat) (x.reshape(-1))
\ No newline at end of file
+    return jarray(jfloat) (x.reshape(-1))
+
+
+def audio_samples_array(x):
+    # x is a Java short[] passed as a jarray, read it directly without going through a string
+    x = np.asarray(x, dtype=np.float64)
+    x = x / 32768.0 #Convert to [-1.0, +1.0]
+
+    # Calculate MFCC features
+    x = waveform_to_examples(x, RATE)
+
+    # Returned as a float[] that Java converts with toJava(float[].class)
+    return jarray(jfloat) (x.reshape(-1))
@@ -13,7 +13,7 @@ MEL_MIN_HZ = 125
 MEL_MAX_HZ = 7500
 LOG_OFFSET = 0.01  # Offset used for stabilized log of input mel-spectrogram.
 EXAMPLE_WINDOW_SECONDS = 0.32  # Each example contains NUM_FRAMES 10ms frames
-EXAMPLE_HOP_SECONDS = 0.32     # with zero overlap.
+EXAMPLE_HOP_SECONDS = 0.16     # with 50% overlap.
 
 PCA_EIGEN_VECTORS_NAME = 'pca_eigen_vectors'
 PCA_MEANS_NAME = 'pca_means'
@@ -0,0 +1,88 @@
+package com.wearable.sound;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.wearable.sound.core.CodecComparison;
+import com.wearable.sound.core.Labels;
+import com.wearable.sound.core.SoundClassifier;
+import com.wearable.sound.core.VggishParams;
+import com.wearable.sound.utils.InferenceEngine;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs recorded audio through the shipped model, from the original audio and from each codec the
+ * watch can negotiate, and checks that the codecs keep the predictions. Run on a phone with a
+ * recording of the watch, a 16kHz 16-bit little-endian PCM file such as its audiorecord.pcm,
+ * pushed to the external files of the app, or elsewhere with the pcm runner argument:
+ *
+ * adb push audiorecord.pcm /sdcard/Android/data/com.wearable.sound/files/
+ * ./gradlew :Application:connectedAndroidTest
+ *
+ * The test is skipped without a recording.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CodecAccuracyTest {
+    private static final String TAG = "CodecAccuracyTest";
+    private static final String MODEL_FILENAME = "sw_model_v2.tflite";
+    private static final String LABEL_FILENAME = "labels.txt";
+    private static final String VOICE_FILE_NAME = "audiorecord.pcm";
+    private static final float PREDICTION_THRES = 0.4F;
+    private static final int BATCH_MILLIS = 160;
+    // Windows whose prediction above threshold may change with a codec
+    private static final double MIN_SAME_PREDICTION = 0.95;
+
+    @Test
+    public void codecsKeepThePredictionsOfTheShippedModel() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        File pcm = arguments.getString("pcm") != null
+                ? new File(arguments.getString("pcm"))
+                : new File(context.getExternalFilesDir(null), VOICE_FILE_NAME);
+        assumeTrue("No recording at " + pcm, pcm.exists());
+
+        List<String> labels = Labels.load(context.getAssets().open(LABEL_FILENAME));
+        InferenceEngine inferenceEngine = new InferenceEngine(context, MODEL_FILENAME);
+        try {
+            SoundClassifier classifier = new SoundClassifier(inferenceEngine, labels, PREDICTION_THRES);
+            CodecComparison[] comparisons = CodecComparison.replay(readPcm(pcm),
+                    VggishParams.SAMPLE_RATE * BATCH_MILLIS / 1000, classifier);
+            for (CodecComparison comparison : comparisons) {
+                Log.i(TAG, comparison.getReport());
+            }
+            for (CodecComparison comparison : comparisons) {
+                assertTrue(comparison.getReport(), comparison.getWindows() > 0
+                        && comparison.getSameDetectionRatio() >= MIN_SAME_PREDICTION);
+            }
+        } finally {
+            inferenceEngine.close();
+        }
+    }
+
+    private static short[] readPcm(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            input.readFully(bytes);
+        }
+        short[] samples = new short[bytes.length / 2];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+}
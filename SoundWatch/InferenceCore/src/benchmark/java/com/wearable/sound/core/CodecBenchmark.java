@@ -0,0 +1,141 @@
+package com.wearable.sound.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Replays audio through the IMA-ADPCM raw audio path and the FLOAT16 and INT8 feature codings,
+ * and measures their size, speed and how much they change the features, run with
+ * ./gradlew :InferenceCore:codecBenchmark [-Ppcm=audiorecord.pcm].
+ *
+ * The audio is a 16kHz 16-bit little-endian PCM file, such as the audiorecord.pcm the watch
+ * writes while recording, or a synthetic mix of tones, noise and silence. It is coded in frames
+ * of BATCH_MILLIS like the watch sends it, and the log mel features of every window of the
+ * decoded audio and of the quantized features are compared with those of the original audio.
+ * The shipped model does not run on the desktop JVM, the predictions are compared on a phone by
+ * the instrumented CodecAccuracyTest of the Application module, see {@link CodecComparison}.
+ */
+public class CodecBenchmark {
+    private static final int SECONDS = 60;
+    private static final int BATCH_MILLIS = 160;
+    private static final int QUANTIZE_RUNS = 1000;
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        short[] audio = args.length > 0 ? readPcm(args[0]) : syntheticAudio(random);
+        int sampleRate = VggishParams.SAMPLE_RATE;
+
+        // Code the audio frame by frame, as the watch sends it
+        int frameSamples = sampleRate * BATCH_MILLIS / 1000;
+        short[] decoded = new short[audio.length];
+        ImaAdpcm encoder = new ImaAdpcm();
+        AudioFrame frame = new AudioFrame();
+        long encodedBytes = 0;
+        long encodeTime = 0;
+        long decodeTime = 0;
+        short[] frameOut = new short[frameSamples];
+        for (int offset = 0; offset < audio.length; offset += frameSamples) {
+            int length = Math.min(frameSamples, audio.length - offset);
+            long startTime = System.nanoTime();
+            byte[] message = AudioFrame.encodeImaAdpcm(0, 0, sampleRate, Float.NaN,
+                    ShortBuffer.wrap(audio, offset, length), encoder);
+            encodeTime += System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            frame.read(message);
+            int count = frame.readSamples(frameOut);
+            decodeTime += System.nanoTime() - startTime;
+            System.arraycopy(frameOut, 0, decoded, offset, count);
+            encodedBytes += message.length;
+        }
+        double seconds = (double) audio.length / sampleRate;
+        System.out.printf("audio: %.1f s, PCM16 %d bytes/s, IMA-ADPCM %d bytes/s with headers%n",
+                seconds, 2 * sampleRate, Math.round(encodedBytes / seconds));
+        System.out.printf("encode %.0f us, decode %.0f us per second of audio%n",
+                encodeTime / seconds / 1000, decodeTime / seconds / 1000);
+        System.out.printf("SNR: %.1f dB%n", snr(audio, decoded));
+
+        // Time the feature codings on one window, then compare every window of the coded versions
+        float[] features = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+        float[] restored = new float[features.length];
+        new LogMelSpectrogram().waveformToExamples(audio, 0, SoundClassifier.WINDOW_SAMPLES, features);
+        FeatureQuantizer quantizer = new FeatureQuantizer();
+        ByteBuffer float16 = ByteBuffer.allocate(FeatureQuantizer.float16Size(features.length));
+        ByteBuffer int8 = ByteBuffer.allocate(FeatureQuantizer.int8Size(features.length));
+        long startTime = System.nanoTime();
+        for (int i = 0; i < QUANTIZE_RUNS; i++) {
+            float16.clear();
+            quantizer.encodeFloat16(features, 0, features.length, float16);
+            float16.flip();
+            quantizer.decodeFloat16(float16, restored, 0, restored.length);
+            int8.clear();
+            quantizer.encodeInt8(features, 0, features.length, int8);
+            int8.flip();
+            quantizer.decodeInt8(int8, restored, 0, restored.length);
+        }
+        long quantizeTime = (System.nanoTime() - startTime) / QUANTIZE_RUNS;
+        System.out.printf("features: FLOAT32 %d bytes, FLOAT16 %d bytes, INT8 %d bytes per window, "
+                        + "quantize and restore both %.0f us per window%n",
+                features.length * Float.BYTES, float16.capacity(), int8.capacity(), quantizeTime / 1000.0);
+
+        CodecComparison[] comparisons = CodecComparison.replay(audio, frameSamples, null);
+        System.out.printf("windows: %d%n", comparisons[0].getWindows());
+        for (CodecComparison comparison : comparisons) {
+            System.out.println(comparison.getReport());
+        }
+    }
+
+    static short[] readPcm(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        short[] samples = new short[bytes.length / 2];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    /**
+     * Alternate one second segments of tones, noise bursts, speech-like modulated tones and
+     * near silence, so the codec is tested on both loud and quiet audio.
+     */
+    private static short[] syntheticAudio(Random random) {
+        int sampleRate = VggishParams.SAMPLE_RATE;
+        short[] audio = new short[sampleRate * SECONDS];
+        for (int i = 0; i < audio.length; i++) {
+            int second = i / sampleRate;
+            double t = (double) i / sampleRate;
+            double value;
+            switch (second % 4) {
+                case 0:
+                    value = 8000 * Math.sin(2 * Math.PI * (440 + 40 * second) * t)
+                            + 3000 * Math.sin(2 * Math.PI * 3100 * t);
+                    break;
+                case 1:
+                    value = random.nextGaussian() * 4000;
+                    break;
+                case 2:
+                    value = 6000 * Math.sin(2 * Math.PI * 180 * t) * (0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t))
+                            + random.nextGaussian() * 300;
+                    break;
+                default:
+                    value = random.nextGaussian() * 20;
+                    break;
+            }
+            audio[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+        return audio;
+    }
+
+    private static double snr(short[] original, short[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < original.length; i++) {
+            signal += (double) original[i] * original[i];
+            double error = original[i] - decoded[i];
+            noise += error * error;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+}
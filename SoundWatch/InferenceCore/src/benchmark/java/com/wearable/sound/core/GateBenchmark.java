@@ -0,0 +1,313 @@
+package com.wearable.sound.core;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays audio through the fixed loudness thresholds and the {@link NoiseGate}, and reports the
+ * windows each one skips and the events it misses, run with
+ * ./gradlew :InferenceCore:gateBenchmark [-Ppcm=audiorecord.pcm].
+ *
+ * The background is a 16kHz 16-bit little-endian PCM file, such as the audiorecord.pcm the watch
+ * writes while recording, or ten minutes in a few rooms from quiet to loud. Short
+ * tones, knocks and chirps are mixed into it every few seconds at EVENT_SNR_DB above the local
+ * background, so the events are known. The audio is read in READ_SAMPLES chunks and framed into
+ * windows like the apps do, and an event is missed when no window covering half of it passes.
+ *
+ * The same audio then goes through the {@link AudioSegmenter} of the watch, which reports the
+ * audio it sends to the phone, and an event is missed when less than half of it is sent.
+ */
+public class GateBenchmark {
+    private static final int SECONDS = 600;
+    private static final int READ_SAMPLES = 640;
+    private static final double[] EVENT_SNR_DB = {-5, 0, 5, 10, 20};
+    private static final double PHONE_DEFAULT_DB = 40;
+    // The phone gates from 10 dB below its db_threshold preference, see DataLayerListenerService
+    private static final double PHONE_GATE_MIN_DB = PHONE_DEFAULT_DB - 10;
+    private static final double WATCH_MIN_DBFS = -60;
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        int sampleRate = VggishParams.SAMPLE_RATE;
+        short[] background = args.length > 0 ? CodecBenchmark.readPcm(args[0]) : syntheticBackground(random);
+        List<int[]> events = new ArrayList<>();
+        short[] audio = mixEvents(background, random, events);
+        System.out.printf("audio: %.1f s, events: %d%n", (double) audio.length / sampleRate, events.size());
+
+        Gate[] gates = {
+                new Gate("fixed 40 dB (phone default)", null, PHONE_DEFAULT_DB),
+                new Gate("fixed -40 dBFS", null, AudioUtils.fromDbfs(-40)),
+                new Gate("noise gate, min 30 dB (phone)", new NoiseGate(PHONE_GATE_MIN_DB), 0),
+                new Gate("noise gate, min -60 dBFS (watch)",
+                        new NoiseGate(AudioUtils.fromDbfs(WATCH_MIN_DBFS)), 0),
+        };
+
+        int windowSize = SoundClassifier.WINDOW_SAMPLES;
+        int hopSize = (int) Math.round(sampleRate * VggishParams.EXAMPLE_HOP_SECONDS);
+        AudioRingBuffer soundBuffer = new AudioRingBuffer(windowSize, hopSize, windowSize * 4);
+        SpectralFlux spectralFlux = new SpectralFlux(sampleRate);
+        List<double[]> windows = new ArrayList<>();
+        long meterTime = 0;
+        long windowEnd = 0;
+        for (int read = 0; read < audio.length; read += READ_SAMPLES) {
+            int readEnd = Math.min(audio.length, read + READ_SAMPLES);
+            int offset = read;
+            while (offset < readEnd) {
+                int length = Math.min(readEnd - offset, soundBuffer.samplesUntilWindow());
+                long startTime = System.nanoTime();
+                soundBuffer.write(audio, offset, length);
+                spectralFlux.write(audio, offset, length);
+                meterTime += System.nanoTime() - startTime;
+                offset += length;
+                windowEnd += length;
+                while (soundBuffer.hasWindow()) {
+                    long start = windowEnd - soundBuffer.available();
+                    startTime = System.nanoTime();
+                    double db = soundBuffer.windowDb();
+                    double flux = spectralFlux.takePeakFlux();
+                    soundBuffer.skipWindow();
+                    meterTime += System.nanoTime() - startTime;
+                    windows.add(new double[]{start, db, flux});
+                }
+            }
+        }
+        System.out.printf("windows: %d, meter and flux %.0f ns per window%n", windows.size(),
+                (double) meterTime / windows.size());
+
+        for (Gate gate : gates) {
+            boolean[] passed = new boolean[windows.size()];
+            long startTime = System.nanoTime();
+            for (int i = 0; i < passed.length; i++) {
+                double[] window = windows.get(i);
+                passed[i] = gate.accept(window[1], window[2]);
+            }
+            long gateTime = System.nanoTime() - startTime;
+            gate.print(passed, windows, events, windowSize, gateTime);
+        }
+        segment(audio, events, windowSize);
+    }
+
+    /**
+     * Replay the audio through the AudioSegmenter of the watch, with its pre-roll, hangover and
+     * heartbeat defaults.
+     */
+    private static void segment(short[] audio, List<int[]> events, int windowSize) {
+        int sampleRate = VggishParams.SAMPLE_RATE;
+        final boolean[] sent = new boolean[audio.length / SpectralFlux.BLOCK_SAMPLES + 1];
+        final int[] messages = new int[1];
+        AudioSegmenter segmenter = new AudioSegmenter(sampleRate, AudioUtils.fromDbfs(WATCH_MIN_DBFS),
+                AudioSegmenter.DEFAULT_PRE_ROLL_MILLIS, AudioSegmenter.DEFAULT_HANGOVER_MILLIS, windowSize,
+                AudioSegmenter.DEFAULT_HEARTBEAT_MILLIS, new AudioSegmenter.Sink() {
+            @Override
+            public void send(ShortBuffer samples, long captureTime, long energy, int voiced, boolean start) {
+                sent[(int) (captureTime * sampleRate / 1000 / SpectralFlux.BLOCK_SAMPLES)] = true;
+            }
+
+            @Override
+            public void end() {
+                messages[0]++;
+            }
+
+            @Override
+            public void heartbeat(long time, double noiseFloor) {
+                messages[0]++;
+            }
+        });
+        long startTime = System.nanoTime();
+        for (int read = 0; read < audio.length; read += READ_SAMPLES) {
+            int length = Math.min(audio.length - read, READ_SAMPLES);
+            segmenter.write(ShortBuffer.wrap(audio, read, length), (long) read * 1000 / sampleRate);
+        }
+        segmenter.flush();
+        long segmentTime = System.nanoTime() - startTime;
+
+        int[] missed = new int[EVENT_SNR_DB.length];
+        int[] total = new int[EVENT_SNR_DB.length];
+        int allMissed = 0;
+        for (int[] event : events) {
+            total[event[2]]++;
+            int sentSamples = 0;
+            for (int i = event[0]; i < event[0] + event[1]; i++) {
+                if (sent[i / SpectralFlux.BLOCK_SAMPLES]) {
+                    sentSamples++;
+                }
+            }
+            if (sentSamples < event[1] / 2) {
+                missed[event[2]]++;
+                allMissed++;
+            }
+        }
+        StringBuilder bySnr = new StringBuilder();
+        for (int i = 0; i < EVENT_SNR_DB.length; i++) {
+            bySnr.append(String.format(" %+.0f dB %.0f%%", EVENT_SNR_DB[i], 100.0 * missed[i] / Math.max(1, total[i])));
+        }
+        System.out.printf("sound events sent by the watch, min %.0f dBFS:%n", WATCH_MIN_DBFS);
+        System.out.printf("  sent %.1f%% of the audio, %d segments and heartbeats, %.1f ns per sample%n",
+                100 * segmenter.getSentRatio(), messages[0], (double) segmentTime / audio.length);
+        System.out.printf("  missed %.1f%% of events, by SNR:%s%n", 100.0 * allMissed / events.size(), bySnr);
+        System.out.printf("  %s%n", segmenter.getReport());
+    }
+
+    private static class Gate {
+        private final String name;
+        private final NoiseGate noiseGate;
+        private final double fixedDb;
+
+        Gate(String name, NoiseGate noiseGate, double fixedDb) {
+            this.name = name;
+            this.noiseGate = noiseGate;
+            this.fixedDb = fixedDb;
+        }
+
+        boolean accept(double db, double flux) {
+            return noiseGate != null ? noiseGate.accept(db, flux) : db >= fixedDb;
+        }
+
+        void print(boolean[] passed, List<double[]> windows, List<int[]> events, int windowSize, long gateTime) {
+            int passedCount = 0;
+            int backgroundWindows = 0;
+            int backgroundPassed = 0;
+            for (int i = 0; i < passed.length; i++) {
+                long start = (long) windows.get(i)[0];
+                boolean background = true;
+                for (int[] event : events) {
+                    if (covers(start, windowSize, event)) {
+                        background = false;
+                        break;
+                    }
+                }
+                if (passed[i]) {
+                    passedCount++;
+                }
+                if (background) {
+                    backgroundWindows++;
+                    if (passed[i]) {
+                        backgroundPassed++;
+                    }
+                }
+            }
+            int[] missed = new int[EVENT_SNR_DB.length];
+            int[] total = new int[EVENT_SNR_DB.length];
+            for (int[] event : events) {
+                total[event[2]]++;
+                boolean detected = false;
+                for (int i = 0; i < passed.length && !detected; i++) {
+                    detected = passed[i] && covers((long) windows.get(i)[0], windowSize, event);
+                }
+                if (!detected) {
+                    missed[event[2]]++;
+                }
+            }
+            int allMissed = 0;
+            StringBuilder bySnr = new StringBuilder();
+            for (int i = 0; i < EVENT_SNR_DB.length; i++) {
+                allMissed += missed[i];
+                bySnr.append(String.format(" %+.0f dB %.0f%%", EVENT_SNR_DB[i], 100.0 * missed[i] / Math.max(1, total[i])));
+            }
+            System.out.printf("%s:%n", name);
+            System.out.printf("  skipped %.1f%% of windows, %.1f%% of background windows, %.0f ns per window%n",
+                    100.0 * (passed.length - passedCount) / passed.length,
+                    100.0 * (backgroundWindows - backgroundPassed) / Math.max(1, backgroundWindows),
+                    (double) gateTime / passed.length);
+            System.out.printf("  missed %.1f%% of events, by SNR:%s%n", 100.0 * allMissed / events.size(), bySnr);
+            if (noiseGate != null) {
+                System.out.printf("  %s%n", noiseGate.getReport());
+            }
+        }
+    }
+
+    /**
+     * @return true if the window covers at least half of the event, or half of the window is in it
+     */
+    private static boolean covers(long windowStart, int windowSize, int[] event) {
+        long overlap = Math.min(windowStart + windowSize, event[0] + event[1]) - Math.max(windowStart, event[0]);
+        return overlap >= Math.min(event[1], windowSize) / 2;
+    }
+
+    /**
+     * Mix an event every 2 to 6 seconds into a copy of the background.
+     * @param events receives the start, length and SNR index of each event
+     */
+    private static short[] mixEvents(short[] background, Random random, List<int[]> events) {
+        int sampleRate = VggishParams.SAMPLE_RATE;
+        short[] audio = background.clone();
+        int start = sampleRate * 2;
+        while (true) {
+            int length = (int) (sampleRate * (0.15 + 0.85 * random.nextDouble()));
+            if (start + length >= audio.length) {
+                break;
+            }
+            // Loudness of the background around the event
+            int from = Math.max(0, start - sampleRate / 2);
+            int to = Math.min(audio.length, start + length + sampleRate / 2);
+            double power = 0;
+            for (int i = from; i < to; i++) {
+                power += (double) background[i] * background[i];
+            }
+            power = Math.max(power / (to - from), 1);
+            int snr = random.nextInt(EVENT_SNR_DB.length);
+            double amplitude = Math.sqrt(power * Math.pow(10, EVENT_SNR_DB[snr] / 10));
+            int type = random.nextInt(3);
+            double frequency = 300 + 2700 * random.nextDouble();
+            double phase = 0;
+            double[] event = new double[length];
+            double eventPower = 0;
+            for (int i = 0; i < length; i++) {
+                double t = (double) i / sampleRate;
+                double value;
+                switch (type) {
+                    case 0:
+                        // Beep with a harmonic
+                        value = Math.sin(2 * Math.PI * frequency * t) + 0.5 * Math.sin(4 * Math.PI * frequency * t);
+                        break;
+                    case 1:
+                        // Knocks, decaying noise bursts every 150ms
+                        value = random.nextGaussian() * Math.exp(-(t % 0.15) * 40);
+                        break;
+                    default:
+                        // Chirp
+                        phase += 2 * Math.PI * frequency * (1 + 2 * t) / sampleRate;
+                        value = Math.sin(phase);
+                        break;
+                }
+                event[i] = value;
+                eventPower += value * value;
+            }
+            double gain = amplitude / Math.sqrt(eventPower / length);
+            for (int i = 0; i < length; i++) {
+                double value = audio[start + i] + event[i] * gain;
+                audio[start + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            }
+            events.add(new int[]{start, length, snr});
+            start += length + sampleRate * (2 + random.nextInt(5));
+        }
+        return audio;
+    }
+
+    /**
+     * A minute at a time: a quiet room, a living room, an office with a fan hum, a loud street,
+     * with the level drifting by a few dB within each minute.
+     */
+    private static short[] syntheticBackground(Random random) {
+        int sampleRate = VggishParams.SAMPLE_RATE;
+        double[] levels = {40, 150, 400, 1500};
+        short[] audio = new short[sampleRate * SECONDS];
+        double lowPass = 0;
+        for (int i = 0; i < audio.length; i++) {
+            int minute = i / (sampleRate * 60);
+            double t = (double) i / sampleRate;
+            double level = levels[minute % levels.length] * (1 + 0.3 * Math.sin(2 * Math.PI * t / 17));
+            // Mostly low frequency noise, like most rooms
+            lowPass += 0.2 * (random.nextGaussian() - lowPass);
+            double value = level * (2 * lowPass + 0.3 * random.nextGaussian());
+            if (minute % levels.length == 2) {
+                value += level * 0.5 * Math.sin(2 * Math.PI * 120 * t);
+            }
+            audio[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+        return audio;
+    }
+}
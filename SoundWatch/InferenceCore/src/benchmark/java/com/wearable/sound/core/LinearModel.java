@@ -0,0 +1,36 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Stand-in for the TFLite model on the desktop JVM, with the same input and output shapes. One
+ * weight per input value and label, enough to read every input and write every output.
+ */
+class LinearModel implements SoundModel {
+    private final float[] weights;
+
+    LinearModel(int inputSize, int numLabels, Random random) {
+        weights = new float[inputSize * numLabels];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) random.nextGaussian() * 0.01f;
+        }
+    }
+
+    @Override
+    public void run(ByteBuffer input, ByteBuffer output) {
+        FloatBuffer in = input.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        FloatBuffer out = output.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int inputSize = in.remaining();
+        int numLabels = out.remaining();
+        for (int label = 0; label < numLabels; label++) {
+            float sum = 0;
+            for (int i = 0; i < inputSize; i++) {
+                sum += in.get(i) * weights[label * inputSize + i];
+            }
+            out.put(label, (float) (1 / (1 + Math.exp(-sum))));
+        }
+    }
+}
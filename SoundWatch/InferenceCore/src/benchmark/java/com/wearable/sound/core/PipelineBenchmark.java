@@ -0,0 +1,90 @@
+package com.wearable.sound.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Desktop benchmark of the shared pipeline, run with ./gradlew :InferenceCore:benchmark.
+ *
+ * The TFLite model only runs on Android, so the classifier is timed with a linear model of the
+ * same input and output shapes. The numbers measure the Java side of the pipeline, not the model.
+ */
+public class PipelineBenchmark {
+    private static final int NUM_LABELS = 30;
+    private static final int SECONDS = 60;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        short[] audio = new short[VggishParams.SAMPLE_RATE * SECONDS];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (short) (random.nextGaussian() * 3000);
+        }
+        int windowSize = SoundClassifier.WINDOW_SAMPLES;
+        int hopSize = (int) Math.round(VggishParams.SAMPLE_RATE * VggishParams.EXAMPLE_HOP_SECONDS);
+        int windows = (audio.length - windowSize) / hopSize + 1;
+
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < NUM_LABELS; i++) {
+            labels.add("Label " + i);
+        }
+        SoundClassifier classifier = new SoundClassifier(
+                new LinearModel(SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS, NUM_LABELS, random),
+                labels, 0.5f);
+        LogMelSpectrogram logMelSpectrogram = new LogMelSpectrogram();
+        float[] features = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+        int[] ranking = new int[NUM_LABELS];
+        TopK topPredictions = new TopK(5);
+
+        System.out.println("windows of " + windowSize + " samples every " + hopSize + " samples");
+        for (int round = 0; round < ROUNDS; round++) {
+            // Whole patch computed when each window fills
+            long startTime = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                logMelSpectrogram.waveformToExamples(audio, w * hopSize, windowSize, features);
+            }
+            long batchTime = (System.nanoTime() - startTime) / windows / 1000;
+
+            // Frames computed as the audio arrives, snapshotted when each window fills
+            StreamingLogMel streamingLogMel = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+            AudioRingBuffer ringBuffer = new AudioRingBuffer(windowSize, hopSize, windowSize * 4);
+            startTime = System.nanoTime();
+            int offset = 0;
+            while (offset < audio.length) {
+                int length = Math.min(audio.length - offset, ringBuffer.samplesUntilWindow());
+                ringBuffer.write(audio, offset, length);
+                streamingLogMel.write(audio, offset, length);
+                offset += length;
+                while (ringBuffer.hasWindow()) {
+                    ringBuffer.nextWindow();
+                    streamingLogMel.snapshot(features, 0);
+                }
+            }
+            long streamingTime = (System.nanoTime() - startTime) / windows / 1000;
+
+            startTime = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                classifier.classify(features);
+                classifier.rank(true, ranking);
+            }
+            long classifyTime = (System.nanoTime() - startTime) / windows / 1000;
+
+            // Every label sorted, against the top 5 selected, on the scores of the last window
+            startTime = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                classifier.rank(false, ranking);
+            }
+            long rankTime = (System.nanoTime() - startTime) / windows;
+            startTime = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                classifier.topK(false, topPredictions);
+            }
+            long topKTime = (System.nanoTime() - startTime) / windows;
+
+            System.out.println("round " + round + " (us per window): batch features " + batchTime
+                    + ", streaming features " + streamingTime + ", classify and rank " + classifyTime
+                    + " (ns per window: rank " + rankTime + ", top 5 " + topKTime + ")");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.wearable.sound.core;
+
+import java.nio.ShortBuffer;
+import java.util.Locale;
+
+/**
+ * Groups consecutive chunks of audio into larger messages, so the watch sends a few messages per
+ * second instead of one per microphone read.
+ *
+ * A batch is sent when it holds maxLatencyMillis of audio, which is the longest time the first
+ * sample of a batch waits before being sent, or when it reaches maxBytes of PCM, whichever comes
+ * first. A maxLatencyMillis of 0 sends every chunk on its own. A chunk that does not fit in the
+ * rest of the batch starts the next one, so batches end on chunk boundaries unless a chunk alone
+ * is larger than maxBytes.
+ *
+ * The loudness of a batch is summed from the energy of its chunks, which the caller metered as
+ * the audio was captured, so the samples are not read again to send them. The energy of a chunk
+ * split over several batches is shared between them in proportion to their samples.
+ *
+ * Not thread-safe: chunks must be added and flushed by a single thread.
+ */
+public class AudioBatcher {
+
+    /**
+     * Receives the batches.
+     */
+    public interface Sink {
+        /**
+         * @param samples     samples of the batch between position and limit, only valid during
+         *                    the call
+         * @param captureTime capture time of the first chunk of the batch
+         * @param db          loudness of the batch, see {@link AudioUtils#db(long, int)}
+         */
+        void send(ShortBuffer samples, long captureTime, double db);
+    }
+
+    private final Sink sink;
+    private final short[] batch;
+    private final ShortBuffer batchView;
+    private final int maxSamples;
+    private int count = 0;
+    private long firstCaptureTime;
+    private long energy = 0;
+    private int voiced = 0;
+
+    private long startTime = -1;
+    private long lastCaptureTime;
+    private long messages = 0;
+    private long bytes = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    /**
+     * @param sampleRate       sample rate of the audio, in Hz
+     * @param maxLatencyMillis audio buffered before a batch is sent, in milliseconds
+     * @param maxBytes         maximum size of the PCM of a batch, in bytes
+     * @param sink             receives the batches
+     */
+    public AudioBatcher(int sampleRate, int maxLatencyMillis, int maxBytes, Sink sink) {
+        if (maxLatencyMillis < 0 || maxBytes < Short.BYTES) {
+            throw new IllegalArgumentException("Invalid batch size: latency=" + maxLatencyMillis
+                    + "ms, bytes=" + maxBytes);
+        }
+        this.sink = sink;
+        this.maxSamples = Math.max(1, Math.min(maxBytes / Short.BYTES,
+                (int) ((long) sampleRate * maxLatencyMillis / 1000)));
+        this.batch = new short[maxBytes / Short.BYTES];
+        this.batchView = ShortBuffer.wrap(batch).asReadOnlyBuffer();
+    }
+
+    /**
+     * Append a chunk of audio, sending the batch if it is full.
+     * @param samples      samples between position and limit are copied, position is left unchanged
+     * @param captureTime  time at which the chunk was captured, in milliseconds
+     * @param chunkEnergy  sum of the squared samples of the chunk
+     * @param chunkVoiced  number of non-zero samples of the chunk
+     */
+    public void add(ShortBuffer samples, long captureTime, long chunkEnergy, int chunkVoiced) {
+        if (startTime < 0) {
+            startTime = captureTime;
+        }
+        lastCaptureTime = captureTime;
+        int position = samples.position();
+        int remaining = samples.remaining();
+        if (count > 0 && count + remaining > batch.length) {
+            send(captureTime);
+        }
+        while (remaining > 0) {
+            if (count == 0) {
+                firstCaptureTime = captureTime;
+            }
+            int length = Math.min(remaining, batch.length - count);
+            for (int i = 0; i < length; i++) {
+                batch[count + i] = samples.get(position + i);
+            }
+            long lengthEnergy = length == remaining ? chunkEnergy : chunkEnergy * length / remaining;
+            int lengthVoiced = length == remaining ? chunkVoiced : (int) ((long) chunkVoiced * length / remaining);
+            energy += lengthEnergy;
+            voiced += lengthVoiced;
+            chunkEnergy -= lengthEnergy;
+            chunkVoiced -= lengthVoiced;
+            count += length;
+            position += length;
+            remaining -= length;
+            if (count >= maxSamples) {
+                send(captureTime);
+            }
+        }
+    }
+
+    /**
+     * Send the samples waiting in the batch, for instance when recording stops.
+     */
+    public void flush() {
+        if (count > 0) {
+            send(lastCaptureTime);
+        }
+    }
+
+    private void send(long now) {
+        batchView.limit(count).position(0);
+        sink.send(batchView, firstCaptureTime, AudioUtils.db(energy, voiced));
+        long latency = now - firstCaptureTime;
+        messages++;
+        bytes += count * Short.BYTES;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        count = 0;
+        energy = 0;
+        voiced = 0;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return average time the first chunk of a batch waited before the batch was sent, in ms
+     */
+    public long getAverageLatencyMillis() {
+        return messages == 0 ? 0 : totalLatency / messages;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatency;
+    }
+
+    /**
+     * @return messages per second, bytes per second and added latency since the first chunk, as
+     * "messages/s,<n>,bytes/s,<n>,latency ms,<average>,<max>"
+     */
+    public String getReport() {
+        double seconds = Math.max(1, lastCaptureTime - startTime) / 1000.0;
+        return String.format(Locale.US, "messages/s,%.1f,bytes/s,%.0f,latency ms,%d,%d",
+                messages / seconds, bytes / seconds, getAverageLatencyMillis(), maxLatency);
+    }
+}
@@ -0,0 +1,344 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Binary frame of the audio messages sent from the watch to the phone.
+ *
+ * Every message starts with a fixed HEADER_SIZE byte header in network byte order:
+ * <pre>
+ *  0  int    MAGIC ("SWAF")
+ *  4  byte   VERSION
+ *  5  byte   payload type, TYPE_PCM16, TYPE_FEATURES, TYPE_IMA_ADPCM, TYPE_FEATURES_FLOAT16,
+ *            TYPE_FEATURES_INT8 or TYPE_HEARTBEAT
+ *  6  short  flags, FLAG_DISCONTINUITY or 0
+ *  8  int    sequence number, incremented by the sender for every frame
+ * 12  long   capture time of the audio, in milliseconds since the epoch
+ * 20  int    sample rate of the audio, in Hz
+ * 24  float  loudness of the audio, in dB, NaN if it was not measured
+ * 28  int    payload length, in bytes
+ * </pre>
+ * The payload follows the header: little-endian 16-bit PCM samples, little-endian floats, an
+ * {@link ImaAdpcm} block, or features coded by a {@link FeatureQuantizer}. A TYPE_HEARTBEAT frame
+ * has no payload, it is sent while no audio is, and its loudness is the noise floor of the
+ * sender, see {@link AudioSegmenter}.
+ *
+ * Frames are encoded straight into the message array and decoded through views of it, so the
+ * audio is never copied into intermediate arrays. A decoder instance can be reused for every
+ * message, it is not thread-safe.
+ */
+public class AudioFrame {
+    public static final int MAGIC = 0x53574146;
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static final byte TYPE_PCM16 = 1;
+    public static final byte TYPE_FEATURES = 2;
+    public static final byte TYPE_IMA_ADPCM = 3;
+    public static final byte TYPE_FEATURES_FLOAT16 = 4;
+    public static final byte TYPE_FEATURES_INT8 = 5;
+    public static final byte TYPE_HEARTBEAT = 6;
+
+    /** The audio of the frame does not follow the audio of the previous frame */
+    public static final int FLAG_DISCONTINUITY = 1;
+
+    private static final ByteOrder PAYLOAD_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private ByteBuffer message;
+    private byte type;
+    private int flags;
+    private int sequence;
+    private long captureTime;
+    private int sampleRate;
+    private float loudness;
+    private int payloadLength;
+    private FeatureQuantizer featureDecoder;
+
+    /**
+     * Encode a frame of PCM samples.
+     * @param samples samples between position and limit, left unchanged
+     * @return the message, header and payload
+     */
+    public static byte[] encodePcm16(int sequence, long captureTime, int sampleRate, float loudness,
+                                     ShortBuffer samples) {
+        int payloadLength = samples.remaining() * Short.BYTES;
+        byte[] message = new byte[HEADER_SIZE + payloadLength];
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        putHeader(buffer, TYPE_PCM16, sequence, captureTime, sampleRate, loudness, payloadLength);
+        buffer.order(PAYLOAD_ORDER).asShortBuffer().put(samples.duplicate());
+        return message;
+    }
+
+    /**
+     * Encode a frame of PCM samples coded as an IMA-ADPCM block.
+     * @param samples samples between position and limit, left unchanged
+     * @param encoder encoder of the stream the samples belong to
+     * @return the message, header and payload
+     */
+    public static byte[] encodeImaAdpcm(int sequence, long captureTime, int sampleRate, float loudness,
+                                        ShortBuffer samples, ImaAdpcm encoder) {
+        int payloadLength = ImaAdpcm.blockSize(samples.remaining());
+        byte[] message = new byte[HEADER_SIZE + payloadLength];
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        putHeader(buffer, TYPE_IMA_ADPCM, sequence, captureTime, sampleRate, loudness, payloadLength);
+        encoder.encode(samples, buffer);
+        return message;
+    }
+
+    /**
+     * Encode a heartbeat.
+     * @param noiseFloor noise floor of the audio captured since the last frame, in dB, NaN if it
+     *                   was not measured
+     * @return the message, a header without payload
+     */
+    public static byte[] encodeHeartbeat(int sequence, long captureTime, int sampleRate, float noiseFloor) {
+        byte[] message = new byte[HEADER_SIZE];
+        putHeader(ByteBuffer.wrap(message), TYPE_HEARTBEAT, sequence, captureTime, sampleRate, noiseFloor, 0);
+        return message;
+    }
+
+    /**
+     * Set the flags of an encoded message.
+     * @param flags FLAG_DISCONTINUITY or 0
+     */
+    public static void setFlags(byte[] message, int flags) {
+        ByteBuffer.wrap(message).order(ByteOrder.BIG_ENDIAN).putShort(6, (short) flags);
+    }
+
+    /**
+     * Encode a frame of features.
+     * @param sampleRate sample rate of the audio the features were computed from
+     * @return the message, header and payload
+     */
+    public static byte[] encodeFeatures(int sequence, long captureTime, int sampleRate, float loudness,
+                                        float[] features, int offset, int length) {
+        int payloadLength = length * Float.BYTES;
+        byte[] message = new byte[HEADER_SIZE + payloadLength];
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        putHeader(buffer, TYPE_FEATURES, sequence, captureTime, sampleRate, loudness, payloadLength);
+        buffer.order(PAYLOAD_ORDER).asFloatBuffer().put(features, offset, length);
+        return message;
+    }
+
+    /**
+     * Encode a frame of features coded as TYPE_FEATURES_FLOAT16 or TYPE_FEATURES_INT8.
+     * @param type       TYPE_FEATURES_FLOAT16 or TYPE_FEATURES_INT8
+     * @param sampleRate sample rate of the audio the features were computed from
+     * @param quantizer  encoder reused across frames
+     * @return the message, header and payload
+     */
+    public static byte[] encodeQuantizedFeatures(byte type, int sequence, long captureTime, int sampleRate,
+                                                 float loudness, float[] features, int offset, int length,
+                                                 FeatureQuantizer quantizer) {
+        int payloadLength;
+        switch (type) {
+            case TYPE_FEATURES_FLOAT16:
+                payloadLength = FeatureQuantizer.float16Size(length);
+                break;
+            case TYPE_FEATURES_INT8:
+                payloadLength = FeatureQuantizer.int8Size(length);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a quantized features type: " + type);
+        }
+        byte[] message = new byte[HEADER_SIZE + payloadLength];
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        putHeader(buffer, type, sequence, captureTime, sampleRate, loudness, payloadLength);
+        if (type == TYPE_FEATURES_FLOAT16) {
+            quantizer.encodeFloat16(features, offset, length, buffer);
+        } else {
+            quantizer.encodeInt8(features, offset, length, buffer);
+        }
+        return message;
+    }
+
+    /**
+     * Write a header at the position of frame, which is then moved to the start of the payload.
+     */
+    public static void putHeader(ByteBuffer frame, byte type, int sequence, long captureTime,
+                                 int sampleRate, float loudness, int payloadLength) {
+        frame.order(ByteOrder.BIG_ENDIAN);
+        frame.putInt(MAGIC);
+        frame.put(VERSION);
+        frame.put(type);
+        frame.putShort((short) 0);
+        frame.putInt(sequence);
+        frame.putLong(captureTime);
+        frame.putInt(sampleRate);
+        frame.putFloat(loudness);
+        frame.putInt(payloadLength);
+    }
+
+    /**
+     * Decode the header of a message. The payload is only read through the views returned by
+     * this decoder, and stays valid as long as the message array is not modified.
+     * @return false if the message is not a frame of a supported version, or is truncated
+     */
+    public boolean read(byte[] message) {
+        return read(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Same as {@link #read(byte[])} for the bytes between position and limit of message.
+     */
+    public boolean read(ByteBuffer message) {
+        this.message = null;
+        if (message.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        int start = message.position();
+        message.order(ByteOrder.BIG_ENDIAN);
+        if (message.getInt(start) != MAGIC || message.get(start + 4) != VERSION) {
+            return false;
+        }
+        int length = message.getInt(start + 28);
+        if (length < 0 || length > message.remaining() - HEADER_SIZE) {
+            return false;
+        }
+        type = message.get(start + 5);
+        flags = message.getShort(start + 6);
+        sequence = message.getInt(start + 8);
+        captureTime = message.getLong(start + 12);
+        sampleRate = message.getInt(start + 20);
+        loudness = message.getFloat(start + 24);
+        payloadLength = length;
+        this.message = message;
+        return true;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public float getLoudness() {
+        return loudness;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * @return index of the first payload byte in the message array passed to {@link #read(byte[])}
+     */
+    public int getPayloadOffset() {
+        return message.arrayOffset() + message.position() + HEADER_SIZE;
+    }
+
+    /**
+     * @return read-only view of the payload, in payload byte order
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer payload = message.asReadOnlyBuffer();
+        payload.position(message.position() + HEADER_SIZE);
+        payload.limit(message.position() + HEADER_SIZE + payloadLength);
+        return payload.slice().order(PAYLOAD_ORDER);
+    }
+
+    /**
+     * @return view of the samples of a TYPE_PCM16 frame
+     */
+    public ShortBuffer getSamples() {
+        return getPayload().asShortBuffer();
+    }
+
+    /**
+     * Decode the samples of a TYPE_PCM16 or TYPE_IMA_ADPCM frame.
+     * @param out receives the samples, must be large enough, see {@link #getSampleCount()}
+     * @return number of samples written to out, or -1 if the payload is not valid audio
+     */
+    public int readSamples(short[] out) {
+        switch (type) {
+            case TYPE_PCM16:
+                int count = payloadLength / Short.BYTES;
+                getSamples().get(out, 0, count);
+                return count;
+            case TYPE_IMA_ADPCM:
+                return ImaAdpcm.decode(getPayload(), out, 0);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return number of samples in a TYPE_PCM16 or TYPE_IMA_ADPCM frame, or -1 for other frames
+     */
+    public int getSampleCount() {
+        switch (type) {
+            case TYPE_PCM16:
+                return payloadLength / Short.BYTES;
+            case TYPE_IMA_ADPCM:
+                return ImaAdpcm.sampleCount(getPayload());
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return view of the values of a TYPE_FEATURES frame
+     */
+    public FloatBuffer getFeatures() {
+        return getPayload().asFloatBuffer();
+    }
+
+    /**
+     * @return number of values in a TYPE_FEATURES, TYPE_FEATURES_FLOAT16 or TYPE_FEATURES_INT8
+     * frame, or -1 for other frames
+     */
+    public int getFeatureCount() {
+        switch (type) {
+            case TYPE_FEATURES:
+                return payloadLength / Float.BYTES;
+            case TYPE_FEATURES_FLOAT16:
+                return payloadLength / Short.BYTES;
+            case TYPE_FEATURES_INT8:
+                return Math.max(-1, payloadLength - FeatureQuantizer.INT8_HEADER_SIZE);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Decode the values of a TYPE_FEATURES, TYPE_FEATURES_FLOAT16 or TYPE_FEATURES_INT8 frame.
+     * @param out receives the values, must be large enough, see {@link #getFeatureCount()}
+     * @return number of values written to out, or -1 if the frame does not hold features
+     */
+    public int readFeatures(float[] out) {
+        int count = getFeatureCount();
+        if (count < 0) {
+            return -1;
+        }
+        if (type == TYPE_FEATURES) {
+            getFeatures().get(out, 0, count);
+            return count;
+        }
+        if (featureDecoder == null) {
+            featureDecoder = new FeatureQuantizer();
+        }
+        if (type == TYPE_FEATURES_FLOAT16) {
+            featureDecoder.decodeFloat16(getPayload(), out, 0, count);
+        } else {
+            featureDecoder.decodeInt8(getPayload(), out, 0, count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,81 @@
+package com.wearable.sound.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads consecutive {@link AudioFrame}s from a stream, such as a Wearable channel, where the
+ * frames are not delimited by messages. The payload length in each header tells where the next
+ * frame starts.
+ *
+ * Frames are read into a single buffer that only grows when a frame does not fit, so the reader
+ * does not allocate per frame. Not thread-safe.
+ */
+public class AudioFrameReader {
+    // Upper bound of a frame, so a corrupted header cannot make the buffer grow without limit
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+
+    private final InputStream inputStream;
+    private byte[] buffer;
+
+    public AudioFrameReader(InputStream inputStream) {
+        this(inputStream, AudioFrame.HEADER_SIZE + 16384);
+    }
+
+    /**
+     * @param initialSize initial size of the buffer, in bytes
+     */
+    public AudioFrameReader(InputStream inputStream, int initialSize) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[Math.max(AudioFrame.HEADER_SIZE, initialSize)];
+    }
+
+    /**
+     * Block until the next frame is read.
+     * @return the frame, header and payload, between position and limit of a buffer that is
+     * reused by the next call, or null at the end of the stream
+     * @throws IOException if the stream fails, ends in the middle of a frame, or does not contain
+     *                     frames of a supported version
+     */
+    public ByteBuffer next() throws IOException {
+        if (!readFully(0, AudioFrame.HEADER_SIZE, true)) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(buffer, 0, AudioFrame.HEADER_SIZE);
+        if (header.getInt(0) != AudioFrame.MAGIC || header.get(4) != AudioFrame.VERSION) {
+            throw new IOException("Not a version " + AudioFrame.VERSION + " audio frame");
+        }
+        int payloadLength = header.getInt(28);
+        int frameSize = AudioFrame.HEADER_SIZE + payloadLength;
+        if (payloadLength < 0 || frameSize > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid audio frame payload length: " + payloadLength);
+        }
+        if (frameSize > buffer.length) {
+            byte[] larger = new byte[Math.max(frameSize, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, larger, 0, AudioFrame.HEADER_SIZE);
+            buffer = larger;
+        }
+        readFully(AudioFrame.HEADER_SIZE, payloadLength, false);
+        return ByteBuffer.wrap(buffer, 0, frameSize);
+    }
+
+    /**
+     * @return false if the stream ended before the first byte and endAllowed is true
+     */
+    private boolean readFully(int offset, int length, boolean endAllowed) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = inputStream.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                if (read == 0 && endAllowed) {
+                    return false;
+                }
+                throw new EOFException("Audio stream ended in the middle of a frame");
+            }
+            read += count;
+        }
+        return true;
+    }
+}
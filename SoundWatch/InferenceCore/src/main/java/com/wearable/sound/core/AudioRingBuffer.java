@@ -0,0 +1,194 @@
+package com.wearable.sound.core;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Preallocated ring buffer of 16-bit PCM samples used on the capture path.
+ *
+ * Samples are written as they come out of {@link android.media.AudioRecord} and consumed one
+ * window at a time. Consecutive windows start hopSize samples apart, so they overlap when the hop
+ * is shorter than the window. Every window is copied into a single reusable array and handed out
+ * as a read-only {@link ShortBuffer}, so steady-state capture does not allocate.
+ *
+ * The buffer also meters the loudness of the samples as they are written: it keeps the running
+ * sum of their squares and count of non-zero samples at every position, so the loudness of the
+ * next window is two subtractions away, and a window too quiet to classify can be skipped before
+ * it is copied, see {@link #windowDb()} and {@link #skipWindow()}.
+ *
+ * Not thread-safe: the writer and the window consumer must run on the same thread.
+ */
+public class AudioRingBuffer {
+    private final short[] ring;
+    // Running sums of the squares and of the non-zero samples written before each sample of the
+    // ring. They wrap around, but the sums of a window, their differences, stay exact
+    private final long[] energyBefore;
+    private final int[] voicedBefore;
+    private long energy = 0;
+    private int voiced = 0;
+    private final short[] window;
+    private final ShortBuffer windowView;
+    private final int windowSize;
+    private final int hopSize;
+
+    private int writePos = 0;
+    private int available = 0;
+    private long droppedSamples = 0;
+
+    /**
+     * @param windowSize number of samples in each window handed to the classifier
+     * @param capacity   number of samples the ring can hold, must be at least windowSize
+     */
+    public AudioRingBuffer(int windowSize, int capacity) {
+        this(windowSize, windowSize, capacity);
+    }
+
+    /**
+     * @param windowSize number of samples in each window handed to the classifier
+     * @param hopSize    number of samples between the start of two consecutive windows
+     * @param capacity   number of samples the ring can hold, must be at least windowSize
+     */
+    public AudioRingBuffer(int windowSize, int hopSize, int capacity) {
+        if (windowSize <= 0 || hopSize <= 0 || hopSize > windowSize || capacity < windowSize) {
+            throw new IllegalArgumentException("Invalid ring buffer size: window=" + windowSize
+                    + ", hop=" + hopSize + ", capacity=" + capacity);
+        }
+        this.windowSize = windowSize;
+        this.hopSize = hopSize;
+        this.ring = new short[capacity];
+        this.energyBefore = new long[capacity];
+        this.voicedBefore = new int[capacity];
+        this.window = new short[windowSize];
+        this.windowView = ShortBuffer.wrap(window).asReadOnlyBuffer();
+    }
+
+    /**
+     * Append samples to the ring. When the ring is full the oldest samples are overwritten.
+     */
+    public void write(short[] samples, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            put(samples[offset + i]);
+        }
+    }
+
+    /**
+     * Append little-endian 16-bit PCM bytes, as returned by {@code AudioRecord.read(byte[], ...)},
+     * without going through an intermediate short array.
+     */
+    public void writePcm16(byte[] pcm, int offset, int length) {
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            put((short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8)));
+        }
+    }
+
+    private void put(short sample) {
+        energyBefore[writePos] = energy;
+        voicedBefore[writePos] = voiced;
+        energy += sample * sample;
+        if (sample != 0) {
+            voiced++;
+        }
+        ring[writePos] = sample;
+        writePos = (writePos + 1) % ring.length;
+        if (available == ring.length) {
+            droppedSamples++;
+        } else {
+            available++;
+        }
+    }
+
+    /**
+     * @return true if a full window is buffered and {@link #nextWindow()} can be called
+     */
+    public boolean hasWindow() {
+        return available >= windowSize;
+    }
+
+    /**
+     * @return number of samples still to write before the next window is complete
+     */
+    public int samplesUntilWindow() {
+        return Math.max(0, windowSize - available);
+    }
+
+    /**
+     * Consume the oldest full window from the ring. Only the first hopSize samples are removed,
+     * the rest are kept for the next window.
+     *
+     * The returned view is backed by an array owned by this buffer and is only valid until the
+     * next call to this method.
+     *
+     * @return a read-only view of the window, positioned at 0, or null if no window is buffered
+     */
+    public ShortBuffer nextWindow() {
+        if (!hasWindow()) {
+            return null;
+        }
+        int readPos = readPosition();
+        int firstPart = Math.min(windowSize, ring.length - readPos);
+        System.arraycopy(ring, readPos, window, 0, firstPart);
+        System.arraycopy(ring, 0, window, firstPart, windowSize - firstPart);
+        available -= hopSize;
+        windowView.clear();
+        return windowView;
+    }
+
+    /**
+     * Consume the oldest full window without copying it, like {@link #nextWindow()}.
+     * @return false if no window is buffered
+     */
+    public boolean skipWindow() {
+        if (!hasWindow()) {
+            return false;
+        }
+        available -= hopSize;
+        return true;
+    }
+
+    /**
+     * Loudness of the oldest full window, the one {@link #nextWindow()} returns, computed from
+     * the sums kept as the samples were written.
+     * @return the loudness as {@link AudioUtils#db(short[])} computes it, or NaN if no window is
+     * buffered
+     */
+    public double windowDb() {
+        if (!hasWindow()) {
+            return Double.NaN;
+        }
+        int readPos = readPosition();
+        int endPos = (readPos + windowSize) % ring.length;
+        // The window ends with the last sample written when no sample follows it
+        long energyAfter = available == windowSize ? energy : energyBefore[endPos];
+        int voicedAfter = available == windowSize ? voiced : voicedBefore[endPos];
+        return AudioUtils.db(energyAfter - energyBefore[readPos], voicedAfter - voicedBefore[readPos]);
+    }
+
+    private int readPosition() {
+        int readPos = writePos - available;
+        return readPos < 0 ? readPos + ring.length : readPos;
+    }
+
+    public void clear() {
+        writePos = 0;
+        available = 0;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    public int available() {
+        return available;
+    }
+
+    /**
+     * @return number of samples overwritten before they could be consumed
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
@@ -0,0 +1,253 @@
+package com.wearable.sound.core;
+
+import java.nio.ShortBuffer;
+import java.util.Locale;
+
+/**
+ * Cuts a stream of audio into the segments where something happens, so the watch only sends the
+ * sound events to the phone instead of every sample of a quiet room.
+ *
+ * The audio is gated every {@link SpectralFlux#BLOCK_SAMPLES} samples by a {@link NoiseGate} on
+ * the loudness and spectral flux of the block. A segment opens on the first block that passes,
+ * and starts with the preRollMillis of audio before it, so the onset of the sound and some of the
+ * background it stands out from are sent too. It lasts at least minSegmentSamples, enough for the
+ * phone to classify a window, and closes once no block passed for hangoverMillis. Between
+ * segments the sink gets a heartbeat every heartbeatMillis with the noise floor of the gate, so
+ * the receiver can keep gating with the noise of the room it no longer hears.
+ *
+ * The last blocks are kept in a preallocated ring, nothing is allocated once recording. Not
+ * thread-safe, samples are written and sent on the same thread.
+ */
+public class AudioSegmenter {
+    public static final int DEFAULT_PRE_ROLL_MILLIS = 500;
+    public static final int DEFAULT_HANGOVER_MILLIS = 500;
+    public static final int DEFAULT_HEARTBEAT_MILLIS = 2000;
+    // The gate of the apps moves its floor by NoiseGate.DEFAULT_STEP_DB per 160ms window, the
+    // same speed in 20ms blocks
+    private static final double BLOCK_STEP_DB = NoiseGate.DEFAULT_STEP_DB / 8;
+
+    /**
+     * Receives the segments and the heartbeats.
+     */
+    public interface Sink {
+        /**
+         * @param samples     a block of the segment between position and limit, only valid during
+         *                    the call
+         * @param captureTime capture time of the first sample of the block, in milliseconds
+         * @param energy      sum of the squared samples of the block
+         * @param voiced      number of non-zero samples of the block
+         * @param start       true for the first block of a segment, which does not follow the
+         *                    audio sent before
+         */
+        void send(ShortBuffer samples, long captureTime, long energy, int voiced, boolean start);
+
+        /**
+         * The segment ended with the last block sent.
+         */
+        void end();
+
+        /**
+         * @param time       capture time of the last block, in milliseconds
+         * @param noiseFloor noise floor of the gate, see {@link NoiseGate#getNoiseFloor()}
+         */
+        void heartbeat(long time, double noiseFloor);
+    }
+
+    private final Sink sink;
+    private final int sampleRate;
+    private final SpectralFlux spectralFlux;
+    private final NoiseGate noiseGate;
+    private final int hangoverBlocks;
+    private final int minSegmentSamples;
+    private final long heartbeatMillis;
+    // The current block and the pre-roll before it
+    private final short[][] blocks;
+    private final ShortBuffer[] blockViews;
+    private final long[] blockTimes;
+    private final long[] blockEnergies;
+    private final int[] blockVoiced;
+    private int head = 0;
+    private int buffered = 0;
+    private int blockCount = 0;
+    private long energy = 0;
+    private int voiced = 0;
+
+    private boolean active = false;
+    private int hangover = 0;
+    private long segmentSamples = 0;
+    private long lastSendTime = Long.MIN_VALUE;
+
+    private long totalBlocks = 0;
+    private long sentBlocks = 0;
+    private long segments = 0;
+    private long heartbeats = 0;
+
+    /**
+     * @param sampleRate        sample rate of the audio, in Hz
+     * @param minDb             loudness below which no block opens a segment, see {@link NoiseGate}
+     * @param preRollMillis     audio sent before the block that opens a segment, in milliseconds
+     * @param hangoverMillis    audio sent after the last block that passed, in milliseconds
+     * @param minSegmentSamples samples sent at least in a segment, pre-roll included
+     * @param heartbeatMillis   time between heartbeats while no segment is sent, in milliseconds
+     * @param sink              receives the segments and the heartbeats
+     */
+    public AudioSegmenter(int sampleRate, double minDb, int preRollMillis, int hangoverMillis,
+                          int minSegmentSamples, int heartbeatMillis, Sink sink) {
+        if (preRollMillis < 0 || hangoverMillis < 0 || heartbeatMillis <= 0) {
+            throw new IllegalArgumentException("Invalid segmenter: pre-roll=" + preRollMillis
+                    + "ms, hangover=" + hangoverMillis + "ms, heartbeat=" + heartbeatMillis + "ms");
+        }
+        this.sink = sink;
+        this.sampleRate = sampleRate;
+        this.spectralFlux = new SpectralFlux(sampleRate);
+        this.noiseGate = new NoiseGate(minDb, NoiseGate.DEFAULT_MARGIN_DB, NoiseGate.DEFAULT_PERCENTILE,
+                BLOCK_STEP_DB, NoiseGate.DEFAULT_ONSET_FLUX_DB, 0);
+        this.hangoverBlocks = toBlocks(hangoverMillis);
+        this.minSegmentSamples = minSegmentSamples;
+        this.heartbeatMillis = heartbeatMillis;
+        int ringSize = toBlocks(preRollMillis) + 1;
+        this.blocks = new short[ringSize][SpectralFlux.BLOCK_SAMPLES];
+        this.blockViews = new ShortBuffer[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            blockViews[i] = ShortBuffer.wrap(blocks[i]).asReadOnlyBuffer();
+        }
+        this.blockTimes = new long[ringSize];
+        this.blockEnergies = new long[ringSize];
+        this.blockVoiced = new int[ringSize];
+    }
+
+    private int toBlocks(int millis) {
+        return (int) Math.ceil((double) sampleRate * millis / 1000 / SpectralFlux.BLOCK_SAMPLES);
+    }
+
+    /**
+     * Append a chunk of audio, sending the blocks it completes if they belong to a segment.
+     * @param samples     samples between position and limit, position is left unchanged
+     * @param captureTime capture time of the first sample of the chunk, in milliseconds
+     */
+    public void write(ShortBuffer samples, long captureTime) {
+        int position = samples.position();
+        int remaining = samples.remaining();
+        for (int i = 0; i < remaining; i++) {
+            if (blockCount == 0) {
+                blockTimes[head] = captureTime + (long) i * 1000 / sampleRate;
+            }
+            short sample = samples.get(position + i);
+            blocks[head][blockCount++] = sample;
+            energy += sample * sample;
+            if (sample != 0) {
+                voiced++;
+            }
+            if (blockCount == SpectralFlux.BLOCK_SAMPLES) {
+                spectralFlux.write(blocks[head], 0, blockCount);
+                endBlock();
+            }
+        }
+    }
+
+    private void endBlock() {
+        totalBlocks++;
+        double db = AudioUtils.db(energy, voiced);
+        blockEnergies[head] = energy;
+        blockVoiced[head] = voiced;
+        boolean passed = noiseGate.accept(db, spectralFlux.takePeakFlux());
+        long time = blockTimes[head];
+        buffered = Math.min(buffered + 1, blocks.length);
+        if (passed) {
+            hangover = hangoverBlocks;
+        }
+        if (!active && passed) {
+            // Open a segment with the pre-roll, oldest block first
+            active = true;
+            segments++;
+            segmentSamples = 0;
+            for (int i = buffered - 1; i >= 0; i--) {
+                sendBlock((head - i + blocks.length) % blocks.length, i == buffered - 1);
+            }
+        } else if (active) {
+            sendBlock(head, false);
+            if (!passed && hangover-- <= 0 && segmentSamples >= minSegmentSamples) {
+                active = false;
+                buffered = 0;
+                sink.end();
+            }
+        } else if (lastSendTime == Long.MIN_VALUE || time - lastSendTime >= heartbeatMillis) {
+            heartbeats++;
+            lastSendTime = time;
+            sink.heartbeat(time, noiseGate.getNoiseFloor());
+        }
+        head = (head + 1) % blocks.length;
+        blockCount = 0;
+        energy = 0;
+        voiced = 0;
+    }
+
+    private void sendBlock(int block, boolean start) {
+        ShortBuffer view = blockViews[block];
+        view.clear();
+        sink.send(view, blockTimes[block], blockEnergies[block], blockVoiced[block], start);
+        sentBlocks++;
+        segmentSamples += SpectralFlux.BLOCK_SAMPLES;
+        lastSendTime = blockTimes[block];
+    }
+
+    /**
+     * End the segment being sent, if any, for instance when recording stops. The samples of an
+     * incomplete block are dropped.
+     */
+    public void flush() {
+        if (active) {
+            active = false;
+            sink.end();
+        }
+        buffered = 0;
+        blockCount = 0;
+        energy = 0;
+        voiced = 0;
+    }
+
+    /**
+     * Forget the audio and the noise floor, for instance when a new recording starts.
+     */
+    public void reset() {
+        flush();
+        spectralFlux.reset();
+        noiseGate.reset();
+        hangover = 0;
+        lastSendTime = Long.MIN_VALUE;
+    }
+
+    public void setMinDb(double minDb) {
+        noiseGate.setMinDb(minDb);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return the noise floor of the gate, NaN before the first block
+     */
+    public double getNoiseFloor() {
+        return noiseGate.getNoiseFloor();
+    }
+
+    public long getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return fraction of the blocks written that were sent, pre-roll included
+     */
+    public double getSentRatio() {
+        return totalBlocks == 0 ? 0 : (double) Math.min(sentBlocks, totalBlocks) / totalBlocks;
+    }
+
+    /**
+     * @return "segments,<n>,sent,<%>,heartbeats,<n>,floor,<dB>"
+     */
+    public String getReport() {
+        return String.format(Locale.US, "segments,%d,sent,%.1f%%,heartbeats,%d,floor,%.1f",
+                segments, 100 * getSentRatio(), heartbeats, noiseGate.getNoiseFloor());
+    }
+}
@@ -0,0 +1,90 @@
+package com.wearable.sound.core;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Loudness and PCM helpers shared by the watch and the phone, see {@link AudioFrame} for the
+ * layout of the messages between them.
+ */
+public class AudioUtils {
+
+    /**
+     * Loudness of a full scale 16-bit square wave, {@link #db} minus this value is in dBFS.
+     */
+    public static final double FULL_SCALE_DB = 20 * Math.log10(32768);
+
+    /**
+     * Loudness of a window of 16-bit PCM, as 10 * log10 of the mean square of the non-zero
+     * samples, so in dB above the smallest sample, from 0 for digital silence to about 90.3 at
+     * full scale. The loudness of the frames sent to the phone and both loudness thresholds are
+     * on this scale, see {@link #fromDbfs}.
+     */
+    public static double db(short[] data) {
+        return db(data, 0, data.length);
+    }
+
+    public static double db(short[] data, int offset, int length) {
+        long energy = 0;
+        int voiced = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int datum = data[i];
+            if (datum != 0) {
+                voiced++;
+            }
+            energy += datum * datum;
+        }
+        return db(energy, voiced);
+    }
+
+    /**
+     * Same as {@link #db(short[])} for the samples between position and limit.
+     */
+    public static double db(ShortBuffer soundBuffer) {
+        long energy = 0;
+        int voiced = 0;
+        for (int i = soundBuffer.position(); i < soundBuffer.limit(); i++) {
+            int datum = soundBuffer.get(i);
+            if (datum != 0) {
+                voiced++;
+            }
+            energy += datum * datum;
+        }
+        return db(energy, voiced);
+    }
+
+    /**
+     * Same as {@link #db(short[])} from sums kept as the samples are read, see
+     * {@link AudioRingBuffer#windowDb()}.
+     * @param energy sum of the squares of the samples
+     * @param voiced number of non-zero samples
+     */
+    public static double db(long energy, int voiced) {
+        return voiced == 0 ? 0 : 10 * Math.log10((double) energy / voiced);
+    }
+
+    /**
+     * @return the loudness in dBFS, 0 at full scale and negative below
+     */
+    public static double toDbfs(double db) {
+        return db - FULL_SCALE_DB;
+    }
+
+    /**
+     * @return the loudness on the scale of {@link #db}, for a threshold given in dBFS
+     */
+    public static double fromDbfs(double dbfs) {
+        return dbfs + FULL_SCALE_DB;
+    }
+
+    /**
+     * Decode little-endian 16-bit PCM bytes into samples.
+     * @return number of samples written to out
+     */
+    public static int pcm16ToShorts(byte[] pcm, int offset, int length, short[] out) {
+        int samples = Math.min(length / 2, out.length);
+        for (int i = 0; i < samples; i++) {
+            out[i] = (short) ((pcm[offset + 2 * i] & 0xff) | (pcm[offset + 2 * i + 1] << 8));
+        }
+        return samples;
+    }
+}
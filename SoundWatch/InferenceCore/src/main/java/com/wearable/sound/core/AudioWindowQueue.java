@@ -0,0 +1,333 @@
+package com.wearable.sound.core;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer queue of audio windows, used to hand audio from the
+ * capture thread to the processing worker without blocking the microphone reads.
+ *
+ * All slots are preallocated, one more than the capacity for the window the consumer holds. The
+ * producer copies each window into a free slot and queues the slot, the consumer reads the slot
+ * in place through a read-only {@link ShortBuffer} and releases it when it is done. A slot can
+ * also carry a snapshot of the {@link StreamingLogMel} frames taken when its window was
+ * complete, so features are computed on the capture side as audio arrives, and the loudness of
+ * its window, so the consumer never goes through the samples to get it.
+ *
+ * When the consumer falls behind, the producer drops windows according to the
+ * {@link OverrunPolicy} and counts them in {@link #getDroppedWindows()}. Both sides take queued
+ * windows with a compare-and-set, so the producer can drop the oldest one while the consumer
+ * takes it, and the consumer tells dropped windows from {@link #getSequence()}.
+ */
+public class AudioWindowQueue {
+
+    public enum OverrunPolicy {
+        /** Drop the incoming window when the queue is full, every queued window is processed */
+        DROP_NEWEST,
+        /** Drop the oldest queued window for the incoming one, so the consumer works on fresh audio */
+        DROP_OLDEST
+    }
+
+    // Free slots are tracked in a bit mask of a long
+    private static final int MAX_SLOTS = Long.SIZE;
+
+    private final int capacity;
+    private final short[][] slots;
+    private final ShortBuffer[] views;
+    private final long[] recordTimes;
+    private final long[] sequences;
+    private final double[] loudness;
+    // Sums the loudness of the windows of offerPcm16 was computed from
+    private final long[] energies;
+    private final int[] voicedCounts;
+    private final float[][] featureSlots;
+    private final int[] featureCounts;
+    private final OverrunPolicy overrunPolicy;
+
+    // Slots of the queued windows, in the order they were offered
+    private final AtomicLongArray queue;
+    // Next position of the queue to write, only advanced by the producer
+    private final AtomicLong head = new AtomicLong();
+    // Next position of the queue to take, advanced by the consumer, and by the producer when it
+    // drops the oldest window
+    private final AtomicLong tail = new AtomicLong();
+    // Free slots of the producer, and slots released by the consumer it has not collected yet
+    private long freeSlots;
+    private final AtomicLong releasedSlots = new AtomicLong();
+    // Slot held by the consumer since its last take, -1 if none
+    private int heldSlot = -1;
+
+    private final AtomicLong offeredWindows = new AtomicLong();
+    private final AtomicLong droppedWindows = new AtomicLong();
+
+    private volatile Thread consumerThread;
+
+    /**
+     * @param capacity     number of windows the queue can hold
+     * @param slotSize     maximum number of samples in a window
+     * @param overrunPolicy what to drop when the consumer falls behind
+     */
+    public AudioWindowQueue(int capacity, int slotSize, OverrunPolicy overrunPolicy) {
+        this(capacity, slotSize, 0, overrunPolicy);
+    }
+
+    /**
+     * @param capacity     number of windows the queue can hold, at most 63
+     * @param slotSize     maximum number of samples in a window
+     * @param featureSize  number of feature values stored with each window
+     * @param overrunPolicy what to drop when the consumer falls behind
+     */
+    public AudioWindowQueue(int capacity, int slotSize, int featureSize, OverrunPolicy overrunPolicy) {
+        if (capacity < 1 || capacity >= MAX_SLOTS) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+        }
+        int slotCount = capacity + 1;
+        this.capacity = capacity;
+        this.slots = new short[slotCount][slotSize];
+        this.views = new ShortBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            views[i] = ShortBuffer.wrap(slots[i]).asReadOnlyBuffer();
+        }
+        this.recordTimes = new long[slotCount];
+        this.sequences = new long[slotCount];
+        this.loudness = new double[slotCount];
+        this.energies = new long[slotCount];
+        this.voicedCounts = new int[slotCount];
+        this.featureSlots = new float[slotCount][featureSize];
+        this.featureCounts = new int[slotCount];
+        this.overrunPolicy = overrunPolicy;
+        this.queue = new AtomicLongArray(capacity);
+        this.freeSlots = (1L << slotCount) - 1;
+    }
+
+    /**
+     * Producer side: copy a window into the queue.
+     * @param window samples between position and limit are copied, position is left unchanged
+     * @param recordTime time at which the window was captured
+     * @return false if the window was dropped because the queue is full
+     */
+    public boolean offer(ShortBuffer window, long recordTime) {
+        return offer(window, null, recordTime);
+    }
+
+    /**
+     * Producer side: copy a window into the queue, along with a snapshot of the frames computed
+     * up to the end of the window.
+     * @param window samples between position and limit are copied, position is left unchanged
+     * @param features frames to snapshot, or null to queue the window without features
+     * @param recordTime time at which the window was captured
+     * @return false if the window was dropped because the queue is full
+     */
+    public boolean offer(ShortBuffer window, StreamingLogMel features, long recordTime) {
+        return offer(window, features, recordTime, AudioUtils.db(window));
+    }
+
+    /**
+     * Producer side: same as {@link #offer(ShortBuffer, StreamingLogMel, long)} for a window
+     * whose loudness was metered as it was captured, see {@link AudioRingBuffer#windowDb()}.
+     * @param db loudness of the window, see {@link AudioUtils#db(short[])}
+     */
+    public boolean offer(ShortBuffer window, StreamingLogMel features, long recordTime, double db) {
+        long sequence = offeredWindows.incrementAndGet();
+        int index = obtainSlot();
+        if (index < 0) {
+            return false;
+        }
+        int length = Math.min(window.remaining(), slots[index].length);
+        int position = window.position();
+        window.get(slots[index], 0, length);
+        window.position(position);
+        featureCounts[index] = features == null ? 0 : features.snapshot(featureSlots[index], 0);
+        loudness[index] = db;
+        energies[index] = 0;
+        voicedCounts[index] = 0;
+        publish(index, length, recordTime, sequence);
+        return true;
+    }
+
+    /**
+     * Producer side: copy little-endian 16-bit PCM bytes into the queue as one window, metering
+     * its loudness as the samples are decoded.
+     * @return false if the window was dropped because the queue is full
+     */
+    public boolean offerPcm16(byte[] pcm, int offset, int length, long recordTime) {
+        long sequence = offeredWindows.incrementAndGet();
+        int index = obtainSlot();
+        if (index < 0) {
+            return false;
+        }
+        short[] slot = slots[index];
+        int samples = Math.min(length / 2, slot.length);
+        long energy = 0;
+        int voiced = 0;
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) ((pcm[offset + 2 * i] & 0xff) | (pcm[offset + 2 * i + 1] << 8));
+            slot[i] = sample;
+            energy += sample * sample;
+            if (sample != 0) {
+                voiced++;
+            }
+        }
+        featureCounts[index] = 0;
+        loudness[index] = AudioUtils.db(energy, voiced);
+        energies[index] = energy;
+        voicedCounts[index] = voiced;
+        publish(index, samples, recordTime, sequence);
+        return true;
+    }
+
+    /**
+     * Producer side: find a slot for a new window, dropping a window if the queue is full.
+     * @return the slot, or -1 if the incoming window is dropped
+     */
+    private int obtainSlot() {
+        long h = head.get();
+        if (h - tail.get() >= capacity) {
+            if (overrunPolicy == OverrunPolicy.DROP_NEWEST) {
+                droppedWindows.incrementAndGet();
+                return -1;
+            }
+            // Take the oldest window before the consumer does, and reuse its slot
+            while (true) {
+                long t = tail.get();
+                if (h - t < capacity) {
+                    break;
+                }
+                int oldest = (int) queue.get((int) (t % capacity));
+                if (tail.compareAndSet(t, t + 1)) {
+                    droppedWindows.incrementAndGet();
+                    return oldest;
+                }
+            }
+        }
+        if (freeSlots == 0) {
+            freeSlots = releasedSlots.getAndSet(0);
+        }
+        // One slot more than the capacity, so one is free when the queue is not full, even
+        // while the consumer holds another
+        int index = Long.numberOfTrailingZeros(freeSlots);
+        freeSlots &= ~(1L << index);
+        return index;
+    }
+
+    private void publish(int index, int length, long recordTime, long sequence) {
+        views[index].clear();
+        views[index].limit(length);
+        recordTimes[index] = recordTime;
+        sequences[index] = sequence;
+        long h = head.get();
+        queue.set((int) (h % capacity), index);
+        // The volatile write makes the slot content visible to the consumer
+        head.set(h + 1);
+        Thread consumer = consumerThread;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Consumer side: wait until a window is available.
+     * @return the oldest queued window, or null if the timeout elapsed or the thread was
+     * interrupted. The view stays valid until {@link #release()}.
+     */
+    public ShortBuffer take(long timeout, TimeUnit unit) {
+        consumerThread = Thread.currentThread();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long t = tail.get();
+            if (head.get() == t) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                continue;
+            }
+            int index = (int) queue.get((int) (t % capacity));
+            // Fails if the producer dropped the window meanwhile
+            if (tail.compareAndSet(t, t + 1)) {
+                heldSlot = index;
+                return views[index];
+            }
+        }
+    }
+
+    /**
+     * Consumer side: capture time of the window returned by the last {@link #take}.
+     */
+    public long getRecordTime() {
+        return recordTimes[heldSlot];
+    }
+
+    /**
+     * Consumer side: loudness of the window returned by the last {@link #take}, see
+     * {@link AudioUtils#db(short[])}.
+     */
+    public double getDb() {
+        return loudness[heldSlot];
+    }
+
+    /**
+     * Consumer side: sum of the squared samples of the window returned by the last {@link #take},
+     * metered by {@link #offerPcm16}, 0 for a window offered as a ShortBuffer. With
+     * {@link #getVoiced()} it gives the loudness of several windows together, see
+     * {@link AudioUtils#db(long, int)}.
+     */
+    public long getEnergy() {
+        return energies[heldSlot];
+    }
+
+    /**
+     * Consumer side: number of non-zero samples of the window returned by the last {@link #take},
+     * metered by {@link #offerPcm16}, 0 for a window offered as a ShortBuffer.
+     */
+    public int getVoiced() {
+        return voicedCounts[heldSlot];
+    }
+
+    /**
+     * Consumer side: sequence number of the window returned by the last {@link #take}. Windows
+     * are numbered in the order they were offered, dropped ones included, so two windows are
+     * consecutive in the audio stream only if their sequence numbers are.
+     */
+    public long getSequence() {
+        return sequences[heldSlot];
+    }
+
+    /**
+     * Consumer side: features queued with the window returned by the last {@link #take}.
+     * @return the feature values, or null if the window was queued without features
+     */
+    public float[] getFeatures() {
+        return featureCounts[heldSlot] > 0 ? featureSlots[heldSlot] : null;
+    }
+
+    /**
+     * Consumer side: hand the window returned by the last {@link #take} back to the producer.
+     */
+    public void release() {
+        long bit = 1L << heldSlot;
+        heldSlot = -1;
+        while (true) {
+            long released = releasedSlots.get();
+            if (releasedSlots.compareAndSet(released, released | bit)) {
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    public long getOfferedWindows() {
+        return offeredWindows.get();
+    }
+
+    public long getDroppedWindows() {
+        return droppedWindows.get();
+    }
+}
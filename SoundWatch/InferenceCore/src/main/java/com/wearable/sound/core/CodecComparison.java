@@ -0,0 +1,184 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Locale;
+
+/**
+ * Differences between the features and predictions of audio and those of a coded version of it,
+ * to check that a codec does not change what the classifier hears.
+ *
+ * {@link #replay} codes audio the way the watch sends it: IMA-ADPCM frames of raw audio, and
+ * FLOAT16 and INT8 features. Every window of the original audio is compared with the same
+ * window of each coded version. Predictions are only compared with a classifier, which should
+ * run the shipped model. The phone's instrumented CodecAccuracyTest does that with recorded
+ * audio. Without a classifier only the log mel features are compared, as in
+ * ./gradlew :InferenceCore:codecBenchmark.
+ */
+public class CodecComparison {
+    private final String name;
+    private final SoundClassifier classifier;
+    private final float[] originalScores;
+    private int windows = 0;
+    private int sameTop = 0;
+    private int sameDetection = 0;
+    private double featureDelta = 0;
+    private double maxFeatureDelta = 0;
+    private double scoreDelta = 0;
+    private double maxScoreDelta = 0;
+
+    /**
+     * @param name       name of the codec in the report
+     * @param classifier classifier the predictions are compared with, or null to only compare
+     *                   the features
+     */
+    public CodecComparison(String name, SoundClassifier classifier) {
+        this.name = name;
+        this.classifier = classifier;
+        this.originalScores = new float[classifier == null ? 0 : classifier.getNumLabels()];
+    }
+
+    /**
+     * Compare the features of a window and its predictions if there is a classifier.
+     */
+    public void add(float[] originalFeatures, float[] codedFeatures) {
+        for (int i = 0; i < originalFeatures.length; i++) {
+            double delta = Math.abs(originalFeatures[i] - codedFeatures[i]);
+            featureDelta += delta / originalFeatures.length;
+            maxFeatureDelta = Math.max(maxFeatureDelta, delta);
+        }
+        windows++;
+        if (classifier == null) {
+            return;
+        }
+
+        classifier.classify(originalFeatures);
+        int originalTop = classifier.argmax();
+        boolean originalDetected = classifier.isAboveThreshold(originalTop);
+        for (int i = 0; i < originalScores.length; i++) {
+            originalScores[i] = classifier.getScore(i);
+        }
+        classifier.classify(codedFeatures);
+        int codedTop = classifier.argmax();
+        boolean codedDetected = classifier.isAboveThreshold(codedTop);
+        for (int i = 0; i < originalScores.length; i++) {
+            double delta = Math.abs(originalScores[i] - classifier.getScore(i));
+            scoreDelta += delta / originalScores.length;
+            maxScoreDelta = Math.max(maxScoreDelta, delta);
+        }
+        if (originalTop == codedTop) {
+            sameTop++;
+        }
+        if (originalDetected == codedDetected && (!originalDetected || originalTop == codedTop)) {
+            sameDetection++;
+        }
+    }
+
+    /**
+     * Code the audio with IMA-ADPCM, FLOAT16 and INT8 as the watch sends it, and compare every
+     * window of it.
+     * @param audio        16kHz audio
+     * @param frameSamples samples per raw audio frame, the IMA-ADPCM state carries across frames
+     * @param classifier   classifier the predictions are compared with, or null
+     * @return the IMA-ADPCM, FLOAT16 and INT8 comparisons
+     */
+    public static CodecComparison[] replay(short[] audio, int frameSamples, SoundClassifier classifier) {
+        short[] decoded = imaAdpcmRoundTrip(audio, frameSamples);
+        CodecComparison adpcm = new CodecComparison("IMA-ADPCM audio", classifier);
+        CodecComparison half = new CodecComparison("FLOAT16 features", classifier);
+        CodecComparison quarter = new CodecComparison("INT8 features", classifier);
+
+        LogMelSpectrogram logMelSpectrogram = new LogMelSpectrogram();
+        int windowSize = SoundClassifier.WINDOW_SAMPLES;
+        int hopSize = (int) Math.round(VggishParams.SAMPLE_RATE * VggishParams.EXAMPLE_HOP_SECONDS);
+        float[] originalFeatures = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+        float[] codedFeatures = new float[originalFeatures.length];
+        FeatureQuantizer quantizer = new FeatureQuantizer();
+        ByteBuffer float16 = ByteBuffer.allocate(FeatureQuantizer.float16Size(originalFeatures.length));
+        ByteBuffer int8 = ByteBuffer.allocate(FeatureQuantizer.int8Size(originalFeatures.length));
+        for (int offset = 0; offset + windowSize <= audio.length; offset += hopSize) {
+            logMelSpectrogram.waveformToExamples(audio, offset, windowSize, originalFeatures);
+            logMelSpectrogram.waveformToExamples(decoded, offset, windowSize, codedFeatures);
+            adpcm.add(originalFeatures, codedFeatures);
+
+            float16.clear();
+            quantizer.encodeFloat16(originalFeatures, 0, originalFeatures.length, float16);
+            float16.flip();
+            quantizer.decodeFloat16(float16, codedFeatures, 0, codedFeatures.length);
+            half.add(originalFeatures, codedFeatures);
+
+            int8.clear();
+            quantizer.encodeInt8(originalFeatures, 0, originalFeatures.length, int8);
+            int8.flip();
+            quantizer.decodeInt8(int8, codedFeatures, 0, codedFeatures.length);
+            quarter.add(originalFeatures, codedFeatures);
+        }
+        return new CodecComparison[] {adpcm, half, quarter};
+    }
+
+    /**
+     * @return the audio after an IMA-ADPCM round trip in frames of frameSamples, as the phone
+     * decodes it
+     */
+    public static short[] imaAdpcmRoundTrip(short[] audio, int frameSamples) {
+        short[] decoded = new short[audio.length];
+        short[] frameOut = new short[frameSamples];
+        ImaAdpcm encoder = new ImaAdpcm();
+        AudioFrame frame = new AudioFrame();
+        for (int offset = 0; offset < audio.length; offset += frameSamples) {
+            int length = Math.min(frameSamples, audio.length - offset);
+            byte[] message = AudioFrame.encodeImaAdpcm(0, 0, VggishParams.SAMPLE_RATE, Float.NaN,
+                    ShortBuffer.wrap(audio, offset, length), encoder);
+            frame.read(message);
+            int count = frame.readSamples(frameOut);
+            System.arraycopy(frameOut, 0, decoded, offset, count);
+        }
+        return decoded;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return fraction of the windows with the same top label, 0 without a classifier
+     */
+    public double getSameTopRatio() {
+        return windows == 0 ? 0 : (double) sameTop / windows;
+    }
+
+    /**
+     * @return fraction of the windows with the same prediction above threshold, or none in both,
+     * 0 without a classifier
+     */
+    public double getSameDetectionRatio() {
+        return windows == 0 ? 0 : (double) sameDetection / windows;
+    }
+
+    public double getMeanFeatureDelta() {
+        return windows == 0 ? 0 : featureDelta / windows;
+    }
+
+    public double getMaxFeatureDelta() {
+        return maxFeatureDelta;
+    }
+
+    /**
+     * @return "<name>: log mel delta mean <d>, max <d>", then with a classifier ", score delta
+     * mean <d>, max <d>, same top <%>, same prediction <%>"
+     */
+    public String getReport() {
+        String report = String.format(Locale.US, "%s: log mel delta mean %.4f, max %.4f",
+                name, getMeanFeatureDelta(), maxFeatureDelta);
+        if (classifier == null) {
+            return report;
+        }
+        return report + String.format(Locale.US, ", score delta mean %.5f, max %.5f, same top %.2f%%, "
+                        + "same prediction %.2f%%", windows == 0 ? 0 : scoreDelta / windows, maxScoreDelta,
+                100 * getSameTopRatio(), 100 * getSameDetectionRatio());
+    }
+}
@@ -0,0 +1,66 @@
+package com.wearable.sound.core;
+
+import java.util.Collection;
+
+/**
+ * Messages used to agree on the codec of the raw audio, or of the features, of a recording.
+ *
+ * When a recording starts the watch sends an offer, "session,codec,codec...", listing the codecs
+ * it can send in order of preference. The phone answers "session,codec" with the first codec it
+ * can decode. The watch sends PCM16 or FLOAT32, which every phone decodes, until the answer of the
+ * current session arrives, so a lost or late answer only costs bandwidth. Phones that support none
+ * of the offered codecs answer PCM16, which the watch reads as a refusal of any features codec.
+ */
+public class CodecNegotiation {
+    public static final String PCM16 = "PCM16";
+    public static final String IMA_ADPCM = "IMA_ADPCM";
+    public static final String FLOAT32 = "FLOAT32";
+    public static final String FLOAT16 = "FLOAT16";
+    public static final String INT8 = "INT8";
+
+    /**
+     * @param codecs codecs the sender can encode, most preferred first
+     */
+    public static String offer(int session, String... codecs) {
+        StringBuilder offer = new StringBuilder(Integer.toString(session));
+        for (String codec : codecs) {
+            offer.append(",").append(codec);
+        }
+        return offer.toString();
+    }
+
+    /**
+     * @param supported codecs the receiver can decode
+     * @return the answer to the offer, with PCM16 if no offered codec is supported
+     */
+    public static String answer(String offer, Collection<String> supported) {
+        String[] fields = offer.split(",");
+        String codec = PCM16;
+        for (int i = 1; i < fields.length; i++) {
+            if (supported.contains(fields[i])) {
+                codec = fields[i];
+                break;
+            }
+        }
+        return fields[0] + "," + codec;
+    }
+
+    /**
+     * @return session of an offer or answer, or -1 if it cannot be parsed
+     */
+    public static int session(String message) {
+        try {
+            return Integer.parseInt(message.split(",")[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return codec chosen in an answer, PCM16 if it cannot be parsed
+     */
+    public static String codec(String answer) {
+        String[] fields = answer.split(",");
+        return fields.length == 2 ? fields[1] : PCM16;
+    }
+}
@@ -0,0 +1,168 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Quantized codings of a log mel patch, used to send features from the watch at a half or a
+ * quarter of the float32 bandwidth.
+ *
+ * FLOAT16 stores every value as an IEEE 754 half precision float, little-endian, which keeps
+ * about three significant digits over the whole log mel range. INT8 starts with an
+ * INT8_HEADER_SIZE byte little-endian header, the offset and the scale of the patch as floats,
+ * followed by one unsigned byte per value, value = offset + byte * scale. The offset and scale
+ * are the minimum and the 255th of the range of each patch, so the error is at most half a step
+ * of that range.
+ *
+ * Values are converted through scratch arrays and moved with bulk buffer operations. An instance
+ * can be reused for every patch, it is not thread-safe.
+ */
+public class FeatureQuantizer {
+    public static final int INT8_HEADER_SIZE = 8;
+    private static final int INT8_LEVELS = 255;
+
+    private short[] halfs = new short[0];
+    private byte[] bytes = new byte[0];
+
+    /**
+     * @return size in bytes of count values coded as FLOAT16
+     */
+    public static int float16Size(int count) {
+        return count * Short.BYTES;
+    }
+
+    /**
+     * @return size in bytes of count values coded as INT8
+     */
+    public static int int8Size(int count) {
+        return INT8_HEADER_SIZE + count;
+    }
+
+    /**
+     * Code values as FLOAT16 at the position of out, which is then moved past them.
+     */
+    public void encodeFloat16(float[] values, int offset, int length, ByteBuffer out) {
+        if (halfs.length < length) {
+            halfs = new short[length];
+        }
+        for (int i = 0; i < length; i++) {
+            halfs[i] = toFloat16(values[offset + i]);
+        }
+        out.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(halfs, 0, length);
+        out.position(out.position() + float16Size(length));
+    }
+
+    /**
+     * Decode length FLOAT16 values at the position of in, which is then moved past them.
+     */
+    public void decodeFloat16(ByteBuffer in, float[] out, int offset, int length) {
+        if (halfs.length < length) {
+            halfs = new short[length];
+        }
+        in.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(halfs, 0, length);
+        in.position(in.position() + float16Size(length));
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = fromFloat16(halfs[i]);
+        }
+    }
+
+    /**
+     * Code values as INT8 at the position of out, which is then moved past them.
+     */
+    public void encodeInt8(float[] values, int offset, int length, ByteBuffer out) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = offset; i < offset + length; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (length == 0) {
+            min = max = 0;
+        }
+        float scale = (max - min) / INT8_LEVELS;
+        if (bytes.length < length) {
+            bytes = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            int level = scale > 0 ? Math.round((values[offset + i] - min) / scale) : 0;
+            bytes[i] = (byte) Math.max(0, Math.min(INT8_LEVELS, level));
+        }
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        out.putFloat(min);
+        out.putFloat(scale);
+        out.put(bytes, 0, length);
+    }
+
+    /**
+     * Decode length INT8 values at the position of in, which is then moved past them.
+     */
+    public void decodeInt8(ByteBuffer in, float[] out, int offset, int length) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        float min = in.getFloat();
+        float scale = in.getFloat();
+        if (bytes.length < length) {
+            bytes = new byte[length];
+        }
+        in.get(bytes, 0, length);
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = min + (bytes[i] & 0xff) * scale;
+        }
+    }
+
+    /**
+     * @return value rounded to the nearest half precision float, as its bits
+     */
+    public static short toFloat16(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff - 127 + 15) {
+            // Infinity, or NaN with a mantissa bit kept set
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        int half;
+        int shift;
+        if (exponent <= 0) {
+            // Subnormal half, or zero
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            shift = 14 - exponent;
+            half = mantissa >> shift;
+        } else {
+            shift = 13;
+            half = (exponent << 10) | (mantissa >> shift);
+        }
+        // Round to nearest even, a carry into the exponent gives the next power of two or infinity
+        int rest = mantissa & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * @param half bits of a half precision float
+     */
+    public static float fromFloat16(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            // Subnormal, mantissa * 2^-24
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,81 @@
+package com.wearable.sound.core;
+
+/**
+ * Follows the sequence numbers of the {@link AudioFrame}s received from one sender, to detect
+ * frames that were lost or arrived out of order.
+ *
+ * A sender starts every recording at a random sequence number. A frame far behind or far ahead
+ * of the expected one is the start of a new recording, not frames lost or late, and restarts the
+ * sequence without touching the counts.
+ *
+ * Not thread-safe: frames must be accepted by a single thread.
+ */
+public class FrameSequence {
+    /** Returned by {@link #accept} for a frame older than the last accepted one */
+    public static final int LATE = -1;
+    /** Returned by {@link #accept} for the first frame of a new sequence of the sender */
+    public static final int RESTARTED = -2;
+    // A frame further behind than this means the sender restarted its sequence
+    private static final int REORDER_WINDOW = 64;
+    // Likewise for a frame further ahead, more than two minutes of frames of raw audio
+    private static final int MAX_LOST = 1024;
+
+    private boolean started = false;
+    private int next;
+    private long received = 0;
+    private long lost = 0;
+    private long late = 0;
+    private long restarts = 0;
+
+    /**
+     * @param sequence sequence number of the received frame
+     * @return number of frames missing before this one, 0 if it is the expected frame or the first
+     * one, RESTARTED if it starts a new sequence, or LATE if it is a duplicate or arrived after a
+     * newer frame and should be dropped
+     */
+    public int accept(int sequence) {
+        received++;
+        if (!started) {
+            started = true;
+            next = sequence + 1;
+            return 0;
+        }
+        // Difference of the wrapping counters, so the sequence can overflow
+        int missing = sequence - next;
+        if (missing < -REORDER_WINDOW || missing > MAX_LOST) {
+            restarts++;
+            next = sequence + 1;
+            return RESTARTED;
+        }
+        if (missing < 0) {
+            late++;
+            return LATE;
+        }
+        lost += missing;
+        next = sequence + 1;
+        return missing;
+    }
+
+    /**
+     * Forget the last sequence number, the next frame is accepted as the start of a new sequence.
+     */
+    public void reset() {
+        started = false;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public long getRestarts() {
+        return restarts;
+    }
+}
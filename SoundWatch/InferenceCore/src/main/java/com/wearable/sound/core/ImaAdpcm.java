@@ -0,0 +1,158 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * IMA-ADPCM codec, 4 bits per 16-bit sample, used to send raw audio from the watch at a quarter
+ * of the PCM bandwidth.
+ *
+ * Audio is coded in blocks, one per {@link AudioFrame}. A block starts with a BLOCK_HEADER_SIZE
+ * byte little-endian header, the number of samples as an int, the predictor as a short and the
+ * step index as a byte, followed by two samples per byte, low nibble first. Every block can be
+ * decoded on its own, so a lost frame does not corrupt the next ones. The encoder carries its
+ * state across blocks so the coding does not restart at every frame.
+ */
+public class ImaAdpcm {
+    public static final int BLOCK_HEADER_SIZE = 8;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private int predictor = 0;
+    private int index = 0;
+
+    /**
+     * @return size in bytes of the block coding the given number of samples
+     */
+    public static int blockSize(int samples) {
+        return BLOCK_HEADER_SIZE + (samples + 1) / 2;
+    }
+
+    /**
+     * Forget the state carried across blocks, for instance when a new recording starts.
+     */
+    public void reset() {
+        predictor = 0;
+        index = 0;
+    }
+
+    /**
+     * Code samples as a block written at the position of out, which is then moved past it.
+     * @param samples samples between position and limit, left unchanged
+     */
+    public void encode(ShortBuffer samples, ByteBuffer out) {
+        int count = samples.remaining();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(count);
+        out.putShort((short) predictor);
+        out.put((byte) index);
+        out.put((byte) 0);
+        int position = samples.position();
+        for (int i = 0; i < count; i += 2) {
+            int low = encodeSample(samples.get(position + i));
+            int high = i + 1 < count ? encodeSample(samples.get(position + i + 1)) : 0;
+            out.put((byte) (low | (high << 4)));
+        }
+    }
+
+    private int encodeSample(int sample) {
+        int step = STEP_TABLE[index];
+        int diff = sample - predictor;
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        // Same rounding as the decoder, so the encoder tracks the decoded signal
+        int delta = step >> 3;
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+            delta += step;
+        }
+        predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+        index = Math.max(0, Math.min(STEP_TABLE.length - 1, index + INDEX_TABLE[nibble]));
+        return nibble;
+    }
+
+    /**
+     * @param block block at the position of the buffer
+     * @return number of samples coded in the block, or -1 if the block is truncated
+     */
+    public static int sampleCount(ByteBuffer block) {
+        if (block.remaining() < BLOCK_HEADER_SIZE) {
+            return -1;
+        }
+        int count = block.order(ByteOrder.LITTLE_ENDIAN).getInt(block.position());
+        return count < 0 || blockSize(count) > block.remaining() ? -1 : count;
+    }
+
+    /**
+     * Decode the block at the position of in, which is then moved past it.
+     * @param out receives the samples, must hold {@link #sampleCount} values from offset
+     * @return number of samples decoded, or -1 if the block is truncated
+     */
+    public static int decode(ByteBuffer in, short[] out, int offset) {
+        int count = sampleCount(in);
+        if (count < 0) {
+            return -1;
+        }
+        in.getInt();
+        int predictor = in.getShort();
+        int index = Math.max(0, Math.min(STEP_TABLE.length - 1, in.get()));
+        in.get();
+        for (int i = 0; i < count; i++) {
+            int nibble = (i & 1) == 0 ? in.get(in.position()) & 0x0f : (in.get() >> 4) & 0x0f;
+            int step = STEP_TABLE[index];
+            int delta = step >> 3;
+            if ((nibble & 4) != 0) {
+                delta += step;
+            }
+            if ((nibble & 2) != 0) {
+                delta += step >> 1;
+            }
+            if ((nibble & 1) != 0) {
+                delta += step >> 2;
+            }
+            predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+            index = Math.max(0, Math.min(STEP_TABLE.length - 1, index + INDEX_TABLE[nibble]));
+            out[offset + i] = (short) predictor;
+        }
+        if ((count & 1) != 0) {
+            // Skip the padding nibble of an odd count
+            in.get();
+        }
+        return count;
+    }
+
+    private static int clamp(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+}
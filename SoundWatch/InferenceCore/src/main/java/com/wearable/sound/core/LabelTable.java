@@ -0,0 +1,101 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Labels of the model that produces the {@link PredictionResult}s, so results carry label ids
+ * instead of label names.
+ *
+ * The phone sends its table to a watch when it connects, and every result names the table its
+ * ids refer to by the id of the table, a checksum of the labels. A watch that gets a result for a
+ * table it does not have asks the phone for it again.
+ *
+ * Encoded in network byte order as the int id of the table, the int number of labels, then the
+ * labels in UTF-8, each followed by a newline.
+ */
+public class LabelTable {
+    private final int id;
+    private final List<String> labels;
+
+    public LabelTable(List<String> labels) {
+        this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+        this.id = checksum(this.labels);
+    }
+
+    /**
+     * @return CRC-32 of the labels, each followed by a newline
+     */
+    public static int checksum(List<String> labels) {
+        CRC32 crc = new CRC32();
+        for (String label : labels) {
+            crc.update(label.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return (int) crc.getValue();
+    }
+
+    public byte[] encode() {
+        StringBuilder names = new StringBuilder();
+        for (String label : labels) {
+            names.append(label).append('\n');
+        }
+        byte[] text = names.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = ByteBuffer.allocate(2 * Integer.BYTES + text.length).order(ByteOrder.BIG_ENDIAN);
+        message.putInt(id);
+        message.putInt(labels.size());
+        message.put(text);
+        return message.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the message is truncated, or its labels do not match
+     *                                  its id
+     */
+    public static LabelTable decode(byte[] message) {
+        if (message.length < 2 * Integer.BYTES) {
+            throw new IllegalArgumentException("Truncated label table: " + message.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.BIG_ENDIAN);
+        int id = buffer.getInt();
+        int count = buffer.getInt();
+        String text = new String(message, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        List<String> labels = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            labels.add(text.substring(start, end));
+            start = end + 1;
+        }
+        LabelTable table = new LabelTable(labels);
+        if (labels.size() != count || table.getId() != id) {
+            throw new IllegalArgumentException("Corrupt label table " + Integer.toHexString(id)
+                    + ": " + labels.size() + "/" + count + " labels, checksum " + Integer.toHexString(table.getId()));
+        }
+        return table;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int size() {
+        return labels.size();
+    }
+
+    /**
+     * @return the label, or null if the id is not in the table, such as {@link PredictionResult#NO_LABEL}
+     */
+    public String getLabel(int labelId) {
+        return labelId >= 0 && labelId < labels.size() ? labels.get(labelId) : null;
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+}
@@ -0,0 +1,25 @@
+package com.wearable.sound.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the labels file, one label per line in the order of the model outputs.
+ */
+public class Labels {
+    public static List<String> load(InputStream inputStream) throws IOException {
+        List<String> labels = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                labels.add(line);
+            }
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,78 @@
+package com.wearable.sound.core;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Throughput and latency percentiles of a stream of messages, used to compare the ways audio is
+ * sent from the watch to the phone.
+ *
+ * Latencies are kept in a fixed ring of the most recent samples, so recording does not allocate.
+ * Thread-safe, as completions can be reported from callback threads.
+ */
+public class LatencyStats {
+    private final String name;
+    private final long[] latencies;
+    private int count = 0;
+    private long messages = 0;
+    private long bytes = 0;
+    private long startTime = -1;
+    private long lastTime;
+
+    /**
+     * @param name    name of the stream in the report
+     * @param samples number of most recent latencies used for the percentiles
+     */
+    public LatencyStats(String name, int samples) {
+        this.name = name;
+        this.latencies = new long[samples];
+    }
+
+    /**
+     * @param now       time the message was sent or received, in milliseconds
+     * @param size      size of the message, in bytes
+     * @param latencyMs latency of the message, in milliseconds
+     */
+    public synchronized void record(long now, int size, long latencyMs) {
+        if (startTime < 0) {
+            startTime = now;
+        }
+        lastTime = now;
+        latencies[(int) (messages % latencies.length)] = latencyMs;
+        count = Math.min(count + 1, latencies.length);
+        messages++;
+        bytes += size;
+    }
+
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency of the percentile of the recorded messages, 0 if there are none
+     */
+    public synchronized long getLatency(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * @return "name,messages/s,<n>,bytes/s,<n>,latency ms p50/p95/p99/max,<n>,<n>,<n>,<n>"
+     */
+    public synchronized String getReport() {
+        double seconds = Math.max(1, lastTime - startTime) / 1000.0;
+        return String.format(Locale.US, "%s,messages/s,%.1f,bytes/s,%.0f,latency ms p50/p95/p99/max,%d,%d,%d,%d",
+                name, messages / seconds, bytes / seconds,
+                getLatency(50), getLatency(95), getLatency(99), getLatency(100));
+    }
+}
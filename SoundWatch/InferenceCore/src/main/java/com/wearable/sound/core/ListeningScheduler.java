@@ -0,0 +1,200 @@
+package com.wearable.sound.core;
+
+import java.util.Locale;
+
+/**
+ * Decides when the microphone listens, so a watch on battery does not capture audio all the time.
+ *
+ * The policy follows the state of the watch: CONTINUOUS while it charges or its screen is on,
+ * LOW_POWER when the battery is at most lowBatteryPercent, BALANCED otherwise. BALANCED and
+ * LOW_POWER repeat a cycle of listening for onMillis then sleeping for offMillis. After a sound
+ * is detected the microphone listens continuously for detectionHoldMillis, whatever the policy,
+ * since more sounds often follow, and the cycle starts again with a listening phase.
+ *
+ * The time, capture time and CPU time recorded with {@link #record(long, long, long)} are
+ * accounted to the policy in effect, so the duty and the cost of each policy can be compared on
+ * a device. Times are in milliseconds of a monotonic clock. Not thread-safe, an instance is used
+ * by the thread that schedules the microphone.
+ */
+public class ListeningScheduler {
+
+    public enum Policy {
+        CONTINUOUS,
+        BALANCED,
+        LOW_POWER
+    }
+
+    public static final long DEFAULT_BALANCED_ON_MILLIS = 2000;
+    public static final long DEFAULT_BALANCED_OFF_MILLIS = 1000;
+    public static final long DEFAULT_LOW_POWER_ON_MILLIS = 1000;
+    public static final long DEFAULT_LOW_POWER_OFF_MILLIS = 3000;
+    public static final long DEFAULT_DETECTION_HOLD_MILLIS = 30000;
+    public static final int DEFAULT_LOW_BATTERY_PERCENT = 20;
+
+    private final long[] onMillis = new long[Policy.values().length];
+    private final long[] offMillis = new long[Policy.values().length];
+    private final long detectionHoldMillis;
+    private final int lowBatteryPercent;
+    private Policy policy = Policy.CONTINUOUS;
+    private long cycleStart;
+    private long holdUntil = Long.MIN_VALUE;
+    private long detections = 0;
+
+    // Totals accounted to each policy, and the values of the last record
+    private final long[] elapsed = new long[Policy.values().length];
+    private final long[] captured = new long[Policy.values().length];
+    private final long[] cpu = new long[Policy.values().length];
+    private long lastTime = -1;
+    private long lastCapture;
+    private long lastCpu;
+
+    public ListeningScheduler() {
+        this(DEFAULT_BALANCED_ON_MILLIS, DEFAULT_BALANCED_OFF_MILLIS, DEFAULT_LOW_POWER_ON_MILLIS,
+                DEFAULT_LOW_POWER_OFF_MILLIS, DEFAULT_DETECTION_HOLD_MILLIS, DEFAULT_LOW_BATTERY_PERCENT);
+    }
+
+    /**
+     * @param balancedOnMillis    listening phase of BALANCED, in milliseconds
+     * @param balancedOffMillis   sleeping phase of BALANCED, 0 listens continuously
+     * @param lowPowerOnMillis    listening phase of LOW_POWER, in milliseconds
+     * @param lowPowerOffMillis   sleeping phase of LOW_POWER, 0 listens continuously
+     * @param detectionHoldMillis continuous listening after a detection, in milliseconds
+     * @param lowBatteryPercent   battery level from which LOW_POWER is used, in percent
+     */
+    public ListeningScheduler(long balancedOnMillis, long balancedOffMillis, long lowPowerOnMillis,
+                              long lowPowerOffMillis, long detectionHoldMillis, int lowBatteryPercent) {
+        if (balancedOnMillis <= 0 || balancedOffMillis < 0 || lowPowerOnMillis <= 0 || lowPowerOffMillis < 0
+                || detectionHoldMillis < 0) {
+            throw new IllegalArgumentException("Invalid listening cycles: balanced=" + balancedOnMillis + "/"
+                    + balancedOffMillis + "ms, low power=" + lowPowerOnMillis + "/" + lowPowerOffMillis
+                    + "ms, hold=" + detectionHoldMillis + "ms");
+        }
+        onMillis[Policy.CONTINUOUS.ordinal()] = 1;
+        onMillis[Policy.BALANCED.ordinal()] = balancedOnMillis;
+        offMillis[Policy.BALANCED.ordinal()] = balancedOffMillis;
+        onMillis[Policy.LOW_POWER.ordinal()] = lowPowerOnMillis;
+        offMillis[Policy.LOW_POWER.ordinal()] = lowPowerOffMillis;
+        this.detectionHoldMillis = detectionHoldMillis;
+        this.lowBatteryPercent = lowBatteryPercent;
+    }
+
+    /**
+     * @param batteryPercent battery level, in percent
+     * @return the policy for the state of the watch
+     */
+    public Policy choosePolicy(int batteryPercent, boolean charging, boolean screenOn) {
+        if (charging || screenOn) {
+            return Policy.CONTINUOUS;
+        }
+        return batteryPercent <= lowBatteryPercent ? Policy.LOW_POWER : Policy.BALANCED;
+    }
+
+    /**
+     * Switch to the policy for the state of the watch, a new policy starts with a listening phase.
+     * The times recorded so far are accounted to the previous policy.
+     * @return true if the policy changed
+     */
+    public boolean update(long now, int batteryPercent, boolean charging, boolean screenOn) {
+        Policy chosen = choosePolicy(batteryPercent, charging, screenOn);
+        if (chosen == policy) {
+            return false;
+        }
+        policy = chosen;
+        cycleStart = now;
+        return true;
+    }
+
+    /**
+     * A sound was detected, listen continuously for detectionHoldMillis.
+     */
+    public void onDetection(long now) {
+        detections++;
+        holdUntil = now + detectionHoldMillis;
+        cycleStart = holdUntil;
+    }
+
+    /**
+     * @return true if the microphone should listen at now
+     */
+    public boolean isListening(long now) {
+        if (now < holdUntil || offMillis[policy.ordinal()] == 0) {
+            return true;
+        }
+        long cycle = onMillis[policy.ordinal()] + offMillis[policy.ordinal()];
+        return Math.floorMod(now - cycleStart, cycle) < onMillis[policy.ordinal()];
+    }
+
+    /**
+     * @return time until {@link #isListening(long)} changes, Long.MAX_VALUE if it does not without
+     * a new policy or detection
+     */
+    public long millisUntilChange(long now) {
+        long on = onMillis[policy.ordinal()];
+        long off = offMillis[policy.ordinal()];
+        if (off == 0) {
+            return now < holdUntil ? holdUntil - now : Long.MAX_VALUE;
+        }
+        if (now < holdUntil) {
+            // The cycle starts with a listening phase when the hold ends
+            return holdUntil - now + on;
+        }
+        long phase = Math.floorMod(now - cycleStart, on + off);
+        return phase < on ? on - phase : on + off - phase;
+    }
+
+    /**
+     * Account the time since the last record to the current policy.
+     * @param captureMillis total time the microphone captured audio, in milliseconds
+     * @param cpuMillis     total CPU time of the process, in milliseconds
+     */
+    public void record(long now, long captureMillis, long cpuMillis) {
+        if (lastTime >= 0) {
+            int i = policy.ordinal();
+            elapsed[i] += now - lastTime;
+            captured[i] += captureMillis - lastCapture;
+            cpu[i] += cpuMillis - lastCpu;
+        }
+        lastTime = now;
+        lastCapture = captureMillis;
+        lastCpu = cpuMillis;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getDetections() {
+        return detections;
+    }
+
+    /**
+     * @return capture duty of a policy, fraction of its time the microphone captured audio
+     */
+    public double getCaptureDuty(Policy policy) {
+        int i = policy.ordinal();
+        return elapsed[i] == 0 ? 0 : (double) captured[i] / elapsed[i];
+    }
+
+    /**
+     * @return CPU time of a policy per second of its time, in milliseconds
+     */
+    public double getCpuMillisPerSecond(Policy policy) {
+        int i = policy.ordinal();
+        return elapsed[i] == 0 ? 0 : 1000.0 * cpu[i] / elapsed[i];
+    }
+
+    /**
+     * @return "<policy>,<s>,duty,<%>,cpu ms/s,<n>" for each policy used, separated by ";", then
+     * "detections,<n>"
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (Policy p : Policy.values()) {
+            if (elapsed[p.ordinal()] > 0) {
+                report.append(String.format(Locale.US, "%s,%.0f s,duty,%.1f%%,cpu ms/s,%.1f;", p,
+                        elapsed[p.ordinal()] / 1000.0, 100 * getCaptureDuty(p), getCpuMillisPerSecond(p)));
+            }
+        }
+        return report.append("detections,").append(detections).toString();
+    }
+}
@@ -0,0 +1,255 @@
+package com.wearable.sound.core;
+
+/**
+ * Pure Java port of the VGGish log mel spectrogram front end (python/vggish_input.py and
+ * python/mel_features.py), so features can be computed without starting the Python interpreter.
+ *
+ * Audio is split into 25ms frames with a 10ms hop, windowed with a periodic Hann window,
+ * transformed with a real FFT, projected onto {@link VggishParams#NUM_MEL_BINS} mel bands and
+ * passed through a stabilized log. Frames are then grouped into examples of
+ * {@link VggishParams#NUM_FRAMES} frames, laid out row-major exactly like the flattened numpy
+ * array returned by main.audio_samples.
+ *
+ * All tables and scratch buffers are allocated once, so an instance must not be shared between
+ * threads.
+ */
+public class LogMelSpectrogram {
+    private static final double MEL_BREAK_FREQUENCY_HERTZ = 700.0;
+    private static final double MEL_HIGH_FREQUENCY_Q = 1127.0;
+
+    private final int windowLength;
+    private final int hopLength;
+    private final int fftLength;
+    private final int numSpectrogramBins;
+    private final int numMelBins;
+    private final int exampleWindowLength;
+    private final int exampleHopLength;
+
+    private final double[] window;
+    // Each mel band only covers a few FFT bins, so only the non-zero part of the
+    // mel weight matrix is kept: weights for bins [melStart[m], melStart[m] + melWeights[m].length)
+    private final int[] melStart;
+    private final double[][] melWeights;
+
+    // Twiddle factors and bit reversal table for the half-length complex FFT
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] bitReverse;
+
+    // Scratch buffers
+    private final double[] re;
+    private final double[] im;
+    private final double[] magnitude;
+
+    public LogMelSpectrogram() {
+        windowLength = (int) Math.round(VggishParams.SAMPLE_RATE * VggishParams.STFT_WINDOW_LENGTH_SECONDS);
+        hopLength = (int) Math.round(VggishParams.SAMPLE_RATE * VggishParams.STFT_HOP_LENGTH_SECONDS);
+        fftLength = (int) Math.pow(2, Math.ceil(Math.log(windowLength) / Math.log(2.0)));
+        numSpectrogramBins = fftLength / 2 + 1;
+        numMelBins = VggishParams.NUM_MEL_BINS;
+        double featuresSampleRate = 1.0 / VggishParams.STFT_HOP_LENGTH_SECONDS;
+        exampleWindowLength = (int) Math.round(VggishParams.EXAMPLE_WINDOW_SECONDS * featuresSampleRate);
+        exampleHopLength = (int) Math.round(VggishParams.EXAMPLE_HOP_SECONDS * featuresSampleRate);
+
+        window = new double[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+            window[i] = 0.5 - (0.5 * Math.cos(2 * Math.PI / windowLength * i));
+        }
+
+        melStart = new int[numMelBins];
+        melWeights = new double[numMelBins][];
+        buildMelMatrix(VggishParams.SAMPLE_RATE, VggishParams.MEL_MIN_HZ, VggishParams.MEL_MAX_HZ);
+
+        int half = fftLength / 2;
+        cos = new double[half];
+        sin = new double[half];
+        for (int i = 0; i < half; i++) {
+            cos[i] = Math.cos(-2 * Math.PI * i / fftLength);
+            sin[i] = Math.sin(-2 * Math.PI * i / fftLength);
+        }
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        re = new double[half];
+        im = new double[half];
+        magnitude = new double[numSpectrogramBins];
+    }
+
+    private static double hertzToMel(double frequencyHertz) {
+        return MEL_HIGH_FREQUENCY_Q * Math.log(1.0 + (frequencyHertz / MEL_BREAK_FREQUENCY_HERTZ));
+    }
+
+    /**
+     * Same as mel_features.spectrogram_to_mel_matrix, stored sparsely per mel band.
+     */
+    private void buildMelMatrix(int sampleRate, double lowerEdgeHertz, double upperEdgeHertz) {
+        double nyquistHertz = sampleRate / 2.0;
+        double[] spectrogramBinsMel = new double[numSpectrogramBins];
+        for (int i = 0; i < numSpectrogramBins; i++) {
+            spectrogramBinsMel[i] = hertzToMel(nyquistHertz * i / (numSpectrogramBins - 1));
+        }
+        double lowerEdgeMel = hertzToMel(lowerEdgeHertz);
+        double upperEdgeMel = hertzToMel(upperEdgeHertz);
+        double[] bandEdgesMel = new double[numMelBins + 2];
+        for (int i = 0; i < bandEdgesMel.length; i++) {
+            bandEdgesMel[i] = lowerEdgeMel + (upperEdgeMel - lowerEdgeMel) * i / (numMelBins + 1);
+        }
+        double[] column = new double[numSpectrogramBins];
+        for (int m = 0; m < numMelBins; m++) {
+            double lower = bandEdgesMel[m];
+            double center = bandEdgesMel[m + 1];
+            double upper = bandEdgesMel[m + 2];
+            int first = -1;
+            int last = -1;
+            // Bin 0 (DC) is always zeroed out
+            for (int b = 1; b < numSpectrogramBins; b++) {
+                double lowerSlope = (spectrogramBinsMel[b] - lower) / (center - lower);
+                double upperSlope = (upper - spectrogramBinsMel[b]) / (upper - center);
+                column[b] = Math.max(0.0, Math.min(lowerSlope, upperSlope));
+                if (column[b] > 0) {
+                    if (first < 0) {
+                        first = b;
+                    }
+                    last = b;
+                }
+            }
+            if (first < 0) {
+                melStart[m] = 0;
+                melWeights[m] = new double[0];
+            } else {
+                melStart[m] = first;
+                melWeights[m] = new double[last - first + 1];
+                System.arraycopy(column, first, melWeights[m], 0, melWeights[m].length);
+            }
+        }
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public int getHopLength() {
+        return hopLength;
+    }
+
+    /**
+     * @return number of 10ms frames produced from the given number of samples
+     */
+    public int numFrames(int numSamples) {
+        if (numSamples < windowLength) {
+            return 0;
+        }
+        return 1 + (numSamples - windowLength) / hopLength;
+    }
+
+    /**
+     * @return number of NUM_FRAMES x NUM_BANDS examples produced from the given number of samples
+     */
+    public int numExamples(int numSamples) {
+        int frames = numFrames(numSamples);
+        if (frames < exampleWindowLength) {
+            return 0;
+        }
+        return 1 + (frames - exampleWindowLength) / exampleHopLength;
+    }
+
+    /**
+     * Compute the log mel bands of one frame of windowLength samples.
+     *
+     * @param samples   16-bit PCM audio
+     * @param start     index of the first sample of the frame
+     * @param out       destination, receives NUM_MEL_BINS values
+     * @param outOffset index in out of the first band
+     */
+    public void computeFrame(short[] samples, int start, float[] out, int outOffset) {
+        // Pack the real frame into a half-length complex signal (even samples in re, odd in im),
+        // zero padded up to fftLength, scaled to [-1.0, +1.0] like main.audio_samples
+        int half = fftLength / 2;
+        for (int i = 0; i < half; i++) {
+            int n = 2 * i;
+            int k = bitReverse[i];
+            re[k] = n < windowLength ? samples[start + n] / 32768.0 * window[n] : 0.0;
+            im[k] = n + 1 < windowLength ? samples[start + n + 1] / 32768.0 * window[n + 1] : 0.0;
+        }
+        fft(half);
+
+        // Split the packed spectrum into the spectrum of the real frame
+        for (int k = 0; k <= half; k++) {
+            int a = k % half;
+            int b = (half - k) % half;
+            double zr = re[a];
+            double zi = im[a];
+            double cr = re[b];
+            double ci = -im[b];
+            double evenRe = (zr + cr) / 2;
+            double evenIm = (zi + ci) / 2;
+            double oddRe = (zi - ci) / 2;
+            double oddIm = -(zr - cr) / 2;
+            double wr = k == half ? -1.0 : cos[k];
+            double wi = k == half ? 0.0 : sin[k];
+            double xr = evenRe + wr * oddRe - wi * oddIm;
+            double xi = evenIm + wr * oddIm + wi * oddRe;
+            magnitude[k] = Math.sqrt(xr * xr + xi * xi);
+        }
+
+        for (int m = 0; m < numMelBins; m++) {
+            double[] weights = melWeights[m];
+            int first = melStart[m];
+            double mel = 0.0;
+            for (int j = 0; j < weights.length; j++) {
+                mel += magnitude[first + j] * weights[j];
+            }
+            out[outOffset + m] = (float) Math.log(mel + VggishParams.LOG_OFFSET);
+        }
+    }
+
+    /**
+     * In-place iterative radix-2 FFT of re/im, whose input is already in bit reversed order.
+     */
+    private void fft(int n) {
+        for (int size = 2; size <= n; size <<= 1) {
+            int halfSize = size >> 1;
+            // Twiddles are looked up in the fftLength table, so stride over it
+            int step = fftLength / size;
+            for (int i = 0; i < n; i += size) {
+                for (int j = 0; j < halfSize; j++) {
+                    double wr = cos[j * step];
+                    double wi = sin[j * step];
+                    int p = i + j;
+                    int q = p + halfSize;
+                    double tr = wr * re[q] - wi * im[q];
+                    double ti = wr * im[q] + wi * re[q];
+                    re[q] = re[p] - tr;
+                    im[q] = im[p] - ti;
+                    re[p] += tr;
+                    im[p] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Java equivalent of main.audio_samples: compute all the log mel examples of a waveform.
+     *
+     * @param samples 16-bit PCM audio
+     * @param offset  index of the first sample
+     * @param length  number of samples
+     * @param out     destination, examples that do not fit in it are dropped
+     * @return number of values written to out, 0 if the audio is too short for a single example
+     */
+    public int waveformToExamples(short[] samples, int offset, int length, float[] out) {
+        int examples = Math.min(numExamples(length), out.length / (exampleWindowLength * numMelBins));
+        int written = 0;
+        for (int e = 0; e < examples; e++) {
+            int firstFrame = e * exampleHopLength;
+            for (int f = 0; f < exampleWindowLength; f++) {
+                computeFrame(samples, offset + (firstFrame + f) * hopLength, out, written);
+                written += numMelBins;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,82 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Preallocated input and output tensors of the sound classifier, as native-order direct buffers.
+ *
+ * Features are bulk copied into the input buffer and scores are read from the output buffer in
+ * place, instead of reshaping every window into a float[1][frames][bands] array with a triple
+ * loop and letting TFLite marshal the nested Java arrays on each call.
+ *
+ * Not thread-safe: an instance must only be used by the thread that runs the model.
+ */
+public class ModelTensors {
+    private final int numFrames;
+    private final int numBands;
+    private final int numLabels;
+    private final ByteBuffer inputBuffer;
+    private final FloatBuffer input;
+    private final ByteBuffer outputBuffer;
+    private final FloatBuffer output;
+
+    /**
+     * @param numFrames number of frames in the input patch
+     * @param numBands  number of mel bands in the input patch
+     * @param numLabels number of scores in the output
+     */
+    public ModelTensors(int numFrames, int numBands, int numLabels) {
+        this.numFrames = numFrames;
+        this.numBands = numBands;
+        this.numLabels = numLabels;
+        inputBuffer = ByteBuffer.allocateDirect(numFrames * numBands * Float.BYTES)
+                .order(ByteOrder.nativeOrder());
+        input = inputBuffer.asFloatBuffer();
+        outputBuffer = ByteBuffer.allocateDirect(numLabels * Float.BYTES)
+                .order(ByteOrder.nativeOrder());
+        output = outputBuffer.asFloatBuffer();
+    }
+
+    /**
+     * Copy a numFrames x numBands patch, row-major, into the input tensor.
+     * @param features patch values, only the first numFrames * numBands are used
+     */
+    public void setInput(float[] features) {
+        if (features.length < input.capacity()) {
+            throw new IllegalArgumentException("Expected " + input.capacity()
+                    + " features, got " + features.length);
+        }
+        input.clear();
+        input.put(features, 0, input.capacity());
+    }
+
+    /**
+     * Run the model on the current input, the scores can then be read with {@link #getOutput}.
+     */
+    public void run(SoundModel model) {
+        inputBuffer.rewind();
+        outputBuffer.rewind();
+        model.run(inputBuffer, outputBuffer);
+    }
+
+    /**
+     * @return score of the given label for the last {@link #run}
+     */
+    public float getOutput(int label) {
+        return output.get(label);
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    public int getNumBands() {
+        return numBands;
+    }
+
+    public int getNumLabels() {
+        return numLabels;
+    }
+}
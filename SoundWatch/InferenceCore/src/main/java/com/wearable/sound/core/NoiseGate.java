@@ -0,0 +1,155 @@
+package com.wearable.sound.core;
+
+import java.util.Locale;
+
+/**
+ * Decides which windows of audio are worth classifying, from the noise floor of the room rather
+ * than a fixed loudness, so a noisy room does not run the model on every window and a quiet one
+ * does not miss soft sounds.
+ *
+ * The noise floor is a slow running percentile of the loudness of the windows: it rises by
+ * stepDb x percentile after a window above it and falls by stepDb x (1 - percentile) after a
+ * window below it, so it settles where that fraction of the windows is quieter, and a sound
+ * lasting a few seconds barely moves it. A window passes when it is marginDb above the floor, or
+ * when it holds an onset, a {@link SpectralFlux} of at least onsetFluxDb, and the windows of a
+ * sound are followed by hangoverWindows more so its tail is classified too. Nothing quieter
+ * than minDb ever passes, such as the hiss of a silent room.
+ *
+ * Loudness is on the scale of {@link AudioUtils#db(short[])}. Not thread-safe, an instance gates
+ * the windows of one audio stream.
+ */
+public class NoiseGate {
+    public static final double DEFAULT_MARGIN_DB = 10;
+    public static final double DEFAULT_PERCENTILE = 0.2;
+    public static final double DEFAULT_STEP_DB = 0.5;
+    public static final double DEFAULT_ONSET_FLUX_DB = 7;
+    public static final int DEFAULT_HANGOVER_WINDOWS = 2;
+
+    private final double marginDb;
+    private final double percentile;
+    private final double stepDb;
+    private final double onsetFluxDb;
+    private final int hangoverWindows;
+    private double minDb;
+    private double noiseFloor = Double.NaN;
+    private int hangover = 0;
+    private long windows = 0;
+    private long loudWindows = 0;
+    private long onsetWindows = 0;
+    private long hangoverPassed = 0;
+
+    /**
+     * @param minDb loudness below which no window passes
+     */
+    public NoiseGate(double minDb) {
+        this(minDb, DEFAULT_MARGIN_DB, DEFAULT_PERCENTILE, DEFAULT_STEP_DB, DEFAULT_ONSET_FLUX_DB,
+                DEFAULT_HANGOVER_WINDOWS);
+    }
+
+    /**
+     * @param minDb           loudness below which no window passes
+     * @param marginDb        loudness above the noise floor from which a window passes
+     * @param percentile      fraction of the windows quieter than the noise floor
+     * @param stepDb          how fast the noise floor moves, in dB per window
+     * @param onsetFluxDb     spectral flux from which a window passes, see {@link SpectralFlux}
+     * @param hangoverWindows windows passed after the last loud or onset window
+     */
+    public NoiseGate(double minDb, double marginDb, double percentile, double stepDb, double onsetFluxDb,
+                     int hangoverWindows) {
+        if (marginDb < 0 || percentile <= 0 || percentile >= 1 || stepDb <= 0 || hangoverWindows < 0) {
+            throw new IllegalArgumentException("Invalid noise gate: margin=" + marginDb + ", percentile="
+                    + percentile + ", step=" + stepDb + ", hangover=" + hangoverWindows);
+        }
+        this.minDb = minDb;
+        this.marginDb = marginDb;
+        this.percentile = percentile;
+        this.stepDb = stepDb;
+        this.onsetFluxDb = onsetFluxDb;
+        this.hangoverWindows = hangoverWindows;
+    }
+
+    /**
+     * Gate a window and update the noise floor with it.
+     * @param db   loudness of the window, see {@link AudioRingBuffer#windowDb()}
+     * @param flux peak spectral flux of the audio of the window, see {@link SpectralFlux#takePeakFlux()}
+     * @return true if the window is to be classified
+     */
+    public boolean accept(double db, double flux) {
+        windows++;
+        if (Double.isNaN(noiseFloor)) {
+            noiseFloor = db;
+        }
+        boolean loud = db >= getThreshold();
+        boolean onset = !loud && flux >= onsetFluxDb && db >= minDb;
+        noiseFloor += db > noiseFloor ? stepDb * percentile : -stepDb * (1 - percentile);
+        if (loud || onset) {
+            if (loud) {
+                loudWindows++;
+            } else {
+                onsetWindows++;
+            }
+            hangover = hangoverWindows;
+            return true;
+        }
+        if (hangover > 0 && db >= minDb) {
+            hangover--;
+            hangoverPassed++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return loudness from which a window passes without an onset
+     */
+    public double getThreshold() {
+        return Double.isNaN(noiseFloor) ? minDb : Math.max(minDb, noiseFloor + marginDb);
+    }
+
+    /**
+     * @return the noise floor, NaN before the first window
+     */
+    public double getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    /**
+     * Adopt a noise floor measured elsewhere, such as the one the watch sends between the sound
+     * events it streams, see {@link AudioSegmenter}.
+     */
+    public void setNoiseFloor(double noiseFloor) {
+        this.noiseFloor = noiseFloor;
+    }
+
+    public void setMinDb(double minDb) {
+        this.minDb = minDb;
+    }
+
+    /**
+     * Forget the noise floor, for instance when the stream starts again somewhere else.
+     */
+    public void reset() {
+        noiseFloor = Double.NaN;
+        hangover = 0;
+    }
+
+    public long getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return number of windows passed, loud, onset or hangover
+     */
+    public long getPassedWindows() {
+        return loudWindows + onsetWindows + hangoverPassed;
+    }
+
+    /**
+     * @return "windows,<n>,loud/onset/hangover,<n>,<n>,<n>,skipped,<%>,floor,<dB>"
+     */
+    public String getReport() {
+        return String.format(Locale.US, "windows,%d,loud/onset/hangover,%d,%d,%d,skipped,%.1f%%,floor,%.1f",
+                windows, loudWindows, onsetWindows, hangoverPassed,
+                windows == 0 ? 0 : 100.0 * (windows - getPassedWindows()) / windows, noiseFloor);
+    }
+}
@@ -0,0 +1,171 @@
+package com.wearable.sound.core;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Stage of a processing pipeline: a bounded queue and a worker thread handling its items one at a
+ * time, so a slow stage only delays its own queue and not the thread that produced the items.
+ *
+ * When the queue is full the oldest item is dropped, since the most recent audio matters most.
+ * Stages whose items must all be handled, because their number is bounded elsewhere, are created
+ * without a capacity and never drop.
+ * The time items wait in the queue and the time the handler takes are recorded separately, so the
+ * reports of the stages show which one falls behind under load.
+ *
+ * Items can be offered from any thread.
+ *
+ * @param <T> type of the items
+ */
+public class PipelineStage<T> {
+
+    /**
+     * Handles the items of a stage, on its worker thread.
+     */
+    public interface Handler<T> {
+        void handle(T item);
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long offerTime;
+
+        Entry(T item, long offerTime) {
+            this.item = item;
+            this.offerTime = offerTime;
+        }
+    }
+
+    private final String name;
+    private final BlockingQueue<Entry<T>> queue;
+    private final Handler<T> handler;
+    private final LatencyStats waitStats;
+    private final LatencyStats serviceStats;
+    private volatile Thread worker;
+    private long offered = 0;
+    private long dropped = 0;
+    private long errors = 0;
+
+    /**
+     * @param name     name of the worker thread and of the stage in the report
+     * @param capacity items waiting to be handled, the oldest is dropped beyond it
+     * @param handler  handles the items
+     */
+    public PipelineStage(String name, int capacity, Handler<T> handler) {
+        this(name, new ArrayBlockingQueue<>(capacity), handler);
+    }
+
+    /**
+     * Stage that never drops an item, the caller bounds the items waiting.
+     * @param name    name of the worker thread and of the stage in the report
+     * @param handler handles the items
+     */
+    public PipelineStage(String name, Handler<T> handler) {
+        this(name, new LinkedBlockingQueue<>(), handler);
+    }
+
+    private PipelineStage(String name, BlockingQueue<Entry<T>> queue, Handler<T> handler) {
+        this.name = name;
+        this.queue = queue;
+        this.handler = handler;
+        this.waitStats = new LatencyStats(name + " wait", 256);
+        this.serviceStats = new LatencyStats(name + " service", 256);
+    }
+
+    /**
+     * Start the worker thread.
+     */
+    public synchronized void start() {
+        if (worker == null) {
+            worker = new Thread(this::run, name);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stop the worker thread after the item it is handling, and drop the waiting items.
+     */
+    public synchronized void stop() {
+        Thread thread = worker;
+        worker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        queue.clear();
+    }
+
+    /**
+     * Queue an item for the worker, dropping the oldest waiting item if the queue is full.
+     */
+    public void offer(T item) {
+        Entry<T> entry = new Entry<>(item, System.currentTimeMillis());
+        synchronized (this) {
+            offered++;
+            while (!queue.offer(entry)) {
+                if (queue.poll() != null) {
+                    dropped++;
+                }
+            }
+        }
+    }
+
+    private void run() {
+        while (worker == Thread.currentThread()) {
+            Entry<T> entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            waitStats.record(startTime, 0, startTime - entry.offerTime);
+            try {
+                handler.handle(entry.item);
+            } catch (RuntimeException e) {
+                // Handlers log their own failures, the worker must survive them
+                synchronized (this) {
+                    errors++;
+                }
+            }
+            long now = System.currentTimeMillis();
+            serviceStats.record(now, 0, now - startTime);
+        }
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of items handled, including those whose handler failed
+     */
+    public long getProcessed() {
+        return serviceStats.getMessages();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return "name,offered,<n>,processed,<n>,dropped,<n>,errors,<n>,depth,<n>,
+     * wait ms p50/p95/max,<n>,<n>,<n>,service ms p50/p95/max,<n>,<n>,<n>"
+     */
+    public String getReport() {
+        long offered;
+        long dropped;
+        long errors;
+        synchronized (this) {
+            offered = this.offered;
+            dropped = this.dropped;
+            errors = this.errors;
+        }
+        return String.format(Locale.US, "%s,offered,%d,processed,%d,dropped,%d,errors,%d,depth,%d,"
+                        + "wait ms p50/p95/max,%d,%d,%d,service ms p50/p95/max,%d,%d,%d",
+                name, offered, getProcessed(), dropped, errors, getDepth(),
+                waitStats.getLatency(50), waitStats.getLatency(95), waitStats.getLatency(100),
+                serviceStats.getLatency(50), serviceStats.getLatency(95), serviceStats.getLatency(100));
+    }
+}
@@ -0,0 +1,258 @@
+package com.wearable.sound.core;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the scores of consecutive windows of one audio stream, and decides which labels are
+ * active with a hysteresis per label, so a single loud window does not notify a sound and a
+ * sound fading for one window does not notify it again.
+ *
+ * The score of a label is the mean (MOVING_AVERAGE) or the max (MAX_POOLING) of its scores in
+ * the last windows, or their exponential moving average with a span of windows (EXPONENTIAL).
+ * A label becomes active when its smoothed score rises above its onset threshold, and inactive
+ * when it falls below its offset threshold, which is lower. No label becomes active before the
+ * history holds minWindows windows, so the first window after a gap, which is not smoothed with
+ * anything, cannot notify a sound on its own.
+ *
+ * The scores of the last windows are kept in a preallocated ring, so an update costs O(labels)
+ * for the mean and the exponential average, O(labels x windows) for the max over a handful of
+ * windows, and allocates nothing. Windows more than maxGapMillis apart start a new history, the
+ * sound before a gap says nothing about the sound after it.
+ *
+ * Not thread-safe, an instance is updated by the thread that runs the model for its stream.
+ */
+public class PosteriorSmoother {
+
+    public enum Mode {
+        MOVING_AVERAGE,
+        EXPONENTIAL,
+        MAX_POOLING
+    }
+
+    private final Mode mode;
+    private final int numLabels;
+    private final long maxGapMillis;
+    private final int minWindows;
+    private final float[][] history;
+    private final float[] sums;
+    private final float[] smoothed;
+    private final float[] onsetThresholds;
+    private final float[] offsetThresholds;
+    private final boolean[] active;
+    private final boolean[] onsets;
+    private final float alpha;
+    private int head = 0;
+    private int size = 0;
+    // Windows since the history was reset, up to minWindows
+    private int count = 0;
+    private long lastTime = Long.MIN_VALUE;
+    private long notifyTime = Long.MIN_VALUE;
+    private int onsetCount = 0;
+    private int activeCount = 0;
+
+    /**
+     * Same as {@link #PosteriorSmoother(int, int, Mode, long, int)} with labels becoming active
+     * from the second window of a history, or the first if windows is 1.
+     */
+    public PosteriorSmoother(int numLabels, int windows, Mode mode, long maxGapMillis) {
+        this(numLabels, windows, mode, maxGapMillis, Math.min(windows, 2));
+    }
+
+    /**
+     * @param numLabels    number of scores of a window
+     * @param windows      windows averaged or pooled, span of the exponential average
+     * @param mode         how the windows are combined
+     * @param maxGapMillis time between windows after which the history is forgotten
+     * @param minWindows   windows in the history before a label can become active
+     */
+    public PosteriorSmoother(int numLabels, int windows, Mode mode, long maxGapMillis, int minWindows) {
+        if (numLabels < 1 || windows < 1 || minWindows < 1) {
+            throw new IllegalArgumentException("Invalid smoother: labels=" + numLabels + ", windows=" + windows
+                    + ", min windows=" + minWindows);
+        }
+        this.mode = mode;
+        this.numLabels = numLabels;
+        this.maxGapMillis = maxGapMillis;
+        this.minWindows = minWindows;
+        this.history = new float[mode == Mode.EXPONENTIAL ? 0 : windows][numLabels];
+        this.sums = new float[numLabels];
+        this.smoothed = new float[numLabels];
+        this.onsetThresholds = new float[numLabels];
+        this.offsetThresholds = new float[numLabels];
+        this.active = new boolean[numLabels];
+        this.onsets = new boolean[numLabels];
+        this.alpha = 2f / (windows + 1);
+        Arrays.fill(onsetThresholds, Float.POSITIVE_INFINITY);
+        Arrays.fill(offsetThresholds, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Set the hysteresis of every label from the thresholds of a classifier.
+     * @param offsetRatio offset threshold of a label, relative to its onset threshold
+     */
+    public void setHysteresis(SoundClassifier classifier, float offsetRatio) {
+        for (int i = 0; i < numLabels; i++) {
+            float onset = classifier.getThreshold(i);
+            setHysteresis(i, onset, onset * offsetRatio);
+        }
+    }
+
+    /**
+     * Set the hysteresis of a label, labels without one never become active.
+     * @param onset  smoothed score above which the label becomes active
+     * @param offset smoothed score below which it becomes inactive, at most onset
+     */
+    public void setHysteresis(int label, float onset, float offset) {
+        if (offset > onset) {
+            throw new IllegalArgumentException("Offset " + offset + " above onset " + onset);
+        }
+        onsetThresholds[label] = onset;
+        offsetThresholds[label] = offset;
+    }
+
+    /**
+     * Add the scores of the last window classified.
+     * @param time capture time of the window, in milliseconds
+     * @return number of labels that became active with this window
+     */
+    public int update(long time, SoundClassifier classifier) {
+        if (size > 0 && time - lastTime > maxGapMillis) {
+            reset();
+        }
+        lastTime = time;
+        switch (mode) {
+            case MOVING_AVERAGE:
+                addToHistory(classifier);
+                for (int i = 0; i < numLabels; i++) {
+                    smoothed[i] = sums[i] / size;
+                }
+                break;
+            case MAX_POOLING:
+                addToHistory(classifier);
+                for (int i = 0; i < numLabels; i++) {
+                    float max = history[0][i];
+                    for (int w = 1; w < size; w++) {
+                        max = Math.max(max, history[w][i]);
+                    }
+                    smoothed[i] = max;
+                }
+                break;
+            case EXPONENTIAL:
+                for (int i = 0; i < numLabels; i++) {
+                    float score = classifier.getScore(i);
+                    smoothed[i] = size == 0 ? score : smoothed[i] + alpha * (score - smoothed[i]);
+                }
+                size = 1;
+                break;
+        }
+        count = Math.min(count + 1, minWindows);
+        boolean enough = count >= minWindows;
+        onsetCount = 0;
+        activeCount = 0;
+        for (int i = 0; i < numLabels; i++) {
+            boolean wasActive = active[i];
+            active[i] = wasActive ? smoothed[i] >= offsetThresholds[i] : enough && smoothed[i] > onsetThresholds[i];
+            onsets[i] = active[i] && !wasActive;
+            if (onsets[i]) {
+                onsetCount++;
+            }
+            if (active[i]) {
+                activeCount++;
+            }
+        }
+        return onsetCount;
+    }
+
+    private void addToHistory(SoundClassifier classifier) {
+        // The window added replaces the oldest one once the ring is full
+        float[] window = history[head];
+        boolean full = size == history.length;
+        for (int i = 0; i < numLabels; i++) {
+            float score = classifier.getScore(i);
+            sums[i] += full ? score - window[i] : score;
+            window[i] = score;
+        }
+        head = (head + 1) % history.length;
+        if (!full) {
+            size++;
+        } else if (head == 0) {
+            // Once per turn of the ring, sum the windows again so rounding errors do not pile up
+            for (int i = 0; i < numLabels; i++) {
+                float sum = 0;
+                for (float[] scores : history) {
+                    sum += scores[i];
+                }
+                sums[i] = sum;
+            }
+        }
+    }
+
+    /**
+     * Forget the history and deactivate every label.
+     */
+    public void reset() {
+        head = 0;
+        size = 0;
+        count = 0;
+        notifyTime = Long.MIN_VALUE;
+        onsetCount = 0;
+        activeCount = 0;
+        Arrays.fill(sums, 0);
+        Arrays.fill(smoothed, 0);
+        Arrays.fill(active, false);
+        Arrays.fill(onsets, false);
+    }
+
+    /**
+     * Decide whether to notify the active labels of the last window: when a label became active
+     * with it, or every repeatMillis while labels stay active.
+     * @return true if the labels are to be notified, which is then assumed
+     */
+    public boolean shouldNotify(long repeatMillis) {
+        if (activeCount == 0) {
+            return false;
+        }
+        if (onsetCount == 0 && notifyTime != Long.MIN_VALUE && lastTime - notifyTime < repeatMillis) {
+            return false;
+        }
+        notifyTime = lastTime;
+        return true;
+    }
+
+    /**
+     * Select the active labels with the highest smoothed scores.
+     * @return number of labels in out
+     */
+    public int topK(TopK out) {
+        out.clear();
+        for (int i = 0; i < numLabels; i++) {
+            if (active[i]) {
+                out.offer(i, smoothed[i]);
+            }
+        }
+        return out.getCount();
+    }
+
+    public float getScore(int label) {
+        return smoothed[label];
+    }
+
+    public boolean isActive(int label) {
+        return active[label];
+    }
+
+    /**
+     * @return true if the label became active with the last window
+     */
+    public boolean isOnset(int label) {
+        return onsets[label];
+    }
+
+    public int getOnsetCount() {
+        return onsetCount;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+}
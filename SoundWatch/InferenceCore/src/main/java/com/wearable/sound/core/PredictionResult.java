@@ -0,0 +1,151 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary message of the predictions sent from the phone to the watch.
+ *
+ * Every message starts with a fixed HEADER_SIZE byte header in network byte order:
+ * <pre>
+ *  0  int    MAGIC ("SWPR")
+ *  4  byte   VERSION
+ *  5  byte   number of predictions, at most MAX_PREDICTIONS
+ *  6  short  flags, 0 for now
+ *  8  int    id of the {@link LabelTable} of the label ids
+ * 12  long   capture time of the audio, in milliseconds since the epoch
+ * 20  float  loudness of the audio, in dB
+ * </pre>
+ * followed by ENTRY_SIZE bytes per prediction, by decreasing score: the short label id, or
+ * NO_LABEL when no sound was recognized, and the unsigned byte score in 255ths.
+ *
+ * A top 5 takes 39 bytes, where the text of the same predictions took around 150. Messages are
+ * written in a single array, and a decoder instance reads them into preallocated arrays, so it
+ * can be reused for every message. It is not thread-safe.
+ */
+public class PredictionResult {
+    public static final int MAGIC = 0x53575052;
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int ENTRY_SIZE = 3;
+    public static final int MAX_PREDICTIONS = 255;
+    /** Label id of a result where no sound was recognized */
+    public static final int NO_LABEL = 0xffff;
+    private static final int SCORE_LEVELS = 255;
+
+    private final int[] labelIds = new int[MAX_PREDICTIONS];
+    private final float[] scores = new float[MAX_PREDICTIONS];
+    private int count;
+    private int labelTableId;
+    private long captureTime;
+    private float loudness;
+
+    /**
+     * Encode the top predictions of a window.
+     * @param predictions labels and scores by decreasing score, see {@link SoundClassifier#topK}
+     * @return the message
+     */
+    public static byte[] encode(int labelTableId, long captureTime, float loudness, TopK predictions) {
+        int count = Math.min(predictions.getCount(), MAX_PREDICTIONS);
+        ByteBuffer buffer = allocate(labelTableId, captureTime, loudness, count);
+        for (int i = 0; i < count; i++) {
+            putEntry(buffer, predictions.getLabel(i), predictions.getScore(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode a single prediction.
+     * @param labelId label of the prediction, or NO_LABEL
+     * @return the message
+     */
+    public static byte[] encode(int labelTableId, long captureTime, float loudness, int labelId, float score) {
+        ByteBuffer buffer = allocate(labelTableId, captureTime, loudness, 1);
+        putEntry(buffer, labelId, score);
+        return buffer.array();
+    }
+
+    private static ByteBuffer allocate(int labelTableId, long captureTime, float loudness, int count) {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[HEADER_SIZE + count * ENTRY_SIZE]).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) count);
+        buffer.putShort((short) 0);
+        buffer.putInt(labelTableId);
+        buffer.putLong(captureTime);
+        buffer.putFloat(loudness);
+        return buffer;
+    }
+
+    private static void putEntry(ByteBuffer buffer, int labelId, float score) {
+        buffer.putShort((short) labelId);
+        buffer.put((byte) Math.round(Math.max(0, Math.min(1, score)) * SCORE_LEVELS));
+    }
+
+    /**
+     * @return true if the message starts like a prediction result, to tell it from the text
+     * results of older phones
+     */
+    public static boolean isResult(byte[] message) {
+        return message.length >= HEADER_SIZE && ByteBuffer.wrap(message).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Decode a message.
+     * @return false if the message is not a result of a supported version, or is truncated
+     */
+    public boolean read(byte[] message) {
+        count = 0;
+        if (message.length < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.BIG_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION) {
+            return false;
+        }
+        int length = buffer.get(5) & 0xff;
+        if (message.length < HEADER_SIZE + length * ENTRY_SIZE) {
+            return false;
+        }
+        labelTableId = buffer.getInt(8);
+        captureTime = buffer.getLong(12);
+        loudness = buffer.getFloat(20);
+        for (int i = 0; i < length; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            labelIds[i] = buffer.getShort(entry) & 0xffff;
+            scores[i] = (buffer.get(entry + 2) & 0xff) / (float) SCORE_LEVELS;
+        }
+        count = length;
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return label id of the i-th prediction, or NO_LABEL
+     */
+    public int getLabelId(int i) {
+        return labelIds[i];
+    }
+
+    /**
+     * @return score of the i-th prediction, to within half a 255th
+     */
+    public float getScore(int i) {
+        return scores[i];
+    }
+
+    public int getLabelTableId() {
+        return labelTableId;
+    }
+
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    public float getLoudness() {
+        return loudness;
+    }
+}
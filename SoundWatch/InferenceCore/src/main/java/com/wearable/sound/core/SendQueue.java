@@ -0,0 +1,167 @@
+package com.wearable.sound.core;
+
+import java.util.Locale;
+
+/**
+ * Bounded queue between a producer and an asynchronous sender, so a congested link delays a few
+ * messages instead of piling up sends whose results arrive seconds too late.
+ *
+ * At most maxInFlight items are handed to the sender at a time. The others wait in a ring of
+ * capacity items: when it is full the oldest item is dropped, and items that waited longer than
+ * latencyBudgetMillis are dropped instead of sent, since a late sound is worse than a missed one.
+ * The sender reports the end of every send, successful or not, with {@link #complete(long)}.
+ *
+ * Thread-safe, items are offered by the pipeline and sends complete on callback threads. The
+ * sender is called without the lock held, from the thread that offered an item or completed a
+ * send.
+ *
+ * @param <T> type of the items
+ */
+public class SendQueue<T> {
+
+    /**
+     * Starts the sends.
+     */
+    public interface Sender<T> {
+        /**
+         * Start sending an item, without blocking. {@link #complete(long)} must be called once
+         * the send succeeded or failed.
+         */
+        void send(T item);
+    }
+
+    private final String name;
+    private final Object[] items;
+    private final long[] times;
+    private final long latencyBudgetMillis;
+    private final int maxInFlight;
+    private final Sender<T> sender;
+    private int head = 0;
+    private int depth = 0;
+    private int inFlight = 0;
+    private int maxDepth = 0;
+    private long offered = 0;
+    private long sent = 0;
+    private long droppedFull = 0;
+    private long droppedStale = 0;
+
+    /**
+     * @param name                name of the queue in the report
+     * @param capacity            items waiting to be sent, the oldest is dropped beyond it
+     * @param latencyBudgetMillis longest time an item waits before being sent, in milliseconds
+     * @param maxInFlight         sends started and not completed yet
+     * @param sender              starts the sends
+     */
+    public SendQueue(String name, int capacity, long latencyBudgetMillis, int maxInFlight, Sender<T> sender) {
+        if (capacity < 1 || latencyBudgetMillis < 0 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Invalid send queue: capacity=" + capacity
+                    + ", budget=" + latencyBudgetMillis + "ms, in flight=" + maxInFlight);
+        }
+        this.name = name;
+        this.items = new Object[capacity];
+        this.times = new long[capacity];
+        this.latencyBudgetMillis = latencyBudgetMillis;
+        this.maxInFlight = maxInFlight;
+        this.sender = sender;
+    }
+
+    /**
+     * Queue an item, and send it right away if fewer than maxInFlight sends are running.
+     * @param now time the item was produced, in milliseconds, its wait is measured from it
+     */
+    public void offer(T item, long now) {
+        synchronized (this) {
+            dropStale(now);
+            if (depth == items.length) {
+                removeHead();
+                droppedFull++;
+            }
+            int tail = (head + depth) % items.length;
+            items[tail] = item;
+            times[tail] = now;
+            depth++;
+            offered++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        drain(now);
+    }
+
+    /**
+     * Report the end of a send, and start the next ones.
+     * @param now time the send completed, in milliseconds
+     */
+    public void complete(long now) {
+        synchronized (this) {
+            inFlight = Math.max(0, inFlight - 1);
+        }
+        drain(now);
+    }
+
+    /**
+     * Drop the items that were not sent, for instance when the recording stops.
+     */
+    public synchronized void clear() {
+        while (depth > 0) {
+            removeHead();
+        }
+    }
+
+    private void drain(long now) {
+        while (true) {
+            T item;
+            synchronized (this) {
+                dropStale(now);
+                if (depth == 0 || inFlight >= maxInFlight) {
+                    return;
+                }
+                item = removeHead();
+                inFlight++;
+                sent++;
+            }
+            sender.send(item);
+        }
+    }
+
+    private void dropStale(long now) {
+        while (depth > 0 && now - times[head] > latencyBudgetMillis) {
+            removeHead();
+            droppedStale++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeHead() {
+        T item = (T) items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        depth--;
+        return item;
+    }
+
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return items dropped because the queue was full or they waited past the latency budget
+     */
+    public synchronized long getDropped() {
+        return droppedFull + droppedStale;
+    }
+
+    /**
+     * @return "name,offered,<n>,sent,<n>,dropped full/stale,<n>,<n>,depth/max,<n>,<n>,in flight,<n>"
+     */
+    public synchronized String getReport() {
+        return String.format(Locale.US, "%s,offered,%d,sent,%d,dropped full/stale,%d,%d,depth/max,%d,%d,in flight,%d",
+                name, offered, sent, droppedFull, droppedStale, depth, maxDepth, inFlight);
+    }
+}
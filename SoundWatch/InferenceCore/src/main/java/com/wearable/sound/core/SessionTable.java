@@ -0,0 +1,145 @@
+package com.wearable.sound.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * State of every sender streaming audio to the receiver, keyed by the id of its node, so frames
+ * from two watches, or from a watch reconnecting while its old stream drains, never share buffers
+ * or sequence numbers.
+ *
+ * A session is opened with the first frame of a sender and closed once the sender has been idle
+ * for idleTimeoutMillis, which is checked whenever a frame arrives, or when maxSessions are open
+ * and a new sender arrives, in which case the session idle for the longest time is closed.
+ *
+ * Thread-safe, the {@link Lifecycle} is called with the lock of the table held.
+ *
+ * @param <S> type of the state of a session
+ */
+public class SessionTable<S> {
+
+    /**
+     * Creates and releases the state of the sessions.
+     */
+    public interface Lifecycle<S> {
+        S open(String id);
+
+        void close(String id, S session);
+    }
+
+    private static class Entry<S> {
+        final S session;
+        long lastSeen;
+
+        Entry(S session, long lastSeen) {
+            this.session = session;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private final int maxSessions;
+    private final long idleTimeoutMillis;
+    private final Lifecycle<S> lifecycle;
+    // In access order, the eldest entry is the session idle for the longest time
+    private final LinkedHashMap<String, Entry<S>> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long opened = 0;
+    private long evictedIdle = 0;
+    private long evictedFull = 0;
+
+    /**
+     * @param maxSessions       sessions open at the same time
+     * @param idleTimeoutMillis time without frames after which a session is closed, in milliseconds
+     * @param lifecycle         creates and releases the state of the sessions
+     */
+    public SessionTable(int maxSessions, long idleTimeoutMillis, Lifecycle<S> lifecycle) {
+        if (maxSessions < 1 || idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid session table: sessions=" + maxSessions
+                    + ", idle timeout=" + idleTimeoutMillis + "ms");
+        }
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.lifecycle = lifecycle;
+    }
+
+    /**
+     * Get the session of a sender that just sent a frame, opening it if needed.
+     * @param now time of the frame, in milliseconds
+     */
+    public synchronized S get(String id, long now) {
+        evictIdle(now);
+        Entry<S> entry = sessions.get(id);
+        if (entry == null) {
+            if (sessions.size() >= maxSessions) {
+                Iterator<Map.Entry<String, Entry<S>>> eldest = sessions.entrySet().iterator();
+                Map.Entry<String, Entry<S>> evicted = eldest.next();
+                eldest.remove();
+                evictedFull++;
+                lifecycle.close(evicted.getKey(), evicted.getValue().session);
+            }
+            entry = new Entry<>(lifecycle.open(id), now);
+            sessions.put(id, entry);
+            opened++;
+        }
+        entry.lastSeen = now;
+        return entry.session;
+    }
+
+    /**
+     * Close the sessions idle for longer than the timeout.
+     * @return number of sessions closed
+     */
+    public synchronized int evictIdle(long now) {
+        int count = 0;
+        Iterator<Map.Entry<String, Entry<S>>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry<S>> eldest = iterator.next();
+            if (now - eldest.getValue().lastSeen <= idleTimeoutMillis) {
+                break;
+            }
+            iterator.remove();
+            evictedIdle++;
+            count++;
+            lifecycle.close(eldest.getKey(), eldest.getValue().session);
+        }
+        return count;
+    }
+
+    /**
+     * Close the session of a sender, for instance when its node disconnects.
+     * @return false if it had no session
+     */
+    public synchronized boolean remove(String id) {
+        Entry<S> entry = sessions.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        lifecycle.close(id, entry.session);
+        return true;
+    }
+
+    /**
+     * Close every session.
+     */
+    public synchronized void clear() {
+        List<String> ids = new ArrayList<>(sessions.keySet());
+        for (String id : ids) {
+            remove(id);
+        }
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return "sessions,<n>,opened,<n>,evicted idle/full,<n>,<n>"
+     */
+    public synchronized String getReport() {
+        return String.format(Locale.US, "sessions,%d,opened,%d,evicted idle/full,%d,%d",
+                sessions.size(), opened, evictedIdle, evictedFull);
+    }
+}
@@ -0,0 +1,142 @@
+package com.wearable.sound.core;
+
+import java.util.List;
+
+/**
+ * Classification pipeline shared by the watch and the phone: a NUM_FRAMES x NUM_BANDS log mel
+ * patch goes into the model through {@link ModelTensors}, and the scores are ranked against per
+ * label thresholds. Nothing is allocated per window.
+ *
+ * Not thread-safe: an instance must only be used by the thread that runs the model.
+ */
+public class SoundClassifier {
+    public static final int NUM_FRAMES = VggishParams.NUM_FRAMES;
+    public static final int NUM_BANDS = VggishParams.NUM_BANDS;
+    /** Samples of audio in one NUM_FRAMES x NUM_BANDS patch, 5360 (335ms) at 16kHz */
+    public static final int WINDOW_SAMPLES =
+            (NUM_FRAMES - 1) * (int) Math.round(VggishParams.SAMPLE_RATE * VggishParams.STFT_HOP_LENGTH_SECONDS)
+                    + (int) Math.round(VggishParams.SAMPLE_RATE * VggishParams.STFT_WINDOW_LENGTH_SECONDS);
+
+    private final SoundModel model;
+    private final List<String> labels;
+    private final ModelTensors modelTensors;
+    private final float[] thresholds;
+
+    /**
+     * @param model     model taking a NUM_FRAMES x NUM_BANDS patch and returning one score per label
+     * @param labels    labels in the order of the model outputs
+     * @param threshold minimum score of a prediction, see {@link #setThreshold}
+     */
+    public SoundClassifier(SoundModel model, List<String> labels, float threshold) {
+        this.model = model;
+        this.labels = labels;
+        this.modelTensors = new ModelTensors(NUM_FRAMES, NUM_BANDS, labels.size());
+        this.thresholds = new float[labels.size()];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = threshold;
+        }
+    }
+
+    /**
+     * Use a different minimum score for one label, for instance to reduce noisy predictions.
+     */
+    public void setThreshold(String label, float threshold) {
+        int index = labels.indexOf(label);
+        if (index >= 0) {
+            thresholds[index] = threshold;
+        }
+    }
+
+    /**
+     * Run the model on a patch of features, the scores can then be read with {@link #getScore}.
+     * @param features NUM_FRAMES x NUM_BANDS values, row-major
+     */
+    public void classify(float[] features) {
+        modelTensors.setInput(features);
+        modelTensors.run(model);
+    }
+
+    /**
+     * @return index of the label with the highest score
+     */
+    public int argmax() {
+        int argmax = 0;
+        float max = modelTensors.getOutput(0);
+        for (int i = 1; i < labels.size(); i++) {
+            if (max < modelTensors.getOutput(i)) {
+                max = modelTensors.getOutput(i);
+                argmax = i;
+            }
+        }
+        return argmax;
+    }
+
+    /**
+     * @return true if the score of the label is above its threshold
+     */
+    public boolean isAboveThreshold(int label) {
+        return modelTensors.getOutput(label) > thresholds[label];
+    }
+
+    /**
+     * Select the highest scoring labels, without sorting the others.
+     * @param aboveThreshold only keep labels whose score is above their threshold
+     * @param out            receives the labels and their scores, by decreasing score
+     * @return number of labels in out
+     */
+    public int topK(boolean aboveThreshold, TopK out) {
+        out.clear();
+        for (int i = 0; i < thresholds.length; i++) {
+            float score = modelTensors.getOutput(i);
+            if (!aboveThreshold || score > thresholds[i]) {
+                out.offer(i, score);
+            }
+        }
+        return out.getCount();
+    }
+
+    /**
+     * Sort the labels by decreasing score, see {@link #topK} when only the first ones are used.
+     * @param aboveThreshold only keep labels whose score is above their threshold
+     * @param out            receives the label indices, must hold {@link #getNumLabels()} values
+     * @return number of indices written to out
+     */
+    public int rank(boolean aboveThreshold, int[] out) {
+        int count = 0;
+        for (int i = 0; i < labels.size(); i++) {
+            if (aboveThreshold && !isAboveThreshold(i)) {
+                continue;
+            }
+            // Insertion sort, there are only a few dozen labels
+            float score = modelTensors.getOutput(i);
+            int j = count;
+            while (j > 0 && modelTensors.getOutput(out[j - 1]) < score) {
+                out[j] = out[j - 1];
+                j--;
+            }
+            out[j] = i;
+            count++;
+        }
+        return count;
+    }
+
+    public float getScore(int label) {
+        return modelTensors.getOutput(label);
+    }
+
+    public float getThreshold(int label) {
+        return thresholds[label];
+    }
+
+    public String getLabel(int label) {
+        return labels.get(label);
+    }
+
+    public int getNumLabels() {
+        return labels.size();
+    }
+
+    public ModelTensors getModelTensors() {
+        return modelTensors;
+    }
+}
@@ -0,0 +1,16 @@
+package com.wearable.sound.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A sound classification model, such as a TFLite interpreter. Kept as an interface so the
+ * pipeline has no Android dependency and can run on a desktop JVM.
+ */
+public interface SoundModel {
+    /**
+     * Run the model once.
+     * @param input  native-order float input tensor, positioned at 0
+     * @param output native-order float output tensor, positioned at 0
+     */
+    void run(ByteBuffer input, ByteBuffer output);
+}
@@ -0,0 +1,130 @@
+package com.wearable.sound.core;
+
+import java.util.Arrays;
+
+/**
+ * Spectral flux of 16-bit PCM computed from a few cheap band energies, to catch the onset of a
+ * sound that is not much louder than the room, such as a knock or a beep over a fan.
+ *
+ * Samples are split into BANDS bands by a cascade of one-pole low-pass filters, a few multiply
+ * adds per sample and no FFT. Every BLOCK_SAMPLES samples the energy of each band is compared in
+ * dB with the recent energy of that band, an exponential average over a few blocks, and the
+ * flux of the block is the sum of the rises. Steady noise gives a small flux whatever its level,
+ * a sound starting in any band gives a flux of about its rise above the noise in that band.
+ *
+ * The largest flux since it was last taken is kept, so a consumer of windows gets the strongest
+ * onset of the audio written since its previous window, see {@link #takePeakFlux()}.
+ *
+ * Not thread-safe, samples are written and the flux taken on the same thread.
+ */
+public class SpectralFlux {
+    /** 20ms at 16kHz */
+    public static final int BLOCK_SAMPLES = 320;
+    // Upper edges of the bands below the last one, which goes up to the Nyquist frequency
+    private static final double[] BAND_EDGES_HZ = {300, 1000, 3000};
+    public static final int BANDS = BAND_EDGES_HZ.length + 1;
+    // Weight of the last block in the recent energy of a band, about 3 blocks
+    private static final double RECENT_WEIGHT = 0.3;
+
+    private final float[] coefficients = new float[BAND_EDGES_HZ.length];
+    private final float[] lowPass = new float[BAND_EDGES_HZ.length];
+    private final double[] energies = new double[BANDS];
+    private final double[] bandDb = new double[BANDS];
+    private final double[] recentDb = new double[BANDS];
+    private int blockCount = 0;
+    private boolean primed = false;
+    private double flux = 0;
+    private double peakFlux = 0;
+
+    public SpectralFlux(int sampleRate) {
+        for (int i = 0; i < coefficients.length; i++) {
+            coefficients[i] = (float) (1 - Math.exp(-2 * Math.PI * BAND_EDGES_HZ[i] / sampleRate));
+        }
+    }
+
+    public void write(short[] samples, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            put(samples[offset + i]);
+        }
+    }
+
+    /**
+     * Push little-endian 16-bit PCM bytes, as returned by {@code AudioRecord.read(byte[], ...)}.
+     */
+    public void writePcm16(byte[] pcm, int offset, int length) {
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            put((short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8)));
+        }
+    }
+
+    private void put(short sample) {
+        float rest = sample;
+        for (int i = coefficients.length - 1; i >= 0; i--) {
+            // The low-pass of what is left below the edge, the band above it is the difference
+            lowPass[i] += coefficients[i] * (rest - lowPass[i]);
+            float band = rest - lowPass[i];
+            energies[i + 1] += band * band;
+            rest = lowPass[i];
+        }
+        energies[0] += rest * rest;
+        if (++blockCount == BLOCK_SAMPLES) {
+            endBlock();
+        }
+    }
+
+    private void endBlock() {
+        flux = 0;
+        for (int i = 0; i < BANDS; i++) {
+            // Plus one sample of one LSB, so silence is 0 dB rather than minus infinity
+            bandDb[i] = 10 * Math.log10(energies[i] / BLOCK_SAMPLES + 1);
+            if (primed) {
+                flux += Math.max(0, bandDb[i] - recentDb[i]);
+                recentDb[i] += RECENT_WEIGHT * (bandDb[i] - recentDb[i]);
+            } else {
+                recentDb[i] = bandDb[i];
+            }
+            energies[i] = 0;
+        }
+        primed = true;
+        peakFlux = Math.max(peakFlux, flux);
+        blockCount = 0;
+    }
+
+    /**
+     * @return the largest flux of the blocks completed since the last call, in dB
+     */
+    public double takePeakFlux() {
+        double peak = peakFlux;
+        peakFlux = 0;
+        return peak;
+    }
+
+    /**
+     * @return the flux of the last block, in dB
+     */
+    public double getFlux() {
+        return flux;
+    }
+
+    /**
+     * @return the energy of a band in the last block, in dB above one LSB
+     */
+    public double getBandDb(int band) {
+        return bandDb[band];
+    }
+
+    /**
+     * Forget the audio written so far, for instance after a gap in the audio.
+     */
+    public void reset() {
+        Arrays.fill(lowPass, 0);
+        Arrays.fill(energies, 0);
+        Arrays.fill(bandDb, 0);
+        Arrays.fill(recentDb, 0);
+        blockCount = 0;
+        primed = false;
+        flux = 0;
+        peakFlux = 0;
+    }
+}
@@ -0,0 +1,115 @@
+package com.wearable.sound.core;
+
+/**
+ * Streaming version of {@link LogMelSpectrogram}: samples are pushed as they are read and a 10ms
+ * log mel frame is computed as soon as 25ms of audio is available, so the feature cost is spread
+ * over the audio reads instead of being paid all at once when a window fills.
+ *
+ * The last numFrames frames are kept in a rolling frame matrix, which can be copied out at any
+ * time with {@link #snapshot}, laid out like one example of {@link LogMelSpectrogram}.
+ *
+ * Not thread-safe: samples must be written and snapshots taken on the same thread.
+ */
+public class StreamingLogMel {
+    private final LogMelSpectrogram logMelSpectrogram = new LogMelSpectrogram();
+    private final int windowLength;
+    private final int hopLength;
+    private final int numMelBins = VggishParams.NUM_MEL_BINS;
+    private final int numFrames;
+
+    // Samples of the frame being filled, the first windowLength - hopLength come from the last frame
+    private final short[] pending;
+    private int pendingCount = 0;
+
+    // Rolling frame matrix, row nextRow is the oldest frame once the matrix is full
+    private final float[] frames;
+    private int nextRow = 0;
+    private long totalFrames = 0;
+
+    /**
+     * @param numFrames number of frames kept in the rolling frame matrix
+     */
+    public StreamingLogMel(int numFrames) {
+        if (numFrames <= 0) {
+            throw new IllegalArgumentException("Invalid number of frames: " + numFrames);
+        }
+        this.numFrames = numFrames;
+        this.windowLength = logMelSpectrogram.getWindowLength();
+        this.hopLength = logMelSpectrogram.getHopLength();
+        this.pending = new short[windowLength];
+        this.frames = new float[numFrames * numMelBins];
+    }
+
+    public void write(short[] samples, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            put(samples[offset + i]);
+        }
+    }
+
+    /**
+     * Push little-endian 16-bit PCM bytes, as returned by {@code AudioRecord.read(byte[], ...)}.
+     */
+    public void writePcm16(byte[] pcm, int offset, int length) {
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            put((short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8)));
+        }
+    }
+
+    private void put(short sample) {
+        pending[pendingCount++] = sample;
+        if (pendingCount == windowLength) {
+            logMelSpectrogram.computeFrame(pending, 0, frames, nextRow * numMelBins);
+            nextRow = (nextRow + 1) % numFrames;
+            totalFrames++;
+            // Keep the overlap with the next frame
+            System.arraycopy(pending, hopLength, pending, 0, windowLength - hopLength);
+            pendingCount = windowLength - hopLength;
+        }
+    }
+
+    /**
+     * @return true once numFrames frames have been computed since the last reset
+     */
+    public boolean isFull() {
+        return totalFrames >= numFrames;
+    }
+
+    /**
+     * Copy the last numFrames frames, oldest first, row-major.
+     *
+     * @param out       destination, receives numFrames * NUM_MEL_BINS values
+     * @param outOffset index in out of the first value
+     * @return number of values written to out, 0 if not enough frames were computed yet
+     */
+    public int snapshot(float[] out, int outOffset) {
+        int size = numFrames * numMelBins;
+        if (!isFull() || out.length - outOffset < size) {
+            return 0;
+        }
+        int oldest = nextRow * numMelBins;
+        System.arraycopy(frames, oldest, out, outOffset, size - oldest);
+        System.arraycopy(frames, 0, out, outOffset + size - oldest, oldest);
+        return size;
+    }
+
+    /**
+     * Forget all samples and frames, for instance after a gap in the audio.
+     */
+    public void reset() {
+        pendingCount = 0;
+        nextRow = 0;
+        totalFrames = 0;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return number of frames computed since the last reset
+     */
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+}
@@ -0,0 +1,74 @@
+package com.wearable.sound.core;
+
+/**
+ * The k highest scoring labels of a prediction, by decreasing score, kept in preallocated arrays
+ * so selecting them allocates nothing and never sorts the whole output of the model.
+ *
+ * Labels are offered one at a time: an offer below the lowest of k kept labels is rejected with
+ * a single comparison, others are inserted in place, so selecting the top k of n labels takes
+ * O(n k) time and usually close to n comparisons. Labels with equal scores keep the order they
+ * were offered in.
+ *
+ * An instance is reused for every prediction, it is not thread-safe.
+ */
+public class TopK {
+    private final int[] labels;
+    private final float[] scores;
+    private int count = 0;
+
+    /**
+     * @param k number of labels kept
+     */
+    public TopK(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Invalid top k: " + k);
+        }
+        labels = new int[k];
+        scores = new float[k];
+    }
+
+    /**
+     * Forget the labels of the last prediction.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return true if the label is one of the k highest scores offered so far
+     */
+    public boolean offer(int label, float score) {
+        int k = labels.length;
+        if (count == k && !(score > scores[k - 1])) {
+            return false;
+        }
+        int i = count < k ? count++ : k - 1;
+        while (i > 0 && scores[i - 1] < score) {
+            labels[i] = labels[i - 1];
+            scores[i] = scores[i - 1];
+            i--;
+        }
+        labels[i] = label;
+        scores[i] = score;
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getK() {
+        return labels.length;
+    }
+
+    /**
+     * @return label of the i-th highest score
+     */
+    public int getLabel(int i) {
+        return labels[i];
+    }
+
+    public float getScore(int i) {
+        return scores[i];
+    }
+}
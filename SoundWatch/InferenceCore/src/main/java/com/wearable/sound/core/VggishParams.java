@@ -0,0 +1,23 @@
+package com.wearable.sound.core;
+
+/**
+ * Java copy of the constants in python/vggish_params.py of both apps. Must be kept in sync so
+ * the Java feature front end matches the Python one.
+ */
+public class VggishParams {
+    public static final int NUM_FRAMES = 32;  // Frames in input mel-spectrogram patch.
+    public static final int NUM_BANDS = 64;  // Frequency bands in input mel-spectrogram patch.
+
+    public static final int SAMPLE_RATE = 16000;
+    public static final double STFT_WINDOW_LENGTH_SECONDS = 0.025;
+    public static final double STFT_HOP_LENGTH_SECONDS = 0.010;
+    public static final int NUM_MEL_BINS = NUM_BANDS;
+    public static final double MEL_MIN_HZ = 125;
+    public static final double MEL_MAX_HZ = 7500;
+    public static final double LOG_OFFSET = 0.01;  // Offset used for stabilized log of input mel-spectrogram.
+    public static final double EXAMPLE_WINDOW_SECONDS = 0.32;  // Each example contains NUM_FRAMES 10ms frames
+    public static final double EXAMPLE_HOP_SECONDS = 0.16;     // with 50% overlap.
+
+    public static final float QUANTIZE_MIN_VAL = -2.0f;
+    public static final float QUANTIZE_MAX_VAL = +2.0f;
+}
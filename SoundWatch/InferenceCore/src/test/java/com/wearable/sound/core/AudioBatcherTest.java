@@ -0,0 +1,116 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AudioBatcherTest {
+    private final List<short[]> batches = new ArrayList<>();
+    private final List<Long> captureTimes = new ArrayList<>();
+    private final List<Double> loudness = new ArrayList<>();
+    private final AudioBatcher.Sink sink = new AudioBatcher.Sink() {
+        @Override
+        public void send(ShortBuffer samples, long captureTime, double db) {
+            short[] batch = new short[samples.remaining()];
+            samples.get(batch);
+            batches.add(batch);
+            captureTimes.add(captureTime);
+            loudness.add(db);
+        }
+    };
+
+    private static short[] chunk(int start, int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (start + i);
+        }
+        return samples;
+    }
+
+    private static void add(AudioBatcher batcher, short[] samples, long captureTime) {
+        long energy = 0;
+        int voiced = 0;
+        for (short sample : samples) {
+            energy += sample * sample;
+            voiced += sample != 0 ? 1 : 0;
+        }
+        batcher.add(ShortBuffer.wrap(samples), captureTime, energy, voiced);
+    }
+
+    @Test
+    public void sendsABatchPerLatency() {
+        // 160ms at 16kHz is 2560 samples, four reads of 640
+        AudioBatcher batcher = new AudioBatcher(16000, 160, 16000, sink);
+        for (int i = 0; i < 10; i++) {
+            add(batcher, chunk(640 * i, 640), 40 * i);
+        }
+        assertEquals(2, batches.size());
+        assertArrayEquals(chunk(0, 2560), batches.get(0));
+        assertArrayEquals(chunk(2560, 2560), batches.get(1));
+        assertEquals(0, (long) captureTimes.get(0));
+        assertEquals(160, (long) captureTimes.get(1));
+        assertEquals(AudioUtils.db(chunk(0, 2560)), loudness.get(0), 1e-9);
+
+        // The rest is sent when the recording stops
+        batcher.flush();
+        assertEquals(3, batches.size());
+        assertArrayEquals(chunk(5120, 1280), batches.get(2));
+        assertEquals(320, (long) captureTimes.get(2));
+        batcher.flush();
+        assertEquals(3, batches.size());
+        assertEquals(3, batcher.getMessages());
+        assertEquals(2 * 6400, batcher.getBytes());
+        // The first read of each batch waited 120ms, the others 40ms before the flush
+        assertEquals(120, batcher.getMaxLatencyMillis());
+    }
+
+    @Test
+    public void zeroLatencySendsEveryChunk() {
+        AudioBatcher batcher = new AudioBatcher(16000, 0, 16000, sink);
+        add(batcher, chunk(0, 100), 0);
+        add(batcher, chunk(100, 30), 5);
+        assertEquals(2, batches.size());
+        assertArrayEquals(chunk(100, 30), batches.get(1));
+        assertEquals(0, batcher.getMaxLatencyMillis());
+    }
+
+    @Test
+    public void chunkThatDoesNotFitStartsTheNextBatch() {
+        // At most 1000 samples in a batch
+        AudioBatcher batcher = new AudioBatcher(16000, 1000, 2000, sink);
+        add(batcher, chunk(0, 400), 0);
+        add(batcher, chunk(400, 400), 25);
+        add(batcher, chunk(800, 400), 50);
+        assertEquals(1, batches.size());
+        assertArrayEquals(chunk(0, 800), batches.get(0));
+        batcher.flush();
+        assertArrayEquals(chunk(800, 400), batches.get(1));
+        assertEquals(50, (long) captureTimes.get(1));
+    }
+
+    @Test
+    public void largeChunkIsSplitWithItsEnergy() {
+        AudioBatcher batcher = new AudioBatcher(16000, 1000, 2000, sink);
+        short[] samples = new short[2500];
+        java.util.Arrays.fill(samples, (short) 100);
+        add(batcher, samples, 0);
+        batcher.flush();
+        assertEquals(3, batches.size());
+        assertEquals(1000, batches.get(0).length);
+        assertEquals(1000, batches.get(1).length);
+        assertEquals(500, batches.get(2).length);
+        for (double db : loudness) {
+            assertEquals(40, db, 1e-9);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsRoomForASample() {
+        new AudioBatcher(16000, 160, 1, sink);
+    }
+}
@@ -0,0 +1,121 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioFrameTest {
+
+    @Test
+    public void pcm16RoundTrip() {
+        short[] samples = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE, 1234};
+        ShortBuffer buffer = ShortBuffer.wrap(samples, 1, 4);
+        byte[] message = AudioFrame.encodePcm16(42, 1600000000123L, 16000, -12.5f, buffer);
+        assertEquals(1, buffer.position());
+        assertEquals(AudioFrame.HEADER_SIZE + 8, message.length);
+
+        AudioFrame frame = new AudioFrame();
+        assertTrue(frame.read(message));
+        assertEquals(AudioFrame.TYPE_PCM16, frame.getType());
+        assertEquals(0, frame.getFlags());
+        assertEquals(42, frame.getSequence());
+        assertEquals(1600000000123L, frame.getCaptureTime());
+        assertEquals(16000, frame.getSampleRate());
+        assertEquals(-12.5f, frame.getLoudness(), 0);
+        assertEquals(4, frame.getSampleCount());
+        short[] out = new short[4];
+        assertEquals(4, frame.readSamples(out));
+        assertArrayEquals(new short[] {1, -1, Short.MAX_VALUE, Short.MIN_VALUE}, out);
+        assertEquals(-1, frame.getFeatureCount());
+    }
+
+    @Test
+    public void imaAdpcmFrameDecodesLikeTheBlock() {
+        short[] samples = new short[2561];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (5000 * Math.sin(i / 7.0));
+        }
+        byte[] message = AudioFrame.encodeImaAdpcm(7, 100, 16000, Float.NaN, ShortBuffer.wrap(samples),
+                new ImaAdpcm());
+        AudioFrame frame = new AudioFrame();
+        assertTrue(frame.read(message));
+        assertEquals(AudioFrame.TYPE_IMA_ADPCM, frame.getType());
+        assertTrue(Float.isNaN(frame.getLoudness()));
+        assertEquals(samples.length, frame.getSampleCount());
+        short[] out = new short[samples.length];
+        assertEquals(samples.length, frame.readSamples(out));
+        assertArrayEquals(CodecComparison.imaAdpcmRoundTrip(samples, samples.length), out);
+    }
+
+    @Test
+    public void featuresRoundTrip() {
+        float[] features = new float[20];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = (float) Math.log(0.01 + i);
+        }
+        AudioFrame frame = new AudioFrame();
+        float[] out = new float[features.length];
+
+        assertTrue(frame.read(AudioFrame.encodeFeatures(1, 2, 16000, 3f, features, 0, features.length)));
+        assertEquals(AudioFrame.TYPE_FEATURES, frame.getType());
+        assertEquals(features.length, frame.readFeatures(out));
+        assertArrayEquals(features, out, 0);
+
+        FeatureQuantizer quantizer = new FeatureQuantizer();
+        assertTrue(frame.read(AudioFrame.encodeQuantizedFeatures(AudioFrame.TYPE_FEATURES_FLOAT16, 2, 2, 16000,
+                3f, features, 0, features.length, quantizer)));
+        assertEquals(features.length, frame.getFeatureCount());
+        assertEquals(features.length, frame.readFeatures(out));
+        assertArrayEquals(features, out, 5e-3f);
+
+        assertTrue(frame.read(AudioFrame.encodeQuantizedFeatures(AudioFrame.TYPE_FEATURES_INT8, 3, 2, 16000,
+                3f, features, 0, features.length, quantizer)));
+        assertEquals(features.length, frame.getFeatureCount());
+        assertEquals(features.length, frame.readFeatures(out));
+        assertArrayEquals(features, out, 0.02f);
+        assertEquals(-1, frame.readSamples(new short[1]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quantizedFeaturesNeedAQuantizedType() {
+        AudioFrame.encodeQuantizedFeatures(AudioFrame.TYPE_PCM16, 0, 0, 16000, 0f, new float[1], 0, 1,
+                new FeatureQuantizer());
+    }
+
+    @Test
+    public void heartbeatWithDiscontinuity() {
+        byte[] message = AudioFrame.encodeHeartbeat(9, 5, 16000, 31.5f);
+        AudioFrame.setFlags(message, AudioFrame.FLAG_DISCONTINUITY);
+        AudioFrame frame = new AudioFrame();
+        assertTrue(frame.read(message));
+        assertEquals(AudioFrame.TYPE_HEARTBEAT, frame.getType());
+        assertEquals(AudioFrame.FLAG_DISCONTINUITY, frame.getFlags());
+        assertEquals(31.5f, frame.getLoudness(), 0);
+        assertEquals(0, frame.getPayloadLength());
+        assertEquals(-1, frame.getSampleCount());
+    }
+
+    @Test
+    public void rejectsOtherMessages() {
+        byte[] message = AudioFrame.encodePcm16(0, 0, 16000, 0f, ShortBuffer.wrap(new short[10]));
+        AudioFrame frame = new AudioFrame();
+        assertFalse(frame.read(new byte[AudioFrame.HEADER_SIZE - 1]));
+        assertFalse(frame.read(java.util.Arrays.copyOf(message, message.length - 1)));
+
+        byte[] version = message.clone();
+        version[4]++;
+        assertFalse(frame.read(version));
+
+        byte[] magic = message.clone();
+        magic[0] = 'X';
+        assertFalse(frame.read(magic));
+
+        // Legacy messages of raw PCM do not start with the magic
+        assertFalse(frame.read("0.1,0.2".getBytes()));
+    }
+}
@@ -0,0 +1,107 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AudioRingBufferTest {
+
+    private static short[] ramp(int start, int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (start + i);
+        }
+        return samples;
+    }
+
+    @Test
+    public void windowsStartOneHopApart() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8, 4, 16);
+        buffer.write(ramp(0, 6), 0, 6);
+        assertFalse(buffer.hasWindow());
+        assertEquals(2, buffer.samplesUntilWindow());
+        assertNull(buffer.nextWindow());
+
+        buffer.write(ramp(6, 10), 0, 10);
+        ShortBuffer window = buffer.nextWindow();
+        assertEquals(8, window.remaining());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, window.get(i));
+        }
+        // The second window overlaps the first by windowSize - hopSize samples
+        window = buffer.nextWindow();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(4 + i, window.get(i));
+        }
+        assertEquals(8, buffer.available());
+    }
+
+    @Test
+    public void windowsWrapAroundTheRing() {
+        AudioRingBuffer buffer = new AudioRingBuffer(6, 3, 10);
+        int next = 0;
+        int expectedStart = 0;
+        for (int round = 0; round < 20; round++) {
+            buffer.write(ramp(next, 3), 0, 3);
+            next += 3;
+            while (buffer.hasWindow()) {
+                ShortBuffer window = buffer.nextWindow();
+                for (int i = 0; i < 6; i++) {
+                    assertEquals(expectedStart + i, window.get(i));
+                }
+                expectedStart += 3;
+            }
+        }
+        assertEquals(0, buffer.getDroppedSamples());
+    }
+
+    @Test
+    public void overwritesTheOldestSamplesWhenFull() {
+        AudioRingBuffer buffer = new AudioRingBuffer(4, 8);
+        buffer.write(ramp(0, 10), 0, 10);
+        assertEquals(2, buffer.getDroppedSamples());
+        assertEquals(2, buffer.nextWindow().get(0));
+    }
+
+    @Test
+    public void writesLittleEndianPcm() {
+        AudioRingBuffer buffer = new AudioRingBuffer(2, 4);
+        buffer.writePcm16(new byte[] {0x34, 0x12, (byte) 0xff, (byte) 0xff}, 0, 4);
+        ShortBuffer window = buffer.nextWindow();
+        assertEquals(0x1234, window.get(0));
+        assertEquals(-1, window.get(1));
+    }
+
+    @Test
+    public void windowDbMatchesTheWindowCopied() {
+        AudioRingBuffer buffer = new AudioRingBuffer(64, 16, 100);
+        java.util.Random random = new java.util.Random(1);
+        short[] samples = new short[37];
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < samples.length; i++) {
+                // Some digital silence, which the loudness does not count
+                samples[i] = (short) (random.nextInt(4) == 0 ? 0 : random.nextGaussian() * (100 + 200 * round));
+            }
+            buffer.write(samples, 0, samples.length);
+            while (buffer.hasWindow()) {
+                double db = buffer.windowDb();
+                assertEquals(AudioUtils.db(buffer.nextWindow()), db, 1e-9);
+            }
+        }
+        assertTrue(Double.isNaN(buffer.windowDb()));
+    }
+
+    @Test
+    public void skipWindowConsumesOneHop() {
+        AudioRingBuffer buffer = new AudioRingBuffer(4, 2, 8);
+        buffer.write(ramp(0, 6), 0, 6);
+        assertTrue(buffer.skipWindow());
+        assertEquals(2, buffer.nextWindow().get(0));
+        assertFalse(buffer.skipWindow());
+    }
+}
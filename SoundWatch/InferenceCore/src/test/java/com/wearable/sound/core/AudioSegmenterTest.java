@@ -0,0 +1,181 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioSegmenterTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLIS = SpectralFlux.BLOCK_SAMPLES * 1000 / SAMPLE_RATE;
+
+    /**
+     * Records the blocks sent, the segment ends and the heartbeats.
+     */
+    private static class RecordingSink implements AudioSegmenter.Sink {
+        final List<Long> sendTimes = new ArrayList<>();
+        final List<Boolean> starts = new ArrayList<>();
+        final List<short[]> blocks = new ArrayList<>();
+        final List<Long> heartbeatTimes = new ArrayList<>();
+        // Number of blocks sent when each segment ended
+        final List<Integer> ends = new ArrayList<>();
+
+        @Override
+        public void send(ShortBuffer samples, long captureTime, long energy, int voiced, boolean start) {
+            short[] block = new short[samples.remaining()];
+            samples.get(block);
+            long expected = 0;
+            for (short sample : block) {
+                expected += sample * sample;
+            }
+            assertEquals(expected, energy);
+            sendTimes.add(captureTime);
+            starts.add(start);
+            blocks.add(block);
+        }
+
+        @Override
+        public void end() {
+            ends.add(sendTimes.size());
+        }
+
+        @Override
+        public void heartbeat(long time, double noiseFloor) {
+            assertFalse(Double.isNaN(noiseFloor));
+            heartbeatTimes.add(time);
+        }
+    }
+
+    /**
+     * One second of room noise, a 200ms beep, then one more second of noise.
+     */
+    private static short[] beepInNoise() {
+        Random random = new Random(7);
+        short[] audio = new short[SAMPLE_RATE * 12 / 5];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (short) (random.nextGaussian() * 100);
+        }
+        for (int i = SAMPLE_RATE; i < SAMPLE_RATE * 6 / 5; i++) {
+            audio[i] += (short) (5000 * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE));
+        }
+        return audio;
+    }
+
+    private static AudioSegmenter segmenter(AudioSegmenter.Sink sink) {
+        // 100ms of pre-roll and hangover, segments of at least 100ms, a heartbeat every 200ms
+        return new AudioSegmenter(SAMPLE_RATE, AudioUtils.fromDbfs(-60), 100, 100, SAMPLE_RATE / 10, 200, sink);
+    }
+
+    /**
+     * @param chunk samples per write, a whole number of milliseconds so capture times are exact
+     */
+    private static void write(AudioSegmenter segmenter, short[] audio, int chunk) {
+        for (int offset = 0; offset < audio.length; offset += chunk) {
+            int length = Math.min(chunk, audio.length - offset);
+            ShortBuffer samples = ShortBuffer.wrap(audio, offset, length);
+            segmenter.write(samples, (long) offset * 1000 / SAMPLE_RATE);
+            assertEquals(offset, samples.position());
+        }
+    }
+
+    @Test
+    public void sendsTheSoundWithItsPreRollAndHangover() {
+        short[] audio = beepInNoise();
+        RecordingSink sink = new RecordingSink();
+        AudioSegmenter segmenter = segmenter(sink);
+        write(segmenter, audio, 640);
+
+        assertEquals(1, segmenter.getSegments());
+        assertEquals(1, sink.ends.size());
+        assertFalse(segmenter.isActive());
+        // The segment starts 100ms before the beep and the blocks follow each other
+        assertEquals(1000 - 100, (long) sink.sendTimes.get(0));
+        assertTrue(sink.starts.get(0));
+        for (int i = 1; i < sink.sendTimes.size(); i++) {
+            assertEquals(sink.sendTimes.get(i - 1) + BLOCK_MILLIS, (long) sink.sendTimes.get(i));
+            assertFalse(sink.starts.get(i));
+        }
+        // and ends within a few blocks of hangover after it
+        long end = sink.sendTimes.get(sink.sendTimes.size() - 1) + BLOCK_MILLIS;
+        assertTrue("segment ends at " + end, end >= 1200 + 100 && end <= 1200 + 200);
+
+        // The samples sent are the samples written
+        for (int i = 0; i < sink.blocks.size(); i++) {
+            int from = (int) (sink.sendTimes.get(i) * SAMPLE_RATE / 1000);
+            short[] expected = new short[SpectralFlux.BLOCK_SAMPLES];
+            System.arraycopy(audio, from, expected, 0, expected.length);
+            assertArrayEquals(expected, sink.blocks.get(i));
+        }
+        assertEquals((double) sink.blocks.size() / (audio.length / SpectralFlux.BLOCK_SAMPLES),
+                segmenter.getSentRatio(), 1e-9);
+    }
+
+    @Test
+    public void sendsHeartbeatsBetweenSegments() {
+        RecordingSink sink = new RecordingSink();
+        write(segmenter(sink), beepInNoise(), 640);
+        assertEquals(0, (long) sink.heartbeatTimes.get(0));
+        for (int i = 1; i < sink.heartbeatTimes.size(); i++) {
+            long gap = sink.heartbeatTimes.get(i) - sink.heartbeatTimes.get(i - 1);
+            // Every 200ms, or 200ms after the last block of the segment
+            assertTrue("heartbeat gap " + gap, gap >= 200);
+            assertTrue("heartbeat gap " + gap, gap <= 200 + BLOCK_MILLIS || sink.heartbeatTimes.get(i) > 1300);
+        }
+        long lastSent = sink.sendTimes.get(sink.sendTimes.size() - 1);
+        for (long time : sink.heartbeatTimes) {
+            assertTrue(time < sink.sendTimes.get(0) || time >= lastSent + 200);
+        }
+    }
+
+    @Test
+    public void chunkSizeDoesNotMatter() {
+        short[] audio = beepInNoise();
+        RecordingSink large = new RecordingSink();
+        write(segmenter(large), audio, 4096);
+        RecordingSink small = new RecordingSink();
+        write(segmenter(small), audio, 80);
+        assertEquals(large.sendTimes, small.sendTimes);
+        assertEquals(large.ends, small.ends);
+    }
+
+    @Test
+    public void sendsNothingOfASilentRoom() {
+        RecordingSink sink = new RecordingSink();
+        AudioSegmenter segmenter = segmenter(sink);
+        short[] hiss = new short[SAMPLE_RATE];
+        Random random = new Random(3);
+        for (int i = 0; i < hiss.length; i++) {
+            // About -70 dBFS, with an onset the gate would pass above its minimum
+            hiss[i] = (short) (random.nextGaussian() * (i < SAMPLE_RATE / 2 ? 1 : 10));
+        }
+        write(segmenter, hiss, 640);
+        assertTrue(sink.sendTimes.isEmpty());
+        assertEquals(5, sink.heartbeatTimes.size());
+        assertEquals(0, segmenter.getSentRatio(), 0);
+    }
+
+    @Test
+    public void flushEndsTheSegment() {
+        RecordingSink sink = new RecordingSink();
+        AudioSegmenter segmenter = segmenter(sink);
+        short[] audio = beepInNoise();
+        write(segmenter, Arrays.copyOf(audio, SAMPLE_RATE * 11 / 10), 640);
+        assertTrue(segmenter.isActive());
+        segmenter.flush();
+        assertFalse(segmenter.isActive());
+        assertEquals(1, sink.ends.size());
+        segmenter.flush();
+        assertEquals(1, sink.ends.size());
+
+        segmenter.reset();
+        assertTrue(Double.isNaN(segmenter.getNoiseFloor()));
+    }
+}
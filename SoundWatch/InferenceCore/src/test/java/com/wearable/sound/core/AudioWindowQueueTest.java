@@ -0,0 +1,116 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AudioWindowQueueTest {
+
+    private static ShortBuffer window(int value) {
+        return ShortBuffer.wrap(new short[] {(short) value, (short) value});
+    }
+
+    @Test
+    public void dropNewestKeepsTheQueuedWindows() {
+        AudioWindowQueue queue = new AudioWindowQueue(2, 2, AudioWindowQueue.OverrunPolicy.DROP_NEWEST);
+        assertTrue(queue.offer(window(1), 10));
+        assertTrue(queue.offer(window(2), 20));
+        assertFalse(queue.offer(window(3), 30));
+        assertEquals(1, queue.getDroppedWindows());
+
+        assertEquals(1, queue.take(0, TimeUnit.MILLISECONDS).get(0));
+        assertEquals(10, queue.getRecordTime());
+        assertEquals(1, queue.getSequence());
+        queue.release();
+        assertEquals(2, queue.take(0, TimeUnit.MILLISECONDS).get(0));
+        queue.release();
+        assertNull(queue.take(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void dropOldestKeepsTheLatestWindows() {
+        AudioWindowQueue queue = new AudioWindowQueue(2, 2, AudioWindowQueue.OverrunPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer(window(i), i));
+        }
+        assertEquals(3, queue.getDroppedWindows());
+        assertEquals(2, queue.size());
+
+        assertEquals(4, queue.take(0, TimeUnit.MILLISECONDS).get(0));
+        // Sequence numbers count the dropped windows, so the gap shows
+        assertEquals(4, queue.getSequence());
+        queue.release();
+        assertEquals(5, queue.take(0, TimeUnit.MILLISECONDS).get(0));
+        queue.release();
+    }
+
+    @Test
+    public void heldWindowIsNotReusedBeforeRelease() {
+        AudioWindowQueue queue = new AudioWindowQueue(1, 2, AudioWindowQueue.OverrunPolicy.DROP_OLDEST);
+        queue.offer(window(1), 1);
+        ShortBuffer held = queue.take(0, TimeUnit.MILLISECONDS);
+        for (int i = 2; i <= 4; i++) {
+            queue.offer(window(i), i);
+        }
+        assertEquals(1, held.get(0));
+        queue.release();
+        assertEquals(4, queue.take(0, TimeUnit.MILLISECONDS).get(0));
+        queue.release();
+    }
+
+    @Test
+    public void offerPcm16MetersTheWindow() {
+        AudioWindowQueue queue = new AudioWindowQueue(1, 4, AudioWindowQueue.OverrunPolicy.DROP_NEWEST);
+        // 3, 0, -4 little-endian
+        byte[] pcm = {3, 0, 0, 0, (byte) 0xfc, (byte) 0xff};
+        queue.offerPcm16(pcm, 0, pcm.length, 7);
+        ShortBuffer window = queue.take(0, TimeUnit.MILLISECONDS);
+        assertEquals(3, window.remaining());
+        assertEquals(-4, window.get(2));
+        assertEquals(25, queue.getEnergy());
+        assertEquals(2, queue.getVoiced());
+        assertEquals(AudioUtils.db(window), queue.getDb(), 1e-9);
+        queue.release();
+    }
+
+    @Test
+    public void concurrentConsumerSeesEveryWindowInOrder() throws InterruptedException {
+        final int windows = 20000;
+        final AudioWindowQueue queue = new AudioWindowQueue(8, 2, AudioWindowQueue.OverrunPolicy.DROP_OLDEST);
+        final long[] taken = new long[1];
+        final boolean[] ordered = {true};
+        Thread consumer = new Thread(() -> {
+            long last = 0;
+            while (true) {
+                ShortBuffer window = queue.take(1, TimeUnit.SECONDS);
+                if (window == null) {
+                    return;
+                }
+                long sequence = queue.getSequence();
+                // Both samples come from the same offer, and windows are never taken twice
+                if (window.get(0) != window.get(1) || (short) sequence != window.get(0) || sequence <= last) {
+                    ordered[0] = false;
+                }
+                last = sequence;
+                taken[0]++;
+                queue.release();
+                if (sequence == windows) {
+                    return;
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 1; i <= windows; i++) {
+            queue.offer(window(i), i);
+        }
+        consumer.join();
+        assertTrue(ordered[0]);
+        assertEquals(windows, taken[0] + queue.getDroppedWindows());
+    }
+}
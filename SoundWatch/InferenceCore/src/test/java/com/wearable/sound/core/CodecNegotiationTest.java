@@ -0,0 +1,45 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class CodecNegotiationTest {
+
+    @Test
+    public void answersTheFirstSupportedCodec() {
+        String offer = CodecNegotiation.offer(7, CodecNegotiation.IMA_ADPCM, CodecNegotiation.PCM16);
+        assertEquals("7,IMA_ADPCM,PCM16", offer);
+
+        String answer = CodecNegotiation.answer(offer,
+                Arrays.asList(CodecNegotiation.PCM16, CodecNegotiation.IMA_ADPCM));
+        assertEquals(7, CodecNegotiation.session(answer));
+        assertEquals(CodecNegotiation.IMA_ADPCM, CodecNegotiation.codec(answer));
+    }
+
+    @Test
+    public void skipsUnsupportedCodecs() {
+        String offer = CodecNegotiation.offer(3, CodecNegotiation.FLOAT16, CodecNegotiation.FLOAT32);
+        String answer = CodecNegotiation.answer(offer, Collections.singletonList(CodecNegotiation.FLOAT32));
+        assertEquals("3,FLOAT32", answer);
+    }
+
+    @Test
+    public void answersPcm16WhenNothingIsSupported() {
+        String offer = CodecNegotiation.offer(5, CodecNegotiation.INT8);
+        String answer = CodecNegotiation.answer(offer, Collections.singletonList(CodecNegotiation.IMA_ADPCM));
+        assertEquals(5, CodecNegotiation.session(answer));
+        assertEquals(CodecNegotiation.PCM16, CodecNegotiation.codec(answer));
+    }
+
+    @Test
+    public void readsMalformedMessagesAsNoSession() {
+        assertEquals(-1, CodecNegotiation.session("IMA_ADPCM"));
+        assertEquals(-1, CodecNegotiation.session(""));
+        assertEquals(CodecNegotiation.PCM16, CodecNegotiation.codec("4"));
+        assertEquals(CodecNegotiation.PCM16, CodecNegotiation.codec("4,FLOAT16,INT8"));
+    }
+}
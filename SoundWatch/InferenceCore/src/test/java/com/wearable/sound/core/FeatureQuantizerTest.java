@@ -0,0 +1,101 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureQuantizerTest {
+
+    private static float[] logMel(int length, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (float) Math.log(0.01 + random.nextDouble() * 5);
+        }
+        return values;
+    }
+
+    @Test
+    public void float16KeepsThreeSignificantDigits() {
+        float[] values = logMel(96 * 64, 1);
+        FeatureQuantizer quantizer = new FeatureQuantizer();
+        ByteBuffer buffer = ByteBuffer.allocate(FeatureQuantizer.float16Size(values.length));
+        quantizer.encodeFloat16(values, 0, values.length, buffer);
+        assertEquals(buffer.capacity(), buffer.position());
+        buffer.flip();
+        float[] decoded = new float[values.length];
+        quantizer.decodeFloat16(buffer, decoded, 0, decoded.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], decoded[i], Math.abs(values[i]) * 0x1p-11f);
+        }
+    }
+
+    @Test
+    public void float16ConvertsSpecialValues() {
+        float[] exact = {0f, -0f, 1f, -2f, 65504f, 0x1p-14f, 0x1p-24f, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY};
+        for (float value : exact) {
+            assertEquals(Float.floatToIntBits(value),
+                    Float.floatToIntBits(FeatureQuantizer.fromFloat16(FeatureQuantizer.toFloat16(value))));
+        }
+        assertTrue(Float.isNaN(FeatureQuantizer.fromFloat16(FeatureQuantizer.toFloat16(Float.NaN))));
+        assertEquals(Float.POSITIVE_INFINITY, FeatureQuantizer.fromFloat16(FeatureQuantizer.toFloat16(1e6f)), 0);
+        assertEquals(0f, FeatureQuantizer.fromFloat16(FeatureQuantizer.toFloat16(1e-9f)), 0);
+        // Halfway between 1 and the next half, rounds to even
+        assertEquals(1f, FeatureQuantizer.fromFloat16(FeatureQuantizer.toFloat16(1f + 0x1p-11f)), 0);
+        assertEquals(1f + 0x1p-9f, FeatureQuantizer.fromFloat16(FeatureQuantizer.toFloat16(1f + 0x1.8p-10f)), 0);
+    }
+
+    @Test
+    public void float16MatchesEveryHalf() {
+        for (int bits = 0; bits < 0x10000; bits++) {
+            short half = (short) bits;
+            float value = FeatureQuantizer.fromFloat16(half);
+            if (!Float.isNaN(value)) {
+                assertEquals(half, FeatureQuantizer.toFloat16(value));
+            }
+        }
+    }
+
+    @Test
+    public void int8ErrorIsAtMostHalfAStep() {
+        float[] values = logMel(96 * 64, 2);
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        FeatureQuantizer quantizer = new FeatureQuantizer();
+        ByteBuffer buffer = ByteBuffer.allocate(FeatureQuantizer.int8Size(values.length) + 4);
+        buffer.position(4);
+        quantizer.encodeInt8(values, 0, values.length, buffer);
+        assertEquals(buffer.capacity(), buffer.position());
+        buffer.position(4);
+        float[] decoded = new float[values.length + 1];
+        quantizer.decodeInt8(buffer, decoded, 1, values.length);
+        float step = (max - min) / 255;
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], decoded[i + 1], step / 2 + 1e-5f);
+        }
+    }
+
+    @Test
+    public void int8KeepsAConstantPatch() {
+        float[] values = new float[10];
+        java.util.Arrays.fill(values, -4.5f);
+        FeatureQuantizer quantizer = new FeatureQuantizer();
+        ByteBuffer buffer = ByteBuffer.allocate(FeatureQuantizer.int8Size(values.length));
+        quantizer.encodeInt8(values, 0, values.length, buffer);
+        buffer.flip();
+        float[] decoded = new float[values.length];
+        quantizer.decodeInt8(buffer, decoded, 0, decoded.length);
+        for (float value : decoded) {
+            assertEquals(-4.5f, value, 0);
+        }
+    }
+}
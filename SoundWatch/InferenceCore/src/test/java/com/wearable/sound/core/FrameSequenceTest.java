@@ -0,0 +1,68 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameSequenceTest {
+
+    @Test
+    public void countsLostFrames() {
+        FrameSequence sequence = new FrameSequence();
+        assertEquals(0, sequence.accept(100));
+        assertEquals(0, sequence.accept(101));
+        assertEquals(2, sequence.accept(104));
+        assertEquals(0, sequence.accept(105));
+        assertEquals(4, sequence.getReceived());
+        assertEquals(2, sequence.getLost());
+    }
+
+    @Test
+    public void dropsLateAndDuplicateFrames() {
+        FrameSequence sequence = new FrameSequence();
+        sequence.accept(10);
+        sequence.accept(13);
+        assertEquals(FrameSequence.LATE, sequence.accept(11));
+        assertEquals(FrameSequence.LATE, sequence.accept(13));
+        assertEquals(0, sequence.accept(14));
+        assertEquals(2, sequence.getLate());
+        // A late frame was counted as lost when the newer one arrived
+        assertEquals(2, sequence.getLost());
+    }
+
+    @Test
+    public void followsTheSequenceAcrossOverflow() {
+        FrameSequence sequence = new FrameSequence();
+        sequence.accept(Integer.MAX_VALUE - 1);
+        assertEquals(0, sequence.accept(Integer.MAX_VALUE));
+        assertEquals(0, sequence.accept(Integer.MIN_VALUE));
+        assertEquals(1, sequence.accept(Integer.MIN_VALUE + 2));
+        assertEquals(FrameSequence.LATE, sequence.accept(Integer.MAX_VALUE));
+        assertEquals(0, sequence.getRestarts());
+    }
+
+    @Test
+    public void farFramesRestartTheSequence() {
+        FrameSequence sequence = new FrameSequence();
+        sequence.accept(1000);
+        // A new recording starts at a random number, ahead or behind
+        assertEquals(FrameSequence.RESTARTED, sequence.accept(1000 + 5000));
+        assertEquals(0, sequence.accept(6001));
+        assertEquals(FrameSequence.RESTARTED, sequence.accept(6001 - 100));
+        assertEquals(0, sequence.accept(5902));
+        assertEquals(2, sequence.getRestarts());
+        assertEquals(0, sequence.getLost());
+        assertEquals(0, sequence.getLate());
+    }
+
+    @Test
+    public void resetAcceptsAnyFrame() {
+        FrameSequence sequence = new FrameSequence();
+        sequence.accept(50);
+        sequence.reset();
+        assertEquals(0, sequence.accept(20));
+        assertEquals(0, sequence.accept(21));
+        assertEquals(0, sequence.getRestarts());
+        assertEquals(0, sequence.getLate());
+    }
+}
@@ -0,0 +1,92 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImaAdpcmTest {
+
+    private static short[] tone(int length, double amplitude) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / VggishParams.SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static double snr(short[] original, short[] decoded, int from) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = from; i < original.length; i++) {
+            signal += (double) original[i] * original[i];
+            noise += (double) (original[i] - decoded[i]) * (original[i] - decoded[i]);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    @Test
+    public void roundTripKeepsTheSignal() {
+        short[] audio = tone(16000, 8000);
+        short[] decoded = CodecComparison.imaAdpcmRoundTrip(audio, 2560);
+        // Skip the first samples, while the step size adapts
+        assertTrue(snr(audio, decoded, 100) > 20);
+    }
+
+    @Test
+    public void stateCarriesAcrossBlocks() {
+        short[] audio = tone(4000, 12000);
+        ImaAdpcm encoder = new ImaAdpcm();
+        ByteBuffer whole = ByteBuffer.allocate(ImaAdpcm.blockSize(audio.length));
+        encoder.encode(ShortBuffer.wrap(audio), whole);
+        whole.flip();
+        short[] expected = new short[audio.length];
+        assertEquals(audio.length, ImaAdpcm.decode(whole, expected, 0));
+
+        encoder.reset();
+        short[] decoded = new short[audio.length];
+        for (int offset = 0; offset < audio.length; offset += 333) {
+            int length = Math.min(333, audio.length - offset);
+            ByteBuffer block = ByteBuffer.allocate(ImaAdpcm.blockSize(length));
+            encoder.encode(ShortBuffer.wrap(audio, offset, length), block);
+            block.flip();
+            assertEquals(length, ImaAdpcm.sampleCount(block));
+            assertEquals(length, ImaAdpcm.decode(block, decoded, offset));
+            assertEquals(0, block.remaining());
+        }
+        // Each block decodes on its own to the same samples as one long block
+        for (int i = 0; i < audio.length; i++) {
+            assertEquals(expected[i], decoded[i]);
+        }
+    }
+
+    @Test
+    public void clampsFullScaleNoise() {
+        Random random = new Random(3);
+        short[] audio = new short[3001];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = random.nextBoolean() ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        ByteBuffer block = ByteBuffer.allocate(ImaAdpcm.blockSize(audio.length));
+        new ImaAdpcm().encode(ShortBuffer.wrap(audio), block);
+        assertEquals(ImaAdpcm.blockSize(audio.length), block.position());
+        block.flip();
+        assertEquals(audio.length, ImaAdpcm.decode(block, new short[audio.length], 0));
+    }
+
+    @Test
+    public void rejectsTruncatedBlocks() {
+        ByteBuffer block = ByteBuffer.allocate(ImaAdpcm.blockSize(100));
+        new ImaAdpcm().encode(ShortBuffer.wrap(new short[100]), block);
+        block.flip();
+        block.limit(block.limit() - 1);
+        assertEquals(-1, ImaAdpcm.sampleCount(block));
+        assertEquals(-1, ImaAdpcm.decode(block, new short[100], 0));
+        block.limit(ImaAdpcm.BLOCK_HEADER_SIZE - 1);
+        assertEquals(-1, ImaAdpcm.sampleCount(block));
+    }
+}
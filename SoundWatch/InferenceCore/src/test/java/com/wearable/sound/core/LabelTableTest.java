@@ -0,0 +1,49 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class LabelTableTest {
+
+    @Test
+    public void decodesTheEncodedTable() {
+        LabelTable table = new LabelTable(Arrays.asList("Dog Bark", "Door Knock", "Caf\u00e9", ""));
+        LabelTable decoded = LabelTable.decode(table.encode());
+        assertEquals(table.getId(), decoded.getId());
+        assertEquals(table.getLabels(), decoded.getLabels());
+        assertEquals(4, decoded.size());
+    }
+
+    @Test
+    public void idDependsOnTheLabelsAndTheirOrder() {
+        LabelTable table = new LabelTable(Arrays.asList("a", "b"));
+        assertEquals(table.getId(), new LabelTable(Arrays.asList("a", "b")).getId());
+        assertNotEquals(table.getId(), new LabelTable(Arrays.asList("b", "a")).getId());
+    }
+
+    @Test
+    public void returnsNullOutsideTheTable() {
+        LabelTable table = new LabelTable(Arrays.asList("a", "b"));
+        assertEquals("b", table.getLabel(1));
+        assertNull(table.getLabel(2));
+        assertNull(table.getLabel(-1));
+        assertNull(table.getLabel(PredictionResult.NO_LABEL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedTables() {
+        LabelTable.decode(new byte[7]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTablesThatDoNotMatchTheirId() {
+        byte[] message = new LabelTable(Arrays.asList("Dog Bark", "Door Knock")).encode();
+        message[message.length - 2]++;
+        LabelTable.decode(message);
+    }
+}
@@ -0,0 +1,81 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListeningSchedulerTest {
+
+    @Test
+    public void choosesThePolicyFromTheStateOfTheWatch() {
+        ListeningScheduler scheduler = new ListeningScheduler();
+        assertEquals(ListeningScheduler.Policy.CONTINUOUS, scheduler.choosePolicy(10, true, false));
+        assertEquals(ListeningScheduler.Policy.CONTINUOUS, scheduler.choosePolicy(10, false, true));
+        assertEquals(ListeningScheduler.Policy.LOW_POWER, scheduler.choosePolicy(20, false, false));
+        assertEquals(ListeningScheduler.Policy.BALANCED, scheduler.choosePolicy(21, false, false));
+    }
+
+    @Test
+    public void continuousListensUntilThePolicyChanges() {
+        ListeningScheduler scheduler = new ListeningScheduler();
+        assertFalse(scheduler.update(0, 100, true, false));
+        assertTrue(scheduler.isListening(0));
+        assertEquals(Long.MAX_VALUE, scheduler.millisUntilChange(0));
+    }
+
+    @Test
+    public void cyclesStartWithAListeningPhase() {
+        ListeningScheduler scheduler = new ListeningScheduler(2000, 1000, 1000, 3000, 30000, 20);
+        assertTrue(scheduler.update(10000, 80, false, false));
+        assertEquals(ListeningScheduler.Policy.BALANCED, scheduler.getPolicy());
+        assertTrue(scheduler.isListening(10000));
+        assertEquals(2000, scheduler.millisUntilChange(10000));
+        assertTrue(scheduler.isListening(11999));
+        assertFalse(scheduler.isListening(12000));
+        assertEquals(1000, scheduler.millisUntilChange(12000));
+        assertTrue(scheduler.isListening(13000));
+        assertEquals(1500, scheduler.millisUntilChange(13500));
+
+        // A new policy starts a new cycle
+        assertTrue(scheduler.update(14500, 15, false, false));
+        assertTrue(scheduler.isListening(14500));
+        assertEquals(1000, scheduler.millisUntilChange(14500));
+        assertFalse(scheduler.isListening(15500));
+        assertEquals(3000, scheduler.millisUntilChange(15500));
+    }
+
+    @Test
+    public void listensContinuouslyAfterADetection() {
+        ListeningScheduler scheduler = new ListeningScheduler(2000, 1000, 1000, 3000, 30000, 20);
+        scheduler.update(0, 80, false, false);
+        scheduler.onDetection(2500);
+        assertEquals(1, scheduler.getDetections());
+        // The hold, then a full listening phase
+        assertTrue(scheduler.isListening(2500));
+        assertEquals(30000 + 2000, scheduler.millisUntilChange(2500));
+        assertTrue(scheduler.isListening(32500 + 1999));
+        assertFalse(scheduler.isListening(32500 + 2000));
+    }
+
+    @Test
+    public void accountsTheTimeToThePolicyInEffect() {
+        ListeningScheduler scheduler = new ListeningScheduler();
+        scheduler.record(0, 0, 0);
+        scheduler.record(10000, 10000, 500);
+        scheduler.update(10000, 80, false, false);
+        scheduler.record(20000, 16000, 700);
+        assertEquals(1.0, scheduler.getCaptureDuty(ListeningScheduler.Policy.CONTINUOUS), 1e-9);
+        assertEquals(50.0, scheduler.getCpuMillisPerSecond(ListeningScheduler.Policy.CONTINUOUS), 1e-9);
+        assertEquals(0.6, scheduler.getCaptureDuty(ListeningScheduler.Policy.BALANCED), 1e-9);
+        assertEquals(0, scheduler.getCaptureDuty(ListeningScheduler.Policy.LOW_POWER), 0);
+        assertEquals("CONTINUOUS,10 s,duty,100.0%,cpu ms/s,50.0;BALANCED,10 s,duty,60.0%,cpu ms/s,20.0;"
+                + "detections,0", scheduler.getReport());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyListeningPhase() {
+        new ListeningScheduler(0, 1000, 1000, 3000, 30000, 20);
+    }
+}
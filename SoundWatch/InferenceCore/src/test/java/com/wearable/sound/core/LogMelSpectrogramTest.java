@@ -0,0 +1,109 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares LogMelSpectrogram with golden examples computed by vggish_input.waveform_to_examples
+ * with numpy, see src/test/python/make_golden_log_mel.py.
+ */
+public class LogMelSpectrogramTest {
+    // The golden values are float64, LogMelSpectrogram returns floats
+    private static final float TOLERANCE = 1e-5f;
+
+    static short[] readPcm(String name) throws IOException {
+        try (InputStream stream = open(name + ".pcm")) {
+            byte[] bytes = new byte[2 * SoundClassifier.WINDOW_SAMPLES];
+            new DataInputStream(stream).readFully(bytes);
+            short[] samples = new short[SoundClassifier.WINDOW_SAMPLES];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+            return samples;
+        }
+    }
+
+    private static float[] readLogMel(String name) throws IOException {
+        float[] values = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(name + ".logmel.txt"),
+                StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] frame = line.trim().split(" ");
+                assertEquals(SoundClassifier.NUM_BANDS, frame.length);
+                for (String value : frame) {
+                    values[count++] = Float.parseFloat(value);
+                }
+            }
+        }
+        assertEquals(values.length, count);
+        return values;
+    }
+
+    private static InputStream open(String file) {
+        InputStream stream = LogMelSpectrogramTest.class.getResourceAsStream("/golden/" + file);
+        assertNotNull("Missing golden file " + file, stream);
+        return stream;
+    }
+
+    private static void assertMatchesGolden(String name) throws IOException {
+        short[] samples = readPcm(name);
+        float[] expected = readLogMel(name);
+        float[] actual = new float[expected.length];
+        assertEquals(expected.length, new LogMelSpectrogram().waveformToExamples(samples, 0, samples.length, actual));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(name + " frame " + i / SoundClassifier.NUM_BANDS + " band " + i % SoundClassifier.NUM_BANDS,
+                    expected[i], actual[i], TOLERANCE);
+        }
+    }
+
+    @Test
+    public void toneMatchesVggish() throws IOException {
+        assertMatchesGolden("tone");
+    }
+
+    @Test
+    public void noiseMatchesVggish() throws IOException {
+        assertMatchesGolden("noise");
+    }
+
+    @Test
+    public void silenceMatchesVggish() throws IOException {
+        assertMatchesGolden("silence");
+    }
+
+    @Test
+    public void examplesHopByHalfAWindow() throws IOException {
+        LogMelSpectrogram logMelSpectrogram = new LogMelSpectrogram();
+        short[] tone = readPcm("tone");
+        short[] noise = readPcm("noise");
+        int hop = SoundClassifier.WINDOW_SAMPLES - (SoundClassifier.NUM_FRAMES / 2) * logMelSpectrogram.getHopLength();
+        // The second example of the noise followed by the tone starts half a window into the noise
+        short[] audio = new short[2 * SoundClassifier.WINDOW_SAMPLES - hop];
+        System.arraycopy(noise, 0, audio, 0, noise.length);
+        System.arraycopy(tone, hop, audio, noise.length, tone.length - hop);
+        assertEquals(2, logMelSpectrogram.numExamples(audio.length));
+
+        int size = SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS;
+        float[] examples = new float[2 * size];
+        assertEquals(examples.length, logMelSpectrogram.waveformToExamples(audio, 0, audio.length, examples));
+        float[] first = new float[size];
+        logMelSpectrogram.waveformToExamples(noise, 0, noise.length, first);
+        for (int i = 0; i < size; i++) {
+            assertEquals(Float.floatToIntBits(first[i]), Float.floatToIntBits(examples[i]));
+        }
+    }
+}
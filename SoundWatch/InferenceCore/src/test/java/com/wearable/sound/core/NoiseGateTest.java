@@ -0,0 +1,80 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NoiseGateTest {
+
+    @Test
+    public void passesWindowsAboveTheNoiseFloor() {
+        NoiseGate gate = new NoiseGate(30);
+        assertFalse(gate.accept(50, 0));
+        assertEquals(50, gate.getNoiseFloor(), 1);
+        assertFalse(gate.accept(55, 0));
+        assertTrue(gate.accept(65, 0));
+    }
+
+    @Test
+    public void passesOnsetsAboveTheMinimum() {
+        NoiseGate gate = new NoiseGate(30, NoiseGate.DEFAULT_MARGIN_DB, NoiseGate.DEFAULT_PERCENTILE,
+                NoiseGate.DEFAULT_STEP_DB, NoiseGate.DEFAULT_ONSET_FLUX_DB, 0);
+        gate.accept(50, 0);
+        assertFalse(gate.accept(52, NoiseGate.DEFAULT_ONSET_FLUX_DB - 1));
+        assertTrue(gate.accept(52, NoiseGate.DEFAULT_ONSET_FLUX_DB));
+        // The hiss of a silent room never passes
+        assertFalse(gate.accept(20, 30));
+        assertEquals("windows,4,loud/onset/hangover,0,1,0,skipped,75.0%,floor,49.4", gate.getReport());
+    }
+
+    @Test
+    public void passesTheTailOfASound() {
+        NoiseGate gate = new NoiseGate(30);
+        gate.accept(40, 0);
+        assertTrue(gate.accept(60, 0));
+        assertTrue(gate.accept(45, 0));
+        assertTrue(gate.accept(45, 0));
+        assertFalse(gate.accept(45, 0));
+        // Not below the minimum
+        assertTrue(gate.accept(60, 0));
+        assertFalse(gate.accept(25, 0));
+        assertEquals(7, gate.getWindows());
+        assertEquals(4, gate.getPassedWindows());
+    }
+
+    @Test
+    public void noiseFloorSettlesOnThePercentile() {
+        NoiseGate gate = new NoiseGate(0);
+        // Ten levels from 40 to 58 dB, a fifth of the windows are at 40 or 42
+        for (int i = 0; i < 2000; i++) {
+            gate.accept(40 + 2 * (i * 7 % 10), 0);
+        }
+        assertEquals(43, gate.getNoiseFloor(), 1.5);
+
+        // A sound of a few seconds barely moves it
+        double floor = gate.getNoiseFloor();
+        for (int i = 0; i < 20; i++) {
+            gate.accept(80, 0);
+        }
+        assertEquals(floor + 20 * NoiseGate.DEFAULT_STEP_DB * NoiseGate.DEFAULT_PERCENTILE, gate.getNoiseFloor(), 1e-9);
+    }
+
+    @Test
+    public void thresholdFollowsTheMinimumAndTheFloor() {
+        NoiseGate gate = new NoiseGate(30);
+        assertEquals(30, gate.getThreshold(), 0);
+        gate.setNoiseFloor(50);
+        assertEquals(60, gate.getThreshold(), 0);
+        gate.setMinDb(70);
+        assertEquals(70, gate.getThreshold(), 0);
+        gate.reset();
+        assertTrue(Double.isNaN(gate.getNoiseFloor()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAPercentileOfOne() {
+        new NoiseGate(30, 10, 1, 0.5, 7, 2);
+    }
+}
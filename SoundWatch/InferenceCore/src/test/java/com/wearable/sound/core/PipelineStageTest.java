@@ -0,0 +1,137 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineStageTest {
+
+    /**
+     * Handler that blocks on the first item until released, so the test can fill the queue.
+     */
+    private static class BlockingHandler implements PipelineStage.Handler<Integer> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> handled = new ArrayList<>();
+
+        @Override
+        public void handle(Integer item) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (handled) {
+                handled.add(item);
+                handled.notifyAll();
+            }
+        }
+
+        List<Integer> awaitHandled(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (handled) {
+                while (handled.size() < count && System.currentTimeMillis() < deadline) {
+                    handled.wait(100);
+                }
+                return new ArrayList<>(handled);
+            }
+        }
+    }
+
+    @Test
+    public void dropsTheOldestItemWhenFull() throws InterruptedException {
+        BlockingHandler handler = new BlockingHandler();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 2, handler);
+        stage.start();
+        try {
+            stage.offer(0);
+            assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 4; i++) {
+                stage.offer(i);
+            }
+            assertEquals(2, stage.getDepth());
+            assertEquals(2, stage.getDropped());
+
+            handler.release.countDown();
+            List<Integer> handled = handler.awaitHandled(3);
+            assertEquals(3, handled.size());
+            assertEquals(Integer.valueOf(0), handled.get(0));
+            assertEquals(Integer.valueOf(3), handled.get(1));
+            assertEquals(Integer.valueOf(4), handled.get(2));
+        } finally {
+            stage.stop();
+        }
+    }
+
+    @Test
+    public void stageWithoutCapacityNeverDrops() throws InterruptedException {
+        BlockingHandler handler = new BlockingHandler();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", handler);
+        stage.start();
+        try {
+            stage.offer(0);
+            assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 100; i++) {
+                stage.offer(i);
+            }
+            assertEquals(100, stage.getDepth());
+            assertEquals(0, stage.getDropped());
+
+            handler.release.countDown();
+            List<Integer> handled = handler.awaitHandled(101);
+            assertEquals(101, handled.size());
+            for (int i = 0; i <= 100; i++) {
+                assertEquals(Integer.valueOf(i), handled.get(i));
+            }
+        } finally {
+            stage.stop();
+        }
+    }
+
+    @Test
+    public void workerSurvivesFailingHandlers() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(3);
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 4, item -> {
+            done.countDown();
+            if (item % 2 == 0) {
+                throw new IllegalStateException("item " + item);
+            }
+        });
+        stage.start();
+        try {
+            stage.offer(0);
+            stage.offer(1);
+            stage.offer(2);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // The service time is recorded after the handler returned
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stage.getProcessed() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, stage.getProcessed());
+            assertTrue(stage.getReport(), stage.getReport().startsWith("test,offered,3,processed,3,dropped,0,errors,2,"));
+        } finally {
+            stage.stop();
+        }
+    }
+
+    @Test
+    public void stopDropsTheWaitingItems() throws InterruptedException {
+        BlockingHandler handler = new BlockingHandler();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 4, handler);
+        stage.start();
+        stage.offer(0);
+        assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+        stage.offer(1);
+        stage.offer(2);
+        stage.stop();
+        assertEquals(0, stage.getDepth());
+    }
+}
@@ -0,0 +1,147 @@
+package com.wearable.sound.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PosteriorSmootherTest {
+    private final float[] scores = new float[3];
+    private final float[] features = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+    private SoundClassifier classifier;
+
+    @Before
+    public void setUp() {
+        SoundModel model = (input, output) -> {
+            for (int i = 0; i < scores.length; i++) {
+                output.putFloat(i * Float.BYTES, scores[i]);
+            }
+        };
+        classifier = new SoundClassifier(model, Arrays.asList("Dog Bark", "Door Knock", "Fire Alarm"), 0.5f);
+    }
+
+    private int update(PosteriorSmoother smoother, long time, float... values) {
+        System.arraycopy(values, 0, scores, 0, values.length);
+        classifier.classify(features);
+        return smoother.update(time, classifier);
+    }
+
+    private PosteriorSmoother smoother(PosteriorSmoother.Mode mode) {
+        PosteriorSmoother smoother = new PosteriorSmoother(3, 3, mode, 1000);
+        smoother.setHysteresis(classifier, 0.5f);
+        return smoother;
+    }
+
+    @Test
+    public void onsetNeedsTwoWindowsInEveryMode() {
+        for (PosteriorSmoother.Mode mode : PosteriorSmoother.Mode.values()) {
+            PosteriorSmoother smoother = smoother(mode);
+            assertEquals(mode.toString(), 0, update(smoother, 0, 0.9f, 0f, 0f));
+            assertEquals(mode.toString(), 1, update(smoother, 160, 0.9f, 0f, 0f));
+            assertTrue(smoother.isOnset(0));
+            assertEquals(0, update(smoother, 320, 0.9f, 0f, 0f));
+            assertTrue(smoother.isActive(0));
+            assertFalse(smoother.isOnset(0));
+
+            // The history is forgotten after a gap
+            assertEquals(mode.toString(), 0, update(smoother, 5000, 0.9f, 0f, 0f));
+            assertFalse(smoother.isActive(0));
+            assertEquals(mode.toString(), 1, update(smoother, 5160, 0.9f, 0f, 0f));
+        }
+    }
+
+    @Test
+    public void movingAverageSmoothesASpike() {
+        PosteriorSmoother smoother = smoother(PosteriorSmoother.Mode.MOVING_AVERAGE);
+        update(smoother, 0, 0f, 0f, 0f);
+        update(smoother, 160, 0f, 0f, 0f);
+        assertEquals(0, update(smoother, 320, 0f, 0.9f, 0f));
+        assertEquals(0.3f, smoother.getScore(1), 1e-6f);
+        // The window leaves the history after three others
+        update(smoother, 480, 0f, 0f, 0f);
+        update(smoother, 640, 0f, 0f, 0f);
+        update(smoother, 800, 0f, 0f, 0f);
+        assertEquals(0f, smoother.getScore(1), 1e-6f);
+    }
+
+    @Test
+    public void maxPoolingNotifiesATwoWindowEvent() {
+        // The apps smooth 5 windows with the classifier threshold as onset
+        PosteriorSmoother maxPooling = new PosteriorSmoother(3, 5, PosteriorSmoother.Mode.MAX_POOLING, 1000);
+        maxPooling.setHysteresis(classifier, 0.75f);
+        PosteriorSmoother movingAverage = new PosteriorSmoother(3, 5, PosteriorSmoother.Mode.MOVING_AVERAGE, 1000);
+        movingAverage.setHysteresis(classifier, 0.75f);
+        int maxOnsets = 0;
+        int averageOnsets = 0;
+        float[] dogBark = {0.05f, 0.05f, 0.8f, 0.8f, 0.05f, 0.05f, 0.05f, 0.05f};
+        for (int i = 0; i < dogBark.length; i++) {
+            maxOnsets += update(maxPooling, i * 160, dogBark[i], 0f, 0f);
+            averageOnsets += update(movingAverage, i * 160, dogBark[i], 0f, 0f);
+            if (i == 2) {
+                // Notified with the first window of the event
+                assertTrue(maxPooling.isOnset(0));
+            }
+        }
+        assertEquals(1, maxOnsets);
+        // The mean of 5 windows stays at 0.35, below the threshold
+        assertEquals(0, averageOnsets);
+    }
+
+    @Test
+    public void maxPoolingHoldsTheHighestScore() {
+        PosteriorSmoother smoother = smoother(PosteriorSmoother.Mode.MAX_POOLING);
+        update(smoother, 0, 0.2f, 0f, 0f);
+        update(smoother, 160, 0.8f, 0f, 0f);
+        update(smoother, 320, 0.1f, 0f, 0f);
+        update(smoother, 480, 0.1f, 0f, 0f);
+        assertEquals(0.8f, smoother.getScore(0), 0);
+        update(smoother, 640, 0.1f, 0f, 0f);
+        assertEquals(0.1f, smoother.getScore(0), 0);
+    }
+
+    @Test
+    public void hysteresisKeepsALabelActive() {
+        PosteriorSmoother smoother = new PosteriorSmoother(3, 1, PosteriorSmoother.Mode.MOVING_AVERAGE, 1000);
+        smoother.setHysteresis(classifier, 0.5f);
+        assertEquals(1, update(smoother, 0, 0f, 0f, 0.6f));
+        update(smoother, 160, 0f, 0f, 0.3f);
+        assertTrue(smoother.isActive(2));
+        update(smoother, 320, 0f, 0f, 0.2f);
+        assertFalse(smoother.isActive(2));
+        assertEquals(0, update(smoother, 480, 0f, 0f, 0.45f));
+        assertFalse(smoother.isActive(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offsetCannotExceedOnset() {
+        new PosteriorSmoother(3, 3, PosteriorSmoother.Mode.EXPONENTIAL, 1000).setHysteresis(0, 0.4f, 0.6f);
+    }
+
+    @Test
+    public void notifiesOnsetsThenRepeats() {
+        PosteriorSmoother smoother = new PosteriorSmoother(3, 1, PosteriorSmoother.Mode.MOVING_AVERAGE, 1000);
+        smoother.setHysteresis(classifier, 0.5f);
+        update(smoother, 0, 0f, 0f, 0f);
+        assertFalse(smoother.shouldNotify(500));
+        update(smoother, 160, 0.9f, 0f, 0f);
+        assertTrue(smoother.shouldNotify(500));
+        update(smoother, 320, 0.9f, 0f, 0f);
+        assertFalse(smoother.shouldNotify(500));
+        update(smoother, 800, 0.9f, 0.7f, 0f);
+        // A new label is notified right away
+        assertTrue(smoother.shouldNotify(500));
+        update(smoother, 960, 0.9f, 0.7f, 0f);
+        assertFalse(smoother.shouldNotify(500));
+        update(smoother, 1300, 0.9f, 0.7f, 0f);
+        assertTrue(smoother.shouldNotify(500));
+
+        TopK top = new TopK(3);
+        assertEquals(2, smoother.topK(top));
+        assertEquals(0, top.getLabel(0));
+        assertEquals(1, top.getLabel(1));
+    }
+}
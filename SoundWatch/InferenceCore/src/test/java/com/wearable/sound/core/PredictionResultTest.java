@@ -0,0 +1,69 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PredictionResultTest {
+
+    @Test
+    public void readsTheEncodedPredictions() {
+        TopK predictions = new TopK(3);
+        predictions.offer(7, 0.2f);
+        predictions.offer(3, 0.8f);
+        predictions.offer(12, 0.6f);
+        predictions.offer(1, 0.1f);
+
+        byte[] message = PredictionResult.encode(0x1234abcd, 1600000000123L, 62.5f, predictions);
+        assertEquals(PredictionResult.HEADER_SIZE + 3 * PredictionResult.ENTRY_SIZE, message.length);
+        assertTrue(PredictionResult.isResult(message));
+
+        PredictionResult result = new PredictionResult();
+        assertTrue(result.read(message));
+        assertEquals(0x1234abcd, result.getLabelTableId());
+        assertEquals(1600000000123L, result.getCaptureTime());
+        assertEquals(62.5f, result.getLoudness(), 0);
+        assertEquals(3, result.getCount());
+        assertEquals(3, result.getLabelId(0));
+        assertEquals(12, result.getLabelId(1));
+        assertEquals(7, result.getLabelId(2));
+        assertEquals(0.8f, result.getScore(0), 0.5f / 255);
+        assertEquals(0.6f, result.getScore(1), 0.5f / 255);
+        assertEquals(0.2f, result.getScore(2), 0.5f / 255);
+    }
+
+    @Test
+    public void readsASinglePredictionWithoutLabel() {
+        byte[] message = PredictionResult.encode(1, 2, 3, PredictionResult.NO_LABEL, 1.5f);
+        PredictionResult result = new PredictionResult();
+        assertTrue(result.read(message));
+        assertEquals(1, result.getCount());
+        assertEquals(PredictionResult.NO_LABEL, result.getLabelId(0));
+        // Scores are clamped to [0, 1]
+        assertEquals(1f, result.getScore(0), 0);
+    }
+
+    @Test
+    public void rejectsTextAndTruncatedMessages() {
+        PredictionResult result = new PredictionResult();
+        byte[] text = "Dog Bark,0.9,12:00,60".getBytes();
+        assertFalse(PredictionResult.isResult(text));
+        assertFalse(result.read(text));
+
+        byte[] message = PredictionResult.encode(1, 2, 3, 4, 0.5f);
+        assertFalse(result.read(Arrays.copyOf(message, message.length - 1)));
+        assertEquals(0, result.getCount());
+    }
+
+    @Test
+    public void rejectsOtherVersions() {
+        byte[] message = PredictionResult.encode(1, 2, 3, 4, 0.5f);
+        message[4] = PredictionResult.VERSION + 1;
+        assertTrue(PredictionResult.isResult(message));
+        assertFalse(new PredictionResult().read(message));
+    }
+}
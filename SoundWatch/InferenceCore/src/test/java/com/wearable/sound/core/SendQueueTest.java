@@ -0,0 +1,81 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SendQueueTest {
+    private final List<Integer> sent = new ArrayList<>();
+
+    @Test
+    public void sendsUpToMaxInFlight() {
+        SendQueue<Integer> queue = new SendQueue<>("test", 4, 1000, 2, sent::add);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(i, 0);
+        }
+        assertEquals("[0, 1]", sent.toString());
+        assertEquals(2, queue.getInFlight());
+        assertEquals(2, queue.getDepth());
+
+        queue.complete(10);
+        assertEquals("[0, 1, 2]", sent.toString());
+        queue.complete(20);
+        queue.complete(30);
+        queue.complete(40);
+        assertEquals("[0, 1, 2, 3]", sent.toString());
+        assertEquals(0, queue.getInFlight());
+        assertEquals(4, queue.getSent());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void dropsTheOldestWhenFull() {
+        SendQueue<Integer> queue = new SendQueue<>("test", 2, 1000, 1, sent::add);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i, 0);
+        }
+        // 0 is in flight, 1 and 2 were dropped for 3 and 4
+        assertEquals(2, queue.getDropped());
+        queue.complete(0);
+        queue.complete(0);
+        assertEquals("[0, 3, 4]", sent.toString());
+        assertEquals("test,offered,5,sent,3,dropped full/stale,2,0,depth/max,0,2,in flight,1", queue.getReport());
+    }
+
+    @Test
+    public void dropsItemsPastTheLatencyBudget() {
+        SendQueue<Integer> queue = new SendQueue<>("test", 8, 100, 1, sent::add);
+        queue.offer(0, 0);
+        queue.offer(1, 0);
+        queue.offer(2, 50);
+        queue.complete(120);
+        // 1 waited 120ms, 2 only 70ms
+        assertEquals("[0, 2]", sent.toString());
+        assertEquals(1, queue.getDropped());
+        queue.offer(3, 130);
+        queue.offer(4, 300);
+        // 3 is stale when 4 is offered
+        assertEquals(1, queue.getDepth());
+        assertEquals(2, queue.getDropped());
+    }
+
+    @Test
+    public void clearDropsTheWaitingItems() {
+        SendQueue<Integer> queue = new SendQueue<>("test", 8, 1000, 1, sent::add);
+        queue.offer(0, 0);
+        queue.offer(1, 0);
+        queue.offer(2, 0);
+        queue.clear();
+        assertEquals(0, queue.getDepth());
+        queue.complete(10);
+        assertEquals("[0]", sent.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsACapacity() {
+        new SendQueue<Integer>("test", 0, 1000, 1, sent::add);
+    }
+}
@@ -0,0 +1,96 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTableTest {
+
+    /**
+     * Opens a new StringBuilder per session and records which sessions were closed.
+     */
+    private static class RecordingLifecycle implements SessionTable.Lifecycle<StringBuilder> {
+        final List<String> closed = new ArrayList<>();
+
+        @Override
+        public StringBuilder open(String id) {
+            return new StringBuilder(id);
+        }
+
+        @Override
+        public void close(String id, StringBuilder session) {
+            assertEquals(id, session.toString());
+            closed.add(id);
+        }
+    }
+
+    @Test
+    public void keepsOneSessionPerSender() {
+        RecordingLifecycle lifecycle = new RecordingLifecycle();
+        SessionTable<StringBuilder> table = new SessionTable<>(4, 1000, lifecycle);
+        StringBuilder a = table.get("a", 0);
+        StringBuilder b = table.get("b", 10);
+        assertNotSame(a, b);
+        assertSame(a, table.get("a", 20));
+        assertEquals(2, table.size());
+        assertTrue(lifecycle.closed.isEmpty());
+    }
+
+    @Test
+    public void closesIdleSessions() {
+        RecordingLifecycle lifecycle = new RecordingLifecycle();
+        SessionTable<StringBuilder> table = new SessionTable<>(4, 1000, lifecycle);
+        StringBuilder a = table.get("a", 0);
+        table.get("b", 500);
+        // Exactly the timeout is not idle yet
+        assertEquals(0, table.evictIdle(1000));
+        assertEquals(1, table.evictIdle(1001));
+        assertEquals(1, lifecycle.closed.size());
+        assertEquals("a", lifecycle.closed.get(0));
+
+        // A frame after the timeout opens a new session
+        assertNotSame(a, table.get("a", 1400));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void closesTheLeastRecentlySeenSessionWhenFull() {
+        RecordingLifecycle lifecycle = new RecordingLifecycle();
+        SessionTable<StringBuilder> table = new SessionTable<>(2, 1000, lifecycle);
+        table.get("a", 0);
+        table.get("b", 10);
+        table.get("a", 20);
+        table.get("c", 30);
+        assertEquals(2, table.size());
+        assertEquals(1, lifecycle.closed.size());
+        assertEquals("b", lifecycle.closed.get(0));
+        assertEquals("sessions,2,opened,3,evicted idle/full,0,1", table.getReport());
+    }
+
+    @Test
+    public void removesAndClearsSessions() {
+        RecordingLifecycle lifecycle = new RecordingLifecycle();
+        SessionTable<StringBuilder> table = new SessionTable<>(4, 1000, lifecycle);
+        table.get("a", 0);
+        table.get("b", 0);
+        table.get("c", 0);
+        assertTrue(table.remove("b"));
+        assertFalse(table.remove("b"));
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(3, lifecycle.closed.size());
+        assertEquals("b", lifecycle.closed.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsATableWithoutSessions() {
+        new SessionTable<>(0, 1000, new RecordingLifecycle());
+    }
+}
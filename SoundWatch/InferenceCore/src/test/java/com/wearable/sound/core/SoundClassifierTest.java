@@ -0,0 +1,107 @@
+package com.wearable.sound.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SoundClassifierTest {
+    private final float[] scores = new float[5];
+    private final float[] features = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
+    private SoundClassifier classifier;
+
+    @Before
+    public void setUp() {
+        // Model returning the scores set by the test
+        SoundModel model = (input, output) -> {
+            for (int i = 0; i < scores.length; i++) {
+                output.putFloat(i * Float.BYTES, scores[i]);
+            }
+        };
+        classifier = new SoundClassifier(model, Arrays.asList("Dog Bark", "Door Knock", "Fire Alarm",
+                "Microwave", "Water Running"), 0.5f);
+    }
+
+    private void classify(float... values) {
+        System.arraycopy(values, 0, scores, 0, values.length);
+        classifier.classify(features);
+    }
+
+    @Test
+    public void readsTheScoresOfTheModel() {
+        classify(0.1f, 0.7f, 0.2f, 0.9f, 0.05f);
+        assertEquals(5, classifier.getNumLabels());
+        assertEquals(0.7f, classifier.getScore(1), 0);
+        assertEquals(3, classifier.argmax());
+        assertEquals("Microwave", classifier.getLabel(classifier.argmax()));
+    }
+
+    @Test
+    public void thresholdsArePerLabel() {
+        classifier.setThreshold("Microwave", 0.95f);
+        classifier.setThreshold("Unknown", 0.1f);
+        classify(0.1f, 0.7f, 0.5f, 0.9f, 0.05f);
+        assertTrue(classifier.isAboveThreshold(1));
+        // A score equal to the threshold is not above it
+        assertFalse(classifier.isAboveThreshold(2));
+        assertFalse(classifier.isAboveThreshold(3));
+        assertEquals(0.95f, classifier.getThreshold(3), 0);
+        assertEquals(0.5f, classifier.getThreshold(4), 0);
+    }
+
+    @Test
+    public void topKKeepsTheHighestScores() {
+        classify(0.1f, 0.7f, 0.2f, 0.9f, 0.6f);
+        TopK top = new TopK(2);
+        assertEquals(2, classifier.topK(false, top));
+        assertEquals(3, top.getLabel(0));
+        assertEquals(0.9f, top.getScore(0), 0);
+        assertEquals(1, top.getLabel(1));
+
+        classifier.setThreshold("Microwave", 0.95f);
+        TopK all = new TopK(5);
+        assertEquals(2, classifier.topK(true, all));
+        assertEquals(1, all.getLabel(0));
+        assertEquals(4, all.getLabel(1));
+    }
+
+    @Test
+    public void topKIsClearedBetweenWindows() {
+        TopK top = new TopK(3);
+        classify(0.9f, 0.8f, 0.7f, 0.6f, 0.55f);
+        assertEquals(3, classifier.topK(true, top));
+        classify(0.1f, 0.1f, 0.1f, 0.1f, 0.1f);
+        assertEquals(0, classifier.topK(true, top));
+    }
+
+    @Test
+    public void rankSortsByDecreasingScore() {
+        classify(0.3f, 0.7f, 0.2f, 0.9f, 0.6f);
+        int[] ranks = new int[classifier.getNumLabels()];
+        assertEquals(5, classifier.rank(false, ranks));
+        assertEquals("[3, 1, 4, 0, 2]", Arrays.toString(ranks));
+        assertEquals(3, classifier.rank(true, ranks));
+        assertEquals(3, ranks[0]);
+        assertEquals(1, ranks[1]);
+        assertEquals(4, ranks[2]);
+    }
+
+    @Test
+    public void topKTiesKeepTheOfferOrder() {
+        TopK top = new TopK(2);
+        assertTrue(top.offer(4, 0.5f));
+        assertTrue(top.offer(2, 0.5f));
+        assertFalse(top.offer(1, 0.5f));
+        assertEquals(4, top.getLabel(0));
+        assertEquals(2, top.getLabel(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void topKNeedsOneLabel() {
+        new TopK(0);
+    }
+}
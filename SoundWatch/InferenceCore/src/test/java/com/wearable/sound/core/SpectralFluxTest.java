@@ -0,0 +1,97 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpectralFluxTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static short[] noise(Random random, int length, double level) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (random.nextGaussian() * level);
+        }
+        return samples;
+    }
+
+    private static short[] tone(int length, double frequency, double amplitude) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    @Test
+    public void steadyNoiseHasLittleFlux() {
+        SpectralFlux spectralFlux = new SpectralFlux(SAMPLE_RATE);
+        short[] samples = noise(new Random(1), SAMPLE_RATE, 1000);
+        spectralFlux.write(samples, 0, samples.length);
+        spectralFlux.takePeakFlux();
+        samples = noise(new Random(2), SAMPLE_RATE, 1000);
+        spectralFlux.write(samples, 0, samples.length);
+        assertTrue(spectralFlux.takePeakFlux() < NoiseGate.DEFAULT_ONSET_FLUX_DB);
+    }
+
+    @Test
+    public void toneOverNoiseIsAnOnset() {
+        SpectralFlux spectralFlux = new SpectralFlux(SAMPLE_RATE);
+        short[] samples = noise(new Random(1), SAMPLE_RATE, 300);
+        spectralFlux.write(samples, 0, samples.length);
+        spectralFlux.takePeakFlux();
+
+        short[] beep = tone(SpectralFlux.BLOCK_SAMPLES * 5, 2000, 3000);
+        short[] background = noise(new Random(2), beep.length, 300);
+        for (int i = 0; i < beep.length; i++) {
+            beep[i] += background[i];
+        }
+        spectralFlux.write(beep, 0, beep.length);
+        assertTrue(spectralFlux.takePeakFlux() > 15);
+        // Taken once
+        assertEquals(0, spectralFlux.takePeakFlux(), 0);
+    }
+
+    @Test
+    public void splitsTheSpectrumIntoBands() {
+        SpectralFlux spectralFlux = new SpectralFlux(SAMPLE_RATE);
+        short[] low = tone(SpectralFlux.BLOCK_SAMPLES * 10, 100, 5000);
+        spectralFlux.write(low, 0, low.length);
+        assertTrue(spectralFlux.getBandDb(0) > spectralFlux.getBandDb(SpectralFlux.BANDS - 1) + 20);
+
+        spectralFlux.reset();
+        short[] high = tone(SpectralFlux.BLOCK_SAMPLES * 10, 6000, 5000);
+        spectralFlux.write(high, 0, high.length);
+        assertTrue(spectralFlux.getBandDb(SpectralFlux.BANDS - 1) > spectralFlux.getBandDb(0) + 20);
+    }
+
+    @Test
+    public void readsPcmBytesLikeSamples() {
+        short[] samples = noise(new Random(3), SpectralFlux.BLOCK_SAMPLES * 4, 2000);
+        byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        SpectralFlux fromSamples = new SpectralFlux(SAMPLE_RATE);
+        fromSamples.write(samples, 0, samples.length);
+        SpectralFlux fromBytes = new SpectralFlux(SAMPLE_RATE);
+        fromBytes.writePcm16(pcm, 0, pcm.length);
+        assertEquals(fromSamples.getFlux(), fromBytes.getFlux(), 0);
+        for (int band = 0; band < SpectralFlux.BANDS; band++) {
+            assertEquals(fromSamples.getBandDb(band), fromBytes.getBandDb(band), 0);
+        }
+    }
+
+    @Test
+    public void silenceHasNoFlux() {
+        SpectralFlux spectralFlux = new SpectralFlux(SAMPLE_RATE);
+        short[] silence = new short[SpectralFlux.BLOCK_SAMPLES * 3];
+        spectralFlux.write(silence, 0, silence.length);
+        assertEquals(0, spectralFlux.takePeakFlux(), 0);
+        assertEquals(0, spectralFlux.getBandDb(0), 0);
+    }
+}
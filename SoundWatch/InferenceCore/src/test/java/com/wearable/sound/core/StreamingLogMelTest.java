@@ -0,0 +1,106 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the snapshots of StreamingLogMel are the examples of LogMelSpectrogram bit for bit,
+ * whatever the size of the audio reads.
+ */
+public class StreamingLogMelTest {
+    private static final int EXAMPLE_SIZE = SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS;
+
+    private static void assertSameBits(float[] expected, float[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("value " + i, Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+        }
+    }
+
+    private static short[] audio() throws IOException {
+        // Tone, noise, silence and tone again, so snapshots span the transitions
+        String[] names = {"tone", "noise", "silence", "tone"};
+        short[] audio = new short[names.length * SoundClassifier.WINDOW_SAMPLES];
+        for (int i = 0; i < names.length; i++) {
+            System.arraycopy(LogMelSpectrogramTest.readPcm(names[i]), 0, audio, i * SoundClassifier.WINDOW_SAMPLES,
+                    SoundClassifier.WINDOW_SAMPLES);
+        }
+        return audio;
+    }
+
+    @Test
+    public void snapshotsMatchWaveformToExamples() throws IOException {
+        short[] audio = audio();
+        LogMelSpectrogram logMelSpectrogram = new LogMelSpectrogram();
+        StreamingLogMel streaming = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+        float[] expected = new float[EXAMPLE_SIZE];
+        float[] actual = new float[EXAMPLE_SIZE];
+        Random random = new Random(4);
+        int hop = logMelSpectrogram.getHopLength();
+        int written = 0;
+        int snapshots = 0;
+        while (written < audio.length) {
+            // Reads of any size, as AudioRecord returns them
+            int length = Math.min(1 + random.nextInt(700), audio.length - written);
+            streaming.write(audio, written, length);
+            written += length;
+            if (written < SoundClassifier.WINDOW_SAMPLES) {
+                assertFalse(streaming.isFull());
+                assertEquals(0, streaming.snapshot(actual, 0));
+                continue;
+            }
+            assertTrue(streaming.isFull());
+            // The last frame starts at a multiple of the hop
+            int end = (written - logMelSpectrogram.getWindowLength()) / hop * hop + logMelSpectrogram.getWindowLength();
+            logMelSpectrogram.waveformToExamples(audio, end - SoundClassifier.WINDOW_SAMPLES,
+                    SoundClassifier.WINDOW_SAMPLES, expected);
+            assertEquals(EXAMPLE_SIZE, streaming.snapshot(actual, 0));
+            assertSameBits(expected, actual);
+            snapshots++;
+        }
+        assertTrue(snapshots > 10);
+    }
+
+    @Test
+    public void pcmBytesMatchSamples() throws IOException {
+        short[] audio = audio();
+        byte[] pcm = new byte[2 * audio.length];
+        for (int i = 0; i < audio.length; i++) {
+            pcm[2 * i] = (byte) audio[i];
+            pcm[2 * i + 1] = (byte) (audio[i] >> 8);
+        }
+        StreamingLogMel samples = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+        StreamingLogMel bytes = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+        samples.write(audio, 0, audio.length);
+        for (int offset = 0; offset < pcm.length; offset += 640) {
+            bytes.writePcm16(pcm, offset, Math.min(640, pcm.length - offset));
+        }
+        assertEquals(samples.getTotalFrames(), bytes.getTotalFrames());
+        float[] expected = new float[EXAMPLE_SIZE];
+        float[] actual = new float[EXAMPLE_SIZE];
+        samples.snapshot(expected, 0);
+        bytes.snapshot(actual, 0);
+        assertSameBits(expected, actual);
+    }
+
+    @Test
+    public void resetStartsANewWindow() throws IOException {
+        short[] noise = LogMelSpectrogramTest.readPcm("noise");
+        short[] tone = LogMelSpectrogramTest.readPcm("tone");
+        StreamingLogMel streaming = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+        streaming.write(noise, 0, 3000);
+        streaming.reset();
+        assertEquals(0, streaming.getTotalFrames());
+        streaming.write(tone, 0, tone.length);
+        float[] expected = new float[EXAMPLE_SIZE];
+        float[] actual = new float[EXAMPLE_SIZE];
+        new LogMelSpectrogram().waveformToExamples(tone, 0, tone.length, expected);
+        assertEquals(EXAMPLE_SIZE, streaming.snapshot(actual, 0));
+        assertSameBits(expected, actual);
+    }
+}
@@ -0,0 +1,78 @@
+package com.wearable.sound.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopKTest {
+
+    @Test
+    public void keepsTheHighestScoresInDecreasingOrder() {
+        TopK top = new TopK(3);
+        assertTrue(top.offer(0, 0.1f));
+        assertTrue(top.offer(1, 0.7f));
+        assertTrue(top.offer(2, 0.3f));
+        assertTrue(top.offer(3, 0.9f));
+        assertFalse(top.offer(4, 0.2f));
+        assertEquals(3, top.getCount());
+        assertEquals(3, top.getLabel(0));
+        assertEquals(1, top.getLabel(1));
+        assertEquals(2, top.getLabel(2));
+        assertEquals(0.3f, top.getScore(2), 0);
+    }
+
+    @Test
+    public void equalScoresKeepTheirOrder() {
+        TopK top = new TopK(2);
+        top.offer(5, 0.5f);
+        top.offer(6, 0.5f);
+        // Not above the lowest kept score
+        assertFalse(top.offer(7, 0.5f));
+        assertEquals(5, top.getLabel(0));
+        assertEquals(6, top.getLabel(1));
+    }
+
+    @Test
+    public void clearForgetsTheLabels() {
+        TopK top = new TopK(2);
+        top.offer(0, 0.9f);
+        top.offer(1, 0.8f);
+        top.clear();
+        assertEquals(0, top.getCount());
+        assertTrue(top.offer(2, 0.1f));
+        assertEquals(1, top.getCount());
+        assertEquals(2, top.getLabel(0));
+    }
+
+    @Test
+    public void matchesAFullSort() {
+        Random random = new Random(42);
+        TopK top = new TopK(5);
+        for (int run = 0; run < 100; run++) {
+            Integer[] order = new Integer[521];
+            float[] scores = new float[order.length];
+            top.clear();
+            for (int label = 0; label < order.length; label++) {
+                order[label] = label;
+                scores[label] = random.nextFloat();
+                top.offer(label, scores[label]);
+            }
+            // Stable sort, so equal scores keep their order like in TopK
+            Arrays.sort(order, Comparator.comparing((Integer label) -> scores[label]).reversed());
+            for (int i = 0; i < top.getK(); i++) {
+                assertEquals(order[i].intValue(), top.getLabel(i));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyTop() {
+        new TopK(0);
+    }
+}
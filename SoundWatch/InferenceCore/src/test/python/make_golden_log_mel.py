@@ -0,0 +1,125 @@
+# Golden log mel examples for LogMelSpectrogramTest.
+#
+# Writes 16kHz 16-bit little-endian PCM windows of a tone, noise and silence to
+# ../resources/golden/<name>.pcm, and the example vggish_input.waveform_to_examples computes
+# from each, scaled to [-1.0, +1.0] like main.audio_samples, to <name>.logmel.txt: a comment
+# line with the numpy version, then one frame per line, NUM_BANDS values separated by spaces.
+#
+# python3 InferenceCore/src/test/python/make_golden_log_mel.py
+#
+# Runs the VGGish code of the watch app, Wearable/src/main/python, with numpy. As a check of the
+# fixtures, the examples are also computed by reference_examples, a float64 port of the numpy
+# calls of mel_features, and nothing is written if the two differ by more than MAX_DIFFERENCE.
+
+import cmath
+import math
+import os
+import random
+import struct
+import sys
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+GOLDEN = os.path.join(HERE, '..', 'resources', 'golden')
+VGGISH = os.path.join(HERE, '..', '..', '..', '..', 'Wearable', 'src', 'main', 'python')
+sys.path.insert(0, VGGISH)
+
+import vggish_params
+
+SAMPLE_RATE = vggish_params.SAMPLE_RATE
+WINDOW_LENGTH = int(round(SAMPLE_RATE * vggish_params.STFT_WINDOW_LENGTH_SECONDS))
+HOP_LENGTH = int(round(SAMPLE_RATE * vggish_params.STFT_HOP_LENGTH_SECONDS))
+NUM_FRAMES = vggish_params.NUM_FRAMES
+# SoundClassifier.WINDOW_SAMPLES, one example
+WINDOW_SAMPLES = (NUM_FRAMES - 1) * HOP_LENGTH + WINDOW_LENGTH
+# Between numpy and reference_examples, both float64
+MAX_DIFFERENCE = 1e-9
+
+
+def tone():
+  # 440Hz and 3kHz, so low and high mel bands are covered
+  return [int(round(6000 * math.sin(2 * math.pi * 440 * i / SAMPLE_RATE)
+                    + 3000 * math.sin(2 * math.pi * 3000 * i / SAMPLE_RATE)))
+          for i in range(WINDOW_SAMPLES)]
+
+
+def noise():
+  rng = random.Random(2020)
+  return [max(-32768, min(32767, int(round(rng.gauss(0, 4000))))) for _ in range(WINDOW_SAMPLES)]
+
+
+def silence():
+  return [0] * WINDOW_SAMPLES
+
+
+def numpy_examples(samples):
+  import numpy as np
+  import vggish_input
+  data = np.array(samples, dtype=np.int16) / 32768.0
+  return vggish_input.waveform_to_examples(data, SAMPLE_RATE)[0].tolist()
+
+
+def linspace(start, stop, num):
+  # Same as np.linspace
+  step = (stop - start) / (num - 1)
+  return [start + i * step for i in range(num - 1)] + [stop]
+
+
+def hertz_to_mel(hertz):
+  return 1127.0 * math.log(1.0 + hertz / 700.0)
+
+
+def reference_examples(samples):
+  """Port of mel_features.log_mel_spectrogram and vggish_input.waveform_to_examples in float64,
+  for one example."""
+  fft_length = 2 ** int(math.ceil(math.log(WINDOW_LENGTH) / math.log(2.0)))
+  num_bins = fft_length // 2 + 1
+  window = [0.5 - 0.5 * math.cos(2 * math.pi / WINDOW_LENGTH * n) for n in range(WINDOW_LENGTH)]
+  twiddles = [cmath.exp(-2j * math.pi * n / fft_length) for n in range(fft_length)]
+
+  bins_mel = [hertz_to_mel(f) for f in linspace(0.0, SAMPLE_RATE / 2.0, num_bins)]
+  edges = linspace(hertz_to_mel(vggish_params.MEL_MIN_HZ), hertz_to_mel(vggish_params.MEL_MAX_HZ),
+                   vggish_params.NUM_MEL_BINS + 2)
+  weights = []
+  for i in range(vggish_params.NUM_MEL_BINS):
+    lower, center, upper = edges[i:i + 3]
+    weights.append([0.0 if b == 0 else max(0.0, min((m - lower) / (center - lower),
+                                                      (upper - m) / (upper - center)))
+                    for b, m in enumerate(bins_mel)])
+
+  examples = []
+  for f in range(NUM_FRAMES):
+    frame = [samples[f * HOP_LENGTH + n] / 32768.0 * window[n] for n in range(WINDOW_LENGTH)]
+    magnitude = [abs(sum(x * twiddles[(k * n) % fft_length] for n, x in enumerate(frame)))
+                 for k in range(num_bins)]
+    examples.append([math.log(sum(magnitude[b] * w[b] for b in range(num_bins))
+                              + vggish_params.LOG_OFFSET) for w in weights])
+  return examples
+
+
+def main():
+  import numpy
+
+  if not os.path.isdir(GOLDEN):
+    os.makedirs(GOLDEN)
+  goldens = []
+  for name, signal in (('tone', tone), ('noise', noise), ('silence', silence)):
+    samples = signal()
+    examples = numpy_examples(samples)
+    reference = reference_examples(samples)
+    difference = max(abs(a - b) for row, ref in zip(examples, reference) for a, b in zip(row, ref))
+    print('%s: max difference with the float64 port %g' % (name, difference))
+    if len(examples) != NUM_FRAMES or difference > MAX_DIFFERENCE:
+      sys.exit('%s: waveform_to_examples does not match the port, nothing written' % name)
+    goldens.append((name, samples, examples))
+
+  for name, samples, examples in goldens:
+    with open(os.path.join(GOLDEN, name + '.pcm'), 'wb') as f:
+      f.write(struct.pack('<%dh' % len(samples), *samples))
+    with open(os.path.join(GOLDEN, name + '.logmel.txt'), 'w') as f:
+      f.write('# vggish_input.waveform_to_examples, numpy %s\n' % numpy.__version__)
+      for frame in examples:
+        f.write(' '.join(repr(v) for v in frame) + '\n')
+
+
+if __name__ == '__main__':
+  main()
@@ -1,9 +1,14 @@
 package com.wearable.sound.application;
 
 import android.app.Application;
+
+import com.wearable.sound.core.LabelTable;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MainApplication extends Application {
     public ArrayList<String> enabledSounds = new ArrayList<>(Arrays.asList(
@@ -53,6 +58,8 @@ public class MainApplication extends Application {
 //    }));
     private List blockedSounds = new ArrayList();
     private boolean appInForeground = false;
+    // Label tables received from the phones, by id, see PredictionResult
+    private final Map<Integer, LabelTable> labelTables = new ConcurrentHashMap<>();
 
     public List getBlockedSounds() {
         return blockedSounds;
@@ -68,6 +75,17 @@ public class MainApplication extends Application {
         }
     }
 
+    public void putLabelTable(LabelTable labelTable) {
+        labelTables.put(labelTable.getId(), labelTable);
+    }
+
+    /**
+     * @return the label table, or null if no phone sent it yet
+     */
+    public LabelTable getLabelTable(int id) {
+        return labelTables.get(id);
+    }
+
     public boolean isAppInForeground() {
         return appInForeground;
     }
@@ -29,6 +29,10 @@ import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 import com.wearable.sound.ui.activity.MainActivity;
 import com.wearable.sound.application.MainApplication;
+import com.wearable.sound.core.LabelTable;
+import com.wearable.sound.core.PredictionResult;
+import com.wearable.sound.utils.NodeRegistry;
+import com.wearable.sound.utils.SoundRecorder;
 import static com.wearable.sound.utils.Constants.*;
 
 import java.util.List;
@@ -38,11 +42,17 @@ public class DataLayerListenerService extends WearableListenerService {
 
     private static final String TAG = "DataLayerService";
 //    private static final String DEBUG_TAG = "FromSoftware";
+    // Reads the label table id of the results, onMessageReceived is called on a single thread
+    private final PredictionResult predictionResult = new PredictionResult();
+    // A label table is requested at most once per LABEL_TABLE_REQUEST_INTERVAL_MILLIS
+    private static final long LABEL_TABLE_REQUEST_INTERVAL_MILLIS = 5000;
+    private long labelTableRequestTime = 0;
 
     @Override
     public void onPeerConnected(Node node) {
         super.onPeerConnected(node);
         Log.i(TAG, "onPeerConnected()");
+        NodeRegistry.getInstance(this).onPeerConnected(node);
         List blockedSounds = ((MainApplication) this.getApplication()).getBlockedSounds();
         Task<Integer> sendMessageTask =
                 Wearable.getMessageClient(this)
@@ -54,6 +64,7 @@ public class DataLayerListenerService extends WearableListenerService {
     public void onPeerDisconnected(Node node) {
         super.onPeerDisconnected(node);
         Log.i(TAG, "onPeerDisconnected()");
+        NodeRegistry.getInstance(this).onPeerDisconnected(node);
     }
 
     @Override
@@ -105,10 +116,7 @@ public class DataLayerListenerService extends WearableListenerService {
         } else if (messageEvent.getPath().equals(AUDIO_PREDICTION_PATH)) {
             /** Display Snooze on Phone**/
             Log.i(TAG, "Sending label broadcast to MainActivity");
-            Intent broadcastIntent = new Intent();
-            broadcastIntent.setAction(MainActivity.mBroadcastSoundPrediction);
-            broadcastIntent.putExtra(AUDIO_LABEL, new String(messageEvent.getData()));
-            sendBroadcast(broadcastIntent);
+            broadcastPredictions(messageEvent, MainActivity.mBroadcastSoundPrediction);
 //            createAudioLabelNotification(audioLabel);
         } else if (messageEvent.getPath().equals(SOUND_ENABLE_FROM_PHONE_PATH)) {
             Log.d(TAG, "Received sound enabled from phone: " + new String(messageEvent.getData()));
@@ -116,11 +124,7 @@ public class DataLayerListenerService extends WearableListenerService {
         } else if (messageEvent.getPath().equals(SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH)) {
             Log.i(TAG, "Sending All sounds label to MainActivity");
 //            Log.d(DEBUG_TAG, new String(messageEvent.getData()));
-
-            Intent broadcastIntent = new Intent();
-            broadcastIntent.setAction(MainActivity.mBroadcastAllSoundPredictions);
-            broadcastIntent.putExtra(AUDIO_LABEL, new String(messageEvent.getData()));
-            sendBroadcast(broadcastIntent);
+            broadcastPredictions(messageEvent, MainActivity.mBroadcastAllSoundPredictions);
         } else if (messageEvent.getPath().equals(SEND_FOREGROUND_SERVICE_STATUS_FROM_PHONE_PATH)) {
             Log.i(TAG, "Foreground Service status received: "+ new String(messageEvent.getData()) + "-> send to MainActivity");
 
@@ -128,6 +132,19 @@ public class DataLayerListenerService extends WearableListenerService {
             broadcastIntent.setAction(MainActivity.mBroadcastForegroundService);
             broadcastIntent.putExtra(FOREGROUND_LABEL, new String(messageEvent.getData()));
             sendBroadcast(broadcastIntent);
+        } else if (messageEvent.getPath().equals(AUDIO_CODEC_FROM_PHONE_PATH)) {
+            String answer = new String(messageEvent.getData());
+            Log.i(TAG, "Audio codec received from phone: " + answer);
+            SoundRecorder.onCodecAnswer(messageEvent.getSourceNodeId(), answer);
+        } else if (messageEvent.getPath().equals(LABEL_TABLE_FROM_PHONE_PATH)) {
+            try {
+                LabelTable labelTable = LabelTable.decode(messageEvent.getData());
+                Log.i(TAG, "Label table received from phone: " + Integer.toHexString(labelTable.getId())
+                        + ", " + labelTable.size() + " labels");
+                ((MainApplication) this.getApplication()).putLabelTable(labelTable);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid label table: " + e.getMessage());
+            }
         } else if (messageEvent.getPath().equals(SEND_LISTENING_STATUS_FROM_PHONE_PATH)) {
             String data = new String(messageEvent.getData());
             Log.i(TAG, "Listening Status received: " + data);
@@ -142,6 +159,54 @@ public class DataLayerListenerService extends WearableListenerService {
         }
     }
 
+    /**
+     * Pass the predictions of the phone to MainActivity, as a PredictionResult or as text from
+     * older phones. Results for a label table the watch does not have, or with a label outside
+     * of it, are dropped, and the table is requested from the phone.
+     */
+    private void broadcastPredictions(MessageEvent messageEvent, String action) {
+        byte[] data = messageEvent.getData();
+        Intent broadcastIntent = new Intent();
+        broadcastIntent.setAction(action);
+        if (PredictionResult.isResult(data)) {
+            if (!predictionResult.read(data)) {
+                Log.i(TAG, "Dropping prediction result of an unsupported version");
+                return;
+            }
+            int labelTableId = predictionResult.getLabelTableId();
+            LabelTable labelTable = ((MainApplication) this.getApplication()).getLabelTable(labelTableId);
+            if (labelTable == null) {
+                Log.i(TAG, "Dropping prediction result of unknown label table " + Integer.toHexString(labelTableId));
+                requestLabelTable(messageEvent.getSourceNodeId());
+                return;
+            }
+            for (int i = 0; i < predictionResult.getCount(); i++) {
+                int labelId = predictionResult.getLabelId(i);
+                if (labelId != PredictionResult.NO_LABEL && labelId >= labelTable.size()) {
+                    Log.i(TAG, "Dropping prediction result with label " + labelId + " outside of label table "
+                            + Integer.toHexString(labelTableId));
+                    requestLabelTable(messageEvent.getSourceNodeId());
+                    return;
+                }
+            }
+            broadcastIntent.putExtra(PREDICTION_RESULT, data);
+        } else {
+            broadcastIntent.putExtra(AUDIO_LABEL, new String(data));
+        }
+        sendBroadcast(broadcastIntent);
+    }
+
+    /**
+     * Ask the phone for its label table, at most once per LABEL_TABLE_REQUEST_INTERVAL_MILLIS.
+     */
+    private void requestLabelTable(String nodeId) {
+        long now = System.currentTimeMillis();
+        if (now - labelTableRequestTime > LABEL_TABLE_REQUEST_INTERVAL_MILLIS) {
+            labelTableRequestTime = now;
+            Wearable.getMessageClient(this).sendMessage(nodeId, LABEL_TABLE_REQUEST_FROM_WATCH_PATH, new byte[0]);
+        }
+    }
+
     public void handleEnableSoundNotification(String message) {
         String[] parts = message.split(",");
         if (parts.length != 3) {
@@ -5,12 +5,25 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.CountDownTimer;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.wearable.sound.application.MainApplication;
+import com.wearable.sound.core.LabelTable;
+import com.wearable.sound.core.ListeningScheduler;
+import com.wearable.sound.core.PredictionResult;
 import com.wearable.sound.ui.activity.MainActivity;
 import com.wearable.sound.R;
 import com.wearable.sound.utils.Constants;
@@ -29,11 +42,153 @@ public class ForegroundService extends Service {
     private SoundRecorder mSoundRecorder;
     private CountDownTimer mCountDownTimer;
     private static Set<String> connectedHostIds = new HashSet<>();
+
+    // Listening and sleeping phases of the recorder, see DUTY_CYCLED_LISTENING. The phases are
+    // scheduled with a Handler, and a partial wake lock is held until the next phase change so
+    // the watch does not suspend in between. Exact alarms would wake it, but in Doze they are
+    // deferred to about one per 9 minutes, far longer than a phase. The lock times out
+    // LISTENING_WAKE_LOCK_MARGIN_MILLIS after the change is due, in case the tick never runs
+    private static final long LISTENING_WAKE_LOCK_MARGIN_MILLIS = 5000;
+    private ListeningScheduler listeningScheduler;
+    private final Handler listeningHandler = new Handler(Looper.getMainLooper());
+    private final Runnable listeningTick = this::scheduleListening;
+    private PowerManager.WakeLock listeningWakeLock;
+    private final PredictionResult predictionResult = new PredictionResult();
+    private int batteryPercent = 100;
+    private boolean charging = false;
+    private boolean screenOn = true;
+
+    private final BroadcastReceiver listeningReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            switch (intent.getAction()) {
+                case Intent.ACTION_BATTERY_CHANGED:
+                    int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                    int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+                    if (level >= 0 && scale > 0) {
+                        batteryPercent = level * 100 / scale;
+                    }
+                    charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+                    break;
+                case Intent.ACTION_SCREEN_ON:
+                    screenOn = true;
+                    break;
+                case Intent.ACTION_SCREEN_OFF:
+                    screenOn = false;
+                    break;
+                case MainActivity.mBroadcastSoundPrediction:
+                case MainActivity.mBroadcastAllSoundPredictions:
+                    if (!isDetection(intent)) {
+                        return;
+                    }
+                    recordListening();
+                    listeningScheduler.onDetection(SystemClock.elapsedRealtime());
+                    break;
+                default:
+                    return;
+            }
+            scheduleListening();
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
         Log.i(TAG, "onCreate");
         mSoundRecorder = new SoundRecorder(this, VOICE_FILE_NAME);
+        if (DUTY_CYCLED_LISTENING) {
+            listeningScheduler = new ListeningScheduler(BALANCED_LISTEN_MILLIS, BALANCED_SLEEP_MILLIS,
+                    LOW_POWER_LISTEN_MILLIS, LOW_POWER_SLEEP_MILLIS, DETECTION_LISTEN_MILLIS, LOW_BATTERY_PERCENT);
+            PowerManager powerManager = getSystemService(PowerManager.class);
+            screenOn = powerManager.isInteractive();
+            listeningWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "SoundWatch:listening");
+            listeningWakeLock.setReferenceCounted(false);
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            filter.addAction(MainActivity.mBroadcastSoundPrediction);
+            filter.addAction(MainActivity.mBroadcastAllSoundPredictions);
+            // The battery broadcast is sticky, the receiver gets the current level right away
+            registerReceiver(listeningReceiver, filter);
+            scheduleListening();
+        }
+    }
+
+    /**
+     * Switch to the listening policy for the state of the watch, start or end the phase due now,
+     * and schedule the next one, keeping the watch awake until then.
+     */
+    private void scheduleListening() {
+        long now = SystemClock.elapsedRealtime();
+        recordListening();
+        if (listeningScheduler.update(now, batteryPercent, charging, screenOn)) {
+            Log.i(TAG, "Listening policy " + listeningScheduler.getPolicy() + ", battery " + batteryPercent
+                    + "%, charging " + charging + ", screen on " + screenOn + ", " + listeningScheduler.getReport());
+        }
+        mSoundRecorder.setListening(listeningScheduler.isListening(now));
+        listeningHandler.removeCallbacks(listeningTick);
+        long delay = listeningScheduler.millisUntilChange(now);
+        if (delay != Long.MAX_VALUE) {
+            // Not reference counted, acquiring again only moves the timeout
+            listeningWakeLock.acquire(delay + LISTENING_WAKE_LOCK_MARGIN_MILLIS);
+            listeningHandler.postDelayed(listeningTick, delay);
+        } else if (listeningWakeLock.isHeld()) {
+            listeningWakeLock.release();
+        }
+    }
+
+    /**
+     * Account the capture and CPU time so far to the current policy.
+     */
+    private void recordListening() {
+        listeningScheduler.record(SystemClock.elapsedRealtime(), mSoundRecorder.getCaptureMillis(),
+                Process.getElapsedCpuTime());
+    }
+
+    /**
+     * @return true if a prediction broadcast, of the top sound or of all the sounds above their
+     * threshold, has a sound the user is notified of, see MainActivity.isNotified
+     */
+    private boolean isDetection(Intent intent) {
+        MainApplication application = (MainApplication) getApplicationContext();
+        byte[] result = intent.getByteArrayExtra(PREDICTION_RESULT);
+        if (result != null) {
+            LabelTable labelTable = predictionResult.read(result)
+                    ? application.getLabelTable(predictionResult.getLabelTableId())
+                    : null;
+            if (labelTable == null) {
+                return false;
+            }
+            for (int i = 0; i < predictionResult.getCount(); i++) {
+                int labelId = predictionResult.getLabelId(i);
+                if (labelId != PredictionResult.NO_LABEL && labelId < labelTable.size()
+                        && MainActivity.isNotified(application,
+                                MainActivity.remapSoundLabel(labelTable.getLabel(labelId)), predictionResult.getScore(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String data = intent.getStringExtra(AUDIO_LABEL);
+        if (data == null) {
+            return false;
+        }
+        if (intent.getAction().equals(MainActivity.mBroadcastAllSoundPredictions)) {
+            // "<label>_<score>,<label>_<score>;<time>;<db>"
+            for (String soundKvPair : data.split(";")[0].split(",")) {
+                String[] parts = soundKvPair.split("_");
+                if (parts.length == 2 && MainActivity.isNotified(application,
+                        MainActivity.remapSoundLabel(parts[0]), Float.parseFloat(parts[1]))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // "<label>,<score>,<time>,<db>"
+        String[] parts = data.split(",");
+        return parts.length >= 2 && MainActivity.isNotified(application,
+                MainActivity.remapSoundLabel(parts[0]), Float.parseFloat(parts[1]));
     }
 
     @Override
@@ -69,6 +224,15 @@ public class ForegroundService extends Service {
         if (mCountDownTimer != null) {
             mCountDownTimer.cancel();
         }
+        if (listeningScheduler != null) {
+            listeningHandler.removeCallbacks(listeningTick);
+            if (listeningWakeLock.isHeld()) {
+                listeningWakeLock.release();
+            }
+            unregisterReceiver(listeningReceiver);
+            recordListening();
+            Log.i(TAG, "Listening: " + listeningScheduler.getReport());
+        }
     }
     @Override
     public IBinder onBind(Intent intent) {
@@ -34,8 +34,6 @@ import com.github.nkzawa.socketio.client.IO;
 import com.github.nkzawa.socketio.client.Socket;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.wearable.CapabilityClient;
-import com.google.android.gms.wearable.CapabilityInfo;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.Wearable;
 
@@ -43,11 +41,15 @@ import com.google.android.gms.tasks.Task;
 import com.kuassivi.component.RipplePulseRelativeLayout;
 import com.wearable.sound.R;
 import com.wearable.sound.application.MainApplication;
+import com.wearable.sound.core.LabelTable;
+import com.wearable.sound.core.PredictionResult;
+import com.wearable.sound.core.TopK;
 import com.wearable.sound.models.AudioLabel;
 import com.wearable.sound.models.SoundPrediction;
 import com.wearable.sound.service.ForegroundService;
 import com.wearable.sound.service.SnoozeSoundService;
 import com.wearable.sound.utils.AlarmReceiver;
+import com.wearable.sound.utils.NodeRegistry;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -98,6 +100,7 @@ public class MainActivity extends WearableActivity implements WearableListView.C
     private static final String CHANNEL_ID = "SOUNDWATCH";
     private static final int PERMISSIONS_REQUEST_CODE = 100;
     private static Set<String> connectedHostIds = new HashSet<>();
+    private NodeRegistry nodeRegistry;
     private long absolutelastTime = 0;
     private static final float PREDICTION_THRES = 0.4F;
     private static Toast mToast;
@@ -117,10 +120,31 @@ public class MainActivity extends WearableActivity implements WearableListView.C
     public static final String mBroadcastForegroundService = "com.wearable.sound.broadcast.foregroundservice";
     public static final String mBroadcastListeningStatus = "com.wearable.sound.broadcast.listeningstatus";
     private IntentFilter mIntentFilter;
+    // Decoder of the binary predictions of the phone, reused for every result
+    private final PredictionResult predictionResult = new PredictionResult();
+    // Labels of the last label table, remapped once for all the results that use it
+    private LabelTable remappedTable;
+    private String[] remappedLabels;
+    // Highest prediction the user is notified of, see filterTopSoundLabel
+    private final TopK topSoundLabel = new TopK(1);
     private BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             Log.i(TAG, "Received intent: "  + intent.getAction());
+            byte[] result = intent.getByteArrayExtra(PREDICTION_RESULT);
+            if (result != null) {
+                LabelTable labelTable = predictionResult.read(result)
+                        ? ((MainApplication) getApplicationContext()).getLabelTable(predictionResult.getLabelTableId())
+                        : null;
+                if (labelTable == null || predictionResult.getCount() == 0) {
+                    Log.i(TAG, "Invalid prediction result");
+                } else if (intent.getAction().equals(mBroadcastSoundPrediction)) {
+                    createAudioLabelNotification(toAudioLabel(predictionResult, labelTable));
+                } else if (intent.getAction().equals(mBroadcastAllSoundPredictions)) {
+                    createAudioLabelNotification(filterTopSoundLabel(predictionResult, labelTable));
+                }
+                return;
+            }
             if (intent.getAction().equals(mBroadcastSoundPrediction)) {
                 String data = intent.getStringExtra(AUDIO_LABEL);
                 String[] parts = data.split(",");
@@ -202,34 +226,87 @@ public class MainActivity extends WearableActivity implements WearableListView.C
         return result;
     }
 
-    private AudioLabel filterTopSoundLabel(List<SoundPrediction> soundPredictions, String time, String db) {
-        ArrayList<String> enabledSounds = ((MainApplication) getApplicationContext()).enabledSounds;
+    /**
+     * @return the first prediction of a result, labelled as the phone named it, or as
+     * unidentified if its label is not in the table
+     */
+    private AudioLabel toAudioLabel(PredictionResult result, LabelTable labelTable) {
+        int labelId = result.getLabelId(0);
+        String label = labelId != PredictionResult.NO_LABEL && labelId < labelTable.size()
+                ? labelTable.getLabel(labelId) : "Unidentified Sound";
+        return new AudioLabel(label, Float.toString(result.getScore(0)), java.time.LocalTime.now().toString(),
+                Float.toString(result.getLoudness()),
+                TEST_E2E_LATENCY ? Long.toString(result.getCaptureTime()) : null);
+    }
 
-        // Traverse list in decreasing order, so the first one found should be the one in notification
-        for (SoundPrediction soundPrediction: soundPredictions) {
-            // Check if sound is not currently blocked and isEnabled
-            if (!enabledSounds.contains(soundPrediction.getLabel())) {
-                continue;
+    /**
+     * Same as {@link #filterTopSoundLabel(List, String, String)} for a binary result, read in
+     * place with the labels of its table remapped once.
+     */
+    private AudioLabel filterTopSoundLabel(PredictionResult result, LabelTable labelTable) {
+        if (labelTable != remappedTable) {
+            remappedLabels = new String[labelTable.size()];
+            for (int i = 0; i < remappedLabels.length; i++) {
+                remappedLabels[i] = remapSoundLabel(labelTable.getLabel(i));
             }
-            if (((MainApplication) getApplicationContext()).getBlockedSounds().contains(soundPrediction.getLabel())) {
-                continue;
+            remappedTable = labelTable;
+        }
+        String time = java.time.LocalTime.now().toString();
+        String db = Float.toString(result.getLoudness());
+
+        // Keep the highest prediction the user can be notified of, by its index in the result
+        topSoundLabel.clear();
+        for (int i = 0; i < result.getCount(); i++) {
+            int labelId = result.getLabelId(i);
+            if (labelId < remappedLabels.length && isNotified(remappedLabels[labelId], result.getScore(i))) {
+                topSoundLabel.offer(i, result.getScore(i));
             }
+        }
+        if (topSoundLabel.getCount() > 0) {
+            int top = topSoundLabel.getLabel(0);
+            return new AudioLabel(remappedLabels[result.getLabelId(top)], Float.toString(result.getScore(top)),
+                    time, db, null);
+        }
+        return new AudioLabel("Unrecognized Sound", Float.toString(1.0f), time, db, null);
+    }
 
-            if (soundPrediction.getAccuracy() < PREDICTION_THRES) {
-                continue;
+    private AudioLabel filterTopSoundLabel(List<SoundPrediction> soundPredictions, String time, String db) {
+        // Keep the highest prediction the user can be notified of, by its index in the list
+        topSoundLabel.clear();
+        for (int i = 0; i < soundPredictions.size(); i++) {
+            SoundPrediction soundPrediction = soundPredictions.get(i);
+            if (isNotified(soundPrediction.getLabel(), soundPrediction.getAccuracy())) {
+                topSoundLabel.offer(i, soundPrediction.getAccuracy());
             }
+        }
+        if (topSoundLabel.getCount() > 0) {
+            SoundPrediction soundPrediction = soundPredictions.get(topSoundLabel.getLabel(0));
             return new AudioLabel(soundPrediction.getLabel(), Float.toString(soundPrediction.getAccuracy()), time, db, null);
         }
         return new AudioLabel("Unrecognized Sound", Float.toString(1.0f), time, db, null);
     }
 
+    private boolean isNotified(String label, float score) {
+        return isNotified((MainApplication) getApplicationContext(), label, score);
+    }
+
+    /**
+     * @param label remapped label, see {@link #remapSoundLabel(String)}
+     * @return true if the sound is enabled, not currently blocked, and its score above PREDICTION_THRES
+     */
+    public static boolean isNotified(MainApplication application, String label, float score) {
+        return application.enabledSounds.contains(label)
+                && !application.getBlockedSounds().contains(label)
+                && score >= PREDICTION_THRES;
+    }
+
     /**
      * Remapping the original label string to the one compatible with SW (v2)
      * For example: Fire Alarm --> Fire/Smoke Alarm or Smoke Alarm --> Fire/Smoke Alarm
      * @param label : the label for a prediction
      * @return
      */
-    private String remapSoundLabel(String label) {
+    public static String remapSoundLabel(String label) {
         switch (label) {
             case "Fire Alarm":
             case "Smoke Detector/Smoke Alarm":
@@ -372,6 +449,9 @@ public class MainActivity extends WearableActivity implements WearableListView.C
         mSocket.on("audio_label", onNewMessage);
         // mSocket.on("echo", onEchoMessage);
         mSocket.connect();
+        // Start tracking the phones, so recording does not wait for a capability lookup
+        nodeRegistry = NodeRegistry.getInstance(this);
+        nodeRegistry.load();
 
 
         // Set the UI
@@ -454,26 +534,11 @@ public class MainActivity extends WearableActivity implements WearableListView.C
 
         //resetconnectedHostIds
         connectedHostIds.clear();
-        final String CAPABILITY_1 = "capability_1";
-        Task<Map<String, CapabilityInfo>> capabilitiesTask =
-                Wearable.getCapabilityClient(this)
-                        .getAllCapabilities(CapabilityClient.FILTER_REACHABLE);
-
-        capabilitiesTask.addOnSuccessListener(
-                new OnSuccessListener<Map<String, CapabilityInfo>>() {
+        nodeRegistry.load().addOnSuccessListener(
+                new OnSuccessListener<Void>() {
                     @Override
-                    public void onSuccess(Map<String, CapabilityInfo> capabilityInfoMap) {
-                        Set<Node> nodes = new HashSet<>();
-
-                        if (capabilityInfoMap.isEmpty()) {
-                            showDiscoveredNodes(nodes);
-                            return;
-                        }
-                        CapabilityInfo capabilityInfo = capabilityInfoMap.get(CAPABILITY_1);
-                        if (capabilityInfo != null) {
-                            nodes.addAll(capabilityInfo.getNodes());
-                        }
-                        showDiscoveredNodes(nodes);
+                    public void onSuccess(Void loaded) {
+                        showDiscoveredNodes(nodeRegistry.getNodes(NodeRegistry.CAPABILITY_1));
                     }
                 });
     }
@@ -496,28 +561,14 @@ public class MainActivity extends WearableActivity implements WearableListView.C
 
     private void startRecording(final Context main) {
         Log.i(TAG, "startRecording called");
-        // Refresh list of connected nodes
-        final String CAPABILITY_1 = "capability_1";
-        Task<Map<String, CapabilityInfo>> capabilitiesTask =
-                Wearable.getCapabilityClient(this)
-                        .getAllCapabilities(CapabilityClient.FILTER_REACHABLE);
+        // Refresh list of connected nodes, from memory once the registry is loaded
+        Task<Void> capabilitiesTask = nodeRegistry.load();
 
         capabilitiesTask.addOnSuccessListener(
-                new OnSuccessListener<Map<String, CapabilityInfo>>() {
+                new OnSuccessListener<Void>() {
                     @Override
-                    public void onSuccess(Map<String, CapabilityInfo> capabilityInfoMap) {
-                        Set<Node> nodes = new HashSet<>();
-
-                        if (capabilityInfoMap.isEmpty()) {
-                            showDiscoveredNodes(nodes);
-                            return;
-                        }
-                        CapabilityInfo capabilityInfo = capabilityInfoMap.get(CAPABILITY_1);
-                        if (capabilityInfo != null) {
-                            nodes.addAll(capabilityInfo.getNodes());
-                        }
-
-                        showDiscoveredNodes(nodes);
+                    public void onSuccess(Void loaded) {
+                        showDiscoveredNodes(nodeRegistry.getNodes(NodeRegistry.CAPABILITY_1));
                         if (connectedHostIds.isEmpty()) {
                             return;
                         }
@@ -870,27 +921,11 @@ public class MainActivity extends WearableActivity implements WearableListView.C
     /** Find the connected nodes that provide at least one of the given capabilities. */
     private void showNodes(final String... capabilityNames) {
 
-        Task<Map<String, CapabilityInfo>> capabilitiesTask =
-                Wearable.getCapabilityClient(this)
-                        .getAllCapabilities(CapabilityClient.FILTER_REACHABLE);
-
-        capabilitiesTask.addOnSuccessListener(
-                new OnSuccessListener<Map<String, CapabilityInfo>>() {
+        nodeRegistry.load().addOnSuccessListener(
+                new OnSuccessListener<Void>() {
                     @Override
-                    public void onSuccess(Map<String, CapabilityInfo> capabilityInfoMap) {
-                        Set<Node> nodes = new HashSet<>();
-
-                        if (capabilityInfoMap.isEmpty()) {
-                            showDiscoveredNodes(nodes);
-                            return;
-                        }
-                        for (String capabilityName : capabilityNames) {
-                            CapabilityInfo capabilityInfo = capabilityInfoMap.get(capabilityName);
-                            if (capabilityInfo != null) {
-                                nodes.addAll(capabilityInfo.getNodes());
-                            }
-                        }
-                        showDiscoveredNodes(nodes);
+                    public void onSuccess(Void loaded) {
+                        showDiscoveredNodes(nodeRegistry.getNodes(capabilityNames));
                     }
                 });
     }
@@ -0,0 +1,27 @@
+package com.wearable.sound.utils;
+
+import com.wearable.sound.core.LatencyStats;
+
+/**
+ * Sends encoded {@link com.wearable.sound.core.AudioFrame}s from the watch to the connected
+ * phones. Selected with Constants.AUDIO_TRANSPORT, so the transports can be compared on the
+ * same recording.
+ *
+ * A transport is only used by the worker thread of the recording that created it.
+ */
+public interface AudioTransport {
+    /**
+     * @param frame encoded frame, must not be modified after the call
+     */
+    void send(byte[] frame);
+
+    /**
+     * Release the connections, called when the recording stops.
+     */
+    void close();
+
+    /**
+     * @return throughput and per-frame send latency so far
+     */
+    LatencyStats getStats();
+}
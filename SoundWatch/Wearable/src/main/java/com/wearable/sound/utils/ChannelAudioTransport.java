@@ -0,0 +1,143 @@
+package com.wearable.sound.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.gms.wearable.ChannelClient;
+import com.google.android.gms.wearable.Wearable;
+import com.wearable.sound.core.LatencyStats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Streams the frames over one ChannelClient channel per phone, opened on AUDIO_CHANNEL_PATH on
+ * the first frame of a recording. The phone tells the frames apart with the payload length in
+ * their headers. The latency of a frame is the time the write to the channel blocks.
+ *
+ * Opening waits at most OPEN_TIMEOUT_MILLIS, since it runs on the recording's worker. A channel
+ * that fails is closed, and the frames to that phone are skipped until the retry delay elapsed,
+ * which doubles from OPEN_RETRY_MIN_MILLIS to OPEN_RETRY_MAX_MILLIS while opening keeps failing.
+ */
+public class ChannelAudioTransport implements AudioTransport {
+    private static final String TAG = "ChannelAudioTransport";
+    public static final String AUDIO_CHANNEL_PATH = "/audio_channel";
+    private static final long OPEN_TIMEOUT_MILLIS = 1000;
+    private static final long OPEN_RETRY_MIN_MILLIS = 1000;
+    private static final long OPEN_RETRY_MAX_MILLIS = 30000;
+
+    private final ChannelClient channelClient;
+    private final Set<String> connectedHostIds;
+    private final Map<String, ChannelClient.Channel> channels = new HashMap<>();
+    private final Map<String, OutputStream> outputStreams = new HashMap<>();
+    // Per node, the time the channel may be opened again and the delay after the next failure
+    private final Map<String, Long> retryTimes = new HashMap<>();
+    private final Map<String, Long> retryDelays = new HashMap<>();
+    private final LatencyStats stats = new LatencyStats("channel", 1024);
+
+    public ChannelAudioTransport(Context context, Set<String> connectedHostIds) {
+        this.channelClient = Wearable.getChannelClient(context);
+        this.connectedHostIds = connectedHostIds;
+    }
+
+    @Override
+    public void send(byte[] frame) {
+        for (String connectedHostId : connectedHostIds) {
+            OutputStream outputStream = outputStreams.get(connectedHostId);
+            try {
+                if (outputStream == null) {
+                    Long retryTime = retryTimes.get(connectedHostId);
+                    if (retryTime != null && System.currentTimeMillis() < retryTime) {
+                        continue;
+                    }
+                    outputStream = open(connectedHostId);
+                }
+                long startTime = System.currentTimeMillis();
+                outputStream.write(frame);
+                outputStream.flush();
+                long now = System.currentTimeMillis();
+                stats.record(now, frame.length, now - startTime);
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                Log.e(TAG, "Failed to stream audio to " + connectedHostId + ": " + e);
+                close(connectedHostId);
+                backOff(connectedHostId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Block until the channel to the node and its output stream are open, or OPEN_TIMEOUT_MILLIS
+     * elapsed for either of them.
+     */
+    private OutputStream open(String nodeId)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        Task<ChannelClient.Channel> openTask = channelClient.openChannel(nodeId, AUDIO_CHANNEL_PATH);
+        ChannelClient.Channel channel;
+        try {
+            channel = Tasks.await(openTask, OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Nobody waits for the channel anymore, close it if it still opens
+            openTask.addOnSuccessListener(channelClient::close);
+            throw e;
+        }
+        channels.put(nodeId, channel);
+        OutputStream outputStream = Tasks.await(channelClient.getOutputStream(channel),
+                OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        outputStreams.put(nodeId, outputStream);
+        retryTimes.remove(nodeId);
+        retryDelays.remove(nodeId);
+        Log.i(TAG, "Opened audio channel to " + nodeId);
+        return outputStream;
+    }
+
+    /**
+     * Skip the node until the retry delay elapsed, and double the delay for the next failure.
+     */
+    private void backOff(String nodeId) {
+        Long delay = retryDelays.get(nodeId);
+        if (delay == null) {
+            delay = OPEN_RETRY_MIN_MILLIS;
+        }
+        retryTimes.put(nodeId, System.currentTimeMillis() + delay);
+        retryDelays.put(nodeId, Math.min(delay * 2, OPEN_RETRY_MAX_MILLIS));
+    }
+
+    private void close(String nodeId) {
+        OutputStream outputStream = outputStreams.remove(nodeId);
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        ChannelClient.Channel channel = channels.remove(nodeId);
+        if (channel != null) {
+            channelClient.close(channel);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (String nodeId : new ArrayList<>(channels.keySet())) {
+            close(nodeId);
+        }
+    }
+
+    @Override
+    public LatencyStats getStats() {
+        return stats;
+    }
+}
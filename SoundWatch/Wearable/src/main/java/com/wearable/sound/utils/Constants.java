@@ -1,5 +1,7 @@
 package com.wearable.sound.utils;
 
+import com.wearable.sound.core.CodecNegotiation;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +17,8 @@ public class Constants {
     public static final String SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH = "/SEND_ALL_AUDIO_PREDICTIONS_FROM_PHONE_PATH";
     public static final String SEND_FOREGROUND_SERVICE_STATUS_FROM_PHONE_PATH = "/SEND_FOREGROUND_SERVICE_STATUS_FROM_PHONE_PATH";
     public static final String SEND_LISTENING_STATUS_FROM_PHONE_PATH = "/SEND_LISTENING_STATUS_FROM_PHONE_PATH";
+    public static final String AUDIO_CODEC_FROM_PHONE_PATH = "/AUDIO_CODEC_FROM_PHONE_PATH";
+    public static final String LABEL_TABLE_FROM_PHONE_PATH = "/LABEL_TABLE_FROM_PHONE_PATH";
     public static final String COUNT_PATH = "/count";
 
     /**
@@ -23,6 +27,8 @@ public class Constants {
 
     public static final String SNOOZE_TIME = "SNOOZE_TIME";
     public static final String SOUND_SNOOZE_FROM_WATCH_PATH = "/SOUND_SNOOZE_FROM_WATCH_PATH";
+    public static final String AUDIO_CODEC_OFFER_FROM_WATCH_PATH = "/AUDIO_CODEC_OFFER_FROM_WATCH_PATH";
+    public static final String LABEL_TABLE_REQUEST_FROM_WATCH_PATH = "/LABEL_TABLE_REQUEST_FROM_WATCH_PATH";
     public static final String WATCH_CONNECT_STATUS = "/WATCH_CONNECT_STATUS";
     public static final String CONNECTED_HOST_IDS = "CONNECTED_HOST_IDS";
     public static final String SNOOZE_SOUND = "SNOOZE_SOUND";
@@ -32,6 +38,8 @@ public class Constants {
      *
      */
     public static final String AUDIO_LABEL = "AUDIO_LABEL";
+    // Binary predictions of the phone, see PredictionResult
+    public static final String PREDICTION_RESULT = "PREDICTION_RESULT";
     public static final String FOREGROUND_LABEL = "FOREGROUND_LABEL";
     public static final String WATCH_STATUS_LABEL = "WATCH_STATUS_LABEL";
     public static final String CHANNEL_ID = "ForegroundServiceChannel";
@@ -62,6 +70,68 @@ public class Constants {
     public static final String AUDIO_FEATURES_TRANSMISSION = "AUDIO_FEATURES_TRANSMISSION";
     public static final String AUDIO_TRANMISSION_STYLE = RAW_AUDIO_TRANSMISSION;
 
+    /**
+     * Raw audio batching: microphone reads are grouped into messages of up to
+     * RAW_AUDIO_BATCH_MILLIS of audio or RAW_AUDIO_BATCH_MAX_BYTES of PCM, 0 ms sends every read
+     */
+    public static final int RAW_AUDIO_BATCH_MILLIS = 160;
+    public static final int RAW_AUDIO_BATCH_MAX_BYTES = 16000;
+
+    /**
+     * Raw audio sent to the phone: every read (CONTINUOUS_RAW_AUDIO), or only the sound events
+     * the watch detects, with RAW_AUDIO_PRE_ROLL_MILLIS before each and a heartbeat with the
+     * noise floor every RAW_AUDIO_HEARTBEAT_MILLIS in between (SOUND_EVENTS_RAW_AUDIO). Sound
+     * events are opt-in: the segmenter misses some quiet events, see AudioSegmenter and
+     * ./gradlew :InferenceCore:gateBenchmark for the audio it sends and the events it misses
+     */
+    public static final String CONTINUOUS_RAW_AUDIO = "CONTINUOUS_RAW_AUDIO";
+    public static final String SOUND_EVENTS_RAW_AUDIO = "SOUND_EVENTS_RAW_AUDIO";
+    public static final String RAW_AUDIO_MODE = CONTINUOUS_RAW_AUDIO;
+    public static final int RAW_AUDIO_PRE_ROLL_MILLIS = 500;
+    public static final int RAW_AUDIO_HANGOVER_MILLIS = 500;
+    public static final int RAW_AUDIO_HEARTBEAT_MILLIS = 2000;
+
+    /**
+     * How audio frames are sent to the phone: one MessageClient message per frame, or a
+     * ChannelClient stream per recording
+     */
+    public static final String MESSAGE_TRANSPORT = "MESSAGE_TRANSPORT";
+    public static final String CHANNEL_TRANSPORT = "CHANNEL_TRANSPORT";
+    public static final String AUDIO_TRANSPORT = MESSAGE_TRANSPORT;
+
+    /**
+     * Message transport queue: at most SEND_MAX_IN_FLIGHT messages are pending, SEND_QUEUE_SIZE
+     * more wait, and frames that waited longer than SEND_LATENCY_BUDGET_MILLIS are dropped
+     */
+    public static final int SEND_QUEUE_SIZE = 16;
+    public static final long SEND_LATENCY_BUDGET_MILLIS = 1000;
+    public static final int SEND_MAX_IN_FLIGHT = 2;
+
+    /**
+     * Codec offered to the phone for raw audio, IMA_ADPCM sends 4 bits per sample instead of 16,
+     * PCM16 disables the codec. See CodecNegotiation, and the Application CodecAccuracyTest for
+     * the predictions of the shipped model with each codec before changing it
+     */
+    public static final String RAW_AUDIO_CODEC = CodecNegotiation.PCM16;
+
+    /**
+     * Codec offered to the phone for features, FLOAT16 halves the 8 KB of a float32 patch, INT8
+     * quarters it with a per-patch offset and scale, FLOAT32 disables quantization. See
+     * FeatureQuantizer, ./gradlew :InferenceCore:codecBenchmark for their impact on the features
+     * and the Application CodecAccuracyTest for their impact on the predictions
+     */
+    public static final String FEATURES_CODEC = CodecNegotiation.FLOAT16;
+
+    /**
+     * Audio features extraction configuration
+     * Python runs the original numpy VGGish code through Chaquopy, Java runs LogMelSpectrogram
+     * Python string is the old Chaquopy path that converts arrays to and from strings
+     */
+    public static final String JAVA_FEATURE_EXTRACTION = "JAVA_FEATURE_EXTRACTION";
+    public static final String PYTHON_FEATURE_EXTRACTION = "PYTHON_FEATURE_EXTRACTION";
+    public static final String PYTHON_STRING_FEATURE_EXTRACTION = "PYTHON_STRING_FEATURE_EXTRACTION";
+    public static final String FEATURE_EXTRACTION_STYLE = JAVA_FEATURE_EXTRACTION;
+
     /**
      * Architecture configurations
      */
@@ -71,6 +141,20 @@ public class Constants {
     public static final String WATCH_SERVER_ARCHITECTURE = "WATCH_SERVER_ARCHITECTURE";
     public static final String ARCHITECTURE = PHONE_WATCH_ARCHITECTURE;
 
+    /**
+     * Listening duty cycle of ForegroundService, see ListeningScheduler: continuous while charging
+     * or with the screen on, LOW_POWER cycles at LOW_BATTERY_PERCENT or less, BALANCED cycles
+     * otherwise, and continuous for DETECTION_LISTEN_MILLIS after a sound is detected. The
+     * microphone is released while sleeping. DUTY_CYCLED_LISTENING false always listens, the
+     * default until the cycles are validated on a watch
+     */
+    public static final boolean DUTY_CYCLED_LISTENING = false;
+    public static final long BALANCED_LISTEN_MILLIS = 2000;
+    public static final long BALANCED_SLEEP_MILLIS = 1000;
+    public static final long LOW_POWER_LISTEN_MILLIS = 1000;
+    public static final long LOW_POWER_SLEEP_MILLIS = 3000;
+    public static final long DETECTION_LISTEN_MILLIS = 30000;
+    public static final int LOW_BATTERY_PERCENT = 20;
 
     /*
      *  Foreground Service configurations
@@ -0,0 +1,80 @@
+package com.wearable.sound.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.wearable.MessageClient;
+import com.google.android.gms.wearable.Wearable;
+import com.wearable.sound.core.LatencyStats;
+import com.wearable.sound.core.SendQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends every frame as its own MessageClient message on AUDIO_MESSAGE_PATH. The latency of a
+ * frame is the time until the message is handed to the phone's node.
+ *
+ * Frames go through a {@link SendQueue}, so at most MAX_IN_FLIGHT messages are pending while the
+ * link is congested and frames older than the latency budget are dropped instead of sent.
+ */
+public class MessageAudioTransport implements AudioTransport {
+    private static final String TAG = "MessageAudioTransport";
+    private final MessageClient messageClient;
+    private final Set<String> connectedHostIds;
+    private final LatencyStats stats = new LatencyStats("message", 1024);
+    private final SendQueue<byte[]> sendQueue;
+
+    public MessageAudioTransport(Context context, Set<String> connectedHostIds) {
+        this.messageClient = Wearable.getMessageClient(context);
+        this.connectedHostIds = connectedHostIds;
+        this.sendQueue = new SendQueue<>("message queue", Constants.SEND_QUEUE_SIZE,
+                Constants.SEND_LATENCY_BUDGET_MILLIS, Constants.SEND_MAX_IN_FLIGHT, this::sendToHosts);
+    }
+
+    @Override
+    public void send(byte[] frame) {
+        sendQueue.offer(frame, System.currentTimeMillis());
+    }
+
+    /**
+     * Send a frame to every phone, the send completes once all of them answered.
+     */
+    private void sendToHosts(final byte[] frame) {
+        List<String> hostIds = new ArrayList<>(connectedHostIds);
+        if (hostIds.isEmpty()) {
+            sendQueue.complete(System.currentTimeMillis());
+            return;
+        }
+        final AtomicInteger pending = new AtomicInteger(hostIds.size());
+        for (String connectedHostId : hostIds) {
+            final long startTime = System.currentTimeMillis();
+            Task<Integer> sendMessageTask =
+                    messageClient.sendMessage(connectedHostId, SoundRecorder.AUDIO_MESSAGE_PATH, frame);
+            sendMessageTask.addOnCompleteListener(task -> {
+                long now = System.currentTimeMillis();
+                if (task.isSuccessful()) {
+                    stats.record(now, frame.length, now - startTime);
+                }
+                if (pending.decrementAndGet() == 0) {
+                    sendQueue.complete(now);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        // Messages do not hold a connection, frames still waiting are too late for the next recording
+        sendQueue.clear();
+        Log.i(TAG, "Send queue: " + sendQueue.getReport());
+    }
+
+    @Override
+    public LatencyStats getStats() {
+        return stats;
+    }
+}
@@ -25,14 +25,29 @@ import android.media.AudioRecord;
 import android.media.AudioTrack;
 import android.media.MediaRecorder;
 import android.os.AsyncTask;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.chaquo.python.PyException;
-import com.chaquo.python.PyObject;
-import com.chaquo.python.Python;
-import com.chaquo.python.android.AndroidPlatform;
-import com.google.android.gms.tasks.Task;
 import com.google.android.gms.wearable.Wearable;
+import com.wearable.sound.core.AudioBatcher;
+import com.wearable.sound.core.AudioFrame;
+import com.wearable.sound.core.AudioRingBuffer;
+import com.wearable.sound.core.AudioSegmenter;
+import com.wearable.sound.core.AudioUtils;
+import com.wearable.sound.core.AudioWindowQueue;
+import com.wearable.sound.core.CodecNegotiation;
+import com.wearable.sound.core.FeatureQuantizer;
+import com.wearable.sound.core.ImaAdpcm;
+import com.wearable.sound.core.Labels;
+import com.wearable.sound.core.NoiseGate;
+import com.wearable.sound.core.PosteriorSmoother;
+import com.wearable.sound.core.SoundClassifier;
+import com.wearable.sound.core.SpectralFlux;
+import com.wearable.sound.core.StreamingLogMel;
+import com.wearable.sound.core.TopK;
+import com.wearable.sound.core.VggishParams;
 import com.wearable.sound.ui.activity.MainActivity;
 
 import org.json.JSONArray;
@@ -52,20 +67,21 @@ import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static com.wearable.sound.ui.activity.MainActivity.mBroadcastSoundPrediction;
 import static com.wearable.sound.utils.Constants.AUDIO_LABEL;
-import static com.wearable.sound.utils.HelperUtils.convertByteArrayToShortArray;
-import static com.wearable.sound.utils.HelperUtils.db;
-import static com.wearable.sound.utils.HelperUtils.longToBytes;
 import static com.wearable.sound.utils.Constants.*;
 
 /**
@@ -83,21 +99,59 @@ public class SoundRecorder {
     // this might vary because it will optimize for difference device (should not make it fixed?)
     private static final int BUFFER_SIZE = AudioRecord.getMinBufferSize(RECORDING_RATE, CHANNEL_IN, FORMAT);
     public static final String AUDIO_MESSAGE_PATH = "/audio_message";
-    private static final double DBLEVEL_THRES = -40.0;
-    private static final int bufferElements2Rec = RECORDING_RATE * 320 / 1000; // 320ms sample for the new model v2
+    // Windows quieter than -60 dBFS are never classified, louder ones when they rise above the
+    // noise floor of the room, see noiseGate. Loudness is on the scale of AudioUtils.db, like the
+    // loudness sent to the phone and its db_threshold preference
+    private static final double DBLEVEL_THRES = AudioUtils.fromDbfs(-60.0);
+    // Audio of one NUM_FRAMES x NUM_BANDS patch for the model v2, same window as the phone
+    private static final int bufferElements2Rec = SoundClassifier.WINDOW_SAMPLES;
+    // Start a new window every EXAMPLE_HOP_SECONDS, windows overlap when it is shorter than 320ms
+    private static final int windowHop = (int) Math.round(RECORDING_RATE * VggishParams.EXAMPLE_HOP_SECONDS);
+    // Windows waiting for the processing worker, when it falls behind the oldest ones are skipped
+    private static final int WINDOW_QUEUE_SIZE = 4;
+    // Reads are tens of milliseconds apart, a longer gap is an off phase of the duty cycle
+    private static final long CAPTURE_GAP_MILLIS = 500;
+    private static final AudioWindowQueue.OverrunPolicy WINDOW_OVERRUN_POLICY = AudioWindowQueue.OverrunPolicy.DROP_OLDEST;
+    // Raw audio is queued one read at a time, a second or more of reads so a slow send does not
+    // lose audio. When the queue is full the newest reads are dropped, and the phone is told
+    private static final int RAW_WINDOW_QUEUE_SIZE = 48;
+    // Reads waiting to be written to the recording file, when the disk falls behind the newest
+    // ones are left out of the file
+    private static final int RECORDING_QUEUE_SIZE = 48;
     private static final String SNOOZE_LABEL = "Snooze";
     private static final String SNOOZE_TIME_LABEL = "Snooze Time";
     private static final String[] SNOOZE_CHOICES = {"5 mins", "10 mins", "1 hour", "1 day", "Forever"};
 
 
-    private List<Short> soundBuffer = new ArrayList<>();
-    private float [] input1D = new float [6144];
+    // Holds a few windows of samples so a slow prediction does not lose audio
+    private final AudioRingBuffer soundBuffer = new AudioRingBuffer(bufferElements2Rec, windowHop, bufferElements2Rec * 4);
+    private final short[] sData = new short[bufferElements2Rec];
+    // Computes log mel frames on the capture thread as samples are read, see RecordAudioAsyncTask
+    private final StreamingLogMel streamingLogMel = new StreamingLogMel(SoundClassifier.NUM_FRAMES);
+    // Onsets and noise floor of the audio read, to skip the windows of background noise
+    private final SpectralFlux spectralFlux = new SpectralFlux(RECORDING_RATE);
+    private final NoiseGate noiseGate = new NoiseGate(DBLEVEL_THRES);
+    // Frames streamed up to the end of the window being processed, null if there are none
+    private float[] streamedFeatures;
+    private final float[] input1D = new float[SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS];
     //    private float [][][][] input4D = new float [1][96][64][1];
-    private float [][][] input3D = new float [1][96][64];
-    private float[][] output = new float[1][30];
+    private SoundClassifier soundClassifier;
+    // Scores of the last windows of about 1 second, a sound is broadcast when their max rises
+    // above its threshold, then every NOTIFY_REPEAT_MILLIS until it falls below
+    // SMOOTHING_OFFSET_RATIO of it. The mean would miss sounds shorter than half of the windows.
+    // Windows too quiet to classify are gaps, see PosteriorSmoother
+    private PosteriorSmoother smoother;
+    private static final PosteriorSmoother.Mode SMOOTHING_MODE = PosteriorSmoother.Mode.MAX_POOLING;
+    private static final int SMOOTHING_WINDOWS = 5;
+    private static final float SMOOTHING_OFFSET_RATIO = 0.75F;
+    private static final long SMOOTHING_MAX_GAP_MILLIS = 1000;
+    // MainActivity drops repeats of a label within 5 seconds
+    private static final long NOTIFY_REPEAT_MILLIS = 5000;
+    private final TopK topSoundLabel = new TopK(1);
+    private boolean tensorIoBenchmarked = false;
     private final String mOutputFileName;
-    private List<String> labels = new ArrayList<String>();
-    private Interpreter tfLite;
+    // Picks and persists the fastest interpreter options on first use
+    private InferenceEngine inferenceEngine;
 
     //    private static final int RECORDER_SAMPLERATE = 16000;
     private static final float PREDICTION_THRES = 0.5F;
@@ -111,8 +165,20 @@ public class SoundRecorder {
     private Set<String> connectedHostIds;
     private int ONE_SECOND_SOUND_COUNTER = 0;
 
-    protected Python py;
-    PyObject pythonModule;
+    private final PythonFeatureBridge pythonFeatureBridge;
+    private boolean pythonBridgeBenchmarked = false;
+
+    // Codec negotiation of the raw audio of the current recording, see CodecNegotiation. The
+    // answers of the phones arrive on the DataLayerListenerService thread
+    private static volatile int codecSession = -1;
+    private static final Map<String, String> negotiatedCodecs = new ConcurrentHashMap<>();
+
+    // Off phases of the duty cycle of ForegroundService: the recording goes on, but the capture
+    // thread releases the microphone until listening is set again. Guarded by listeningLock
+    private final Object listeningLock = new Object();
+    private boolean listening = true;
+    private long captureMillis = 0;
+    private long captureStart = -1;
 
     enum State {
         IDLE, RECORDING, PLAYING
@@ -126,17 +192,13 @@ public class SoundRecorder {
     public SoundRecorder(Context context, String outputFileName) {
         mOutputFileName = outputFileName;
         mContext = context;
+        pythonFeatureBridge = new PythonFeatureBridge(context);
         if (ARCHITECTURE.equals(WATCH_ONLY_ARCHITECTURE)) {
             //Load labels
             String actualLabelFilename = LABEL_FILENAME.split("file:///android_asset/", -1)[1];
-            BufferedReader br = null;
+            List<String> labels;
             try {
-                br = new BufferedReader(new InputStreamReader(mContext.getAssets().open(actualLabelFilename)));
-                String line;
-                while ((line = br.readLine()) != null) {
-                    labels.add(line);
-                }
-                br.close();
+                labels = Labels.load(mContext.getAssets().open(actualLabelFilename));
             } catch (IOException e) {
                 throw new RuntimeException("Problem reading label file!", e);
             }
@@ -144,30 +206,17 @@ public class SoundRecorder {
             //Load model
             String actualModelFilename = MODEL_FILENAME.split("file:///android_asset/", -1)[1];
             try {
-                tfLite = new Interpreter(loadModelFile(mContext.getAssets(), actualModelFilename));
+                inferenceEngine = new InferenceEngine(mContext, actualModelFilename);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            soundClassifier = new SoundClassifier(inferenceEngine, labels, PREDICTION_THRES);
+            smoother = new PosteriorSmoother(soundClassifier.getNumLabels(), SMOOTHING_WINDOWS,
+                    SMOOTHING_MODE, SMOOTHING_MAX_GAP_MILLIS);
+            smoother.setHysteresis(soundClassifier, SMOOTHING_OFFSET_RATIO);
         }
     }
 
-    /**
-     * Memory-map the model file in Assets.
-     * @param assets
-     * @param modelFilename
-     * @return
-     * @throws IOException
-     */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
-            throws IOException {
-        AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
-    }
-
     /**
      * Starts recording from the MIC.
      * @param connectedHostIds
@@ -191,6 +240,65 @@ public class SoundRecorder {
         }
     }
 
+    /**
+     * Start or end an off phase of the recording, the microphone is released until listening
+     * is set again. A recording started during an off phase waits for the next listening phase.
+     */
+    public void setListening(boolean listening) {
+        synchronized (listeningLock) {
+            this.listening = listening;
+            listeningLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return total time the microphone captured audio since the recorder was created, in
+     * milliseconds of SystemClock.elapsedRealtime
+     */
+    public long getCaptureMillis() {
+        synchronized (listeningLock) {
+            return captureMillis + (captureStart < 0 ? 0 : SystemClock.elapsedRealtime() - captureStart);
+        }
+    }
+
+    /**
+     * Wait for a listening phase.
+     * @return false if the recording was cancelled while waiting
+     */
+    private boolean awaitListening() {
+        synchronized (listeningLock) {
+            try {
+                while (!listening) {
+                    listeningLock.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    private void onCaptureStarted() {
+        synchronized (listeningLock) {
+            captureStart = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private void onCaptureStopped() {
+        synchronized (listeningLock) {
+            if (captureStart >= 0) {
+                captureMillis += SystemClock.elapsedRealtime() - captureStart;
+                captureStart = -1;
+            }
+        }
+    }
+
+    private boolean isListening() {
+        synchronized (listeningLock) {
+            return listening;
+        }
+    }
+
     /**
      * Cleans up some resources related to {@link AudioTrack} and {@link AudioRecord}
      */
@@ -198,56 +306,73 @@ public class SoundRecorder {
         stopRecording();
     }
 
+    /**
+     * Offer RAW_AUDIO_CODEC, or FEATURES_CODEC when features are sent, to the phones for a new
+     * recording. Raw audio is sent as PCM16 and features as FLOAT32 until they answer.
+     */
+    private void offerCodec() {
+        codecSession = new Random().nextInt(Integer.MAX_VALUE);
+        negotiatedCodecs.clear();
+        String offer = AUDIO_TRANMISSION_STYLE.equals(RAW_AUDIO_TRANSMISSION)
+                ? CodecNegotiation.offer(codecSession, RAW_AUDIO_CODEC, CodecNegotiation.PCM16)
+                : CodecNegotiation.offer(codecSession, FEATURES_CODEC, CodecNegotiation.FLOAT32);
+        for (String connectedHostId : connectedHostIds) {
+            Wearable.getMessageClient(mContext)
+                    .sendMessage(connectedHostId, AUDIO_CODEC_OFFER_FROM_WATCH_PATH, offer.getBytes());
+        }
+    }
+
+    /**
+     * Record the codec a phone chose, answers to the offer of an older recording are ignored.
+     * @param nodeId phone that answered
+     * @param answer answer to the offer, see CodecNegotiation
+     */
+    public static void onCodecAnswer(String nodeId, String answer) {
+        if (CodecNegotiation.session(answer) == codecSession) {
+            negotiatedCodecs.put(nodeId, CodecNegotiation.codec(answer));
+        }
+    }
+
+    /**
+     * @param fallback codec every phone decodes, PCM16 or FLOAT32
+     * @return the codec every connected phone agreed on, fallback if one of them has not answered
+     */
+    private String getNegotiatedCodec(String fallback) {
+        String codec = null;
+        for (String connectedHostId : connectedHostIds) {
+            String negotiated = negotiatedCodecs.get(connectedHostId);
+            if (negotiated == null || (codec != null && !codec.equals(negotiated))) {
+                return fallback;
+            }
+            codec = negotiated;
+        }
+        return codec == null ? fallback : codec;
+    }
+
     /**
      *
-     * @param soundBuffer
+     * @param soundBuffer read-only window of bufferElements2Rec samples
      * @param recordTime
+     * @param db loudness of the window, metered as it was captured
      * @return
      */
-    private String predictSoundsFromRawAudio(List<Short> soundBuffer, long recordTime) {
-        if (soundBuffer.size() != bufferElements2Rec) {
-            soundBuffer = new ArrayList<>();
+    private String predictSoundsFromRawAudio(ShortBuffer soundBuffer, long recordTime, double db) {
+        if (soundBuffer.remaining() != bufferElements2Rec) {
             return "Invalid audio size";
         }
-        short[] sData = new short[bufferElements2Rec];
-        for (int i = 0; i < soundBuffer.size(); i++) {
-            sData[i] = soundBuffer.get(i);
-        }
         try {
-            if (db(sData) >= DBLEVEL_THRES && sData.length > 0) {
-                if (py == null || pythonModule == null) {
-                    if (!Python.isStarted()) {
-                        Python.start(new AndroidPlatform(this.mContext));
-                    }
-
-                    py = Python.getInstance();
-                    pythonModule = py.getModule("main");
-                }
-
+            if (db >= DBLEVEL_THRES) {
+                soundBuffer.get(sData);
+                soundBuffer.rewind();
                 //Get MFCC features
-                PyObject mfccFeatures = pythonModule.callAttr("audio_samples", Arrays.toString(sData));   //System.out.println("Sending to python: " + Arrays.toString(sData));
-
-                //Parse features into a float array
-                String inputString = mfccFeatures.toString();
-                if (inputString.isEmpty()) {
+                if (computeFeatures(sData, input1D) < input1D.length) {
                     return "Empty MFCC feature";
                 }
-                inputString = inputString.replace("jarray('F')([", "").replace("])", "");
-                String[] inputStringArr = inputString.split(", ");
-                for (int i = 0; i < 6144; i++) {
-                    if (inputStringArr[i].isEmpty()) {
-                        return "Empty MFCC feature";
-                    }
-                    input1D[i] = Float.parseFloat(inputStringArr[i]);
-                }
 
-                // Resize to dimensions of model input
-                int count = 0;
-                for (int j = 0; j < 96; j++) {
-                    for (int k = 0; k < 64; k++) {
-                        input3D[0][j][k] = input1D[count];
-                        count++;
-                    }
+                if (TEST_MODEL_LATENCY && !tensorIoBenchmarked) {
+                    tensorIoBenchmarked = true;
+                    writeLatencyLog("watch_tensor_io.txt",
+                            inferenceEngine.benchmarkTensorIo(soundClassifier.getModelTensors(), input1D, 20));
                 }
 
                 long startTime = 0;
@@ -255,47 +380,32 @@ public class SoundRecorder {
                     startTime = System.currentTimeMillis();
 
                 //Run inference
-                tfLite.run(input3D, output);
+                soundClassifier.classify(input1D);
 
                 if(TEST_MODEL_LATENCY) {
                     long elapsedTime = System.currentTimeMillis() - startTime;
-                    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("hh:mm:ss");
-                    Date date = new Date(System.currentTimeMillis());
-                    String timeStamp = simpleDateFormat.format(date);
-
-                    try {
-                        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(mContext.openFileOutput("watch_model.txt", Context.MODE_APPEND));
-                        outputStreamWriter.write(timeStamp + "," +  Long.toString(elapsedTime) + "\n");
-                        outputStreamWriter.close();
-                    }
-                    catch (IOException e) {
-                        Log.e("Exception", "File write failed: " + e.toString());
-                    }
+                    writeLatencyLog("watch_model.txt", Long.toString(elapsedTime));
                 }
 
-                //Find max and argmax
-                float max = output[0][0];
-                int argmax = 0;
-                for (int i = 0; i < 30; i++) {
-                    if (max < output[0][i]) {
-                        max = output[0][i];
-                        argmax = i;
-                    }
-                }
+                // Smooth with the previous windows, and find the active label with the highest score
+                smoother.update(recordTime, soundClassifier);
+                if (smoother.shouldNotify(NOTIFY_REPEAT_MILLIS)) {
+                    smoother.topK(topSoundLabel);
+                    int argmax = topSoundLabel.getLabel(0);
+                    float max = topSoundLabel.getScore(0);
 
-                if (max > PREDICTION_THRES) {
                     //Get label and confidence
-                    final String prediction = labels.get(argmax);
+                    final String prediction = soundClassifier.getLabel(argmax);
                     final String confidence = String.format("%,.2f", max);
                     // Send prediction back to MainActivity
 
                     Intent broadcastIntent = new Intent();
                     broadcastIntent.setAction(mBroadcastSoundPrediction);
                     if (TEST_E2E_LATENCY) {
-                        String data = prediction + "," + confidence + "," + LocalTime.now() + "," + db(sData) + "," + recordTime;
+                        String data = prediction + "," + confidence + "," + LocalTime.now() + "," + db + "," + recordTime;
                         broadcastIntent.putExtra(AUDIO_LABEL, data);
                     } else {
-                        String data = prediction + "," + confidence + "," + LocalTime.now() + "," + db(sData);
+                        String data = prediction + "," + confidence + "," + LocalTime.now() + "," + db;
                         broadcastIntent.putExtra(AUDIO_LABEL, data);
                     }
                     mContext.sendBroadcast(broadcastIntent);
@@ -311,67 +421,160 @@ public class SoundRecorder {
         return "Unrecognized sound" + "                           " + LocalTime.now();
     }
 
-    public static byte[] toByteArray(double value) {
-        byte[] bytes = new byte[8];
-        ByteBuffer.wrap(bytes).putDouble(value);
-        return bytes;
-    }
-
-    private float[] extractAudioFeatures(List<Short> soundBuffer) {
-        float [] input1D = new float [6144];
-        if (soundBuffer.size() != bufferElements2Rec) {
-            // Sanity check, because sound has to be exactly 16000 elements
-            soundBuffer = new ArrayList<>();
+    private float[] extractAudioFeatures(ShortBuffer soundBuffer, double db) {
+        if (soundBuffer.remaining() != bufferElements2Rec) {
+            // Sanity check, because sound has to be exactly bufferElements2Rec elements
             Log.i(TAG, "Empty sound buffer to extract features");
             return null;
         }
-        short[] sData = new short[bufferElements2Rec];
-        for (int i = 0; i < soundBuffer.size(); i++) {
-            sData[i] = soundBuffer.get(i);
-        }
         try {
-            if (db(sData) >= DBLEVEL_THRES && sData.length > 0) {
-                // Lazily load python module to faster boot up processing
-                if (py == null || pythonModule == null) {
-                    synchronized (this) {
-                        if (!Python.isStarted()) {
-                            Python.start(new AndroidPlatform(this.mContext));
-                        }
-                    }
-
-                    py = Python.getInstance();
-                    pythonModule = py.getModule("main");
-                }
+            if (db >= DBLEVEL_THRES) {
+                soundBuffer.get(sData);
+                soundBuffer.rewind();
                 //Get MFCC features
-                PyObject mfccFeatures = pythonModule.callAttr("audio_samples", Arrays.toString(sData));   //System.out.println("Sending to python: " + Arrays.toString(sData));
-
-                //Parse features into a float array
-                String inputString = mfccFeatures.toString();
-                if (inputString.isEmpty()) {
-                    Log.i(TAG, "Empty features from Python");
+                if (computeFeatures(sData, input1D) < input1D.length) {
+                    Log.i(TAG, "Empty features from " + FEATURE_EXTRACTION_STYLE);
                     return null;
                 }
-                inputString = inputString.replace("jarray('F')([", "").replace("])", "");
-                String[] inputStringArr = inputString.split(", ");
-                for (int i = 0; i < 6144; i++) {
-                    if (inputStringArr[i].isEmpty()) {
-                        Log.i(TAG, "Empty feature element from Python");
-                        return null;
-                    }
-                    input1D[i] = Float.parseFloat(inputStringArr[i]);
-                }
                 return input1D;
             }
-            Log.i(TAG, "Null features because db is not enough" + db(sData));
+            Log.i(TAG, "Null features because db is not enough" + db);
             return null;
         } catch (PyException e) {
             Log.i(TAG, "Something went wrong parsing to MFCC feature");
             return null;
         }
     }
+    /**
+     * Compute the log mel features of a window of audio, either in Java or through the
+     * Python VGGish code depending on FEATURE_EXTRACTION_STYLE.
+     * @param sData window of audio samples
+     * @param features destination of the features
+     * @return number of features written to features
+     */
+    private int computeFeatures(short[] sData, float[] features) throws PyException {
+        switch (FEATURE_EXTRACTION_STYLE) {
+            case JAVA_FEATURE_EXTRACTION:
+                // Frames were already computed while the window was being recorded
+                if (streamedFeatures == null) {
+                    return 0;
+                }
+                int count = Math.min(streamedFeatures.length, features.length);
+                System.arraycopy(streamedFeatures, 0, features, 0, count);
+                return count;
+            case PYTHON_FEATURE_EXTRACTION:
+                if (TEST_MODEL_LATENCY && !pythonBridgeBenchmarked) {
+                    pythonBridgeBenchmarked = true;
+                    writeLatencyLog("watch_python_bridge.txt", pythonFeatureBridge.benchmark(sData, features, 20));
+                }
+                return pythonFeatureBridge.extract(sData, features);
+            case PYTHON_STRING_FEATURE_EXTRACTION:
+                return pythonFeatureBridge.extractWithStrings(sData, features);
+            default:
+                Log.i(TAG, "Invalid feature extraction style");
+                return 0;
+        }
+    }
+
+    private void writeLatencyLog(String fileName, String line) {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("hh:mm:ss");
+        String timeStamp = simpleDateFormat.format(new Date(System.currentTimeMillis()));
+        try {
+            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(mContext.openFileOutput(fileName, Context.MODE_APPEND));
+            outputStreamWriter.write(timeStamp + "," + line + "\n");
+            outputStreamWriter.close();
+        }
+        catch (IOException e) {
+            Log.e("Exception", "File write failed: " + e.toString());
+        }
+    }
+
+    /**
+     * Captures audio on a high priority thread that only reads and frames PCM. Frames are handed
+     * through an {@link AudioWindowQueue} to a worker thread that extracts features, runs the
+     * model and sends data, so a slow window never blocks the microphone reads. Reads are written
+     * to the recording file by a writer thread, through a queue of their own, so the capture
+     * thread does no disk I/O either. When the recording stops both threads finish the reads
+     * already queued.
+     *
+     * With JAVA_FEATURE_EXTRACTION the capture thread also pushes every read through
+     * {@link StreamingLogMel}, a few 10ms frames at a time, and queues a snapshot of the frames
+     * with each window. The worker then only has to run the model.
+     */
     private static class RecordAudioAsyncTask extends AsyncTask<Void, Void, Void> {
         private WeakReference<SoundRecorder> mSoundRecorderWeakReference;
         private AudioRecord mAudioRecord;
+        private final boolean sendToPhone = ARCHITECTURE.equals(PHONE_WATCH_ARCHITECTURE)
+                || ARCHITECTURE.equals(PHONE_WATCH_SERVER_ARCHITECTURE);
+        private final boolean sendRawAudio = AUDIO_TRANMISSION_STYLE.equals(RAW_AUDIO_TRANSMISSION) && sendToPhone;
+        private final boolean streamFeatures = !sendRawAudio
+                && FEATURE_EXTRACTION_STYLE.equals(JAVA_FEATURE_EXTRACTION);
+        // Windows the noise gate rejects are skipped on the capture thread before they are copied,
+        // unless their raw audio is sent anyway
+        private final boolean gateQuietWindows = ARCHITECTURE.equals(WATCH_ONLY_ARCHITECTURE)
+                || AUDIO_TRANMISSION_STYLE.equals(AUDIO_FEATURES_TRANSMISSION);
+        private long quietWindows = 0;
+        private final AudioWindowQueue windowQueue = new AudioWindowQueue(
+                sendRawAudio ? RAW_WINDOW_QUEUE_SIZE : WINDOW_QUEUE_SIZE,
+                sendRawAudio ? BUFFER_SIZE / 2 : Math.max(bufferElements2Rec, BUFFER_SIZE / 2),
+                streamFeatures ? SoundClassifier.NUM_FRAMES * SoundClassifier.NUM_BANDS : 0,
+                sendRawAudio ? AudioWindowQueue.OverrunPolicy.DROP_NEWEST : WINDOW_OVERRUN_POLICY);
+        private volatile boolean isProcessing;
+        // Every read, for the recording file
+        private final AudioWindowQueue recordingQueue = new AudioWindowQueue(RECORDING_QUEUE_SIZE,
+                BUFFER_SIZE / 2, AudioWindowQueue.OverrunPolicy.DROP_NEWEST);
+        private BufferedOutputStream recordingOutputStream;
+        // Sequence number of the next AudioFrame sent to the phone. It starts at a random value so
+        // the phone can tell a new recording from frames that arrive late
+        private int frameSequence = new Random().nextInt();
+        // Carries the IMA-ADPCM state from one raw audio frame to the next
+        private final ImaAdpcm adpcmEncoder = new ImaAdpcm();
+        // Scratch arrays of the FLOAT16 and INT8 feature codings
+        private final FeatureQuantizer featureQuantizer = new FeatureQuantizer();
+        // Sends the frames to the phone, created when the recording starts
+        private AudioTransport audioTransport;
+        // Groups the microphone reads into fewer, larger raw audio messages
+        private final AudioBatcher rawAudioBatcher = new AudioBatcher(RECORDING_RATE,
+                RAW_AUDIO_BATCH_MILLIS, RAW_AUDIO_BATCH_MAX_BYTES, new AudioBatcher.Sink() {
+            @Override
+            public void send(ShortBuffer samples, long captureTime, double db) {
+                sendRawAudioToPhone(samples, captureTime, db);
+            }
+        });
+        // With SOUND_EVENTS_RAW_AUDIO only the sound events are batched, the noise floor of the
+        // room is sent in heartbeats between them
+        private final boolean sendSoundEvents = sendRawAudio && RAW_AUDIO_MODE.equals(SOUND_EVENTS_RAW_AUDIO);
+        // The next raw audio frame starts a sound event or follows an off phase, the phone must not
+        // join it to the last
+        private boolean eventStart = false;
+        // Capture time and queue sequence of the last read sent. Reads further apart than
+        // CAPTURE_GAP_MILLIS are separated by an off phase of the duty cycle, a gap in the
+        // sequence means the queue dropped reads
+        private long lastRawRecordTime = -1;
+        private long lastRawSequence;
+        private final AudioSegmenter audioSegmenter = new AudioSegmenter(RECORDING_RATE, DBLEVEL_THRES,
+                RAW_AUDIO_PRE_ROLL_MILLIS, RAW_AUDIO_HANGOVER_MILLIS, bufferElements2Rec,
+                RAW_AUDIO_HEARTBEAT_MILLIS, new AudioSegmenter.Sink() {
+            @Override
+            public void send(ShortBuffer samples, long captureTime, long energy, int voiced, boolean start) {
+                if (start) {
+                    rawAudioBatcher.flush();
+                    eventStart = true;
+                }
+                rawAudioBatcher.add(samples, captureTime, energy, voiced);
+            }
+
+            @Override
+            public void end() {
+                rawAudioBatcher.flush();
+            }
+
+            @Override
+            public void heartbeat(long time, double noiseFloor) {
+                audioTransport.send(AudioFrame.encodeHeartbeat(frameSequence++, time, RECORDING_RATE,
+                        (float) noiseFloor));
+            }
+        });
 
         RecordAudioAsyncTask(SoundRecorder context) {
             mSoundRecorderWeakReference = new WeakReference<>(context);
@@ -390,66 +593,255 @@ public class SoundRecorder {
         @Override
         protected Void doInBackground(Void... params) {
             final SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
-            mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
-                    RECORDING_RATE, CHANNEL_IN, FORMAT, BUFFER_SIZE * 3);
-            BufferedOutputStream bufferedOutputStream = null;
             try {
-                bufferedOutputStream = new BufferedOutputStream(
+                recordingOutputStream = new BufferedOutputStream(
                         soundRecorder.mContext.openFileOutput(
                                 soundRecorder.mOutputFileName,
                                 Context.MODE_PRIVATE));
                 final byte[] buffer = new byte[BUFFER_SIZE];
-                mAudioRecord.startRecording();
+                soundRecorder.soundBuffer.clear();
+                soundRecorder.streamingLogMel.reset();
+                soundRecorder.spectralFlux.reset();
+                soundRecorder.noiseGate.reset();
+                audioTransport = AUDIO_TRANSPORT.equals(CHANNEL_TRANSPORT)
+                        ? new ChannelAudioTransport(soundRecorder.mContext, soundRecorder.connectedHostIds)
+                        : new MessageAudioTransport(soundRecorder.mContext, soundRecorder.connectedHostIds);
+                if (sendToPhone) {
+                    soundRecorder.offerCodec();
+                }
+                isProcessing = true;
+                processingThread.start();
+                recordingThread.start();
+                // AsyncTask runs with background priority, raise it while we own the microphone
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
                 while (!isCancelled()) {
+                    if (mAudioRecord == null) {
+                        // Start of the recording or of a listening phase of the duty cycle
+                        if (!soundRecorder.awaitListening()) {
+                            break;
+                        }
+                        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
+                                RECORDING_RATE, CHANNEL_IN, FORMAT, BUFFER_SIZE * 3);
+                        mAudioRecord.startRecording();
+                        soundRecorder.onCaptureStarted();
+                    } else if (!soundRecorder.isListening()) {
+                        // Off phase, release the microphone. Windows must not span the gap, the
+                        // noise floor is kept
+                        releaseAudioRecord(soundRecorder);
+                        soundRecorder.soundBuffer.clear();
+                        soundRecorder.streamingLogMel.reset();
+                        soundRecorder.spectralFlux.reset();
+                        continue;
+                    }
                     int read = mAudioRecord.read(buffer, 0, buffer.length);
 //                    Log.i(DEBUG_TAG, read + ", " + buffer.length);
-                    short[] shorts = convertByteArrayToShortArray(buffer);
-                    if (AUDIO_TRANMISSION_STYLE.equals(RAW_AUDIO_TRANSMISSION)
-                            && (ARCHITECTURE.equals(PHONE_WATCH_ARCHITECTURE) || ARCHITECTURE.equals(PHONE_WATCH_SERVER_ARCHITECTURE))) {
+                    if (read < 0) {
+                        Log.e(TAG, "AudioRecord read failed: " + read);
+                        break;
+                    }
+                    long recordTime = System.currentTimeMillis();
+                    if (sendRawAudio) {
                         // For raw audio tranmission, we need to send the buffer all the time
                         // Not waiting for the short buffer to build up
-                        processAudioRecognition(null, buffer);
-                    }
-                    if (soundRecorder.soundBuffer.size() <= bufferElements2Rec) {
-                        for (short num : shorts) {
-                            if (soundRecorder.soundBuffer.size() == bufferElements2Rec) {
-                                final List<Short> tempBuffer = soundRecorder.soundBuffer;
-//                                Log.i(DEBUG_TAG, String.valueOf(tempBuffer));
-                                processAudioRecognition(tempBuffer, buffer);
-                                soundRecorder.soundBuffer = new ArrayList<>();
-                            }
-                            soundRecorder.soundBuffer.add(num);
-                        }
+                        windowQueue.offerPcm16(buffer, 0, read, recordTime);
+                    } else {
+                        frameAudio(soundRecorder, buffer, read, recordTime);
                     }
-                    bufferedOutputStream.write(buffer, 0, read);
+                    recordingQueue.offerPcm16(buffer, 0, read, recordTime);
                 }
             } catch (IOException | NullPointerException | IndexOutOfBoundsException e) {
                 Log.e(TAG, "Failed to record data: " + e);
             } finally {
-                if (bufferedOutputStream != null) {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                // The threads finish the reads already queued, then stop
+                isProcessing = false;
+                joinQuietly(processingThread);
+                joinQuietly(recordingThread);
+                if (recordingThread.getState() == Thread.State.NEW && recordingOutputStream != null) {
+                    // The recording failed before the writer started, it did not take the file
                     try {
-                        bufferedOutputStream.close();
+                        recordingOutputStream.close();
                     } catch (IOException e) {
                         // ignore
                     }
                 }
-                mAudioRecord.release();
-                mAudioRecord = null;
+                Log.i(TAG, "Capture stopped, windows: " + windowQueue.getOfferedWindows()
+                        + ", dropped: " + windowQueue.getDroppedWindows() + ", quiet: " + quietWindows
+                        + ", left out of the recording file: " + recordingQueue.getDroppedWindows());
+                if (gateQuietWindows) {
+                    Log.i(TAG, "Noise gate: " + soundRecorder.noiseGate.getReport());
+                }
+                if (mAudioRecord != null) {
+                    releaseAudioRecord(soundRecorder);
+                }
             }
             return null;
         }
 
-        private void processAudioRecognition(List<Short> soundBuffer, byte[] buffer) {
-            long recordTime = System.currentTimeMillis();
+        /**
+         * Wait for a thread to finish, even though cancel(true) interrupted the capture thread.
+         */
+        private void joinQuietly(Thread thread) {
+            if (thread.getState() == Thread.State.NEW) {
+                return;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return the next window of a queue, or null once the recording stopped and the queue
+         * is empty
+         */
+        private ShortBuffer takeUntilStopped(AudioWindowQueue queue) {
+            while (true) {
+                ShortBuffer window = queue.take(1, TimeUnit.SECONDS);
+                if (window != null) {
+                    return window;
+                }
+                // Windows offered before the recording stopped are visible once it is seen stopped
+                if (!isProcessing && queue.size() == 0) {
+                    return null;
+                }
+            }
+        }
+
+        private void releaseAudioRecord(SoundRecorder soundRecorder) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+            if (soundRecorder != null) {
+                soundRecorder.onCaptureStopped();
+            }
+        }
+
+        /**
+         * Split a read into windows. The read is written up to the end of each window, so the
+         * frames streamed so far end with the window they are queued with.
+         */
+        private void frameAudio(SoundRecorder soundRecorder, byte[] buffer, int read, long recordTime) {
+            AudioRingBuffer soundBuffer = soundRecorder.soundBuffer;
+            int offset = 0;
+            while (offset < read) {
+                int length = Math.min(read - offset, 2 * soundBuffer.samplesUntilWindow());
+                soundBuffer.writePcm16(buffer, offset, length);
+                if (streamFeatures) {
+                    soundRecorder.streamingLogMel.writePcm16(buffer, offset, length);
+                }
+                if (gateQuietWindows) {
+                    soundRecorder.spectralFlux.writePcm16(buffer, offset, length);
+                }
+                offset += length;
+                while (soundBuffer.hasWindow()) {
+                    double db = soundBuffer.windowDb();
+                    if (gateQuietWindows
+                            && !soundRecorder.noiseGate.accept(db, soundRecorder.spectralFlux.takePeakFlux())) {
+                        soundBuffer.skipWindow();
+                        quietWindows++;
+                        continue;
+                    }
+                    windowQueue.offer(soundBuffer.nextWindow(),
+                            streamFeatures ? soundRecorder.streamingLogMel : null, recordTime, db);
+                }
+            }
+        }
+
+        private final Thread processingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                ShortBuffer window;
+                while ((window = takeUntilStopped(windowQueue)) != null) {
+                    try {
+                        SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
+                        if (soundRecorder == null) {
+                            break;
+                        }
+                        soundRecorder.streamedFeatures = windowQueue.getFeatures();
+                        processAudioRecognition(window, windowQueue.getRecordTime(), windowQueue.getDb());
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to process audio window: " + e);
+                    } finally {
+                        windowQueue.release();
+                    }
+                }
+                SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
+                if (sendRawAudio && soundRecorder != null) {
+                    // Send what is left of the last batch before the recording stops
+                    if (sendSoundEvents) {
+                        audioSegmenter.flush();
+                        Log.i(TAG, "Sound events: " + audioSegmenter.getReport());
+                    }
+                    rawAudioBatcher.flush();
+                    String report = rawAudioBatcher.getReport();
+                    Log.i(TAG, "Raw audio batching: " + report);
+                    if (TEST_E2E_LATENCY) {
+                        soundRecorder.writeLatencyLog("watch_audio_batching.txt", report);
+                    }
+                }
+                if (audioTransport != null) {
+                    audioTransport.close();
+                    String report = audioTransport.getStats().getReport();
+                    Log.i(TAG, "Audio transport: " + report);
+                    if (TEST_E2E_LATENCY && soundRecorder != null) {
+                        soundRecorder.writeLatencyLog("watch_audio_transport.txt", report);
+                    }
+                }
+            }
+        }, "SoundRecorderWorker");
+
+        private final Thread recordingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                byte[] pcm = new byte[BUFFER_SIZE];
+                boolean failed = false;
+                ShortBuffer read;
+                while ((read = takeUntilStopped(recordingQueue)) != null) {
+                    try {
+                        if (!failed) {
+                            int length = read.remaining();
+                            for (int i = 0; i < length; i++) {
+                                short sample = read.get(i);
+                                pcm[2 * i] = (byte) sample;
+                                pcm[2 * i + 1] = (byte) (sample >> 8);
+                            }
+                            recordingOutputStream.write(pcm, 0, 2 * length);
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to write the recording file: " + e);
+                        failed = true;
+                    } finally {
+                        recordingQueue.release();
+                    }
+                }
+                try {
+                    recordingOutputStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }, "SoundRecorderWriter");
+
+        private void processAudioRecognition(ShortBuffer soundBuffer, long recordTime, double db) {
 //            Log.i(TAG, "Record time from watch is: " + recordTime);
             switch (ARCHITECTURE) {
                 case WATCH_ONLY_ARCHITECTURE:
-                    predictSoundsFromRawAudio(soundBuffer, recordTime);
+                    predictSoundsFromRawAudio(soundBuffer, recordTime, db);
                     break;
                 case WATCH_SERVER_ARCHITECTURE:
                     switch (AUDIO_TRANMISSION_STYLE) {
                         case AUDIO_FEATURES_TRANSMISSION:
-                            sendSoundFeaturesToServer(soundBuffer, recordTime);
+                            sendSoundFeaturesToServer(soundBuffer, recordTime, db);
                             break;
                         case RAW_AUDIO_TRANSMISSION:
                             sendRawAudioToServer(soundBuffer, recordTime);
@@ -467,10 +859,29 @@ public class SoundRecorder {
                      */
                     switch (AUDIO_TRANMISSION_STYLE) {
                         case AUDIO_FEATURES_TRANSMISSION:
-                            sendSoundFeaturesToPhone(soundBuffer, recordTime);
+                            sendSoundFeaturesToPhone(soundBuffer, recordTime, db);
                             break;
                         case RAW_AUDIO_TRANSMISSION:
-                            sendRawAudioToPhone(buffer, recordTime);
+                            long sequence = windowQueue.getSequence();
+                            if (lastRawRecordTime >= 0 && (sequence != lastRawSequence + 1
+                                    || recordTime - lastRawRecordTime > CAPTURE_GAP_MILLIS)) {
+                                // Reads were dropped or the microphone was off, the audio does not
+                                // follow the last audio sent
+                                if (sendSoundEvents) {
+                                    audioSegmenter.flush();
+                                } else {
+                                    rawAudioBatcher.flush();
+                                    eventStart = true;
+                                }
+                            }
+                            lastRawRecordTime = recordTime;
+                            lastRawSequence = sequence;
+                            if (sendSoundEvents) {
+                                audioSegmenter.write(soundBuffer, recordTime);
+                            } else {
+                                rawAudioBatcher.add(soundBuffer, recordTime, windowQueue.getEnergy(),
+                                        windowQueue.getVoiced());
+                            }
                             break;
                         default:
                             Log.i(TAG, "Invalid tranmission style");
@@ -483,90 +894,59 @@ public class SoundRecorder {
             }
         }
 
-        private String predictSoundsFromRawAudio(List<Short> soundBuffer, long recordTime) {
-            if (soundBuffer.size() != bufferElements2Rec) {
+        private String predictSoundsFromRawAudio(ShortBuffer soundBuffer, long recordTime, double db) {
+            if (soundBuffer.remaining() != bufferElements2Rec) {
                 return "Invalid audio size";
             }
             SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
-            return soundRecorder.predictSoundsFromRawAudio(soundBuffer, recordTime);
+            return soundRecorder.predictSoundsFromRawAudio(soundBuffer, recordTime, db);
         }
 
-        private void sendSoundFeaturesToPhone(List<Short> soundBuffer, long recordTime) {
-            try {
-                JSONObject jsonObject = new JSONObject();
-                SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
-                float[] features = soundRecorder.extractAudioFeatures(soundBuffer);
-
-                if (features == null) {
-                    return;
-                }
-                ByteArrayOutputStream bas = new ByteArrayOutputStream();
-                DataOutputStream ds = new DataOutputStream(bas);
-                for (float f : features)
-                    ds.writeFloat(f);
-                /**
-                 * Send data in form of (db loudness + features array)
-                 * where loudness is a double of 8 byte and features is a byte array representing
-                 * array of shorts
-                 */
-                byte[] featuresData = bas.toByteArray();
-                double db = Math.abs(db(soundBuffer));
-                byte[] dbData = toByteArray(db);
-                Log.i(TAG, "Loudness db sent from watch: " + db);
-
-                byte [] data = null;
-
-                if(TEST_E2E_LATENCY) {
-                    byte [] currentTimeData = longToBytes(recordTime);
-                    Log.i(TAG, "Current time sent from watch: " + recordTime);
-                    data = new byte[currentTimeData.length + dbData.length + featuresData.length];
-                    System.arraycopy(currentTimeData, 0, data, 0, currentTimeData.length);
-                    System.arraycopy(dbData, 0, data, currentTimeData.length, dbData.length);
-                    System.arraycopy(featuresData, 0, data, currentTimeData.length + dbData.length, featuresData.length);
-                }
-                else {
-                    data = new byte[dbData.length + featuresData.length];
-                    System.arraycopy(dbData, 0, data, 0, dbData.length);
-                    System.arraycopy(featuresData, 0, data, dbData.length, featuresData.length);
-                }
+        private void sendSoundFeaturesToPhone(ShortBuffer soundBuffer, long recordTime, double db) {
+            SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
+            float[] features = soundRecorder.extractAudioFeatures(soundBuffer, db);
 
-                for (String connectedHostId : soundRecorder.connectedHostIds) {
-                    //Log.d(TAG, "Sending audio data to phone");
-                    Task<Integer> sendMessageTask =
-                            Wearable.getMessageClient(soundRecorder.mContext)
-                                    .sendMessage(connectedHostId, AUDIO_MESSAGE_PATH, data);
-                }
-            } catch (IOException e){
-                Log.i(TAG, "ERROR occured while parsing float features to bytes");
+            if (features == null) {
+                return;
+            }
+            Log.i(TAG, "Loudness db sent from watch: " + db);
+            String codec = soundRecorder.getNegotiatedCodec(CodecNegotiation.FLOAT32);
+            byte[] data;
+            if (codec.equals(CodecNegotiation.FLOAT16)) {
+                data = AudioFrame.encodeQuantizedFeatures(AudioFrame.TYPE_FEATURES_FLOAT16, frameSequence++,
+                        recordTime, RECORDING_RATE, (float) db, features, 0, features.length, featureQuantizer);
+            } else if (codec.equals(CodecNegotiation.INT8)) {
+                data = AudioFrame.encodeQuantizedFeatures(AudioFrame.TYPE_FEATURES_INT8, frameSequence++,
+                        recordTime, RECORDING_RATE, (float) db, features, 0, features.length, featureQuantizer);
+            } else {
+                data = AudioFrame.encodeFeatures(frameSequence++, recordTime, RECORDING_RATE,
+                        (float) db, features, 0, features.length);
             }
+            audioTransport.send(data);
         }
 
 
         /**
          *
-         * @param buffer
-         * @param recordTime
+         * @param soundBuffer batch of audio, see rawAudioBatcher
+         * @param recordTime capture time of the first read of the batch
+         * @param db loudness of the batch, metered as the reads were captured
          */
-        private void sendRawAudioToPhone(byte[] buffer, long recordTime) {
+        private void sendRawAudioToPhone(ShortBuffer soundBuffer, long recordTime, double db) {
             SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
-            if (TEST_E2E_LATENCY) {
-                byte[] currentTimeData = longToBytes(recordTime);
-                byte[] data = new byte[currentTimeData.length + buffer.length];
-                System.arraycopy(currentTimeData, 0, data, 0, currentTimeData.length);
-                System.arraycopy(buffer, 0, data, currentTimeData.length, buffer.length);
-                for (String connectedHostId : soundRecorder.connectedHostIds) {
-                    Task<Integer> sendMessageTask =
-                            Wearable.getMessageClient(soundRecorder.mContext)
-                                    .sendMessage(connectedHostId, AUDIO_MESSAGE_PATH, data)
-                            ;
-                }
+            // One allocation per message, the samples are encoded straight into it
+            byte[] data;
+            if (soundRecorder != null && soundRecorder.getNegotiatedCodec(CodecNegotiation.PCM16).equals(CodecNegotiation.IMA_ADPCM)) {
+                data = AudioFrame.encodeImaAdpcm(frameSequence++, recordTime, RECORDING_RATE, (float) db,
+                        soundBuffer, adpcmEncoder);
             } else {
-                for (String connectedHostId : soundRecorder.connectedHostIds) {
-                    Task<Integer> sendMessageTask =
-                            Wearable.getMessageClient(soundRecorder.mContext)
-                                    .sendMessage(connectedHostId, AUDIO_MESSAGE_PATH, buffer);
-                }
+                data = AudioFrame.encodePcm16(frameSequence++, recordTime, RECORDING_RATE, (float) db, soundBuffer);
             }
+            if (eventStart) {
+                AudioFrame.setFlags(data, AudioFrame.FLAG_DISCONTINUITY);
+                eventStart = false;
+            }
+            audioTransport.send(data);
         }
 
         /**
@@ -574,19 +954,19 @@ public class SoundRecorder {
          * @param soundBuffer
          * @param recordTime
          */
-        private void sendSoundFeaturesToServer(List<Short> soundBuffer, long recordTime) {
+        private void sendSoundFeaturesToServer(ShortBuffer soundBuffer, long recordTime, double db) {
             try {
                 Log.i(TAG, "sendSoundFeaturesToServer()");
                 JSONObject jsonObject = new JSONObject();
                 SoundRecorder soundRecorder = mSoundRecorderWeakReference.get();
 
-                float[] features = soundRecorder.extractAudioFeatures(soundBuffer);
+                float[] features = soundRecorder.extractAudioFeatures(soundBuffer, db);
                 if (features == null) {
                     Log.i(TAG, "Received Null Features");
                     return;
                 }
                 jsonObject.put("data", new JSONArray(features));
-                jsonObject.put("db", Math.abs(db(soundBuffer)));
+                jsonObject.put("db", db);
                 jsonObject.put("time", "" + System.currentTimeMillis());
 
                 if(TEST_E2E_LATENCY)
@@ -606,15 +986,19 @@ public class SoundRecorder {
          * @param soundBuffer
          * @param recordTime
          */
-        private void sendRawAudioToServer(List<Short> soundBuffer, long recordTime) {
+        private void sendRawAudioToServer(ShortBuffer soundBuffer, long recordTime) {
             try {
                 JSONObject jsonObject = new JSONObject();
-                jsonObject.put("data", new JSONArray(soundBuffer));
+                JSONArray samples = new JSONArray();
+                for (int i = soundBuffer.position(); i < soundBuffer.limit(); i++) {
+                    samples.put(soundBuffer.get(i));
+                }
+                jsonObject.put("data", samples);
                 jsonObject.put("time", "" + System.currentTimeMillis());
                 if (TEST_E2E_LATENCY) {
                     jsonObject.put("record_time", recordTime);
                 }
-                Log.i(TAG, "Sending audio data: " + soundBuffer.size());
+                Log.i(TAG, "Sending audio data: " + soundBuffer.remaining());
                 MainActivity.mSocket.emit("audio_data", jsonObject);
             } catch (JSONException e) {
                 e.printStackTrace();